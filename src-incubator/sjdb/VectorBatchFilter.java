@@ -0,0 +1,102 @@
+package sjdb;
+
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * This class is the BatchFilter on the incubating Vector API, which compares
+ * as many values at once as the processor's vector registers hold, and turns
+ * the lanes that pass into rows of the selection vector. It is only used for
+ * batches with no selection vector (whose values are contiguous), and leaves
+ * the others to the plain Java implementation.
+ *
+ * It needs the jdk.incubator.vector module to compile and run (see README),
+ * so it is kept out of the main source tree; BatchFilter.getDefault() uses it
+ * if it can be loaded.
+ */
+public class VectorBatchFilter implements BatchFilter {
+	private static final VectorSpecies<Long> SPECIES = LongVector.SPECIES_PREFERRED;
+
+	private final BatchFilter scalar = new BatchFilter.Scalar();
+
+	public int selectEqual(long[] column, long value, int count, int[] in, int[] out) {
+		if (in != null) {
+			return scalar.selectEqual(column, value, count, in, out);
+		}
+		int n = 0;
+		int i = 0;
+		for (; i < SPECIES.loopBound(count); i += SPECIES.length()) {
+			n = addRows(LongVector.fromArray(SPECIES, column, i).eq(value), i, out, n);
+		}
+		for (; i < count; i++) {
+			out[n] = i;
+			n += column[i] == value ? 1 : 0;
+		}
+		return n;
+	}
+
+	public int selectNotEqual(long[] column, long value, int count, int[] in, int[] out) {
+		if (in != null) {
+			return scalar.selectNotEqual(column, value, count, in, out);
+		}
+		int n = 0;
+		int i = 0;
+		for (; i < SPECIES.loopBound(count); i += SPECIES.length()) {
+			LongVector v = LongVector.fromArray(SPECIES, column, i);
+			n = addRows(v.compare(VectorOperators.NE, value).and(v.compare(VectorOperators.NE, ValueDictionary.NULL)), i, out, n);
+		}
+		for (; i < count; i++) {
+			long v = column[i];
+			out[n] = i;
+			n += v != value & v != ValueDictionary.NULL ? 1 : 0;
+		}
+		return n;
+	}
+
+	public int selectBetween(long[] column, long lower, long upper, int count, int[] in, int[] out) {
+		if (in != null) {
+			return scalar.selectBetween(column, lower, upper, count, in, out);
+		}
+		long width = upper - lower;
+		int n = 0;
+		int i = 0;
+		for (; i < SPECIES.loopBound(count); i += SPECIES.length()) {
+			LongVector v = LongVector.fromArray(SPECIES, column, i).sub(lower);
+			n = addRows(v.compare(VectorOperators.UNSIGNED_LE, width), i, out, n);
+		}
+		for (; i < count; i++) {
+			out[n] = i;
+			n += Long.compareUnsigned(column[i] - lower, width) <= 0 ? 1 : 0;
+		}
+		return n;
+	}
+
+	public int selectEqualColumns(long[] left, long[] right, int count, int[] in, int[] out) {
+		if (in != null) {
+			return scalar.selectEqualColumns(left, right, count, in, out);
+		}
+		int n = 0;
+		int i = 0;
+		for (; i < SPECIES.loopBound(count); i += SPECIES.length()) {
+			LongVector l = LongVector.fromArray(SPECIES, left, i);
+			n = addRows(l.eq(LongVector.fromArray(SPECIES, right, i)).and(l.compare(VectorOperators.NE, ValueDictionary.NULL)), i, out, n);
+		}
+		for (; i < count; i++) {
+			out[n] = i;
+			n += left[i] == right[i] & left[i] != ValueDictionary.NULL ? 1 : 0;
+		}
+		return n;
+	}
+
+	// Write the rows of the lanes set in a mask, from the row of its first lane
+	private static int addRows(VectorMask<Long> mask, int first, int[] out, int n) {
+		long bits = mask.toLong();
+		while (bits != 0) {
+			out[n++] = first + Long.numberOfTrailingZeros(bits);
+			bits &= bits - 1;
+		}
+		return n;
+	}
+}
@@ -0,0 +1,196 @@
+package sjdb;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * This class analyses data files to build the system catalogue, in the format
+ * read by CatalogueParser. Each relation is a CSV file named after it, for
+ * example Person.csv, whose first line holds the attribute names:
+ *
+ * persid,persname,age
+ * 1,Smith,36
+ *
+ * Every file is read once, with the statistics of each column gathered by a
+ * ColumnStatistics in bounded memory, so that analysing a large relation costs
+ * no more than reading it. Files are analysed in parallel. Fields are split at
+ * every comma (there is no quoting), and empty fields are taken to be null and
+ * left out of the statistics. The catalogue also records the average width of
+ * each attribute's values, for the cost model.
+ *
+ * Usage: java sjdb.Analyser [-o catalogue] [-t threads] [-s seed] file-or-directory...
+ */
+public class Analyser {
+	private int parallelism;
+	private long seed;
+
+	public Analyser() {
+		this.parallelism = Runtime.getRuntime().availableProcessors();
+		this.seed = 0;
+	}
+
+	/**
+	 * Set the number of files analysed at once
+	 * @param parallelism number of threads
+	 */
+	public void setParallelism(int parallelism) {
+		if (parallelism < 1) {
+			throw new IllegalArgumentException("Parallelism must be at least 1");
+		}
+		this.parallelism = parallelism;
+	}
+
+	/**
+	 * Set the seed for the samples taken for histograms, so that analysing
+	 * the same files gives the same catalogue
+	 * @param seed
+	 */
+	public void setSeed(long seed) {
+		this.seed = seed;
+	}
+
+	/**
+	 * Analyse data files and write their catalogue lines, in the order of the files
+	 * @param files CSV files, one per relation
+	 * @param out where to write the catalogue
+	 * @throws IOException
+	 */
+	public void analyse(List<File> files, Writer out) throws IOException {
+		List<Callable<String>> tasks = new ArrayList<Callable<String>>();
+		for (File file : files) {
+			tasks.add(() -> analyse(file));
+		}
+
+		ForkJoinPool pool = new ForkJoinPool(parallelism);
+		try {
+			for (Future<String> result : pool.invokeAll(tasks)) {
+				out.write(result.get());
+				out.write(System.lineSeparator());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Analysis interrupted", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new RuntimeException(e.getCause());
+		} finally {
+			pool.shutdown();
+		}
+		out.flush();
+	}
+
+	/**
+	 * Analyse one data file
+	 * @param file CSV file named after its relation
+	 * @return the catalogue line for the relation
+	 * @throws IOException
+	 */
+	public String analyse(File file) throws IOException {
+		String name = file.getName();
+		if (name.lastIndexOf('.') > 0) {
+			name = name.substring(0, name.lastIndexOf('.'));
+		}
+
+		try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+			String header = reader.readLine();
+			if (header == null) {
+				throw new IOException("No header line in " + file);
+			}
+			String[] names = header.split(",");
+			ColumnStatistics[] columns = new ColumnStatistics[names.length];
+			for (int i = 0; i < names.length; i++) {
+				names[i] = names[i].trim();
+				// Seeded per column, so the result does not depend on the order files are analysed in
+				columns[i] = new ColumnStatistics(names[i], seed ^ HyperLogLog.hash(name + ":" + names[i]));
+			}
+
+			long tuples = 0;
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (line.isEmpty()) {
+					continue;
+				}
+				int start = 0;
+				for (int i = 0; i < columns.length; i++) {
+					int end = line.indexOf(',', start);
+					if (end < 0) {
+						end = line.length();
+					}
+					if (end > start) {
+						columns[i].add(line.substring(start, end));
+					}
+					start = end + 1;
+					if (start > line.length()) {
+						break;
+					}
+				}
+				tuples++;
+			}
+
+			StringBuilder sb = new StringBuilder();
+			sb.append(name).append(":").append(tuples);
+			for (ColumnStatistics column : columns) {
+				sb.append(":").append(column.getName()).append(",").append(column.getValueCount());
+				if (column.getWidth() > 0) {
+					sb.append(",width=").append(column.getWidth());
+				}
+				Histogram histogram = column.getHistogram();
+				if (histogram != null && !histogram.render().isEmpty()) {
+					sb.append(",").append(histogram.render());
+				}
+			}
+			return sb.toString();
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		Analyser analyser = new Analyser();
+		String output = null;
+		List<File> files = new ArrayList<File>();
+
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-o")) {
+				output = args[++i];
+			} else if (args[i].equals("-t")) {
+				analyser.setParallelism(Integer.parseInt(args[++i]));
+			} else if (args[i].equals("-s")) {
+				analyser.setSeed(Long.parseLong(args[++i]));
+			} else {
+				File file = new File(args[i]);
+				if (file.isDirectory()) {
+					File[] csvFiles = file.listFiles((dir, name) -> name.endsWith(".csv"));
+					Arrays.sort(csvFiles);
+					files.addAll(Arrays.asList(csvFiles));
+				} else {
+					files.add(file);
+				}
+			}
+		}
+
+		if (files.isEmpty()) {
+			System.err.println("Usage: java sjdb.Analyser [-o catalogue] [-t threads] [-s seed] file-or-directory...");
+			System.exit(1);
+		}
+
+		Writer out = output == null ? new OutputStreamWriter(System.out) : new FileWriter(output);
+		try (PrintWriter writer = new PrintWriter(out)) {
+			analyser.analyse(files, writer);
+		}
+	}
+}
@@ -3,31 +3,119 @@
  */
 package sjdb;
 
+import java.util.BitSet;
+import java.util.List;
+
 /**
+ * Attributes created by the Catalogue have a dense integer id, so that sets
+ * of attributes can be held as BitSets of ids. Attributes created elsewhere
+ * (for example, by name only) have no id, and are compared by name.
+ * 
+ * An attribute may also carry a Histogram of its values, for attributes whose
+ * values are too skewed to be treated as uniform, and the average width of its
+ * values in bytes (DEFAULT_WIDTH if not known), for the cost model.
+ * 
  * @author nmg
  *
  */
 public class Attribute {
+	public static final int DEFAULT_WIDTH = 8;
 
 	private String name;
-	private int values;
+	private long values;
+	private int id;
+	private Histogram histogram;
+	private int width;
 
 	public Attribute(String name) {
 		this.name = name;
 		this.values = 0;
+		this.id = -1;
+	}
+	/**
+	 * @param name
+	 * @param values
+	 */
+	public Attribute(String name, long values) {
+		this.name = name;
+		this.values = values;
+		this.id = -1;
+	}
+	
+	/**
+	 * @param name
+	 * @param values
+	 * @param id
+	 */
+	public Attribute(String name, long values, int id) {
+		this.name = name;
+		this.values = values;
+		this.id = id;
 	}
+	
 	/**
 	 * @param name
 	 * @param values
+	 * @param id
+	 * @param histogram distribution of the values, or null if they are uniform
 	 */
-	public Attribute(String name, int values) {
+	public Attribute(String name, long values, int id, Histogram histogram) {
 		this.name = name;
 		this.values = values;
+		this.id = id;
+		this.histogram = histogram;
+	}
+	
+	/**
+	 * @param name
+	 * @param values
+	 * @param id
+	 * @param histogram distribution of the values, or null if they are uniform
+	 * @param width average width of the values in bytes, or 0 if not known
+	 */
+	public Attribute(String name, long values, int id, Histogram histogram, int width) {
+		this.name = name;
+		this.values = values;
+		this.id = id;
+		this.histogram = histogram;
+		this.width = width;
 	}
 	
 	public Attribute(Attribute attr) {
 		this.name = attr.name;
 		this.values = attr.values;
+		this.id = attr.id;
+		this.histogram = attr.histogram;
+		this.width = attr.width;
+	}
+	
+	/**
+	 * Copy an attribute with a different number of distinct values, keeping
+	 * its histogram
+	 * @param attr
+	 * @param values
+	 */
+	public Attribute(Attribute attr, long values) {
+		this.name = attr.name;
+		this.values = values;
+		this.id = attr.id;
+		this.histogram = attr.histogram;
+		this.width = attr.width;
+	}
+	
+	/**
+	 * Copy an attribute with a different number of distinct values and
+	 * distribution of values
+	 * @param attr
+	 * @param values
+	 * @param histogram distribution of the values, or null if they are uniform
+	 */
+	public Attribute(Attribute attr, long values, Histogram histogram) {
+		this.name = attr.name;
+		this.values = values;
+		this.id = attr.id;
+		this.histogram = histogram;
+		this.width = attr.width;
 	}
 	
 	/**
@@ -40,10 +128,48 @@ public class Attribute {
 	/**
 	 * @return the number of distinct values taken by this attribute
 	 */
-	public int getValueCount() {
+	public long getValueCount() {
 		return values;
 	}
 	
+	/**
+	 * @return the distribution of the values of this attribute, or null if
+	 * they are assumed to be uniform
+	 */
+	public Histogram getHistogram() {
+		return histogram;
+	}
+	
+	/**
+	 * @return the average width of the values of this attribute in bytes
+	 */
+	public int getWidth() {
+		return width > 0 ? width : DEFAULT_WIDTH;
+	}
+	
+	/**
+	 * @return the catalogue id of this attribute, or -1 if it has none
+	 */
+	public int getId() {
+		return id;
+	}
+	
+	/**
+	 * Return the ids of a list of attributes as a set
+	 * @param attributes
+	 * @return the set of ids, or null if any of the attributes has no id
+	 */
+	public static BitSet getIds(List<Attribute> attributes) {
+		BitSet ids = new BitSet();
+		for (Attribute attr : attributes) {
+			if (attr.id < 0) {
+				return null;
+			}
+			ids.set(attr.id);
+		}
+		return ids;
+	}
+	
 	
 	@Override
 	public int hashCode() {
@@ -60,6 +186,9 @@ public class Attribute {
 		}
 		Attribute rhs = (Attribute) obj;
 		
+		if (this.id >= 0 && rhs.id >= 0) {
+			return this.id == rhs.id;
+		}
 		return this.name.equals(rhs.getName());
 	}
 	
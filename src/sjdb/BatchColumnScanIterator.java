@@ -0,0 +1,145 @@
+package sjdb;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * This class reads the tuples of a named relation from its column files (see
+ * ColumnStore) into column batches, as a BatchScanIterator does from its CSV
+ * file. The values of an integer column are copied straight from the mapped
+ * file, as they are already encoded; each value of a dictionary column is
+ * encoded once, the first time it is read, and its encoding is looked up by
+ * index after that. Only the files of the attributes read by the rest of the
+ * plan are mapped, and the columns of the other attributes hold nulls.
+ *
+ * A scan given a MorselSource reads only the ranges of tuples it claims from
+ * it, so that several workers can share the scan of the relation.
+ */
+public class BatchColumnScanIterator extends BatchIterator {
+	// Encoding of a dictionary value that has not been read yet; no value of a dictionary is null
+	private static final long UNKNOWN = ValueDictionary.NULL;
+
+	private final File directory;
+	private final String relation;
+	private final Collection<Attribute> used;
+	private final ColumnBatch batch;
+	private final int[] codes;
+	private final MorselSource morsels;
+	private ColumnFile[] files;
+	private long[][] encodings;
+	private long tupleCount;
+	private int row;
+	// Index after the last tuple of the morsel being read
+	private long end;
+
+	/**
+	 * @param label Description of the operator, for profiles
+	 * @param attributes Attributes of the relation
+	 * @param used Attributes to be read
+	 * @param dictionary Dictionary to encode the values with
+	 * @param directory Data directory
+	 * @param relation Name of the relation
+	 */
+	public BatchColumnScanIterator(String label, List<Attribute> attributes, Collection<Attribute> used, ValueDictionary dictionary,
+			File directory, String relation) {
+		this(label, attributes, used, dictionary, directory, relation, null);
+	}
+
+	/**
+	 * @param label Description of the operator, for profiles
+	 * @param attributes Attributes of the relation
+	 * @param used Attributes to be read
+	 * @param dictionary Dictionary to encode the values with
+	 * @param directory Data directory
+	 * @param relation Name of the relation
+	 * @param morsels Source of the morsels to read, or null to read every tuple
+	 */
+	public BatchColumnScanIterator(String label, List<Attribute> attributes, Collection<Attribute> used, ValueDictionary dictionary,
+			File directory, String relation, MorselSource morsels) {
+		super(label, attributes, dictionary);
+		this.directory = directory;
+		this.relation = relation;
+		this.used = used;
+		this.batch = new ColumnBatch(attributes.size(), ColumnBatch.DEFAULT_SIZE);
+		this.codes = new int[ColumnBatch.DEFAULT_SIZE];
+		this.morsels = morsels;
+	}
+
+	@Override
+	protected void doOpen() throws IOException {
+		files = ColumnScanIterator.openFiles(getAttributes(), used, directory, relation);
+		tupleCount = ColumnScanIterator.getTupleCount(files, directory, relation, getAttributes());
+		row = 0;
+		end = morsels == null ? tupleCount : 0;
+
+		encodings = new long[files.length][];
+		for (int c = 0; c < files.length; c++) {
+			if (files[c] == null) {
+				Arrays.fill(batch.getColumn(c), ValueDictionary.NULL);
+			} else if (files[c].getEncoding() == ColumnFile.Encoding.DICTIONARY) {
+				encodings[c] = new long[files[c].getDictionary().length];
+				Arrays.fill(encodings[c], UNKNOWN);
+			}
+			// Any value of a dictionary column may have a code; integer columns have none
+			batch.getCoded()[c] = encodings[c] != null;
+		}
+	}
+
+	@Override
+	protected ColumnBatch doNextBatch() throws IOException {
+		if (row >= end && morsels != null) {
+			long start = morsels.claimRows();
+			row = (int) Math.min(start, tupleCount);
+			end = Math.min(start + MorselSource.MORSEL_ROWS, tupleCount);
+		}
+		int count = (int) Math.min(ColumnBatch.DEFAULT_SIZE, end - row);
+		if (count <= 0) {
+			return null;
+		}
+
+		for (int c = 0; c < files.length; c++) {
+			ColumnFile file = files[c];
+			if (file == null) {
+				continue;
+			}
+			long[] column = batch.getColumn(c);
+			if (encodings[c] == null) {
+				file.readIntegers(row, column, count);
+			} else {
+				long[] encoding = encodings[c];
+				file.readCodes(row, codes, count);
+				for (int i = 0; i < count; i++) {
+					int code = codes[i];
+					if (code < 0) {
+						column[i] = ValueDictionary.NULL;
+					} else {
+						if (encoding[code] == UNKNOWN) {
+							encoding[code] = getDictionary().encode(file.getDictionary()[code]);
+						}
+						column[i] = encoding[code];
+					}
+				}
+			}
+		}
+
+		row += count;
+		batch.setTuples(count, null);
+		return batch;
+	}
+
+	@Override
+	protected void doClose() throws IOException {
+		if (files != null) {
+			for (ColumnFile file : files) {
+				if (file != null) {
+					file.close();
+				}
+			}
+			files = null;
+			encodings = null;
+		}
+	}
+}
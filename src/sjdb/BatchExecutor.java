@@ -0,0 +1,182 @@
+package sjdb;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * This class compiles query plans into BatchIterators, which run them a
+ * column batch at a time (see Executor, which uses it for vectorised
+ * execution). The values of all the relations are encoded with the same
+ * ValueDictionary, so that they can be compared and joined as longs.
+ *
+ * Every join is run as a hash join: on its build input for a hash join, on
+ * its outer input for a block nested-loop join (the input that would be held
+ * in memory), on its inner relation for an index nested-loop join, and on the
+ * input the Estimator expects to be smaller for a logical or sort-merge join.
+ * Index scans read the relation and select from it. The hash tables share
+ * the MemoryBudget they are given, and partition their inputs to disk rather
+ * than go over it.
+ *
+ * Scans only encode the attributes that the plan uses: those in predicates
+ * and projections, and those of its output. The other columns of their
+ * batches are left null.
+ *
+ * Given a PipelineCompiler, chains of selects and projects are run as
+ * BatchPipelineIterators, with their predicates compiled into one loop, if
+ * the Estimator expects them to read enough tuples to be worth compiling.
+ */
+public class BatchExecutor implements PlanVisitor {
+	private final File directory;
+	private final Estimator estimator;
+	private final MemoryBudget budget;
+	private final ValueDictionary dictionary;
+	private final Deque<BatchIterator> stack;
+	private final Set<Attribute> used;
+	private PipelineCompiler compiler;
+
+	/**
+	 * @param directory Directory holding the data files
+	 * @param estimator Estimator for the expected tuple counts
+	 * @param budget Memory budget for the hash tables of the joins
+	 */
+	public BatchExecutor(File directory, Estimator estimator, MemoryBudget budget) {
+		this(directory, estimator, budget, new ValueDictionary());
+	}
+
+	/**
+	 * @param directory Directory holding the data files
+	 * @param estimator Estimator for the expected tuple counts
+	 * @param budget Memory budget for the hash tables of the joins
+	 * @param dictionary Dictionary to encode values with, shared with the iterators of another executor
+	 */
+	BatchExecutor(File directory, Estimator estimator, MemoryBudget budget, ValueDictionary dictionary) {
+		this.directory = directory;
+		this.estimator = estimator;
+		this.budget = budget;
+		this.dictionary = dictionary;
+		this.stack = new ArrayDeque<BatchIterator>();
+		this.used = new HashSet<Attribute>();
+	}
+
+	/**
+	 * Set the compiler for the predicates of selects
+	 * @param compiler Compiler, or null to run each select and project on its own
+	 */
+	public void setCompiler(PipelineCompiler compiler) {
+		this.compiler = compiler;
+	}
+
+	/**
+	 * Compile a plan into iterators
+	 * @param plan Root of the plan
+	 * @return Iterator for the root of the plan
+	 */
+	public BatchIterator compile(Operator plan) {
+		stack.clear();
+		used.clear();
+		used.addAll(Executor.getUsedAttributes(plan, estimator));
+		plan.accept(this);
+		return stack.pop();
+	}
+
+	public void visit(Scan op) {
+		push(op, getScan(op.getRelation()));
+	}
+
+	public void visit(IndexScan op) {
+		NamedRelation relation = op.getRelation();
+		BatchIterator scan = getScan(relation);
+
+		if (op.getPredicate() == null) {
+			push(op, scan);
+		} else {
+			scan.setEstimatedRows(relation.getTupleCount());
+			push(op, getSelect(op.toString(), scan, op.getPredicate(), compiler));
+		}
+	}
+
+	public void visit(Project op) {
+		BatchIterator input = stack.pop();
+		push(op, getProject(getLabel(op), input, op.getAttributes(), compiler));
+	}
+
+	static BatchIterator getProject(String label, BatchIterator input, List<Attribute> attributes, PipelineCompiler compiler) {
+		if (compiler == null) {
+			return new BatchProjectIterator(label, input, attributes);
+		}
+		return BatchPipelineIterator.addProject(label, input, attributes, compiler);
+	}
+
+	static String getLabel(Project op) {
+		return "PROJECT [" + op.getAttributes().stream().map(Attribute::getName).collect(Collectors.joining(",")) + "]";
+	}
+
+	public void visit(Select op) {
+		BatchIterator input = stack.pop();
+		push(op, getSelect("SELECT [" + op.getPredicate() + "]", input, op.getPredicate(), compiler));
+	}
+
+	static BatchIterator getSelect(String label, BatchIterator input, Predicate predicate, PipelineCompiler compiler) {
+		// a select starts a pipeline only if it reads enough tuples to pay for compiling its class
+		if (compiler == null || !(input instanceof BatchPipelineIterator) && !compiler.isWorthCompiling(input.getEstimatedRows())) {
+			return new BatchSelectIterator(label, input, predicate);
+		}
+		return BatchPipelineIterator.addSelect(label, input, predicate, compiler);
+	}
+
+	public void visit(Product op) {
+		BatchIterator right = stack.pop();
+		BatchIterator left = stack.pop();
+		long rightRows = estimator.estimate(op.getRight()).getTupleCount();
+		push(op, new BatchJoinIterator("TIMES", left, right, null, false, budget, rightRows));
+	}
+
+	public void visit(Join op) {
+		BatchIterator right = stack.pop();
+		BatchIterator left = stack.pop();
+		boolean buildLeft = isBuildLeft(op, estimator);
+		long buildRows = estimator.estimate(buildLeft ? op.getLeft() : op.getRight()).getTupleCount();
+		push(op, new BatchJoinIterator(getLabel(op, buildLeft), left, right, op.getPredicate(), buildLeft, budget, buildRows));
+	}
+
+	/**
+	 * Return the input of a join that its hash table is built on
+	 * @param op Join
+	 * @param estimator Estimator for the sizes of the inputs of a join whose method does not say
+	 * @return true for the left input, false for the right
+	 */
+	static boolean isBuildLeft(Join op, Estimator estimator) {
+		if (op.getMethod() == Join.Method.HASH || op.getMethod() == Join.Method.NESTED_LOOP) {
+			return op.isBuildLeft();
+		} else if (op.getMethod() == Join.Method.INDEX_NESTED_LOOP) {
+			return !op.isBuildLeft();
+		}
+		return estimator.estimate(op.getLeft()).getTupleCount() < estimator.estimate(op.getRight()).getTupleCount();
+	}
+
+	static String getLabel(Join op, boolean buildLeft) {
+		String label = "JOIN [" + op.getPredicate() + "] hash join, build " + (buildLeft ? "left" : "right");
+		if (op.getMethod() != Join.Method.HASH) {
+			label += " (for " + op.describeMethod() + ")";
+		}
+		return label;
+	}
+
+	private void push(Operator op, BatchIterator iterator) {
+		iterator.setEstimatedRows(estimator.estimate(op).getTupleCount());
+		stack.push(iterator);
+	}
+
+	private BatchIterator getScan(NamedRelation relation) {
+		if (ColumnStore.exists(directory, relation.getName())) {
+			return new BatchColumnScanIterator(relation.getName(), relation.getAttributes(), used, dictionary, directory, relation.getName());
+		}
+		File file = new File(directory, relation.getName() + ".csv");
+		return new BatchScanIterator(relation.getName(), relation.getAttributes(), used, dictionary, file);
+	}
+}
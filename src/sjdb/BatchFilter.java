@@ -0,0 +1,125 @@
+package sjdb;
+
+/**
+ * This interface is the set of loops that select the tuples of a column
+ * batch, writing the rows of the tuples that pass into a selection vector.
+ * Each loop reads a column of count tuples, which are the first rows if the
+ * input selection is null and the rows it lists otherwise, and returns the
+ * number of rows written to the output selection.
+ *
+ * The default implementation is plain Java, written without branches in the
+ * loops so that the JIT compiler can make the most of them. If the optional
+ * implementation on the incubating Vector API has been built (see README),
+ * and the JVM was started with the jdk.incubator.vector module, it is used
+ * instead, for the batches with no selection vector.
+ */
+public interface BatchFilter {
+
+	/**
+	 * Select the rows whose value is equal to a value
+	 * @return Number of rows selected
+	 */
+	public int selectEqual(long[] column, long value, int count, int[] in, int[] out);
+
+	/**
+	 * Select the rows whose value is neither equal to a value nor null
+	 * @return Number of rows selected
+	 */
+	public int selectNotEqual(long[] column, long value, int count, int[] in, int[] out);
+
+	/**
+	 * Select the rows whose value is from lower to upper, inclusive
+	 * @return Number of rows selected
+	 */
+	public int selectBetween(long[] column, long lower, long upper, int count, int[] in, int[] out);
+
+	/**
+	 * Select the rows whose values in two columns are equal and not null
+	 * @return Number of rows selected
+	 */
+	public int selectEqualColumns(long[] left, long[] right, int count, int[] in, int[] out);
+
+	/**
+	 * Return the fastest implementation available
+	 * @return Batch filter
+	 */
+	public static BatchFilter getDefault() {
+		return Holder.DEFAULT;
+	}
+
+	/**
+	 * The plain Java implementation
+	 */
+	public static class Scalar implements BatchFilter {
+
+		public int selectEqual(long[] column, long value, int count, int[] in, int[] out) {
+			int n = 0;
+			if (in == null) {
+				for (int i = 0; i < count; i++) {
+					out[n] = i;
+					n += column[i] == value ? 1 : 0;
+				}
+			} else {
+				for (int j = 0; j < count; j++) {
+					int i = in[j];
+					out[n] = i;
+					n += column[i] == value ? 1 : 0;
+				}
+			}
+			return n;
+		}
+
+		public int selectNotEqual(long[] column, long value, int count, int[] in, int[] out) {
+			int n = 0;
+			for (int j = 0; j < count; j++) {
+				int i = in == null ? j : in[j];
+				long v = column[i];
+				out[n] = i;
+				n += v != value & v != ValueDictionary.NULL ? 1 : 0;
+			}
+			return n;
+		}
+
+		public int selectBetween(long[] column, long lower, long upper, int count, int[] in, int[] out) {
+			// One unsigned comparison tests both bounds, as values below lower wrap around
+			long width = upper - lower;
+			int n = 0;
+			if (in == null) {
+				for (int i = 0; i < count; i++) {
+					out[n] = i;
+					n += Long.compareUnsigned(column[i] - lower, width) <= 0 ? 1 : 0;
+				}
+			} else {
+				for (int j = 0; j < count; j++) {
+					int i = in[j];
+					out[n] = i;
+					n += Long.compareUnsigned(column[i] - lower, width) <= 0 ? 1 : 0;
+				}
+			}
+			return n;
+		}
+
+		public int selectEqualColumns(long[] left, long[] right, int count, int[] in, int[] out) {
+			int n = 0;
+			for (int j = 0; j < count; j++) {
+				int i = in == null ? j : in[j];
+				out[n] = i;
+				n += left[i] == right[i] & left[i] != ValueDictionary.NULL ? 1 : 0;
+			}
+			return n;
+		}
+	}
+
+	// Loads the Vector API implementation, if it was built and its module is present
+	static class Holder {
+		private static final BatchFilter DEFAULT = load();
+
+		private static BatchFilter load() {
+			try {
+				return (BatchFilter) Class.forName("sjdb.VectorBatchFilter").getDeclaredConstructor().newInstance();
+			} catch (ReflectiveOperationException | LinkageError e) {
+				return new Scalar();
+			}
+		}
+	}
+}
@@ -0,0 +1,212 @@
+package sjdb;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * This class returns the output of a plan run in parallel by a
+ * ParallelExecutor. On open, it builds the tables of the joins that the root
+ * pipeline probes, and then starts the pipeline's workers, which put copies
+ * of their batches on a bounded queue for this iterator to take; the batches
+ * come in whatever order the workers produce them. A root pipeline with a
+ * single worker is run on the calling thread instead, without the queue.
+ *
+ * An exception thrown by a worker stops the others, and is thrown by
+ * nextBatch() once they have stopped. Closing the iterator early stops the
+ * workers too.
+ *
+ * If the memory budget refuses a hash table while it is built, before any
+ * output has been returned, the tables built so far are freed and the plan is
+ * run instead by the iterators of a BatchExecutor, whose joins spill to disk;
+ * the profile then shows the iterators of the fallback below this one.
+ */
+public class BatchGatherIterator extends BatchIterator {
+	// Batches the queue holds for each worker, so that none waits on the others
+	private static final int QUEUED_BATCHES = 4;
+	private static final ColumnBatch END = new ColumnBatch(0, 0);
+
+	private final ParallelExecutor executor;
+	private final Operator plan;
+	private final BatchIterator first;
+	private final AtomicReference<Throwable> failure;
+	private List<BatchIterator> workers;
+	private BlockingQueue<ColumnBatch> queue;
+	private AtomicInteger remaining;
+	private CountDownLatch running;
+	private volatile boolean cancelled;
+	private boolean finished;
+	private BatchIterator fallback;
+	private String refusal;
+
+	/**
+	 * @param executor Executor that compiled the plan
+	 * @param plan Root of the plan
+	 * @param first Copy of the iterators of the root pipeline compiled with the plan
+	 */
+	public BatchGatherIterator(ParallelExecutor executor, Operator plan, BatchIterator first) {
+		super("GATHER", first.getAttributes(), first.getDictionary(), first);
+		this.executor = executor;
+		this.plan = plan;
+		this.first = first;
+		this.failure = new AtomicReference<Throwable>();
+	}
+
+	@Override
+	protected void doOpen() throws IOException {
+		workers = null;
+		try {
+			executor.buildTables(plan);
+		} catch (ParallelExecutor.BuildRefusedException e) {
+			executor.release();
+			if (fallback == null) {
+				fallback = executor.compileSerial(plan);
+				refusal = e.getMessage();
+			}
+			fallback.open();
+			return;
+		} catch (IOException | RuntimeException e) {
+			executor.release();
+			throw e;
+		}
+		workers = executor.getWorkers(plan, first);
+		finished = false;
+		if (workers.size() == 1) {
+			first.open();
+			return;
+		}
+
+		queue = new ArrayBlockingQueue<ColumnBatch>(QUEUED_BATCHES * workers.size());
+		remaining = new AtomicInteger(workers.size());
+		running = new CountDownLatch(workers.size());
+		cancelled = false;
+		failure.set(null);
+		for (BatchIterator worker : workers) {
+			executor.execute(() -> run(worker));
+		}
+	}
+
+	// Run one worker of the root pipeline; the last to finish marks the end of the output
+	private void run(BatchIterator worker) {
+		try {
+			worker.open();
+			ColumnBatch batch;
+			while (!cancelled && (batch = worker.nextBatch()) != null) {
+				if (batch.getCount() > 0) {
+					queue.put(copy(batch));
+				}
+			}
+		} catch (Throwable e) {
+			failure.compareAndSet(null, e);
+			cancelled = true;
+		} finally {
+			try {
+				worker.close();
+			} catch (Throwable e) {
+				failure.compareAndSet(null, e);
+			}
+			try {
+				if (remaining.decrementAndGet() == 0) {
+					queue.put(END);
+				}
+			} catch (InterruptedException e) {
+				failure.compareAndSet(null, e);
+			}
+			running.countDown();
+		}
+	}
+
+	// The worker's batch is only valid until its next call, so copy the tuples out of it
+	private static ColumnBatch copy(ColumnBatch batch) {
+		int count = batch.getCount();
+		long[][] columns = new long[batch.getColumns().length][count];
+		for (int c = 0; c < columns.length; c++) {
+			long[] source = batch.getColumn(c);
+			int[] selection = batch.getSelection();
+			if (selection == null) {
+				System.arraycopy(source, 0, columns[c], 0, count);
+			} else {
+				for (int i = 0; i < count; i++) {
+					columns[c][i] = source[selection[i]];
+				}
+			}
+		}
+		ColumnBatch copy = new ColumnBatch(columns, batch.getCoded().clone());
+		copy.setTuples(count, null);
+		return copy;
+	}
+
+	@Override
+	protected ColumnBatch doNextBatch() throws IOException {
+		if (workers == null) {
+			return fallback.nextBatch();
+		}
+		if (workers.size() == 1) {
+			return first.nextBatch();
+		}
+		if (finished) {
+			return null;
+		}
+		ColumnBatch batch;
+		try {
+			batch = queue.take();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for the workers of a plan");
+		}
+		if (batch == END) {
+			finished = true;
+			if (failure.get() != null) {
+				throw ParallelExecutor.rethrow(failure.get());
+			}
+			return null;
+		}
+		return batch;
+	}
+
+	@Override
+	protected void doClose() throws IOException {
+		if (workers == null) {
+			if (fallback != null) {
+				fallback.close();
+			}
+			return;
+		}
+		try {
+			if (workers.size() == 1) {
+				first.close();
+			} else {
+				// Stop the workers, and keep the queue clear until they have
+				cancelled = true;
+				try {
+					while (!running.await(1, TimeUnit.MILLISECONDS)) {
+						queue.clear();
+					}
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException("Interrupted while stopping the workers of a plan");
+				}
+				queue = null;
+			}
+			executor.addProfiles(workers);
+		} finally {
+			executor.release();
+		}
+	}
+
+	@Override
+	protected List<PlanIterator> getProfileInputs() {
+		return fallback == null ? super.getProfileInputs() : List.of(fallback);
+	}
+
+	@Override
+	protected String getProfileDetails() {
+		return refusal == null ? null : "serial (" + refusal + ")";
+	}
+}
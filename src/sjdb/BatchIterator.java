@@ -0,0 +1,48 @@
+package sjdb;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * This abstract class is an operator of an executable query plan that is run
+ * a batch of tuples at a time: after open(), each call to nextBatch() returns
+ * a ColumnBatch holding the next tuples of the operator's output, until it
+ * returns null; close() releases its resources. A batch returned may hold no
+ * tuples (if a select has found none in a batch of its input, for example).
+ *
+ * Working on batches, rather than tuples, pays for a call through the plan
+ * once per batch, and runs each operator in a loop over the values of its
+ * columns that the JIT compiler can keep free of calls and branches.
+ */
+public abstract class BatchIterator extends PlanIterator {
+	private final ValueDictionary dictionary;
+
+	/**
+	 * @param label Description of the operator, for profiles
+	 * @param attributes Attributes of the output tuples
+	 * @param dictionary Dictionary the values are encoded with
+	 * @param inputs Iterators that feed this one
+	 */
+	protected BatchIterator(String label, List<Attribute> attributes, ValueDictionary dictionary, PlanIterator... inputs) {
+		super(label, attributes, inputs);
+		this.dictionary = dictionary;
+	}
+
+	/**
+	 * Return the next batch of the output
+	 * @return Batch, or null if there are no more tuples
+	 * @throws IOException
+	 */
+	public final ColumnBatch nextBatch() throws IOException {
+		long start = System.nanoTime();
+		ColumnBatch batch = doNextBatch();
+		record(batch == null ? 0 : batch.getCount(), System.nanoTime() - start);
+		return batch;
+	}
+
+	protected abstract ColumnBatch doNextBatch() throws IOException;
+
+	public ValueDictionary getDictionary() {
+		return dictionary;
+	}
+}
@@ -0,0 +1,438 @@
+package sjdb;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * This class joins column batches by hashing, as a HashJoinIterator does:
+ * on open, it copies the tuples of its build input into an OffHeapHashTable
+ * on the encoded join values, and then streams the batches of its probe
+ * input through. A product, with no predicate, joins each probe tuple with
+ * every build row.
+ *
+ * Nothing is allocated per tuple, and the build rows are kept off the heap:
+ * each output batch is filled by finding the pairs of probe and build rows
+ * that join, and then copying the values of each column of the pairs in a
+ * loop of its own. The profile shows the memory the table held.
+ *
+ * The table is held within the query's MemoryBudget by grace hash join, as
+ * in a HashJoinIterator: the rows of both inputs are written to partition
+ * files by the hash of their join values when the build input is expected
+ * (or turns out) not to fit, and the partitions are then joined in turn,
+ * each probe partition read back in batches. The build input of a product
+ * cannot be partitioned, and is held whatever its size.
+ */
+public class BatchJoinIterator extends BatchIterator {
+	private static final int MAX_DEPTH = 4;
+
+	private final BatchIterator build;
+	private final BatchIterator probe;
+	private final int buildKey;
+	private final int probeKey;
+	// For each output column, whether it comes from the build input, and its index there
+	private final boolean[] fromBuild;
+	private final int[] sources;
+	private final ColumnBatch output;
+	private final int[] probeRows;
+	private final int[] buildRows;
+	private final MemoryBudget budget;
+	private final long rowBytes;
+	private final long estimatedBuildRows;
+	private OffHeapHashTable table;
+	private long reserved;
+	private boolean[] buildCoded;
+	private boolean[] probeCoded;
+	private long tableBytes;
+	private ColumnBatch probeBatch;
+	private int probePosition;
+	private int match;
+	private Deque<Partition> partitions;
+	private SpillFile probeFile;
+	private ColumnBatch spilledBatch;
+	private int partitionCount;
+	private long spilledBytes;
+
+	// A pair of partitions of the build and probe inputs, split depth times
+	private static class Partition {
+		private final SpillFile build;
+		private final SpillFile probe;
+		private final int depth;
+
+		private Partition(SpillFile build, SpillFile probe, int depth) {
+			this.build = build;
+			this.probe = probe;
+			this.depth = depth;
+		}
+	}
+
+	/**
+	 * @param label Description of the operator, for profiles
+	 * @param left Left input
+	 * @param right Right input
+	 * @param predicate Join predicate, or null for a product
+	 * @param buildLeft true if the table is built on the left input
+	 * @param budget Memory budget of the query
+	 * @param buildRows Number of tuples the Estimator expects of the build input
+	 */
+	public BatchJoinIterator(String label, BatchIterator left, BatchIterator right, Predicate predicate, boolean buildLeft,
+			MemoryBudget budget, long buildRows) {
+		super(label, getJoined(left.getAttributes(), right.getAttributes()), left.getDictionary(), left, right);
+		this.build = buildLeft ? left : right;
+		this.probe = buildLeft ? right : left;
+		if (predicate == null) {
+			this.buildKey = -1;
+			this.probeKey = -1;
+		} else {
+			this.buildKey = build.indexOf(buildLeft ? predicate.getLeftAttribute() : predicate.getRightAttribute());
+			this.probeKey = probe.indexOf(buildLeft ? predicate.getRightAttribute() : predicate.getLeftAttribute());
+		}
+
+		List<Attribute> attributes = getAttributes();
+		this.fromBuild = new boolean[attributes.size()];
+		this.sources = new int[attributes.size()];
+		int leftCount = left.getAttributes().size();
+		for (int i = 0; i < attributes.size(); i++) {
+			boolean fromLeft = i < leftCount;
+			fromBuild[i] = fromLeft == buildLeft;
+			sources[i] = (fromLeft ? left : right).indexOf(attributes.get(i));
+		}
+
+		this.output = new ColumnBatch(attributes.size(), ColumnBatch.DEFAULT_SIZE);
+		this.probeRows = new int[ColumnBatch.DEFAULT_SIZE];
+		this.buildRows = new int[ColumnBatch.DEFAULT_SIZE];
+		this.budget = budget;
+		this.rowBytes = OffHeapHashTable.getBytesPerRow(build.getAttributes().size());
+		this.estimatedBuildRows = buildRows;
+	}
+
+	static List<Attribute> getJoined(List<Attribute> leftAttributes, List<Attribute> rightAttributes) {
+		List<Attribute> joined = new ArrayList<Attribute>(leftAttributes);
+		for (Attribute attr : rightAttributes) {
+			if (!leftAttributes.contains(attr)) {
+				joined.add(attr);
+			}
+		}
+		return joined;
+	}
+
+	@Override
+	protected void doOpen() throws IOException {
+		buildCoded = new boolean[build.getAttributes().size()];
+		probeCoded = new boolean[probe.getAttributes().size()];
+		partitions = null;
+		probeFile = null;
+		SpillFile[] buildFiles = readBuild();
+
+		probe.open();
+		if (buildFiles != null) {
+			partitions = new ArrayDeque<Partition>();
+			SpillFile[] probeFiles = createFiles(buildFiles.length);
+			ColumnBatch batch;
+			while ((batch = probe.nextBatch()) != null) {
+				for (int c = 0; c < probeCoded.length; c++) {
+					probeCoded[c] |= batch.isCoded(c);
+				}
+				long[] keys = batch.getColumn(probeKey);
+				for (int j = 0; j < batch.getCount(); j++) {
+					int row = batch.getRow(j);
+					if (keys[row] != ValueDictionary.NULL) {
+						probeFiles[getPartition(keys[row], 0, probeFiles.length)].write(batch.getColumns(), row);
+					}
+				}
+			}
+			probe.close();
+			for (int i = 0; i < buildFiles.length; i++) {
+				partitions.add(new Partition(buildFiles[i], probeFiles[i], 0));
+			}
+			partitionCount += buildFiles.length;
+			spilledBatch = new ColumnBatch(probeCoded.length, ColumnBatch.DEFAULT_SIZE);
+			System.arraycopy(probeCoded, 0, spilledBatch.getCoded(), 0, probeCoded.length);
+		} else {
+			index();
+		}
+		probeBatch = null;
+		probePosition = 0;
+		match = -1;
+	}
+
+	// Copy the tuples of the build input, leaving out those with no value to join on, into the
+	// table or, if it does not fit, into partition files
+	private SpillFile[] readBuild() throws IOException {
+		int count = buildKey < 0 ? 1 : budget.getPartitions(estimatedBuildRows * rowBytes);
+		SpillFile[] files = count > 1 ? createFiles(count) : null;
+		table = new OffHeapHashTable(buildCoded.length, buildKey, estimatedBuildRows);
+
+		build.open();
+		ColumnBatch batch;
+		while ((batch = build.nextBatch()) != null) {
+			long[][] columns = batch.getColumns();
+			for (int c = 0; c < buildCoded.length; c++) {
+				buildCoded[c] |= batch.isCoded(c);
+			}
+			for (int j = 0; j < batch.getCount(); j++) {
+				int row = batch.getRow(j);
+				if (buildKey >= 0 && columns[buildKey][row] == ValueDictionary.NULL) {
+					continue;
+				}
+				if (files == null) {
+					if (add(columns, row)) {
+						continue;
+					}
+					// The build input is larger than expected, so partition what has been read
+					long bytes = Math.max(estimatedBuildRows * rowBytes, 2 * reserved);
+					OffHeapHashTable read = table;
+					table = new OffHeapHashTable(buildCoded.length, buildKey, 0);
+					budget.release(reserved);
+					reserved = 0;
+					count = Math.max(2, budget.getPartitions(bytes));
+					files = createFiles(count);
+					long[][] copy = new long[buildCoded.length][1];
+					for (int r = 0; r < read.size(); r++) {
+						read.copyRow(r, copy, 0);
+						files[getPartition(copy[buildKey][0], 0, count)].write(copy, 0);
+					}
+					read.free();
+				}
+				files[getPartition(columns[buildKey][row], 0, count)].write(columns, row);
+			}
+		}
+		build.close();
+		return files;
+	}
+
+	// Add a row to the table, if the budget allows; the build input of a product is always added
+	private boolean add(long[][] columns, int row) {
+		if (!budget.tryReserve(rowBytes)) {
+			if (buildKey >= 0) {
+				return false;
+			}
+			budget.reserve(rowBytes);
+		}
+		reserved += rowBytes;
+		table.add(columns, row);
+		return true;
+	}
+
+	private void index() {
+		if (buildKey >= 0) {
+			table.index();
+		}
+		tableBytes = Math.max(tableBytes, table.getAllocatedBytes());
+	}
+
+	private void clearTable() {
+		table.free();
+		budget.release(reserved);
+		reserved = 0;
+	}
+
+	private SpillFile[] createFiles(int count) throws IOException {
+		SpillFile[] files = new SpillFile[count];
+		for (int i = 0; i < count; i++) {
+			files[i] = new SpillFile(budget.getDirectory());
+		}
+		return files;
+	}
+
+	// Each depth of partitioning hashes with another seed, so that a partition can be split again
+	private static int getPartition(long value, int depth, int count) {
+		long h = value * 0xC2B2AE3D27D4EB4FL + depth * 0x9E3779B97F4A7C15L;
+		h ^= h >>> 32;
+		h *= 0xC2B2AE3D27D4EB4FL;
+		h ^= h >>> 29;
+		return (int) Math.floorMod(h, (long) count);
+	}
+
+	// Load the next pair of partitions that has build rows into the table, and start reading its probe rows
+	private boolean nextPartition() throws IOException {
+		clearTable();
+		long[][] row = new long[buildCoded.length][1];
+		while (!partitions.isEmpty()) {
+			Partition partition = partitions.poll();
+			partition.build.rewind();
+			partition.probe.rewind();
+			if (partition.build.getTuples() == 0 || partition.probe.getTuples() == 0) {
+				discard(partition.build);
+				discard(partition.probe);
+				continue;
+			}
+
+			table = new OffHeapHashTable(buildCoded.length, buildKey, partition.build.getTuples());
+			boolean fits = true;
+			while (fits && partition.build.read(row, 0)) {
+				if (!add(row, 0)) {
+					if (partition.depth < MAX_DEPTH) {
+						fits = false;
+					} else {
+						// Most likely a single value, which no hash function can split
+						budget.reserve(rowBytes);
+						reserved += rowBytes;
+						table.add(row, 0);
+					}
+				}
+			}
+			if (!fits) {
+				clearTable();
+				split(partition, budget.getPartitions(partition.build.getTuples() * rowBytes));
+				continue;
+			}
+
+			index();
+			discard(partition.build);
+			probeFile = partition.probe;
+			return true;
+		}
+		return false;
+	}
+
+	// Split a pair of partitions into smaller ones, to be joined next
+	private void split(Partition partition, int count) throws IOException {
+		count = Math.max(2, count);
+		int depth = partition.depth + 1;
+		SpillFile[] buildFiles = createFiles(count);
+		SpillFile[] probeFiles = createFiles(count);
+		partition.build.rewind();
+		long[][] row = new long[buildCoded.length][1];
+		while (partition.build.read(row, 0)) {
+			buildFiles[getPartition(row[buildKey][0], depth, count)].write(row, 0);
+		}
+		row = new long[probeCoded.length][1];
+		while (partition.probe.read(row, 0)) {
+			probeFiles[getPartition(row[probeKey][0], depth, count)].write(row, 0);
+		}
+		discard(partition.build);
+		discard(partition.probe);
+		for (int i = count - 1; i >= 0; i--) {
+			partitions.addFirst(new Partition(buildFiles[i], probeFiles[i], depth));
+		}
+		partitionCount += count;
+	}
+
+	private void discard(SpillFile file) throws IOException {
+		spilledBytes += file.getBytes();
+		file.close();
+	}
+
+	private ColumnBatch nextProbeBatch() throws IOException {
+		if (partitions == null) {
+			return probe.nextBatch();
+		}
+		while (true) {
+			if (probeFile != null) {
+				long[][] columns = spilledBatch.getColumns();
+				int n = 0;
+				while (n < ColumnBatch.DEFAULT_SIZE && probeFile.read(columns, n)) {
+					n++;
+				}
+				if (n > 0) {
+					spilledBatch.setTuples(n, null);
+					return spilledBatch;
+				}
+				discard(probeFile);
+				probeFile = null;
+			}
+			if (!nextPartition()) {
+				return null;
+			}
+		}
+	}
+
+	@Override
+	protected ColumnBatch doNextBatch() throws IOException {
+		int n = 0;
+		while (n < ColumnBatch.DEFAULT_SIZE) {
+			// Carry on down the chain of the current probe tuple
+			if (match >= 0) {
+				int probeRow = probeBatch.getRow(probePosition);
+				if (buildKey < 0) {
+					probeRows[n] = probeRow;
+					buildRows[n++] = match;
+					match = match + 1 < table.size() ? match + 1 : -1;
+				} else {
+					probeRows[n] = probeRow;
+					buildRows[n++] = match;
+					match = table.next(match);
+				}
+				if (match < 0) {
+					probePosition++;
+				}
+				continue;
+			}
+
+			if (probeBatch == null || probePosition >= probeBatch.getCount()) {
+				if (n > 0) {
+					break;
+				}
+				probeBatch = nextProbeBatch();
+				probePosition = 0;
+				if (probeBatch == null) {
+					return null;
+				}
+				continue;
+			}
+
+			int probeRow = probeBatch.getRow(probePosition);
+			if (buildKey < 0) {
+				match = table.size() > 0 ? 0 : -1;
+			} else {
+				long key = probeBatch.getColumn(probeKey)[probeRow];
+				match = key == ValueDictionary.NULL ? -1 : table.find(key);
+			}
+			if (match < 0) {
+				probePosition++;
+			}
+		}
+
+		// The probe batch is still valid, as its next one has not been asked for
+		for (int c = 0; c < sources.length; c++) {
+			long[] target = output.getColumn(c);
+			if (fromBuild[c]) {
+				int source = sources[c];
+				for (int k = 0; k < n; k++) {
+					target[k] = table.getValue(buildRows[k], source);
+				}
+				output.getCoded()[c] = buildCoded[sources[c]];
+			} else {
+				long[] source = probeBatch.getColumn(sources[c]);
+				for (int k = 0; k < n; k++) {
+					target[k] = source[probeRows[k]];
+				}
+				output.getCoded()[c] = probeBatch.isCoded(sources[c]);
+			}
+		}
+		output.setTuples(n, null);
+		return output;
+	}
+
+	@Override
+	protected void doClose() throws IOException {
+		if (table != null) {
+			clearTable();
+			table = null;
+		}
+		probeBatch = null;
+		if (partitions == null) {
+			probe.close();
+		} else {
+			if (probeFile != null) {
+				discard(probeFile);
+				probeFile = null;
+			}
+			for (Partition partition : partitions) {
+				discard(partition.build);
+				discard(partition.probe);
+			}
+			partitions = null;
+			spilledBatch = null;
+		}
+	}
+
+	@Override
+	protected String getProfileDetails() {
+		String details = "table=" + formatBytes(tableBytes);
+		return partitionCount == 0 ? details : details + " partitions=" + partitionCount + " spilled=" + formatBytes(spilledBytes);
+	}
+}
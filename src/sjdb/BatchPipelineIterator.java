@@ -0,0 +1,130 @@
+package sjdb;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class runs a chain of selects and projects over column batches as
+ * one operator: the predicates of the selects are tested together by a
+ * CompiledPipeline, in a single loop over the batch, and the projects pick
+ * the columns of the output from those of the input, without copying them.
+ *
+ * Pipelines are built by adding the selects and projects of a plan one at a
+ * time, from the bottom up, with addSelect() and addProject(); each one is
+ * fused into the pipeline below it, if there is one. The loop is compiled
+ * when the pipeline is first opened.
+ */
+public class BatchPipelineIterator extends BatchIterator {
+	private final BatchIterator input;
+	private final List<String> stages;
+	private final List<Predicate> predicates;
+	private final PipelineCompiler compiler;
+	private final int[] columns;
+	private final int[] selection;
+	private CompiledPipeline pipeline;
+
+	/**
+	 * @param stages Descriptions of the selects and projects, from the bottom up
+	 * @param input Iterator returning the tuples to be selected from
+	 * @param predicates Predicates on the attributes of the input
+	 * @param attributes Attributes of the output, in the order of the input
+	 * @param compiler Compiler to compile the predicates with
+	 */
+	public BatchPipelineIterator(List<String> stages, BatchIterator input, List<Predicate> predicates, List<Attribute> attributes,
+			PipelineCompiler compiler) {
+		super("PIPELINE [" + String.join("; ", stages) + "]", attributes, input.getDictionary(), input);
+		this.input = input;
+		this.stages = stages;
+		this.predicates = predicates;
+		this.compiler = compiler;
+		this.columns = new int[attributes.size()];
+		for (int i = 0; i < columns.length; i++) {
+			columns[i] = input.indexOf(attributes.get(i));
+		}
+		this.selection = new int[ColumnBatch.DEFAULT_SIZE];
+	}
+
+	/**
+	 * Return a pipeline that selects the tuples of an iterator, fused into it
+	 * if it is a pipeline
+	 * @param label Description of the select
+	 * @param input Iterator returning the tuples to be selected from
+	 * @param predicate Predicate on the attributes of the input
+	 * @param compiler Compiler to compile the predicates with
+	 * @return Pipeline
+	 */
+	public static BatchPipelineIterator addSelect(String label, BatchIterator input, Predicate predicate, PipelineCompiler compiler) {
+		if (input instanceof BatchPipelineIterator) {
+			BatchPipelineIterator below = (BatchPipelineIterator) input;
+			List<Predicate> predicates = new ArrayList<Predicate>(below.predicates);
+			predicates.add(predicate);
+			return new BatchPipelineIterator(below.getStages(label), below.input, predicates, below.getAttributes(), compiler);
+		}
+		List<Predicate> predicates = new ArrayList<Predicate>();
+		predicates.add(predicate);
+		return new BatchPipelineIterator(List.of(label), input, predicates, input.getAttributes(), compiler);
+	}
+
+	/**
+	 * Return an iterator that projects the tuples of an iterator: the
+	 * pipeline with the projection fused into it, if the iterator is a
+	 * pipeline, and otherwise a BatchProjectIterator
+	 * @param label Description of the project
+	 * @param input Iterator returning the tuples to be projected
+	 * @param attributes Attributes to be kept
+	 * @param compiler Compiler to compile the predicates with
+	 * @return Iterator
+	 */
+	public static BatchIterator addProject(String label, BatchIterator input, List<Attribute> attributes, PipelineCompiler compiler) {
+		if (!(input instanceof BatchPipelineIterator)) {
+			return new BatchProjectIterator(label, input, attributes);
+		}
+		BatchPipelineIterator below = (BatchPipelineIterator) input;
+		List<Attribute> projected = new ArrayList<Attribute>();
+		for (Attribute attr : below.getAttributes()) {
+			if (attributes.contains(attr)) {
+				projected.add(attr);
+			}
+		}
+		return new BatchPipelineIterator(below.getStages(label), below.input, below.predicates, projected, compiler);
+	}
+
+	private List<String> getStages(String label) {
+		List<String> added = new ArrayList<String>(stages);
+		added.add(label);
+		return added;
+	}
+
+	@Override
+	protected void doOpen() throws IOException {
+		if (pipeline == null) {
+			pipeline = compiler.compile(input.getAttributes(), predicates, getDictionary());
+		}
+		input.open();
+	}
+
+	@Override
+	protected ColumnBatch doNextBatch() throws IOException {
+		ColumnBatch batch = input.nextBatch();
+		if (batch == null) {
+			return null;
+		}
+
+		int n = pipeline.select(batch, selection);
+		long[][] values = new long[columns.length][];
+		boolean[] coded = new boolean[columns.length];
+		for (int i = 0; i < columns.length; i++) {
+			values[i] = batch.getColumn(columns[i]);
+			coded[i] = batch.isCoded(columns[i]);
+		}
+		ColumnBatch output = new ColumnBatch(values, coded);
+		output.setTuples(n, selection);
+		return output;
+	}
+
+	@Override
+	protected void doClose() throws IOException {
+		input.close();
+	}
+}
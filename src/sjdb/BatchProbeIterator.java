@@ -0,0 +1,174 @@
+package sjdb;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * This class joins the column batches of one worker of a parallel plan with
+ * the build input of the join (see ParallelExecutor), held in a
+ * PartitionedHashTable that its workers built beforehand and that all the
+ * workers running the probe input share. The probe input is streamed through
+ * as in a BatchJoinIterator, with each key looked up in the table of its
+ * partition; a product joins each probe tuple with every build row.
+ *
+ * The build input is given as an input of the iterator for its profile only:
+ * it has already been run, by the workers that built the table, and its
+ * counts are those of all of them. The copy of the iterator that the other
+ * workers' profiles are added to also counts the time taken to build the
+ * table, so that the profile of the join includes it, as it does for a
+ * BatchJoinIterator.
+ */
+public class BatchProbeIterator extends BatchIterator {
+	private final BatchIterator probe;
+	private final PartitionedHashTable table;
+	private final int probeKey;
+	private final boolean product;
+	private final boolean countBuild;
+	// For each output column, whether it comes from the build input, and its index there
+	private final boolean[] fromBuild;
+	private final int[] sources;
+	private final ColumnBatch output;
+	private final int[] probeRows;
+	private final int[] buildRows;
+	private final OffHeapHashTable[] buildTables;
+	private ColumnBatch probeBatch;
+	private int probePosition;
+	private OffHeapHashTable matchTable;
+	private int match;
+	private long tableBytes;
+
+	/**
+	 * @param label Description of the operator, for profiles
+	 * @param probe Probe input of this worker
+	 * @param build Build input, for the profile
+	 * @param table Table of the build input, built before this iterator is opened
+	 * @param predicate Join predicate, or null for a product
+	 * @param buildLeft true if the table was built on the left input
+	 * @param countBuild true if this copy of the iterator counts the time taken to build the table
+	 */
+	public BatchProbeIterator(String label, BatchIterator probe, BatchIterator build, PartitionedHashTable table, Predicate predicate,
+			boolean buildLeft, boolean countBuild) {
+		super(label, BatchJoinIterator.getJoined(buildLeft ? build.getAttributes() : probe.getAttributes(),
+				buildLeft ? probe.getAttributes() : build.getAttributes()), probe.getDictionary(), buildLeft ? build : probe,
+				buildLeft ? probe : build);
+		this.probe = probe;
+		this.table = table;
+		this.product = predicate == null;
+		this.probeKey = product ? -1 : probe.indexOf(buildLeft ? predicate.getRightAttribute() : predicate.getLeftAttribute());
+		this.countBuild = countBuild;
+
+		BatchIterator left = buildLeft ? build : probe;
+		BatchIterator right = buildLeft ? probe : build;
+		List<Attribute> attributes = getAttributes();
+		this.fromBuild = new boolean[attributes.size()];
+		this.sources = new int[attributes.size()];
+		int leftCount = left.getAttributes().size();
+		for (int i = 0; i < attributes.size(); i++) {
+			boolean fromLeft = i < leftCount;
+			fromBuild[i] = fromLeft == buildLeft;
+			sources[i] = (fromLeft ? left : right).indexOf(attributes.get(i));
+		}
+
+		this.output = new ColumnBatch(attributes.size(), ColumnBatch.DEFAULT_SIZE);
+		this.probeRows = new int[ColumnBatch.DEFAULT_SIZE];
+		this.buildRows = new int[ColumnBatch.DEFAULT_SIZE];
+		this.buildTables = new OffHeapHashTable[ColumnBatch.DEFAULT_SIZE];
+	}
+
+	@Override
+	protected void doOpen() throws IOException {
+		if (countBuild) {
+			record(0, table.getBuildNanos());
+		}
+		tableBytes = Math.max(tableBytes, table.getAllocatedBytes());
+		probe.open();
+		probeBatch = null;
+		probePosition = 0;
+		match = -1;
+	}
+
+	@Override
+	protected ColumnBatch doNextBatch() throws IOException {
+		int n = 0;
+		while (n < ColumnBatch.DEFAULT_SIZE) {
+			// Carry on down the chain of the current probe tuple
+			if (match >= 0) {
+				probeRows[n] = probeBatch.getRow(probePosition);
+				buildTables[n] = matchTable;
+				buildRows[n++] = match;
+				if (product) {
+					match = match + 1 < matchTable.size() ? match + 1 : -1;
+				} else {
+					match = matchTable.next(match);
+				}
+				if (match < 0) {
+					probePosition++;
+				}
+				continue;
+			}
+
+			if (probeBatch == null || probePosition >= probeBatch.getCount()) {
+				if (n > 0) {
+					break;
+				}
+				probeBatch = probe.nextBatch();
+				probePosition = 0;
+				if (probeBatch == null) {
+					return null;
+				}
+				continue;
+			}
+
+			int probeRow = probeBatch.getRow(probePosition);
+			if (product) {
+				matchTable = table.getTable(0);
+				match = matchTable.size() > 0 ? 0 : -1;
+			} else {
+				long key = probeBatch.getColumn(probeKey)[probeRow];
+				if (key == ValueDictionary.NULL) {
+					match = -1;
+				} else {
+					matchTable = table.getTable(table.getPartition(key));
+					match = matchTable.find(key);
+				}
+			}
+			if (match < 0) {
+				probePosition++;
+			}
+		}
+
+		// The probe batch is still valid, as its next one has not been asked for
+		boolean[] buildCoded = table.getCoded();
+		for (int c = 0; c < sources.length; c++) {
+			long[] target = output.getColumn(c);
+			if (fromBuild[c]) {
+				int source = sources[c];
+				for (int k = 0; k < n; k++) {
+					target[k] = buildTables[k].getValue(buildRows[k], source);
+				}
+				output.getCoded()[c] = buildCoded[source];
+			} else {
+				long[] source = probeBatch.getColumn(sources[c]);
+				for (int k = 0; k < n; k++) {
+					target[k] = source[probeRows[k]];
+				}
+				output.getCoded()[c] = probeBatch.isCoded(sources[c]);
+			}
+		}
+		output.setTuples(n, null);
+		return output;
+	}
+
+	@Override
+	protected void doClose() throws IOException {
+		probeBatch = null;
+		matchTable = null;
+		probe.close();
+	}
+
+	@Override
+	protected String getProfileDetails() {
+		String details = "table=" + formatBytes(tableBytes);
+		return table.getPartitionCount() == 1 ? details : details + " partitions=" + table.getPartitionCount();
+	}
+}
@@ -0,0 +1,67 @@
+package sjdb;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class projects column batches onto some of their attributes, keeping
+ * the attributes in the order of the input, by passing on the columns of
+ * those attributes without copying them.
+ */
+public class BatchProjectIterator extends BatchIterator {
+	private final BatchIterator input;
+	private final int[] columns;
+
+	/**
+	 * @param label Description of the operator, for profiles
+	 * @param input Iterator returning the tuples to be projected
+	 * @param attributes Attributes to be kept
+	 */
+	public BatchProjectIterator(String label, BatchIterator input, List<Attribute> attributes) {
+		super(label, getProjected(input.getAttributes(), attributes), input.getDictionary(), input);
+		this.input = input;
+		this.columns = new int[getAttributes().size()];
+		for (int i = 0; i < columns.length; i++) {
+			columns[i] = input.indexOf(getAttributes().get(i));
+		}
+	}
+
+	private static List<Attribute> getProjected(List<Attribute> inputAttributes, List<Attribute> attributes) {
+		List<Attribute> projected = new ArrayList<Attribute>();
+		for (Attribute attr : inputAttributes) {
+			if (attributes.contains(attr)) {
+				projected.add(attr);
+			}
+		}
+		return projected;
+	}
+
+	@Override
+	protected void doOpen() throws IOException {
+		input.open();
+	}
+
+	@Override
+	protected ColumnBatch doNextBatch() throws IOException {
+		ColumnBatch batch = input.nextBatch();
+		if (batch == null) {
+			return null;
+		}
+
+		long[][] values = new long[columns.length][];
+		boolean[] coded = new boolean[columns.length];
+		for (int i = 0; i < columns.length; i++) {
+			values[i] = batch.getColumn(columns[i]);
+			coded[i] = batch.isCoded(columns[i]);
+		}
+		ColumnBatch output = new ColumnBatch(values, coded);
+		output.setTuples(batch.getCount(), batch.getSelection());
+		return output;
+	}
+
+	@Override
+	protected void doClose() throws IOException {
+		input.close();
+	}
+}
@@ -0,0 +1,161 @@
+package sjdb;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * This class reads the tuples of a named relation from its data file, as a
+ * ScanIterator does, into column batches. Integers are encoded straight from
+ * the line they are read from, without taking them out of it as strings.
+ * Attributes that are not read by the rest of the plan are not encoded at all,
+ * and their columns hold nulls.
+ *
+ * A scan given a MorselSource reads only the morsels it claims from it,
+ * sharing the file with the other workers that scan the relation.
+ */
+public class BatchScanIterator extends BatchIterator {
+	private final File file;
+	private final Collection<Attribute> used;
+	private final ColumnBatch batch;
+	private final MorselSource morsels;
+	private BufferedReader reader;
+	private String[] lines;
+	private int lineCount;
+	private int linePosition;
+	private int[] columns;
+	// Number of fields of a line to split, up to the last one encoded
+	private int fields;
+
+	/**
+	 * @param label Description of the operator, for profiles
+	 * @param attributes Attributes of the relation
+	 * @param used Attributes to be encoded
+	 * @param dictionary Dictionary to encode the values with
+	 * @param file CSV file holding the relation
+	 */
+	public BatchScanIterator(String label, List<Attribute> attributes, Collection<Attribute> used, ValueDictionary dictionary, File file) {
+		this(label, attributes, used, dictionary, file, null);
+	}
+
+	/**
+	 * @param label Description of the operator, for profiles
+	 * @param attributes Attributes of the relation
+	 * @param used Attributes to be encoded
+	 * @param dictionary Dictionary to encode the values with
+	 * @param file CSV file holding the relation
+	 * @param morsels Source of the morsels to read, or null to read the whole file
+	 */
+	public BatchScanIterator(String label, List<Attribute> attributes, Collection<Attribute> used, ValueDictionary dictionary, File file,
+			MorselSource morsels) {
+		super(label, attributes, dictionary);
+		this.file = file;
+		this.used = used;
+		this.batch = new ColumnBatch(attributes.size(), ColumnBatch.DEFAULT_SIZE);
+		this.morsels = morsels;
+	}
+
+	@Override
+	protected void doOpen() throws IOException {
+		String header;
+		if (morsels == null) {
+			reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8);
+			header = reader.readLine();
+			if (header == null) {
+				throw new IOException("No header line in " + file);
+			}
+		} else {
+			header = morsels.getHeader();
+			lines = new String[MorselSource.MORSEL_ROWS];
+			lineCount = 0;
+			linePosition = 0;
+		}
+
+		String[] names = header.split(",");
+		List<Attribute> attributes = getAttributes();
+		int found = 0;
+		fields = 0;
+		columns = new int[names.length];
+		for (int i = 0; i < names.length; i++) {
+			columns[i] = -1;
+			for (int j = 0; j < attributes.size(); j++) {
+				if (attributes.get(j).getName().equals(names[i].trim())) {
+					columns[i] = used.contains(attributes.get(j)) ? j : -1;
+					fields = columns[i] >= 0 ? i + 1 : fields;
+					found++;
+				}
+			}
+		}
+		if (found < attributes.size()) {
+			throw new IOException("Missing attributes in " + file + ": found " + header + ", need " + attributes);
+		}
+	}
+
+	@Override
+	protected ColumnBatch doNextBatch() throws IOException {
+		ValueDictionary dictionary = getDictionary();
+		long[][] values = batch.getColumns();
+		boolean[] coded = batch.getCoded();
+		Arrays.fill(coded, false);
+
+		int row = 0;
+		String line;
+		while (row < ColumnBatch.DEFAULT_SIZE && (line = nextLine()) != null) {
+			if (line.isEmpty()) {
+				continue;
+			}
+			for (long[] column : values) {
+				column[row] = ValueDictionary.NULL;
+			}
+			int start = 0;
+			for (int i = 0; i < fields && start <= line.length(); i++) {
+				int end = line.indexOf(',', start);
+				if (end < 0) {
+					end = line.length();
+				}
+				int column = columns[i];
+				if (column >= 0) {
+					long value = dictionary.encode(line, start, end);
+					values[column][row] = value;
+					coded[column] |= value != ValueDictionary.NULL && !ValueDictionary.isInteger(value);
+				}
+				start = end + 1;
+			}
+			row++;
+		}
+
+		if (row == 0) {
+			return null;
+		}
+		batch.setTuples(row, null);
+		return batch;
+	}
+
+	private String nextLine() throws IOException {
+		if (morsels == null) {
+			return reader.readLine();
+		}
+		if (linePosition == lineCount) {
+			lineCount = morsels.readLines(lines);
+			linePosition = 0;
+			if (lineCount == 0) {
+				return null;
+			}
+		}
+		return lines[linePosition++];
+	}
+
+	@Override
+	protected void doClose() throws IOException {
+		lines = null;
+		if (reader != null) {
+			reader.close();
+			reader = null;
+		}
+	}
+}
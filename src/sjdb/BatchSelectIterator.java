@@ -0,0 +1,100 @@
+package sjdb;
+
+import java.io.IOException;
+
+/**
+ * This class selects the tuples of column batches that satisfy a predicate,
+ * with the same meaning as a SelectIterator, by writing a selection vector
+ * over its input's columns rather than copying any values.
+ *
+ * Equality is tested on the encoded values, and ranges by a RangeTest: as a
+ * range of integers on the encoded values, for a batch whose column holds
+ * no values with codes and a range with numeric bounds, and otherwise value
+ * by value.
+ */
+public class BatchSelectIterator extends BatchIterator {
+	private final BatchIterator input;
+	private final Predicate predicate;
+	private final BatchFilter filter;
+	private final int leftIndex;
+	private final int rightIndex;
+	private final int[] selection;
+	private long value;
+	private RangeTest range;
+
+	/**
+	 * @param label Description of the operator, for profiles
+	 * @param input Iterator returning the tuples to be selected from
+	 * @param predicate Predicate on the attributes of the input
+	 */
+	public BatchSelectIterator(String label, BatchIterator input, Predicate predicate) {
+		super(label, input.getAttributes(), input.getDictionary(), input);
+		this.input = input;
+		this.predicate = predicate;
+		this.filter = BatchFilter.getDefault();
+		this.leftIndex = input.indexOf(predicate.getLeftAttribute());
+		this.rightIndex = predicate.comparesValue() ? -1 : input.indexOf(predicate.getRightAttribute());
+		this.selection = new int[ColumnBatch.DEFAULT_SIZE];
+
+		if (predicate.comparesValue()) {
+			Predicate.Comparison comparison = predicate.getComparison();
+			if (comparison == Predicate.Comparison.EQUALS || comparison == Predicate.Comparison.NOT_EQUALS) {
+				this.value = getDictionary().encode(predicate.getRightValue());
+			} else {
+				this.range = new RangeTest(predicate, getDictionary());
+			}
+		}
+	}
+
+	@Override
+	protected void doOpen() throws IOException {
+		input.open();
+	}
+
+	@Override
+	protected ColumnBatch doNextBatch() throws IOException {
+		ColumnBatch batch = input.nextBatch();
+		if (batch == null) {
+			return null;
+		}
+
+		long[] column = batch.getColumn(leftIndex);
+		int count = batch.getCount();
+		int[] in = batch.getSelection();
+		int n;
+
+		if (rightIndex >= 0) {
+			n = filter.selectEqualColumns(column, batch.getColumn(rightIndex), count, in, selection);
+		} else if (predicate.getComparison() == Predicate.Comparison.EQUALS) {
+			n = filter.selectEqual(column, value, count, in, selection);
+		} else if (predicate.getComparison() == Predicate.Comparison.NOT_EQUALS) {
+			n = filter.selectNotEqual(column, value, count, in, selection);
+		} else if (range.isIntegerRange() && !batch.isCoded(leftIndex)) {
+			long lower = range.getLower();
+			long upper = range.getUpper();
+			n = lower > upper ? 0 : filter.selectBetween(column, lower, upper, count, in, selection);
+		} else {
+			n = selectRange(column, count, in);
+		}
+
+		ColumnBatch output = new ColumnBatch(batch.getColumns(), batch.getCoded());
+		output.setTuples(n, selection);
+		return output;
+	}
+
+	// Test a range on a column that may hold coded values
+	private int selectRange(long[] column, int count, int[] in) {
+		int n = 0;
+		for (int j = 0; j < count; j++) {
+			int i = in == null ? j : in[j];
+			selection[n] = i;
+			n += range.test(column[i]) ? 1 : 0;
+		}
+		return n;
+	}
+
+	@Override
+	protected void doClose() throws IOException {
+		input.close();
+	}
+}
@@ -0,0 +1,53 @@
+package sjdb;
+
+import java.io.IOException;
+
+/**
+ * This class returns the tuples of column batches one at a time, decoding
+ * their values, so that a plan run on batches can be read like any other.
+ */
+public class BatchTupleIterator extends TupleIterator {
+	private final BatchIterator input;
+	private ColumnBatch batch;
+	private int position;
+
+	/**
+	 * @param input Iterator returning the batches
+	 */
+	public BatchTupleIterator(BatchIterator input) {
+		super("DECODE", input.getAttributes(), input);
+		this.input = input;
+	}
+
+	@Override
+	protected void doOpen() throws IOException {
+		input.open();
+		batch = null;
+		position = 0;
+	}
+
+	@Override
+	protected String[] doNext() throws IOException {
+		while (batch == null || position >= batch.getCount()) {
+			batch = input.nextBatch();
+			position = 0;
+			if (batch == null) {
+				return null;
+			}
+		}
+
+		ValueDictionary dictionary = input.getDictionary();
+		int row = batch.getRow(position++);
+		String[] tuple = new String[getAttributes().size()];
+		for (int i = 0; i < tuple.length; i++) {
+			tuple[i] = dictionary.decode(batch.getColumn(i)[row]);
+		}
+		return tuple;
+	}
+
+	@Override
+	protected void doClose() throws IOException {
+		batch = null;
+		input.close();
+	}
+}
@@ -1,8 +1,5 @@
 package sjdb;
 
-import java.util.ArrayList;
-import java.util.List;
-
 /**
  * This abstract class represents a binary operator, and is
  * subclassed by Product and Join
@@ -35,16 +32,6 @@ public abstract class BinaryOperator extends Operator {
 		return this.inputs.get(1);
 	}
 
-	/* (non-Javadoc)
-	 * @see sjdb.Operator#getInputs()
-	 */
-	@Override
-	public List<Operator> getInputs() {
-		List<Operator> inputs = new ArrayList<Operator>();
-		inputs.addAll(this.inputs);
-		return inputs;
-	}
-
 	/* (non-Javadoc)
 	 * @see sjdb.Operator#getOutput()
 	 */
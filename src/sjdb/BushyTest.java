@@ -0,0 +1,219 @@
+package sjdb;
+
+import java.io.File;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/**
+ * This class checks the bushy plans of the optimiser (see Optimiser.setBushy):
+ * that the CcpEnumerator finds as many csg-cmp pairs for chains, stars, cycles
+ * and cliques as the closed forms of DPccp give; that bushy plans only hold
+ * products between parts of a query that no predicate joins; that they return
+ * as many tuples as the canonical plans of queries of each shape, over data
+ * from a WorkloadGenerator of the given seed; and that a clique of as many
+ * relations as dynamic programming takes, with more pairs than the bushy pair
+ * limit, falls back to a left-deep plan in reasonable time.
+ *
+ * Usage: java sjdb.BushyTest [seed]
+ */
+public class BushyTest {
+	private static final int MAX_PAIR_RELATIONS = 12;
+	private static final int RELATIONS = 12;
+	private static final int RELATIONS_PER_QUERY = 4;
+	private static final int DISCONNECTED_RELATIONS = 6;
+	// Small enough for the products of the canonical plans to be run
+	private static final long MIN_TUPLES = 10;
+	private static final long MAX_TUPLES = 100;
+	private static final long FALLBACK_TIME = 10000;
+
+	public static void main(String[] args) throws Exception {
+		long seed = args.length > 0 ? Long.parseLong(args[0]) : 0;
+		// The clique first, so that it is not helped along by the JIT compiler
+		fallback(seed);
+		pairCounts();
+		products(seed);
+		Path directory = Files.createTempDirectory("sjdb-bushy");
+		try {
+			rowCounts(seed, directory.toFile());
+		} finally {
+			try (Stream<Path> files = Files.walk(directory)) {
+				files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+			}
+		}
+		System.out.println("OK");
+	}
+
+	// The number of pairs of each shape of join graph is that of DPccp, whether kept or only counted
+	private static void pairCounts() {
+		for (int n = 1; n <= MAX_PAIR_RELATIONS; n++) {
+			int[] chain = new int[n];
+			int[] star = new int[n];
+			int[] cycle = new int[n];
+			int[] clique = new int[n];
+			for (int i = 0; i < n; i++) {
+				chain[i] = (i > 0 ? 1 << (i - 1) : 0) | (i + 1 < n ? 1 << (i + 1) : 0);
+				star[i] = i == 0 ? (1 << n) - 2 : 1;
+				cycle[i] = n < 3 ? chain[i] : chain[i] | (i == 0 ? 1 << (n - 1) : 0) | (i == n - 1 ? 1 : 0);
+				clique[i] = ((1 << n) - 1) & ~(1 << i);
+			}
+			long pow2 = 1L << n;
+			long pow3 = Math.round(Math.pow(3, n));
+			checkPairs("chain", chain, ((long) n * n * n - n) / 6);
+			checkPairs("star", star, n < 2 ? 0 : (n - 1) * (pow2 >> 2));
+			if (n >= 3) {
+				checkPairs("cycle", cycle, ((long) n * n * n - 2L * n * n + n) / 2);
+			}
+			checkPairs("clique", clique, (pow3 - 2 * pow2 + 1) / 2);
+		}
+	}
+
+	private static void checkPairs(String shape, int[] neighbours, long expected) {
+		int n = neighbours.length;
+		long pairs = new CcpEnumerator(neighbours).getPairCount();
+		check(pairs == expected, shape + " of " + n + " relations has " + pairs + " csg-cmp pairs, not " + expected);
+		long listed = 0;
+		CcpEnumerator ccp = new CcpEnumerator(neighbours);
+		for (int size = 2; size <= n; size++) {
+			for (int set : ccp.getSets(size)) {
+				listed += ccp.getPairs(set).size();
+			}
+		}
+		check(listed == expected, shape + " of " + n + " relations lists " + listed + " csg-cmp pairs, not " + expected);
+		check(CcpEnumerator.countPairs(neighbours, Long.MAX_VALUE - 1) == expected, shape + " of " + n + " relations miscounted");
+		if (expected > 0) {
+			check(CcpEnumerator.countPairs(neighbours, expected - 1) == expected, shape + " of " + n + " relations counted past its limit");
+		}
+	}
+
+	// A clique of as many relations as dynamic programming takes has too many pairs for bushy plans
+	private static void fallback(long seed) throws Exception {
+		WorkloadGenerator workload = new WorkloadGenerator(RELATIONS, seed);
+		String query = workload.generateQuery(WorkloadGenerator.Shape.CLIQUE, Optimiser.DEFAULT_DP_LIMIT);
+		Catalogue catalogue = workload.createCatalogue();
+		Operator canonical = new QueryParser(catalogue, new StringReader(query)).parse();
+		Optimiser optimiser = new Optimiser(catalogue);
+		optimiser.setBushy(true);
+
+		long start = System.currentTimeMillis();
+		optimiser.optimise(canonical);
+		long time = System.currentTimeMillis() - start;
+		check(time < FALLBACK_TIME, "bushy clique of " + Optimiser.DEFAULT_DP_LIMIT + " relations took " + time + " ms");
+		System.out.println("clique of " + Optimiser.DEFAULT_DP_LIMIT + " relations: " + time + " ms");
+	}
+
+	// Products only join parts of a query that no predicate joins: none for connected queries,
+	// and one for a chain with a predicate dropped
+	private static void products(long seed) throws Exception {
+		WorkloadGenerator workload = new WorkloadGenerator(RELATIONS, seed);
+		List<String> queries = new ArrayList<String>();
+		for (WorkloadGenerator.Shape shape : WorkloadGenerator.Shape.values()) {
+			queries.add(workload.generateQuery(shape, RELATIONS_PER_QUERY * 2));
+		}
+		// The predicates of a chain come first in its WHERE clause, so dropping the third splits it in two
+		String[] lines = workload.generateQuery(WorkloadGenerator.Shape.CHAIN, DISCONNECTED_RELATIONS).split("\n");
+		List<String> where = new ArrayList<String>(Arrays.asList(lines[2].substring("WHERE ".length()).split(",")));
+		where.remove(2);
+		String disconnected = lines[0] + "\n" + lines[1] + "\nWHERE " + String.join(",", where) + "\n";
+		Catalogue catalogue = workload.createCatalogue();
+
+		for (String query : queries) {
+			check(countProducts(catalogue, query) == 0, "bushy plan of a connected query has a product:\n" + query);
+		}
+		check(countProducts(catalogue, disconnected) == 1, "bushy plan of two components has not one product:\n" + disconnected);
+	}
+
+	private static int countProducts(Catalogue catalogue, String query) throws Exception {
+		Operator canonical = new QueryParser(catalogue, new StringReader(query)).parse();
+		List<Predicate> predicates = new ArrayList<Predicate>();
+		collectJoinPredicates(canonical, predicates);
+		Optimiser optimiser = new Optimiser(catalogue);
+		optimiser.setBushy(true);
+		Operator plan = optimiser.optimise(canonical);
+		return countProducts(plan, predicates, query);
+	}
+
+	// Count the products of a plan, checking that no predicate joins their inputs
+	private static int countProducts(Operator op, List<Predicate> predicates, String query) {
+		int products = 0;
+		if (op instanceof Product) {
+			Set<Attribute> left = new HashSet<Attribute>();
+			Set<Attribute> right = new HashSet<Attribute>();
+			collectAttributes(op.getInputs().get(0), left);
+			collectAttributes(op.getInputs().get(1), right);
+			for (Predicate predicate : predicates) {
+				Attribute a = predicate.getLeftAttribute();
+				Attribute b = predicate.getRightAttribute();
+				check(!(left.contains(a) && right.contains(b) || left.contains(b) && right.contains(a)),
+						"bushy plan has a product of inputs joined by " + predicate + ":\n" + query);
+			}
+			products++;
+		}
+		for (Operator input : op.getInputs()) {
+			products += countProducts(input, predicates, query);
+		}
+		return products;
+	}
+
+	private static void collectJoinPredicates(Operator op, List<Predicate> predicates) {
+		if (op instanceof Select && !((Select) op).getPredicate().comparesValue()) {
+			predicates.add(((Select) op).getPredicate());
+		}
+		for (Operator input : op.getInputs()) {
+			collectJoinPredicates(input, predicates);
+		}
+	}
+
+	private static void collectAttributes(Operator op, Set<Attribute> attributes) {
+		if (op instanceof Scan) {
+			attributes.addAll(((Scan) op).getRelation().getAttributes());
+		}
+		for (Operator input : op.getInputs()) {
+			collectAttributes(input, attributes);
+		}
+	}
+
+	// Bushy plans return as many tuples as the canonical plans
+	private static void rowCounts(long seed, File directory) throws Exception {
+		WorkloadGenerator workload = new WorkloadGenerator(RELATIONS, seed);
+		workload.setTupleRange(MIN_TUPLES, MAX_TUPLES);
+		List<String> queries = new ArrayList<String>();
+		for (WorkloadGenerator.Shape shape : WorkloadGenerator.Shape.values()) {
+			queries.add(workload.generateQuery(shape, RELATIONS_PER_QUERY));
+		}
+		Catalogue catalogue = workload.createCatalogue();
+		workload.writeData(directory);
+
+		for (String query : queries) {
+			Operator canonical = new QueryParser(catalogue, new StringReader(query)).parse();
+			canonical.accept(new Estimator());
+			Optimiser optimiser = new Optimiser(catalogue);
+			optimiser.setBushy(true);
+			Operator plan = optimiser.optimise(canonical);
+
+			long expected = run(directory, canonical);
+			long rows = run(directory, plan);
+			check(rows == expected, "bushy plan returned " + rows + " tuples, not " + expected + ", for\n" + query + "\n" + plan);
+		}
+		System.out.println(queries.size() + " queries");
+	}
+
+	private static long run(File directory, Operator plan) throws Exception {
+		Executor executor = new Executor(directory);
+		executor.setVectorised(true);
+		return Executor.run(executor.compile(plan));
+	}
+
+	private static void check(boolean condition, String message) {
+		if (!condition) {
+			throw new AssertionError(message);
+		}
+	}
+}
@@ -1,20 +1,25 @@
 package sjdb;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 
 /**
  * This class contains the system catalogue for the database; it
  * is responsible for:
  * 
  * - creating new NamedRelations
- * - creating new Attributes
+ * - creating new Attributes, and numbering them
+ * - declaring indexes on the attributes of NamedRelations
  * 
  * The catalogue maintains a directory of NamedRelations and
  * Attributes, indexed by name.
  * 
  * Note that any statistical information about named relations or
  * the attributes therein is stored on the relations or attributes,
- * and not in the catalogue.
+ * and not in the catalogue. Listeners are told whenever a relation
+ * is redefined or gains an attribute, so that anything derived from
+ * the old statistics can be discarded.
  * 
  * @author nmg
  *
@@ -23,11 +28,31 @@ public class Catalogue {
 	
 	private HashMap<String, NamedRelation> relations;
 	private HashMap<String, Attribute> attributes;
+	private List<CatalogueListener> listeners;
 
 
 	public Catalogue() {
 		this.relations = new HashMap<String, NamedRelation>();
 		this.attributes = new HashMap<String, Attribute>();
+		this.listeners = new ArrayList<CatalogueListener>();
+	}
+	
+	/**
+	 * Register a listener to be told about changes to relation statistics.
+	 * 
+	 * @param listener
+	 */
+	public void addListener(CatalogueListener listener) {
+		listeners.add(listener);
+	}
+	
+	/**
+	 * Remove a previously registered listener.
+	 * 
+	 * @param listener
+	 */
+	public void removeListener(CatalogueListener listener) {
+		listeners.remove(listener);
 	}
 	
 	/**
@@ -37,29 +62,96 @@ public class Catalogue {
 	 * @param relName
 	 * @param size
 	 */
-	public NamedRelation createRelation(String relName, int size) {
+	public NamedRelation createRelation(String relName, long size) {
 		NamedRelation reln = new NamedRelation(relName, size);
-		relations.put(relName, reln);
+		NamedRelation old = relations.put(relName, reln);
+		if (old != null) {
+			fireRelationChanged(old);
+		}
 		return reln;
 	}
 	
 	/**
 	 * Create a new Attribute with the specified name and number of distinct
 	 * values, add it to the directory and associate it with the specified 
-	 * NamedRelation.
+	 * NamedRelation. Attributes are given dense integer ids from 0, in the
+	 * order their names are first seen.
 	 * 
 	 * @param relName
 	 * @param attName
 	 * @param values
 	 * @return
 	 */
-	public Attribute createAttribute(String relName, String attName, int values) {
-		Attribute attr = new Attribute(attName, values);
+	public Attribute createAttribute(String relName, String attName, long values) {
+		return createAttribute(relName, attName, values, null);
+	}
+	
+	/**
+	 * Create a new attribute with the given name, number of distinct values
+	 * and distribution of values, as createAttribute(String, String, long).
+	 * 
+	 * @param relName
+	 * @param attName
+	 * @param values
+	 * @param histogram distribution of the values, or null if they are uniform
+	 * @return
+	 */
+	public Attribute createAttribute(String relName, String attName, long values, Histogram histogram) {
+		return createAttribute(relName, attName, values, histogram, 0);
+	}
+	
+	/**
+	 * Create a new attribute with the given name, number of distinct values,
+	 * distribution of values and width, as createAttribute(String, String, long).
+	 * 
+	 * @param relName
+	 * @param attName
+	 * @param values
+	 * @param histogram distribution of the values, or null if they are uniform
+	 * @param width average width of the values in bytes, or 0 if not known
+	 * @return
+	 */
+	public Attribute createAttribute(String relName, String attName, long values, Histogram histogram, int width) {
+		Attribute old = attributes.get(attName);
+		int id = old == null ? attributes.size() : old.getId();
+		Attribute attr = new Attribute(attName, values, id, histogram, width);
 		attributes.put(attName, attr);
-		relations.get(relName).addAttribute(attr);
+		NamedRelation reln = relations.get(relName);
+		reln.addAttribute(attr);
+		fireRelationChanged(reln);
 		return attr;
 	}
 	
+	/**
+	 * Declare an index on an attribute of a NamedRelation. The attribute
+	 * must already have been created on the relation.
+	 * 
+	 * @param relName
+	 * @param attName
+	 * @param type kind of index
+	 * @param clustered true if the relation is stored in the order of the attribute
+	 * @return
+	 */
+	public Index createIndex(String relName, String attName, Index.Type type, boolean clustered) throws DatabaseException {
+		NamedRelation reln = getRelation(relName);
+		Attribute attr = getAttribute(attName);
+		
+		if (!reln.containsAttribute(attr)) {
+			throw new DatabaseException("Attribute " + attName + " not found in " + relName);
+		}
+		
+		Index index = new Index(attr, type, clustered);
+		reln.addIndex(index);
+		fireRelationChanged(reln);
+		return index;
+	}
+	
+	private void fireRelationChanged(NamedRelation reln) {
+		for (CatalogueListener listener : listeners) {
+			listener.relationChanged(reln);
+		}
+	}
+	
 	/**
 	 * Return the NamedRelation with the specified name.
 	 * 
@@ -76,6 +168,16 @@ public class Catalogue {
 		return reln;
 	}
 	
+	/**
+	 * Return the number of attributes in the directory; attribute ids are
+	 * smaller than this.
+	 * 
+	 * @return
+	 */
+	public int getAttributeCount() {
+		return attributes.size();
+	}
+	
 	/**
 	 * Return the Attribute with the specified name.
 	 * 
@@ -0,0 +1,15 @@
+package sjdb;
+
+/**
+ * This is an interface for classes that need to know when the statistics
+ * held in the system catalogue change, such as caches of plans that were
+ * optimised using the old statistics.
+ */
+public interface CatalogueListener {
+	/**
+	 * Called when a named relation, or one of its attributes, is created
+	 * or redefined in the catalogue.
+	 * @param relation The relation whose statistics changed
+	 */
+	public void relationChanged(NamedRelation relation);
+}
@@ -1,5 +1,10 @@
 package sjdb;
 import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * This class parses a serialised system catalogue, and uses the
@@ -10,6 +15,25 @@ import java.io.*;
  * 
  * <relation name>:<tuple count>:<attr name>,<value count>:<attr name>,<value count>
  * 
+ * An attribute may be followed by options giving the distribution of its
+ * values: its smallest and largest values, its most common values, each with
+ * the fraction of the tuples that take it, and the bounds of an equi-depth
+ * histogram over the other values (see Histogram), for example:
+ * 
+ * <attr name>,<value count>,min=<value>,max=<value>
+ * <attr name>,<value count>,mcv=<value>/<fraction>|<value>/<fraction>,hist=<bound>|<bound>|<bound>
+ * 
+ * An attribute may also give the average width of its values in bytes, which
+ * is used by the cost model (see Attribute.DEFAULT_WIDTH):
+ * 
+ * <attr name>,<value count>,width=<bytes>
+ * 
+ * Indexes on an attribute are declared by their kind, B-tree or hash, either
+ * of which may be clustered (the relation is stored in the order of the
+ * attribute), for example:
+ * 
+ * <attr name>,<value count>,index=btree/clustered|hash
+ * 
  * @author nmg
  */
 public class CatalogueParser {
@@ -42,9 +66,9 @@ public class CatalogueParser {
 		}
 	}
 	
-	private void parseRelation(String[] parts) {
+	private void parseRelation(String[] parts) throws DatabaseException {
 		String reln = parts[0];
-		int size = Integer.decode(parts[1]).intValue();
+		long size = Long.decode(parts[1]).longValue();
 		
 		catalogue.createRelation(reln, size);
 		
@@ -53,10 +77,54 @@ public class CatalogueParser {
 		}
 	}
 
-	private void parseAttribute(String reln, String[] parts) {
+	private void parseAttribute(String reln, String[] parts) throws DatabaseException {
 		String attr = parts[0];
-		int values = Integer.decode(parts[1]).intValue();
+		long values = Long.decode(parts[1]).longValue();
+		int width = 0;
+		String minValue = null;
+		String maxValue = null;
+		Map<String, Double> commonValues = new LinkedHashMap<String, Double>();
+		List<String> bounds = new ArrayList<String>();
+		List<String> indexes = new ArrayList<String>();
+		
+		for (int i = 2; i < parts.length; i++) {
+			String[] option = parts[i].split("=", 2);
+			
+			if (option.length != 2) {
+				throw new IllegalArgumentException("Bad attribute option: " + parts[i]);
+			} else if (option[0].equals("width")) {
+				width = Integer.parseInt(option[1]);
+			} else if (option[0].equals("min")) {
+				minValue = option[1];
+			} else if (option[0].equals("max")) {
+				maxValue = option[1];
+			} else if (option[0].equals("mcv")) {
+				for (String entry : option[1].split("\\|")) {
+					String[] pair = entry.split("/", 2);
+					commonValues.put(pair[0], Double.valueOf(pair[1]));
+				}
+			} else if (option[0].equals("hist")) {
+				bounds.addAll(Arrays.asList(option[1].split("\\|")));
+			} else if (option[0].equals("index")) {
+				indexes.addAll(Arrays.asList(option[1].split("\\|")));
+			} else {
+				throw new IllegalArgumentException("Unknown attribute option: " + option[0]);
+			}
+		}
 		
-		catalogue.createAttribute(reln, attr, values);
+		Histogram histogram = null;
+		if (minValue != null || maxValue != null || !commonValues.isEmpty() || !bounds.isEmpty()) {
+			histogram = new Histogram(minValue, maxValue, commonValues, bounds);
+		}
+		catalogue.createAttribute(reln, attr, values, histogram, width);
+		
+		for (String index : indexes) {
+			String[] kind = index.split("/", 2);
+			
+			if (kind.length == 2 && !kind[1].equals("clustered")) {
+				throw new IllegalArgumentException("Bad index: " + index);
+			}
+			catalogue.createIndex(reln, attr, Index.Type.fromName(kind[0]), kind.length == 2);
+		}
 	}
 }
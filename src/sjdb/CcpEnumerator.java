@@ -0,0 +1,186 @@
+package sjdb;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * This class enumerates the csg-cmp pairs of a join graph, as in the DPccp
+ * algorithm: every pair of disjoint, connected sets of relations that are
+ * connected to each other by a predicate, each pair found exactly once.
+ *
+ * Relations are numbered from 0, and sets of relations are int bitmasks. The
+ * pairs are grouped by their union, and the unions by their size, both in the
+ * order they were found, so that the best plan of every set of size k can be
+ * built once those of all smaller sets are known.
+ *
+ * The number of pairs grows with the density of the graph, from (n^3-n)/6 for
+ * a chain of n relations to (3^n-2^(n+1)+1)/2 for a clique, so countPairs()
+ * can count them, up to a limit, without keeping them, before the optimiser
+ * commits to costing them.
+ */
+public class CcpEnumerator {
+    private int[] neighbours;
+    private List<List<Integer>> sets;
+    private HashMap<Integer, List<int[]>> pairs;
+    private long count;
+    private long limit;
+
+    /**
+     * Enumerate the csg-cmp pairs of a join graph
+     * @param neighbours for each relation, the set of relations it is joined to
+     */
+    public CcpEnumerator(int[] neighbours){
+        this(neighbours, Long.MAX_VALUE, true);
+    }
+
+    private CcpEnumerator(int[] neighbours, long limit, boolean keep){
+        int n = neighbours.length;
+
+        this.neighbours = neighbours;
+        this.limit = limit;
+
+        if(keep){
+            this.sets = new ArrayList<>();
+            this.pairs = new HashMap<>();
+
+            for(int i = 0; i <= n; i++){
+                sets.add(new ArrayList<>());
+            }
+        }
+
+        // Visit relations in descending order, so that a set is only ever grown with
+        // relations of a higher index than its lowest one
+        for(int i = n - 1; i >= 0 && count <= limit; i--){
+            emitSubgraph(1 << i);
+            enumerateSubgraphs(1 << i, (1 << (i + 1)) - 1);
+        }
+    }
+
+    /**
+     * Count the csg-cmp pairs of a join graph without keeping them, stopping
+     * once there are more than a limit
+     * @param neighbours for each relation, the set of relations it is joined to
+     * @param limit largest count wanted
+     * @return number of pairs, or limit + 1 if there are more than limit
+     */
+    public static long countPairs(int[] neighbours, long limit){
+        return Math.min(new CcpEnumerator(neighbours, limit, false).count, limit + 1);
+    }
+
+    /**
+     * Return the number of csg-cmp pairs
+     * @return pair count
+     */
+    public long getPairCount(){
+        return count;
+    }
+
+    /**
+     * Return the sets of the given size that are the union of a csg-cmp pair
+     * @param size number of relations
+     * @return sets of relations
+     */
+    public List<Integer> getSets(int size){
+        return sets.get(size);
+    }
+
+    /**
+     * Return the csg-cmp pairs whose union is the given set
+     * @param set set of relations
+     * @return pairs of sets of relations
+     */
+    public List<int[]> getPairs(int set){
+        return pairs.get(set);
+    }
+
+    /**
+     * Return the connected component of the join graph that contains a set of relations
+     * @param set set of relations
+     * @return set of relations in the component
+     */
+    public int getComponent(int set){
+        int component = set;
+        int frontier = set;
+
+        while(frontier != 0){
+            frontier = getNeighbourhood(component);
+            component |= frontier;
+        }
+
+        return component;
+    }
+
+    // Grow a connected set by subsets of its neighbourhood that are not excluded
+    private void enumerateSubgraphs(int subgraph, int excluded){
+        int neighbourhood = getNeighbourhood(subgraph) & ~excluded;
+
+        for(int s = neighbourhood & -neighbourhood; s != 0 && count <= limit; s = (s - neighbourhood) & neighbourhood){
+            emitSubgraph(subgraph | s);
+        }
+
+        for(int s = neighbourhood & -neighbourhood; s != 0 && count <= limit; s = (s - neighbourhood) & neighbourhood){
+            enumerateSubgraphs(subgraph | s, excluded | neighbourhood);
+        }
+    }
+
+    // Find the connected complements of a connected set: each starts from a neighbour of
+    // the set with a higher index than the set's lowest relation
+    private void emitSubgraph(int subgraph){
+        int lowest = Integer.numberOfTrailingZeros(subgraph);
+        int excluded = subgraph | ((1 << (lowest + 1)) - 1);
+        int neighbourhood = getNeighbourhood(subgraph) & ~excluded;
+
+        for(int v = 31 - Integer.numberOfLeadingZeros(neighbourhood); v >= 0 && count <= limit; v--){
+            if((neighbourhood & (1 << v)) == 0){
+                continue;
+            }
+
+            // Neighbours below v are left for the complements that start from them
+            int lower = neighbourhood & ((1 << (v + 1)) - 1);
+            emitPair(subgraph, 1 << v);
+            enumerateComplements(subgraph, 1 << v, excluded | lower);
+        }
+    }
+
+    private void enumerateComplements(int subgraph, int complement, int excluded){
+        int neighbourhood = getNeighbourhood(complement) & ~excluded;
+
+        for(int s = neighbourhood & -neighbourhood; s != 0 && count <= limit; s = (s - neighbourhood) & neighbourhood){
+            emitPair(subgraph, complement | s);
+        }
+
+        for(int s = neighbourhood & -neighbourhood; s != 0 && count <= limit; s = (s - neighbourhood) & neighbourhood){
+            enumerateComplements(subgraph, complement | s, excluded | neighbourhood);
+        }
+    }
+
+    private void emitPair(int first, int second){
+        count++;
+
+        if(pairs == null){
+            return;
+        }
+
+        int union = first | second;
+        List<int[]> unionPairs = pairs.get(union);
+
+        if(unionPairs == null){
+            unionPairs = new ArrayList<>();
+            pairs.put(union, unionPairs);
+            sets.get(Integer.bitCount(union)).add(union);
+        }
+
+        unionPairs.add(new int[]{first, second});
+    }
+
+    private int getNeighbourhood(int set){
+        int neighbourhood = 0;
+
+        for(int i = set; i != 0; i &= i - 1){
+            neighbourhood |= neighbours[Integer.numberOfTrailingZeros(i)];
+        }
+
+        return neighbourhood & ~set;
+    }
+}
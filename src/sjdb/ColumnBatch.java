@@ -0,0 +1,106 @@
+package sjdb;
+
+/**
+ * This class holds a batch of tuples by column, for vectorised execution:
+ * one array of encoded values (see ValueDictionary) for each attribute of the
+ * output of an operator, in the order of its attributes.
+ *
+ * The tuples in a batch are the first rows of the arrays, or, if the batch
+ * has a selection vector, the rows whose indexes it lists in increasing
+ * order, so that a select only has to write the indexes of the rows that
+ * satisfy its predicate, without copying any values. A batch also records,
+ * for each column, whether it may hold values that are not integers or null,
+ * so that a predicate can be tested on integers alone where it is known that
+ * there are no others.
+ *
+ * A batch returned by a BatchIterator, and its arrays, belong to the iterator
+ * and are only valid until its next call.
+ */
+public class ColumnBatch {
+	/**
+	 * The number of rows in a batch, which is small enough that the columns
+	 * in use stay in the processor's cache
+	 */
+	public static final int DEFAULT_SIZE = 2048;
+
+	private final long[][] columns;
+	private final boolean[] coded;
+	private int[] selection;
+	private int count;
+
+	/**
+	 * Create a batch over arrays of values
+	 * @param columns Arrays of encoded values, one for each attribute
+	 * @param coded For each column, true if it may hold values with dictionary codes
+	 */
+	public ColumnBatch(long[][] columns, boolean[] coded) {
+		this.columns = columns;
+		this.coded = coded;
+	}
+
+	/**
+	 * Create a batch of empty columns
+	 * @param columnCount Number of attributes
+	 * @param capacity Number of rows of each column
+	 */
+	public ColumnBatch(int columnCount, int capacity) {
+		this.columns = new long[columnCount][capacity];
+		this.coded = new boolean[columnCount];
+	}
+
+	public long[] getColumn(int column) {
+		return columns[column];
+	}
+
+	public long[][] getColumns() {
+		return columns;
+	}
+
+	/**
+	 * Return true if a column may hold values with dictionary codes
+	 * @param column
+	 * @return false if every value is an integer or null
+	 */
+	public boolean isCoded(int column) {
+		return coded[column];
+	}
+
+	public boolean[] getCoded() {
+		return coded;
+	}
+
+	/**
+	 * Return the number of tuples in the batch
+	 * @return Tuple count
+	 */
+	public int getCount() {
+		return count;
+	}
+
+	/**
+	 * Return the selection vector
+	 * @return Indexes of the rows of the tuples, or null if the tuples are the first rows
+	 */
+	public int[] getSelection() {
+		return selection;
+	}
+
+	/**
+	 * Return the row of a tuple
+	 * @param i Index of the tuple, below getCount()
+	 * @return Index of its row in the columns
+	 */
+	public int getRow(int i) {
+		return selection == null ? i : selection[i];
+	}
+
+	/**
+	 * Set the tuples of the batch
+	 * @param count Number of tuples
+	 * @param selection Indexes of their rows, or null for the first rows
+	 */
+	public void setTuples(int count, int[] selection) {
+		this.count = count;
+		this.selection = selection;
+	}
+}
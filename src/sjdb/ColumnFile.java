@@ -0,0 +1,186 @@
+package sjdb;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * This class reads the values of one attribute of a relation from a column
+ * file written by ColumnStore, mapped into memory so that reading a value is
+ * reading the page it is on. A column file is a header of HEADER_BYTES, then
+ * the values of its tuples in order, in one of two encodings:
+ *
+ * - INTEGER: every value is an integer encoded as itself by a
+ *   ValueDictionary, and the values are longs (ValueDictionary.NULL if null)
+ * - DICTIONARY: the values are ints, each the index of the value in the
+ *   dictionary at the end of the file (or -1 if null), whose values are in
+ *   string order, each its length in UTF-8 bytes and its bytes
+ *
+ * The header holds, as little-endian ints and longs: the magic number and
+ * version of the format, the encoding, the size of the dictionary, the tuple
+ * count, the smallest and largest values (integers, or indexes into the
+ * dictionary; NULL if the column has no values) and the offset of the
+ * dictionary.
+ */
+public class ColumnFile {
+	public enum Encoding {
+		INTEGER, DICTIONARY
+	}
+
+	public static final int MAGIC = 0x434A4453;
+	public static final int VERSION = 1;
+	public static final int HEADER_BYTES = 48;
+
+	private final File file;
+	private final Encoding encoding;
+	private final long tupleCount;
+	private final long min;
+	private final long max;
+	private final String[] dictionary;
+	private LongBuffer integers;
+	private IntBuffer codes;
+
+	private ColumnFile(File file, ByteBuffer buffer) throws IOException {
+		this.file = file;
+		if (buffer.capacity() < HEADER_BYTES || buffer.getInt(0) != MAGIC) {
+			throw new IOException("Not a column file: " + file);
+		}
+		if (buffer.getInt(4) != VERSION) {
+			throw new IOException("Unknown version " + buffer.getInt(4) + " of column file " + file);
+		}
+		int type = buffer.getInt(8);
+		if (type < 0 || type >= Encoding.values().length) {
+			throw new IOException("Unknown encoding " + type + " of column file " + file);
+		}
+		this.encoding = Encoding.values()[type];
+		int dictionarySize = buffer.getInt(12);
+		this.tupleCount = buffer.getLong(16);
+		this.min = buffer.getLong(24);
+		this.max = buffer.getLong(32);
+
+		buffer.position(HEADER_BYTES);
+		if (encoding == Encoding.INTEGER) {
+			this.integers = buffer.slice().order(ByteOrder.LITTLE_ENDIAN).asLongBuffer();
+			this.dictionary = null;
+		} else {
+			this.codes = buffer.slice().order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+			this.dictionary = new String[dictionarySize];
+			int position = (int) buffer.getLong(40);
+			for (int i = 0; i < dictionarySize; i++) {
+				int length = buffer.getInt(position);
+				byte[] bytes = new byte[length];
+				buffer.get(position + 4, bytes);
+				dictionary[i] = new String(bytes, StandardCharsets.UTF_8);
+				position += 4 + length;
+			}
+		}
+	}
+
+	/**
+	 * Map a column file into memory
+	 * @param file
+	 * @return Column file, ready to be read
+	 * @throws IOException if the file cannot be read, or is not a column file
+	 */
+	public static ColumnFile open(File file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			if (channel.size() > Integer.MAX_VALUE) {
+				throw new IOException("Column file " + file + " is too large to map");
+			}
+			ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			return new ColumnFile(file, buffer.order(ByteOrder.LITTLE_ENDIAN));
+		}
+	}
+
+	public Encoding getEncoding() {
+		return encoding;
+	}
+
+	public long getTupleCount() {
+		return tupleCount;
+	}
+
+	/**
+	 * Return the values of the dictionary, in string order
+	 * @return Values, or null for an integer column
+	 */
+	public String[] getDictionary() {
+		return dictionary;
+	}
+
+	/**
+	 * Return the smallest value of the column
+	 * @return Value, or null if the column has no values
+	 */
+	public String getMin() {
+		return decode(min);
+	}
+
+	/**
+	 * Return the largest value of the column
+	 * @return Value, or null if the column has no values
+	 */
+	public String getMax() {
+		return decode(max);
+	}
+
+	private String decode(long value) {
+		if (value == ValueDictionary.NULL) {
+			return null;
+		}
+		return encoding == Encoding.INTEGER ? Long.toString(value) : dictionary[(int) value];
+	}
+
+	/**
+	 * Return the value of a tuple
+	 * @param row Index of the tuple
+	 * @return Value, or null
+	 */
+	public String getValue(int row) {
+		if (encoding == Encoding.INTEGER) {
+			long value = integers.get(row);
+			return value == ValueDictionary.NULL ? null : Long.toString(value);
+		}
+		int code = codes.get(row);
+		return code < 0 ? null : dictionary[code];
+	}
+
+	/**
+	 * Copy the values of tuples of an integer column
+	 * @param row Index of the first tuple
+	 * @param target Array to copy the values into, from its start
+	 * @param count Number of tuples
+	 */
+	public void readIntegers(int row, long[] target, int count) {
+		integers.get(row, target, 0, count);
+	}
+
+	/**
+	 * Copy the dictionary indexes of tuples of a dictionary column
+	 * @param row Index of the first tuple
+	 * @param target Array to copy the indexes into, from its start
+	 * @param count Number of tuples
+	 */
+	public void readCodes(int row, int[] target, int count) {
+		codes.get(row, target, 0, count);
+	}
+
+	/**
+	 * Drop the mapping of the file, which is unmapped when it is collected
+	 */
+	public void close() {
+		integers = null;
+		codes = null;
+	}
+
+	@Override
+	public String toString() {
+		return file.toString();
+	}
+}
@@ -0,0 +1,122 @@
+package sjdb;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * This class reads the tuples of a named relation from its column files (see
+ * ColumnStore), as a ScanIterator does from its CSV file. Only the files of
+ * the attributes read by the rest of the plan are mapped, and the values of
+ * the other attributes are null.
+ */
+public class ColumnScanIterator extends TupleIterator {
+	private final File directory;
+	private final String relation;
+	private final Collection<Attribute> used;
+	private ColumnFile[] files;
+	private long tupleCount;
+	private int row;
+
+	/**
+	 * @param label Description of the operator, for profiles
+	 * @param attributes Attributes of the relation
+	 * @param used Attributes to be read
+	 * @param directory Data directory
+	 * @param relation Name of the relation
+	 */
+	public ColumnScanIterator(String label, List<Attribute> attributes, Collection<Attribute> used, File directory, String relation) {
+		super(label, attributes);
+		this.directory = directory;
+		this.relation = relation;
+		this.used = used;
+	}
+
+	/**
+	 * Map the column files of the attributes that are used
+	 * @param attributes Attributes of the relation
+	 * @param used Attributes to be read
+	 * @param directory Data directory
+	 * @param relation Name of the relation
+	 * @return Column file of each attribute, null if it is not used
+	 * @throws IOException if the files are missing or do not have the same tuple count
+	 */
+	static ColumnFile[] openFiles(List<Attribute> attributes, Collection<Attribute> used, File directory, String relation)
+			throws IOException {
+		ColumnFile[] files = new ColumnFile[attributes.size()];
+		long tupleCount = -1;
+		for (int i = 0; i < files.length; i++) {
+			Attribute attribute = attributes.get(i);
+			if (!used.contains(attribute)) {
+				continue;
+			}
+			File file = ColumnStore.getFile(directory, relation, attribute.getName());
+			if (!file.exists()) {
+				throw new IOException("Missing column file " + file);
+			}
+			files[i] = ColumnFile.open(file);
+			if (tupleCount >= 0 && files[i].getTupleCount() != tupleCount) {
+				throw new IOException("Column file " + file + " has " + files[i].getTupleCount() + " tuples, not " + tupleCount);
+			}
+			tupleCount = files[i].getTupleCount();
+		}
+		return files;
+	}
+
+	/**
+	 * Return the tuple count of a relation's column files
+	 * @param files Column files, null for the attributes not used
+	 * @param directory Data directory
+	 * @param relation Name of the relation
+	 * @param attributes Attributes of the relation
+	 * @return Tuple count
+	 * @throws IOException
+	 */
+	static long getTupleCount(ColumnFile[] files, File directory, String relation, List<Attribute> attributes) throws IOException {
+		for (ColumnFile file : files) {
+			if (file != null) {
+				return file.getTupleCount();
+			}
+		}
+		// No attribute is used (as under a product that needs only the count), so read any header
+		ColumnFile file = ColumnFile.open(ColumnStore.getFile(directory, relation, attributes.get(0).getName()));
+		long tupleCount = file.getTupleCount();
+		file.close();
+		return tupleCount;
+	}
+
+	@Override
+	protected void doOpen() throws IOException {
+		files = openFiles(getAttributes(), used, directory, relation);
+		tupleCount = getTupleCount(files, directory, relation, getAttributes());
+		row = 0;
+	}
+
+	@Override
+	protected String[] doNext() throws IOException {
+		if (row >= tupleCount) {
+			return null;
+		}
+		String[] tuple = new String[files.length];
+		for (int i = 0; i < files.length; i++) {
+			if (files[i] != null) {
+				tuple[i] = files[i].getValue(row);
+			}
+		}
+		row++;
+		return tuple;
+	}
+
+	@Override
+	protected void doClose() throws IOException {
+		if (files != null) {
+			for (ColumnFile file : files) {
+				if (file != null) {
+					file.close();
+				}
+			}
+			files = null;
+		}
+	}
+}
@@ -0,0 +1,283 @@
+package sjdb;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+/**
+ * This class gathers the statistics of one column of a relation in a single
+ * pass over its values, in bounded memory:
+ *
+ * - the number of distinct values, estimated by a HyperLogLog sketch
+ * - the smallest and largest values, and the average width of the values
+ * - the most common values, found by the Misra-Gries heavy hitters algorithm,
+ *   whose counts are low by at most 1/(counters+1) of the values (columns
+ *   with only a few distinct values have all of them counted exactly)
+ * - an equi-depth histogram over the other values, whose bounds are taken
+ *   from a uniform sample of the values kept by reservoir sampling
+ *
+ * Values are compared as numbers if every value of the column is numeric,
+ * and as strings otherwise (so ISO dates are in order).
+ */
+public class ColumnStatistics {
+	public static final int DEFAULT_COMMON_VALUES = 10;
+	public static final int DEFAULT_BUCKETS = 10;
+	public static final int DEFAULT_SAMPLE_SIZE = 10000;
+
+	// Characters that separate the parts of the catalogue format
+	private static final String RESERVED = ":,|/=\"";
+
+	private final String name;
+	private final HyperLogLog distinct;
+	private final int commonValueCount;
+	private final int bucketCount;
+	private final HashMap<String, long[]> counters;
+	private final int counterCount;
+	private final String[] sample;
+	private final SplittableRandom random;
+	private long count;
+	private long totalWidth;
+	private boolean exact;
+	private long nextSample;
+	private double sampleWeight;
+	private boolean numeric;
+	private double minNumber;
+	private double maxNumber;
+	private String minNumeric;
+	private String maxNumeric;
+	private String minString;
+	private String maxString;
+
+	public ColumnStatistics(String name, long seed) {
+		this(name, DEFAULT_COMMON_VALUES, DEFAULT_BUCKETS, DEFAULT_SAMPLE_SIZE, seed);
+	}
+
+	/**
+	 * @param name the attribute name
+	 * @param commonValueCount largest number of most common values to keep
+	 * @param bucketCount number of buckets in the histogram
+	 * @param sampleSize number of values sampled for the histogram
+	 * @param seed seed for the sample
+	 */
+	public ColumnStatistics(String name, int commonValueCount, int bucketCount, int sampleSize, long seed) {
+		this.name = name;
+		this.distinct = new HyperLogLog();
+		this.commonValueCount = commonValueCount;
+		this.bucketCount = bucketCount;
+		this.counterCount = Math.max(16, commonValueCount * 16);
+		this.counters = new HashMap<String, long[]>(counterCount * 2);
+		this.sample = new String[sampleSize];
+		this.random = new SplittableRandom(seed);
+		this.count = 0;
+		this.exact = true;
+		this.nextSample = sampleSize;
+		this.sampleWeight = Math.exp(Math.log(1 - random.nextDouble()) / sampleSize);
+		this.numeric = true;
+	}
+
+	/**
+	 * Add the next value of the column
+	 * @param value
+	 */
+	public void add(String value) {
+		distinct.add(value);
+		addCounter(value);
+		addSample(value);
+		addRange(value);
+		totalWidth += value.length();
+		count++;
+	}
+
+	/**
+	 * @return the attribute name
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return the number of values added
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * @return the estimated number of distinct values, at least 1 and at most
+	 * the number of values unless no values were added
+	 */
+	public long getValueCount() {
+		if (count == 0) {
+			return 0;
+		}
+		return Math.max(1, Math.min(count, distinct.estimate()));
+	}
+
+	/**
+	 * @return the average width of the values in bytes (taking a character
+	 * to be a byte), at least 1, or 0 if no values were added
+	 */
+	public int getWidth() {
+		if (count == 0) {
+			return 0;
+		}
+		return (int) Math.max(1, Math.round((double) totalWidth / count));
+	}
+
+	/**
+	 * Build the histogram of the column's values. Values that cannot be written
+	 * in the catalogue format are left out.
+	 * @return the histogram, or null if nothing is known about the values
+	 */
+	public Histogram getHistogram() {
+		if (count == 0) {
+			return null;
+		}
+
+		// A value is common if it is certainly more frequent than average, or if
+		// there are so few values that all of them were counted exactly
+		long valueCount = getValueCount();
+		boolean all = exact && counters.size() <= commonValueCount;
+		long error = count / (counterCount + 1);
+		List<Map.Entry<String, long[]>> candidates = new ArrayList<Map.Entry<String, long[]>>(counters.entrySet());
+		Collections.sort(candidates, (e1, e2) -> Long.compare(e2.getValue()[0], e1.getValue()[0]));
+		Map<String, Double> commonValues = new LinkedHashMap<String, Double>();
+		for (Map.Entry<String, long[]> entry : candidates) {
+			long c = entry.getValue()[0];
+			if (!all && (commonValues.size() == commonValueCount || c <= error || c * valueCount <= 2 * count)) {
+				break;
+			}
+			if (isWritable(entry.getKey())) {
+				commonValues.put(entry.getKey(), (double) c / count);
+			}
+		}
+
+		List<String> bounds = new ArrayList<String>();
+		List<String> others = new ArrayList<String>();
+		for (int i = 0; i < Math.min(count, sample.length); i++) {
+			if (!commonValues.containsKey(sample[i])) {
+				others.add(sample[i]);
+			}
+		}
+		if (!all && others.size() > 1 && valueCount > commonValues.size() + 1) {
+			Collections.sort(others, getComparator());
+			int buckets = Math.min(bucketCount, others.size() - 1);
+			for (int b = 0; b <= buckets; b++) {
+				bounds.add(others.get((int) ((long) b * (others.size() - 1) / buckets)));
+			}
+			for (int b = 0; b < bounds.size(); b++) {
+				// Strings that look like numbers are compared as numbers by the
+				// estimator, which may not be the order they were sorted in
+				if (!isWritable(bounds.get(b)) || (b > 0 && Histogram.compareValues(bounds.get(b - 1), bounds.get(b)) > 0)) {
+					bounds.clear();
+					break;
+				}
+			}
+		}
+
+		String min = isWritable(getMinValue()) ? getMinValue() : null;
+		String max = isWritable(getMaxValue()) ? getMaxValue() : null;
+		if (min != null && max != null && Histogram.compareValues(min, max) > 0) {
+			min = null;
+			max = null;
+		}
+		return new Histogram(min, max, commonValues, bounds);
+	}
+
+	/**
+	 * @return the smallest value, or null if no values were added
+	 */
+	public String getMinValue() {
+		return numeric ? minNumeric : minString;
+	}
+
+	/**
+	 * @return the largest value, or null if no values were added
+	 */
+	public String getMaxValue() {
+		return numeric ? maxNumeric : maxString;
+	}
+
+	// Misra-Gries: count the value if it has a counter or there is a free one,
+	// and otherwise take one from every counter
+	private void addCounter(String value) {
+		long[] counter = counters.get(value);
+		if (counter != null) {
+			counter[0]++;
+		} else if (counters.size() < counterCount) {
+			counters.put(value, new long[] { 1 });
+		} else {
+			exact = false;
+			Iterator<long[]> iter = counters.values().iterator();
+			while (iter.hasNext()) {
+				if (--iter.next()[0] == 0) {
+					iter.remove();
+				}
+			}
+		}
+	}
+
+	// Reservoir sampling with skips between the values that are kept (Li's Algorithm L)
+	private void addSample(String value) {
+		if (count < sample.length) {
+			sample[(int) count] = value;
+		} else if (count == nextSample) {
+			sample[random.nextInt(sample.length)] = value;
+			sampleWeight *= Math.exp(Math.log(1 - random.nextDouble()) / sample.length);
+		} else {
+			return;
+		}
+		if (count >= sample.length - 1) {
+			nextSample = count + 1 + (long) Math.floor(Math.log(1 - random.nextDouble()) / Math.log(1 - sampleWeight));
+		}
+	}
+
+	// Keep both the numeric and the string range, until a value is not a number
+	private void addRange(String value) {
+		if (numeric && Histogram.isNumber(value)) {
+			double number = Double.parseDouble(value);
+			if (count == 0 || number < minNumber) {
+				minNumber = number;
+				minNumeric = value;
+			}
+			if (count == 0 || number > maxNumber) {
+				maxNumber = number;
+				maxNumeric = value;
+			}
+		} else {
+			numeric = false;
+		}
+		if (minString == null || value.compareTo(minString) < 0) {
+			minString = value;
+		}
+		if (maxString == null || value.compareTo(maxString) > 0) {
+			maxString = value;
+		}
+	}
+
+	private Comparator<String> getComparator() {
+		if (numeric) {
+			return (v1, v2) -> Double.compare(Double.parseDouble(v1), Double.parseDouble(v2));
+		}
+		return Comparator.naturalOrder();
+	}
+
+	private static boolean isWritable(String value) {
+		if (value == null || value.isEmpty()) {
+			return false;
+		}
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (Character.isWhitespace(c) || RESERVED.indexOf(c) >= 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,321 @@
+package sjdb;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class converts data files into the columnar format read by the
+ * Executor: each relation is a directory named after it, holding a
+ * ColumnFile for each of its attributes, named after the attribute (for
+ * example, Person/age.col). A scan only maps the files of the attributes the
+ * plan uses, so the projections the Optimiser pushes down save reading the
+ * other attributes at all.
+ *
+ * A CSV file is read twice: once to find which columns hold only integers
+ * (which are stored as longs), and once to write the values, with the other
+ * columns given a dictionary of their distinct values.
+ *
+ * Usage: java sjdb.ColumnStore -o directory file-or-directory...
+ */
+public class ColumnStore {
+	/**
+	 * The extension of column files
+	 */
+	public static final String EXTENSION = ".col";
+
+	/**
+	 * Return the directory holding the column files of a relation
+	 * @param directory Data directory
+	 * @param relation Name of the relation
+	 * @return Directory of the relation
+	 */
+	public static File getDirectory(File directory, String relation) {
+		return new File(directory, relation);
+	}
+
+	/**
+	 * Return the column file of an attribute
+	 * @param directory Data directory
+	 * @param relation Name of the relation
+	 * @param attribute Name of the attribute
+	 * @return Column file
+	 */
+	public static File getFile(File directory, String relation, String attribute) {
+		return new File(getDirectory(directory, relation), attribute + EXTENSION);
+	}
+
+	/**
+	 * Return true if a relation has been converted into column files
+	 * @param directory Data directory
+	 * @param relation Name of the relation
+	 * @return true if the relation's directory exists
+	 */
+	public static boolean exists(File directory, String relation) {
+		return getDirectory(directory, relation).isDirectory();
+	}
+
+	// A column being written, with the dictionary of a column that is not all integers
+	private static class Column {
+		private final File file;
+		private boolean integer = true;
+		private long min = ValueDictionary.NULL;
+		private long max = ValueDictionary.NULL;
+		private FileChannel channel;
+		private ByteBuffer buffer;
+		private Map<String, Integer> codes;
+		private List<String> values;
+
+		private Column(File file) {
+			this.file = file;
+		}
+	}
+
+	/**
+	 * Convert a CSV file into column files
+	 * @param csv CSV file named after its relation, in the format read by the Analyser
+	 * @param directory Data directory to write the relation's directory in
+	 * @return Number of tuples converted
+	 * @throws IOException
+	 */
+	public long convert(File csv, File directory) throws IOException {
+		String name = csv.getName();
+		if (name.lastIndexOf('.') > 0) {
+			name = name.substring(0, name.lastIndexOf('.'));
+		}
+		File relationDirectory = getDirectory(directory, name);
+		Files.createDirectories(relationDirectory.toPath());
+
+		Column[] columns;
+		try (BufferedReader reader = Files.newBufferedReader(csv.toPath(), StandardCharsets.UTF_8)) {
+			String header = reader.readLine();
+			if (header == null) {
+				throw new IOException("No header line in " + csv);
+			}
+			String[] names = header.split(",");
+			columns = new Column[names.length];
+			for (int i = 0; i < names.length; i++) {
+				columns[i] = new Column(getFile(directory, name, names[i].trim()));
+			}
+
+			// Find the columns that hold only integers, and their ranges
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (line.isEmpty()) {
+					continue;
+				}
+				int start = 0;
+				for (int i = 0; i < columns.length && start <= line.length(); i++) {
+					int end = line.indexOf(',', start);
+					if (end < 0) {
+						end = line.length();
+					}
+					Column column = columns[i];
+					if (column.integer && end > start) {
+						long value = ValueDictionary.parseInteger(line, start, end);
+						if (value == ValueDictionary.NULL) {
+							column.integer = false;
+						} else {
+							column.min = column.min == ValueDictionary.NULL ? value : Math.min(column.min, value);
+							column.max = column.max == ValueDictionary.NULL ? value : Math.max(column.max, value);
+						}
+					}
+					start = end + 1;
+				}
+			}
+		}
+
+		long tuples = 0;
+		try (BufferedReader reader = Files.newBufferedReader(csv.toPath(), StandardCharsets.UTF_8)) {
+			reader.readLine();
+			for (Column column : columns) {
+				column.channel = FileChannel.open(column.file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+						StandardOpenOption.READ, StandardOpenOption.WRITE);
+				column.buffer = ByteBuffer.allocateDirect(MemoryBudget.BUFFER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+				column.channel.write(ByteBuffer.allocate(ColumnFile.HEADER_BYTES));
+				if (!column.integer) {
+					column.codes = new HashMap<String, Integer>();
+					column.values = new ArrayList<String>();
+				}
+			}
+
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (line.isEmpty()) {
+					continue;
+				}
+				int start = 0;
+				for (Column column : columns) {
+					// A line with too few fields leaves the last columns null
+					int end = start;
+					if (start <= line.length()) {
+						end = line.indexOf(',', start);
+						if (end < 0) {
+							end = line.length();
+						}
+					}
+					write(column, line, start, end);
+					start = end + 1;
+				}
+				tuples++;
+			}
+
+			for (Column column : columns) {
+				finish(column, tuples);
+			}
+		} finally {
+			for (Column column : columns) {
+				if (column.channel != null) {
+					column.channel.close();
+				}
+			}
+		}
+		return tuples;
+	}
+
+	private static void write(Column column, String line, int start, int end) throws IOException {
+		if (column.buffer.remaining() < 8) {
+			flush(column);
+		}
+		if (column.integer) {
+			column.buffer.putLong(ValueDictionary.parseInteger(line, start, end));
+		} else if (start == end) {
+			column.buffer.putInt(-1);
+		} else {
+			String value = line.substring(start, end);
+			Integer code = column.codes.get(value);
+			if (code == null) {
+				code = column.values.size();
+				column.codes.put(value, code);
+				column.values.add(value);
+			}
+			column.buffer.putInt(code);
+		}
+	}
+
+	private static void flush(Column column) throws IOException {
+		column.buffer.flip();
+		while (column.buffer.hasRemaining()) {
+			column.channel.write(column.buffer);
+		}
+		column.buffer.clear();
+	}
+
+	// Put the dictionary of a column in string order, and write it and the header
+	private static void finish(Column column, long tuples) throws IOException {
+		flush(column);
+		long dataEnd = column.channel.position();
+		int dictionarySize = 0;
+
+		if (!column.integer) {
+			String[] sorted = column.values.toArray(new String[0]);
+			Arrays.sort(sorted);
+			int[] ranks = new int[sorted.length];
+			for (int i = 0; i < sorted.length; i++) {
+				ranks[column.codes.get(sorted[i])] = i;
+			}
+			column.min = 0;
+			column.max = 0;
+			for (int i = 1; i < sorted.length; i++) {
+				if (Histogram.compareValues(sorted[i], sorted[(int) column.min]) < 0) {
+					column.min = i;
+				}
+				if (Histogram.compareValues(sorted[i], sorted[(int) column.max]) > 0) {
+					column.max = i;
+				}
+			}
+			if (sorted.length == 0) {
+				column.min = ValueDictionary.NULL;
+				column.max = ValueDictionary.NULL;
+			}
+
+			// Renumber the values written in the order they were first seen
+			if (dataEnd > ColumnFile.HEADER_BYTES) {
+				MappedByteBuffer mapped = column.channel.map(FileChannel.MapMode.READ_WRITE, ColumnFile.HEADER_BYTES,
+						dataEnd - ColumnFile.HEADER_BYTES);
+				IntBuffer codes = mapped.order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+				for (int i = 0; i < codes.limit(); i++) {
+					int code = codes.get(i);
+					if (code >= 0) {
+						codes.put(i, ranks[code]);
+					}
+				}
+				mapped.force();
+			}
+
+			column.channel.position(dataEnd);
+			for (String value : sorted) {
+				byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+				if (column.buffer.remaining() < 4 + bytes.length) {
+					flush(column);
+					if (column.buffer.capacity() < 4 + bytes.length) {
+						column.buffer = ByteBuffer.allocateDirect(4 + bytes.length).order(ByteOrder.LITTLE_ENDIAN);
+					}
+				}
+				column.buffer.putInt(bytes.length);
+				column.buffer.put(bytes);
+			}
+			flush(column);
+			dictionarySize = sorted.length;
+		}
+
+		ByteBuffer header = ByteBuffer.allocate(ColumnFile.HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+		header.putInt(ColumnFile.MAGIC);
+		header.putInt(ColumnFile.VERSION);
+		header.putInt(column.integer ? ColumnFile.Encoding.INTEGER.ordinal() : ColumnFile.Encoding.DICTIONARY.ordinal());
+		header.putInt(dictionarySize);
+		header.putLong(tuples);
+		header.putLong(column.min);
+		header.putLong(column.max);
+		header.putLong(dataEnd);
+		header.flip();
+		column.channel.position(0);
+		while (header.hasRemaining()) {
+			column.channel.write(header);
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		File output = null;
+		List<File> files = new ArrayList<File>();
+
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-o")) {
+				output = new File(args[++i]);
+			} else {
+				File file = new File(args[i]);
+				if (file.isDirectory()) {
+					File[] csvFiles = file.listFiles((dir, name) -> name.endsWith(".csv"));
+					Arrays.sort(csvFiles);
+					files.addAll(Arrays.asList(csvFiles));
+				} else {
+					files.add(file);
+				}
+			}
+		}
+
+		if (output == null || files.isEmpty()) {
+			System.err.println("Usage: java sjdb.ColumnStore -o directory file-or-directory...");
+			System.exit(1);
+		}
+
+		ColumnStore store = new ColumnStore();
+		for (File file : files) {
+			long tuples = store.convert(file, output);
+			System.out.println(file.getName() + ": " + tuples + " tuples");
+		}
+	}
+}
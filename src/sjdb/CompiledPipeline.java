@@ -0,0 +1,18 @@
+package sjdb;
+
+/**
+ * This abstract class is the loop that selects the tuples of a column batch
+ * for every select of a pipeline at once. Its subclasses are generated and
+ * compiled at run time by a PipelineCompiler, with each predicate written
+ * out in the loop for the columns and comparison it tests, so that nothing is
+ * decided per tuple but whether it passes.
+ */
+public abstract class CompiledPipeline {
+	/**
+	 * Select the tuples of a batch that satisfy all the predicates
+	 * @param batch Batch of the input of the pipeline
+	 * @param selection Array to write the rows of the tuples that pass into
+	 * @return Number of rows selected
+	 */
+	public abstract int select(ColumnBatch batch, int[] selection);
+}
@@ -0,0 +1,62 @@
+package sjdb;
+
+/**
+ * This class holds the estimated cost of running an operator (or a whole
+ * plan) in three dimensions: the pages read from or written to storage, the
+ * tuples processed, and the bytes moved between operators. A CostModel
+ * weighs the dimensions against each other to give a single total.
+ *
+ * Costs are immutable.
+ */
+public class Cost {
+	public static final Cost ZERO = new Cost(0, 0, 0);
+
+	private final double pages;
+	private final double tuples;
+	private final double bytes;
+
+	/**
+	 * @param pages pages read or written
+	 * @param tuples tuples processed
+	 * @param bytes bytes moved
+	 */
+	public Cost(double pages, double tuples, double bytes) {
+		this.pages = pages;
+		this.tuples = tuples;
+		this.bytes = bytes;
+	}
+
+	/**
+	 * @return the number of pages read or written
+	 */
+	public double getPages() {
+		return pages;
+	}
+
+	/**
+	 * @return the number of tuples processed
+	 */
+	public double getTuples() {
+		return tuples;
+	}
+
+	/**
+	 * @return the number of bytes moved
+	 */
+	public double getBytes() {
+		return bytes;
+	}
+
+	/**
+	 * Return the sum of this cost and another
+	 * @param other
+	 * @return the sum
+	 */
+	public Cost add(Cost other) {
+		return new Cost(pages + other.pages, tuples + other.tuples, bytes + other.bytes);
+	}
+
+	public String toString() {
+		return String.format("pages=%.0f tuples=%.0f bytes=%.0f", pages, tuples, bytes);
+	}
+}
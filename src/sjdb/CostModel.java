@@ -0,0 +1,117 @@
+package sjdb;
+
+/**
+ * This class turns the costs of operators into a single number, so that plans
+ * can be compared: the pages, tuples and bytes of a Cost are each multiplied
+ * by a weight and added up. The weights depend on the storage the data is on;
+ * the defaults make a page read cost as much as processing 100 tuples, and
+ * moving a page's worth of bytes in memory cost a tenth of reading a page.
+ *
+ * The model also sets the page size, used to turn the size of a relation (its
+ * tuple count times the widths of its attributes) into pages, and the number
+ * of pages of memory a join or sort may use before it has to spill to storage.
+ *
+ * Cost models are immutable.
+ */
+public class CostModel {
+	public static final double DEFAULT_PAGE_WEIGHT = 1.0;
+	public static final double DEFAULT_TUPLE_WEIGHT = 0.01;
+	public static final double DEFAULT_BYTE_WEIGHT = 0.1 / 8192;
+	public static final int DEFAULT_PAGE_SIZE = 8192;
+	public static final int DEFAULT_MEMORY_PAGES = 1024;
+
+	private final double pageWeight;
+	private final double tupleWeight;
+	private final double byteWeight;
+	private final int pageSize;
+	private final int memoryPages;
+
+	public CostModel() {
+		this(DEFAULT_PAGE_WEIGHT, DEFAULT_TUPLE_WEIGHT, DEFAULT_BYTE_WEIGHT, DEFAULT_PAGE_SIZE, DEFAULT_MEMORY_PAGES);
+	}
+
+	/**
+	 * @param pageWeight cost of reading or writing a page
+	 * @param tupleWeight cost of processing a tuple
+	 * @param byteWeight cost of moving a byte
+	 * @param pageSize page size in bytes
+	 */
+	public CostModel(double pageWeight, double tupleWeight, double byteWeight, int pageSize) {
+		this(pageWeight, tupleWeight, byteWeight, pageSize, DEFAULT_MEMORY_PAGES);
+	}
+
+	/**
+	 * @param pageWeight cost of reading or writing a page
+	 * @param tupleWeight cost of processing a tuple
+	 * @param byteWeight cost of moving a byte
+	 * @param pageSize page size in bytes
+	 * @param memoryPages pages of memory available to a join or sort
+	 */
+	public CostModel(double pageWeight, double tupleWeight, double byteWeight, int pageSize, int memoryPages) {
+		if (pageWeight < 0 || tupleWeight < 0 || byteWeight < 0) {
+			throw new IllegalArgumentException("Cost weights must not be negative");
+		}
+		if (pageSize < 1) {
+			throw new IllegalArgumentException("Page size must be at least 1 byte");
+		}
+		if (memoryPages < 3) {
+			throw new IllegalArgumentException("Joins need at least 3 pages of memory");
+		}
+		this.pageWeight = pageWeight;
+		this.tupleWeight = tupleWeight;
+		this.byteWeight = byteWeight;
+		this.pageSize = pageSize;
+		this.memoryPages = memoryPages;
+	}
+
+	public double getPageWeight() {
+		return pageWeight;
+	}
+
+	public double getTupleWeight() {
+		return tupleWeight;
+	}
+
+	public double getByteWeight() {
+		return byteWeight;
+	}
+
+	public int getPageSize() {
+		return pageSize;
+	}
+
+	public int getMemoryPages() {
+		return memoryPages;
+	}
+
+	/**
+	 * Return the weighted total of a cost
+	 * @param cost
+	 * @return the total
+	 */
+	public double getTotal(Cost cost) {
+		return pageWeight * cost.getPages() + tupleWeight * cost.getTuples() + byteWeight * cost.getBytes();
+	}
+
+	/**
+	 * Return the number of bytes taken by the tuples of a relation
+	 * @param relation
+	 * @return the size in bytes
+	 */
+	public double getBytes(Relation relation) {
+		return (double) relation.getTupleCount() * relation.getTupleWidth();
+	}
+
+	/**
+	 * Return the number of pages taken by the tuples of a relation
+	 * @param relation
+	 * @return the size in pages
+	 */
+	public double getPages(Relation relation) {
+		return Math.ceil(getBytes(relation) / pageSize);
+	}
+
+	public String toString() {
+		return "page=" + pageWeight + " tuple=" + tupleWeight + " byte=" + byteWeight + " pagesize=" + pageSize + " memory=" + memoryPages;
+	}
+}
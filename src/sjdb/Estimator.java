@@ -1,14 +1,422 @@
 package sjdb;
 
+import java.util.ArrayDeque;
+import java.util.BitSet;
+import java.util.Deque;
 import java.util.List;
-import java.util.ArrayList;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 
+/**
+ * This class estimates the output relations of the operators in a query plan.
+ *
+ * Used as a PlanVisitor, it sets the output of every operator in the plan it
+ * visits. The optimiser instead calls estimate(), which remembers the output
+ * of every subplan it has seen without touching the operators: a candidate
+ * plan that is built on top of subplans that have already been estimated only
+ * costs the work for its new operators.
+ *
+ * Attributes are never modified, so unchanged attributes are shared between
+ * the input and output relations rather than copied.
+ *
+ * Values are assumed to be uniform, except for attributes that carry a
+ * Histogram, whose most common values and buckets are used for the
+ * selectivity of attr=value and attr=attr predicates, and whose buckets or
+ * smallest and largest values are used for that of ranges.
+ *
+ * Alongside each output, estimate() works out the Cost of the operator (the
+ * pages it reads or writes, the tuples it processes and the bytes it moves)
+ * and of the whole plan below it, which a CostModel weighs into the total
+ * that the optimiser minimises:
+ *
+ * - a Scan reads the pages of its relation and processes its tuples
+ * - an IndexScan reads the pages of its index that lead to the tuples it
+ *   finds, and then the pages holding those tuples: all next to each other if
+ *   the index is clustered, and each on a page of its own otherwise
+ * - a Select or Project processes the tuples of its input and moves those it
+ *   outputs, without touching storage
+ * - a logical Join processes the tuples of both inputs and of its output, and
+ *   a Product every pair of input tuples; both write out their results
+ * - a physical Join is costed by its algorithm: a hash join copies its build
+ *   input into a hash table and, if that does not fit in memory, partitions
+ *   both inputs to storage first (recursively, for very large inputs); a
+ *   sort-merge join sorts the inputs that are not already sorted on the join
+ *   attributes (externally, if they do not fit in memory); a block nested-loop
+ *   join compares every pair of tuples, reading its inner input again for each
+ *   block of the outer one; and an index nested-loop join searches the index
+ *   of its inner IndexScan once for each outer tuple
+ *
+ * The estimator also keeps track of the attributes each plan's output is
+ * sorted on: sort-merge joins and B-tree index scans produce sorted output, hash
+ * and index nested-loop joins keep the order of the input they stream through, and selects and projects keep the order
+ * of their input.
+ *
+ * An estimator is not thread-safe. To estimate plans on several threads, give
+ * each thread its own estimator created on a shared one: these read the
+ * estimates of the shared estimator (and of any estimator that one was created
+ * on), which must not be used meanwhile, and keep new estimates to themselves
+ * until the ones worth keeping are merged back into it.
+ */
 public class Estimator implements PlanVisitor {
+	// Bytes an index entry takes to point to its tuple
+	private static final int INDEX_POINTER_WIDTH = 8;
 
+	private IdentityHashMap<Operator, Estimate> outputs;
+	private Estimator shared;
+	private CostModel costModel;
 
 	public Estimator() {
-		// empty constructor
+		this(new CostModel());
+	}
+
+	/**
+	 * Create an estimator that costs plans with the given model
+	 * @param costModel Weights of the dimensions of costs
+	 */
+	public Estimator(CostModel costModel) {
+		this.outputs = new IdentityHashMap<Operator, Estimate>();
+		this.shared = null;
+		this.costModel = costModel;
+	}
+
+	/**
+	 * Create an estimator that reuses the estimates of another one, and
+	 * costs plans with the same model
+	 * @param shared Estimator whose estimates are read but not changed
+	 */
+	public Estimator(Estimator shared) {
+		this.outputs = new IdentityHashMap<Operator, Estimate>();
+		this.shared = shared;
+		this.costModel = shared.costModel;
+	}
+
+	/**
+	 * Add the estimates that another estimator made for a plan and its
+	 * subplans to this one's, leaving out those of any other plans it has
+	 * estimated.
+	 * @param other Estimator created on this one
+	 * @param plan Plan whose estimates are to be kept
+	 */
+	public void merge(Estimator other, Operator plan) {
+		if (lookup(plan) != null) {
+			return;
+		}
+
+		Estimate estimate = other.outputs.get(plan);
+
+		if (estimate != null) {
+			outputs.put(plan, estimate);
+
+			for (Operator input : plan.getInputs()) {
+				merge(other, input);
+			}
+		}
+	}
+
+	/**
+	 * Return the estimated output relation of a plan, reusing the estimates
+	 * of any of its subplans that this estimator has seen before.
+	 * @param op Root of the plan
+	 * @return Estimated output relation
+	 */
+	public Relation estimate(Operator op) {
+		return lookupOrEstimate(op).output;
+	}
+
+	/**
+	 * Return the estimated cost of a plan: the sum of the costs of its operators
+	 * @param op Root of the plan
+	 * @return Estimated cost
+	 */
+	public Cost getCost(Operator op) {
+		return lookupOrEstimate(op).cost;
+	}
+
+	/**
+	 * Return the estimated cost of a plan, weighted into a total by the cost model
+	 * @param op Root of the plan
+	 * @return Estimated total cost
+	 */
+	public double getTotalCost(Operator op) {
+		return costModel.getTotal(getCost(op));
+	}
+
+	/**
+	 * Return the ids of the attributes that the output of a plan is sorted on.
+	 * The set is owned by the estimator and must not be modified.
+	 * @param op Root of the plan
+	 * @return Attribute ids, or null if the output is not sorted
+	 */
+	public BitSet getSortOrder(Operator op) {
+		return lookupOrEstimate(op).sortOrder;
+	}
+
+	/**
+	 * Return the model used to weigh costs
+	 * @return Cost model
+	 */
+	public CostModel getCostModel() {
+		return costModel;
+	}
+
+	private Estimate lookupOrEstimate(Operator op) {
+		Estimate estimate = lookup(op);
+
+		if (estimate == null) {
+			// Estimate the operators below first, bottom-up, so that a deep plan (such as one
+			// with a select for each predicate of a wide query) is not estimated by recursion
+			Deque<Operator> stack = new ArrayDeque<Operator>();
+			stack.push(op);
+			while (!stack.isEmpty()) {
+				Operator next = stack.peek();
+				boolean ready = true;
+				for (Operator input : next.getInputs()) {
+					if (lookup(input) == null) {
+						stack.push(input);
+						ready = false;
+					}
+				}
+				if (ready) {
+					stack.pop();
+					estimate = lookup(next);
+					if (estimate == null) {
+						estimate = estimateOperator(next);
+					}
+				}
+			}
+		}
+
+		return estimate;
+	}
+
+	// Estimate an operator whose inputs have been estimated
+	private Estimate estimateOperator(Operator op) {
+		Relation output;
+		Cost cost;
+		BitSet sortOrder = null;
+
+		if (op instanceof Scan) {
+			Relation input = ((Scan) op).getRelation();
+			output = estimateScan(input);
+			cost = new Cost(costModel.getPages(input), input.getTupleCount(), costModel.getBytes(output));
+		} else if (op instanceof IndexScan) {
+			IndexScan scan = (IndexScan) op;
+			Index index = scan.getIndex();
+
+			if (scan.getPredicate() == null) {
+				// Probed by the index nested-loop join above, which pays for the lookups
+				output = estimateScan(scan.getRelation());
+				cost = Cost.ZERO;
+			} else {
+				output = estimateSelect(scan.getRelation(), scan.getPredicate());
+				cost = estimateIndexScanCost(scan, output);
+
+				if (index.getType() == Index.Type.BTREE && index.getAttribute().getId() >= 0) {
+					sortOrder = new BitSet();
+					sortOrder.set(index.getAttribute().getId());
+				}
+			}
+		} else if (op instanceof Project || op instanceof Select) {
+			Estimate input = lookupOrEstimate(((UnaryOperator) op).getInput());
+
+			if (op instanceof Project) {
+				output = estimateProject(input.output, ((Project) op).getAttributes());
+
+				if (input.sortOrder != null && input.sortOrder.intersects(output.getAttributeSet())) {
+					sortOrder = (BitSet) input.sortOrder.clone();
+					sortOrder.and(output.getAttributeSet());
+				}
+			} else {
+				output = estimateSelect(input.output, ((Select) op).getPredicate());
+				sortOrder = input.sortOrder;
+			}
+
+			cost = input.cost.add(new Cost(0, input.output.getTupleCount(), costModel.getBytes(output)));
+		} else {
+			BinaryOperator binary = (BinaryOperator) op;
+			Estimate left = lookupOrEstimate(binary.getLeft());
+			Estimate right = lookupOrEstimate(binary.getRight());
+			double tuples;
+
+			if (op instanceof Join && ((Join) op).getMethod() != null) {
+				Join join = (Join) op;
+				output = estimateJoin(left.output, right.output, join.getPredicate());
+				cost = left.cost.add(right.cost).add(estimateJoinCost(join, left, right, output));
+				sortOrder = getJoinSortOrder(join, left, right);
+			} else {
+				if (op instanceof Join) {
+					output = estimateJoin(left.output, right.output, ((Join) op).getPredicate());
+					tuples = (double) left.output.getTupleCount() + right.output.getTupleCount() + output.getTupleCount();
+				} else {
+					output = estimateProduct(left.output, right.output);
+					tuples = (double) left.output.getTupleCount() * right.output.getTupleCount();
+				}
+
+				cost = left.cost.add(right.cost).add(new Cost(costModel.getPages(output), tuples, costModel.getBytes(output)));
+			}
+		}
+
+		Estimate estimate = new Estimate(output, cost, sortOrder);
+		outputs.put(op, estimate);
+		return estimate;
+	}
+
+	/**
+	 * Return the number of estimates this estimator holds itself
+	 * @return Number of estimated operators
+	 */
+	public int size() {
+		return outputs.size();
+	}
+
+	// Find an earlier estimate, here or in the estimators this one reads from
+	private Estimate lookup(Operator op) {
+		Estimate estimate = outputs.get(op);
+
+		if (estimate == null && shared != null) {
+			estimate = shared.lookup(op);
+		}
+
+		return estimate;
+	}
+
+	// Cost of running a physical join, not counting its inputs
+	private Cost estimateJoinCost(Join join, Estimate left, Estimate right, Relation output) {
+		Estimate build = join.isBuildLeft() ? left : right;
+		Estimate probe = join.isBuildLeft() ? right : left;
+		double buildPages = costModel.getPages(build.output);
+		double probePages = costModel.getPages(probe.output);
+		double outputBytes = costModel.getBytes(output);
+		int memory = costModel.getMemoryPages();
+
+		switch(join.getMethod()){
+		case HASH: {
+			// If the hash table does not fit, partition both inputs to storage and read them
+			// back, as many ways at once as memory allows, until the build partitions fit
+			double pages = 0;
+			if (buildPages > memory) {
+				double passes = Math.ceil(Math.log(buildPages / memory) / Math.log(memory - 1));
+				pages = 2 * (buildPages + probePages) * Math.max(1, passes);
+			}
+			double tuples = (double) build.output.getTupleCount() + probe.output.getTupleCount() + output.getTupleCount();
+			return new Cost(pages, tuples, costModel.getBytes(build.output) + outputBytes);
+		}
+		case SORT_MERGE: {
+			Predicate predicate = join.getPredicate();
+			Cost cost = new Cost(0, (double) left.output.getTupleCount() + right.output.getTupleCount() + output.getTupleCount(), outputBytes);
+
+			if (!isSorted(left, left.output.getAttribute(predicate.getLeftAttribute()))) {
+				cost = cost.add(estimateSortCost(left.output));
+			}
+			if (!isSorted(right, right.output.getAttribute(predicate.getRightAttribute()))) {
+				cost = cost.add(estimateSortCost(right.output));
+			}
+			return cost;
+		}
+		case INDEX_NESTED_LOOP: {
+			// Each outer tuple searches the index of the inner input, reading a leaf of a B-tree
+			// (whose upper levels stay in memory from one probe to the next) or a bucket of a
+			// hash index, and fetches its matches
+			IndexScan inner = (IndexScan) (join.isBuildLeft() ? join.getRight() : join.getLeft());
+			double outerTuples = build.output.getTupleCount();
+			double matches = outerTuples == 0 ? 0 : output.getTupleCount() / outerTuples;
+			double pages = outerTuples * (1 + estimateFetchPages(inner, matches));
+			return new Cost(pages, outerTuples + output.getTupleCount(), outputBytes);
+		}
+		default: {
+			// The outer input is read in blocks of all but two pages of memory; if it takes
+			// more than one block, the inner input is written out and read once per block
+			double blocks = Math.ceil(buildPages / (memory - 2));
+			double pages = blocks <= 1 ? 0 : probePages * (blocks + 1);
+			double tuples = (double) build.output.getTupleCount() * probe.output.getTupleCount() + output.getTupleCount();
+			return new Cost(pages, tuples, costModel.getBytes(build.output) + outputBytes);
+		}
+		}
+	}
+
+	// Cost of finding the tuples of an index scan with a predicate: searching the
+	// index (the root-to-leaf path and the leaves in the range of a B-tree, or a
+	// bucket of a hash index) and fetching the tuples found
+	private Cost estimateIndexScanCost(IndexScan scan, Relation output) {
+		NamedRelation relation = scan.getRelation();
+		double found = output.getTupleCount();
+		double pages;
+
+		if (scan.getIndex().getType() == Index.Type.BTREE) {
+			double entryWidth = relation.getAttribute(scan.getIndex().getAttribute()).getWidth() + INDEX_POINTER_WIDTH;
+			double fanout = Math.max(2, Math.floor(costModel.getPageSize() / entryWidth));
+			double height = Math.max(1, Math.ceil(Math.log(Math.max(1, relation.getTupleCount())) / Math.log(fanout)));
+			pages = height + Math.ceil(found * entryWidth / costModel.getPageSize());
+		} else {
+			pages = 1;
+		}
+
+		pages += estimateFetchPages(scan, found);
+		return new Cost(pages, found, costModel.getBytes(output));
+	}
+
+	// Pages read to fetch the tuples found through an index: those the tuples fill if the
+	// relation is clustered on the indexed attribute, and otherwise a page per tuple
+	private double estimateFetchPages(IndexScan scan, double tuples) {
+		if (!scan.getIndex().isClustered()) {
+			return tuples;
+		}
+		return Math.min(tuples, Math.ceil(tuples * scan.getRelation().getTupleWidth() / costModel.getPageSize()));
+	}
+
+	// Cost of sorting a relation: in memory if it fits, and otherwise by writing sorted
+	// runs and merging them as many ways at once as memory allows
+	private Cost estimateSortCost(Relation input) {
+		double pages = costModel.getPages(input);
+		double tuples = input.getTupleCount();
+		double comparisons = tuples * Math.log(Math.max(2, tuples)) / Math.log(2);
+		int memory = costModel.getMemoryPages();
+
+		if (pages <= memory) {
+			return new Cost(0, comparisons, costModel.getBytes(input));
+		}
+
+		double runs = Math.ceil(pages / memory);
+		double passes = 1 + Math.ceil(Math.log(runs) / Math.log(memory - 1));
+		return new Cost(2 * pages * passes, comparisons, costModel.getBytes(input) * passes);
+	}
+
+	// The attributes a physical join's output is sorted on
+	private BitSet getJoinSortOrder(Join join, Estimate left, Estimate right) {
+		if (join.getMethod() == Join.Method.SORT_MERGE) {
+			BitSet sortOrder = new BitSet();
+			int leftId = left.output.getAttribute(join.getPredicate().getLeftAttribute()).getId();
+			int rightId = right.output.getAttribute(join.getPredicate().getRightAttribute()).getId();
+
+			if (leftId >= 0) {
+				sortOrder.set(leftId);
+			}
+			if (rightId >= 0) {
+				sortOrder.set(rightId);
+			}
+			return sortOrder.isEmpty() ? null : sortOrder;
+		} else if (join.getMethod() == Join.Method.HASH || join.getMethod() == Join.Method.INDEX_NESTED_LOOP) {
+			return join.isBuildLeft() ? right.sortOrder : left.sortOrder;
+		}
+		return null;
+	}
+
+	private boolean isSorted(Estimate estimate, Attribute attr) {
+		return estimate.sortOrder != null && attr.getId() >= 0 && estimate.sortOrder.get(attr.getId());
+	}
+
+	// The estimated output of a plan, the cost of producing it, and the attributes
+	// it is sorted on (or null)
+	private static class Estimate {
+		private final Relation output;
+		private final Cost cost;
+		private final BitSet sortOrder;
+
+		private Estimate(Relation output, Cost cost, BitSet sortOrder) {
+			this.output = output;
+			this.cost = cost;
+			this.sortOrder = sortOrder;
+		}
 	}
 
 	/* 
@@ -17,149 +425,255 @@ public class Estimator implements PlanVisitor {
 	 * Example implementation of visit method for Scan operators.
 	 */
 	public void visit(Scan op) {
-		Relation input = op.getRelation();
+		op.setOutput(estimateScan(op.getRelation()));
+	}
+
+	public void visit(IndexScan op) {
+		if (op.getPredicate() == null) {
+			op.setOutput(estimateScan(op.getRelation()));
+		} else {
+			op.setOutput(estimateSelect(op.getRelation(), op.getPredicate()));
+		}
+	}
+
+	public void visit(Project op) {
+		op.setOutput(estimateProject(op.getInput().getOutput(), op.getAttributes()));
+	}
+	
+	public void visit(Select op) {
+		op.setOutput(estimateSelect(op.getInput().getOutput(), op.getPredicate()));
+	}
+	
+	public void visit(Product op) {
+		op.setOutput(estimateProduct(op.getLeft().getOutput(), op.getRight().getOutput()));
+	}
+	
+	public void visit(Join op) {
+		op.setOutput(estimateJoin(op.getLeft().getOutput(), op.getRight().getOutput(), op.getPredicate()));
+	}
+
+	private Relation estimateScan(Relation input) {
 		Relation output = new Relation(input.getTupleCount());
 		
 		Iterator<Attribute> iter = input.getAttributes().iterator();
 		while (iter.hasNext()) {
-			output.addAttribute(new Attribute(iter.next()));
+			output.addAttribute(iter.next());
 		}
 		
-		op.setOutput(output);
+		return output;
 	}
 
-	public void visit(Project op) {
-		Relation input = op.getInput().getOutput();
-
+	private Relation estimateProject(Relation input, List<Attribute> attributes) {
 		// Output size stays the same
 	    Relation output = new Relation(input.getTupleCount());
+	    BitSet projected = Attribute.getIds(attributes);
 
 	    Iterator<Attribute> iter = input.getAttributes().iterator();
 	    while (iter.hasNext()) {
 	    	Attribute attr = iter.next();
 
 	    	// Check if each attribute from the input relation is in the specified attributes for projection
-	    	if(op.getAttributes().contains(attr)){
-	    		output.addAttribute(new Attribute(attr));
+	    	if(projected != null ? projected.get(attr.getId()) : attributes.contains(attr)){
+	    		output.addAttribute(attr);
 			}
 		}
 
-	    op.setOutput(output);
+	    return output;
 	}
 	
-	public void visit(Select op) {
-		Relation input = op.getInput().getOutput();
-		boolean predicateEqualsValue = op.getPredicate().equalsValue();
-		Attribute leftAttribute = op.getInput().getOutput().getAttribute(op.getPredicate().getLeftAttribute());
-
-
-		if(predicateEqualsValue){
-			// Output size = T(R)/V(R, A)
-			Relation output = new Relation((int) Math.ceil((double)input.getTupleCount()/leftAttribute.getValueCount()));
+	private Relation estimateSelect(Relation input, Predicate predicate) {
+		Attribute leftAttribute = input.getAttribute(predicate.getLeftAttribute());
+
+		if(predicate.equalsValue()){
+			Relation output;
+			Histogram histogram = leftAttribute.getHistogram();
+
+			if(histogram == null){
+				// Output size = T(R)/V(R, A)
+				output = new Relation(toTupleCount((double)input.getTupleCount()/leftAttribute.getValueCount()));
+			}else{
+				// Output size = T(R) * fraction of tuples with the value
+				double fraction = histogram.getFraction(predicate.getRightValue(), leftAttribute.getValueCount());
+				output = new Relation(toSelectCount(input.getTupleCount() * fraction, input.getTupleCount()));
+			}
 
 			Iterator<Attribute> iter = input.getAttributes().iterator();
 			while (iter.hasNext()) {
 				Attribute attr = iter.next();
 
 				if(attr.equals(leftAttribute)){
-					output.addAttribute(new Attribute(attr.getName(), 1));
+					// A single value is left, so the histogram no longer applies
+					output.addAttribute(new Attribute(attr, 1, null));
 				}else{
-					output.addAttribute(new Attribute(attr));
+					output.addAttribute(attr);
 				}
 			}
 
-			op.setOutput(output);
+			return output;
+		}else if(predicate.comparesValue()){
+			return estimateComparison(input, leftAttribute, predicate);
 		}else{
-			Attribute rightAttribute = op.getInput().getOutput().getAttribute(op.getPredicate().getRightAttribute());
+			Attribute rightAttribute = input.getAttribute(predicate.getRightAttribute());
 
 			// Get the value counts of the left and right attributes that are being selected
-			int vcount1 = leftAttribute.getValueCount();
-			int vcount2 = rightAttribute.getValueCount();
+			long vcount1 = leftAttribute.getValueCount();
+			long vcount2 = rightAttribute.getValueCount();
 
 			// Get the max value count from the selected attributes
-			int maxValueCount = this.getMaxValueCount(vcount1, vcount2);
+			long maxValueCount = this.getMaxValueCount(vcount1, vcount2);
 
 			// Get the min value count from the selected attributes
-			int minValueCount = this.getMinValueCount(vcount1, vcount2);
+			long minValueCount = this.getMinValueCount(vcount1, vcount2);
 
-			// Output size = T(R)/max(V(R, A),V(R, B))
-			Relation output = new Relation((int) Math.ceil((double)input.getTupleCount()/maxValueCount));
+			Relation output;
+
+			if(leftAttribute.getHistogram() == null && rightAttribute.getHistogram() == null){
+				// Output size = T(R)/max(V(R, A),V(R, B))
+				output = new Relation(toTupleCount((double)input.getTupleCount()/maxValueCount));
+			}else{
+				// Output size = T(R) * fraction of tuples with equal values
+				double fraction = Histogram.getEqualFraction(leftAttribute.getHistogram(), vcount1, rightAttribute.getHistogram(), vcount2);
+				output = new Relation(toSelectCount(input.getTupleCount() * fraction, input.getTupleCount()));
+			}
 
 			Iterator<Attribute> iter = input.getAttributes().iterator();
 			while (iter.hasNext()) {
 				Attribute attr = iter.next();
 
 				if(attr.equals(leftAttribute) || attr.equals(rightAttribute)){
-					output.addAttribute(new Attribute(attr.getName(), minValueCount));
+					output.addAttribute(new Attribute(attr, minValueCount, null));
 				}else{
-					output.addAttribute(new Attribute(attr));
+					output.addAttribute(attr);
 				}
 			}
 
-			op.setOutput(output);
+			return output;
 		}
 	}
 	
-	public void visit(Product op) {
-		// Output size = T(L) * T(R)
-		Relation output = new Relation((int) Math.ceil((double)op.getLeft().getOutput().getTupleCount() * op.getRight().getOutput().getTupleCount()));
+	private Relation estimateComparison(Relation input, Attribute leftAttribute, Predicate predicate) {
+		Histogram histogram = leftAttribute.getHistogram() == null ? Histogram.UNIFORM : leftAttribute.getHistogram();
+		long vcount = leftAttribute.getValueCount();
+		String value = predicate.getRightValue();
+		double fraction;
+
+		switch(predicate.getComparison()){
+		case NOT_EQUALS:
+			fraction = 1 - histogram.getFraction(value, vcount);
+			break;
+		case LESS:
+			fraction = histogram.getRangeFraction(null, false, value, false, vcount);
+			break;
+		case LESS_OR_EQUAL:
+			fraction = histogram.getRangeFraction(null, false, value, true, vcount);
+			break;
+		case GREATER:
+			fraction = histogram.getRangeFraction(value, false, null, false, vcount);
+			break;
+		case GREATER_OR_EQUAL:
+			fraction = histogram.getRangeFraction(value, true, null, false, vcount);
+			break;
+		default:
+			fraction = histogram.getRangeFraction(value, true, predicate.getUpperValue(), true, vcount);
+			break;
+		}
 
-		// Get all attributes from the 2 Relations
-		List<Attribute> leftAttributes = op.getLeft().getOutput().getAttributes();
-		List<Attribute> rightAttributes = op.getRight().getOutput().getAttributes();
+		// Output size = T(R) * fraction of tuples in the range, and the attribute
+		// keeps the same fraction of its values
+		Relation output = new Relation(toSelectCount(input.getTupleCount() * fraction, input.getTupleCount()));
+		long values = toSelectCount(vcount * fraction, vcount);
 
-		Iterator<Attribute> iter1 = leftAttributes.iterator();
-		Iterator<Attribute> iter2 = rightAttributes.iterator();
+		Iterator<Attribute> iter = input.getAttributes().iterator();
+		while (iter.hasNext()) {
+			Attribute attr = iter.next();
+
+			if(attr.equals(leftAttribute)){
+				output.addAttribute(new Attribute(attr, values, null));
+			}else{
+				output.addAttribute(attr);
+			}
+		}
+
+		return output;
+	}
+
+	private Relation estimateProduct(Relation left, Relation right) {
+		// Output size = T(L) * T(R)
+		Relation output = new Relation(toTupleCount((double)left.getTupleCount() * right.getTupleCount()));
 
 		// Add each attribute from the 2 Relations
+		Iterator<Attribute> iter1 = left.getAttributes().iterator();
 		while (iter1.hasNext()) {
-			output.addAttribute(new Attribute(iter1.next()));
+			output.addAttribute(iter1.next());
 		}
 
+		Iterator<Attribute> iter2 = right.getAttributes().iterator();
 		while (iter2.hasNext()) {
-			output.addAttribute(new Attribute(iter2.next()));
+			output.addAttribute(iter2.next());
 		}
 
-		op.setOutput(output);
+		return output;
 	}
 	
-	public void visit(Join op) {
-		// Get the value counts of the left and right attributes that are being joined
-		int vcount1 = op.getLeft().getOutput().getAttribute(op.getPredicate().getLeftAttribute()).getValueCount();
-		int vcount2 = op.getRight().getOutput().getAttribute(op.getPredicate().getRightAttribute()).getValueCount();
+	private Relation estimateJoin(Relation left, Relation right, Predicate predicate) {
+		Attribute leftAttribute = left.getAttribute(predicate.getLeftAttribute());
+		Attribute rightAttribute = right.getAttribute(predicate.getRightAttribute());
 
-		int maxValueCount = this.getMaxValueCount(vcount1, vcount2);
+		// Get the value counts of the left and right attributes that are being joined
+		long vcount1 = leftAttribute.getValueCount();
+		long vcount2 = rightAttribute.getValueCount();
 
-		// Output size = (T(L) * T(R))/max(V(R, A),V(R, B))
-		Relation output = new Relation(((int) Math.ceil((double)(op.getLeft().getOutput().getTupleCount() * op.getRight().getOutput().getTupleCount())/maxValueCount)));
+		long maxValueCount = this.getMaxValueCount(vcount1, vcount2);
 
-		List<Attribute> leftAttributes = op.getLeft().getOutput().getAttributes();
-		List<Attribute> rightAttributes = op.getRight().getOutput().getAttributes();
+		Relation output;
 
-		Iterator<Attribute> iter1 = leftAttributes.iterator();
-		Iterator<Attribute> iter2 = rightAttributes.iterator();
+		if(leftAttribute.getHistogram() == null && rightAttribute.getHistogram() == null){
+			// Output size = (T(L) * T(R))/max(V(R, A),V(R, B))
+			output = new Relation(toTupleCount((double)left.getTupleCount() * right.getTupleCount()/maxValueCount));
+		}else{
+			// Output size = T(L) * T(R) * fraction of pairs with equal values
+			double fraction = Histogram.getEqualFraction(leftAttribute.getHistogram(), vcount1, rightAttribute.getHistogram(), vcount2);
+			output = new Relation(toTupleCount((double)left.getTupleCount() * right.getTupleCount() * fraction));
+		}
 
 		// Add all attributes from the first Relation
+		Iterator<Attribute> iter1 = left.getAttributes().iterator();
 		while (iter1.hasNext()) {
-			output.addAttribute(new Attribute(iter1.next()));
+			output.addAttribute(iter1.next());
 		}
 
 		// Add only non-duplicate attributes from the second Relation
+		Iterator<Attribute> iter2 = right.getAttributes().iterator();
 		while (iter2.hasNext()) {
 			Attribute attr = iter2.next();
-			if(!leftAttributes.contains(attr)){
-				output.addAttribute(new Attribute(attr));
+			if(!left.containsAttribute(attr)){
+				output.addAttribute(attr);
 			}
 		}
 
-		op.setOutput(output);
+		return output;
 	}
 
-	private int getMaxValueCount(int vcount1, int vcount2){
+	private long getMaxValueCount(long vcount1, long vcount2){
 		return vcount1 > vcount2 ? vcount1 : vcount2;
 	}
 
-	private int getMinValueCount(int vcount1, int vcount2){
+	private long getMinValueCount(long vcount1, long vcount2){
 		return vcount1 > vcount2 ? vcount2 : vcount1;
 	}
+
+	// Sizes are worked out in floating point and rounded up; anything too big
+	// for a long saturates at Long.MAX_VALUE rather than wrapping around
+	private long toTupleCount(double size){
+		if (size >= Long.MAX_VALUE) {
+			return Long.MAX_VALUE;
+		}
+		return (long) Math.ceil(size);
+	}
+
+	// A value that falls outside a histogram gives an estimate of no tuples; keep
+	// at least one, as the histogram is only a summary of the data
+	private long toSelectCount(double size, long inputSize){
+		return Math.min(inputSize, Math.max(1, toTupleCount(size)));
+	}
 }
@@ -0,0 +1,177 @@
+package sjdb;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * This class checks that every way of running a plan returns as many tuples
+ * as the tuple-at-a-time iterators do: on column batches, in parallel, with
+ * compiled pipelines, from CSV files and from column files, each with the
+ * memory of the cost model and with a budget small enough that the joins
+ * spill to disk. The plans are those of queries of each shape of join graph,
+ * over a schema and data from a WorkloadGenerator of the given seed.
+ *
+ * A last plan joins a relation that the catalogue says a select keeps one
+ * tuple of, but which keeps them all, so that the hash table of the join
+ * outgrows its estimate while it is built in parallel; it is run on column
+ * batches only (the tuple iterators loop over it with a nested-loop join),
+ * and must not hold more than its memory budget.
+ *
+ * Usage: java sjdb.ExecutionModeTest [seed]
+ */
+public class ExecutionModeTest {
+	private static final int RELATIONS = 10;
+	private static final int QUERIES_PER_SHAPE = 2;
+	private static final int RELATIONS_PER_QUERY = 4;
+	private static final long MIN_TUPLES = 100;
+	private static final long MAX_TUPLES = 40000;
+	// Small enough that the build input of every join but the smallest spills
+	private static final long SPILL_MEMORY = 64 * 1024;
+	// Too small for the misestimated hash table, but large enough for the write buffers of its partitions
+	private static final long MISESTIMATE_MEMORY = 1024 * 1024;
+	private static final int THREADS = 4;
+	private static final int MISESTIMATED_TUPLES = 100000;
+
+	public static void main(String[] args) throws Exception {
+		long seed = args.length > 0 ? Long.parseLong(args[0]) : 0;
+		Path directory = Files.createTempDirectory("sjdb-modes");
+		// Compile every pipeline, however few tuples it reads
+		long minRows = PipelineCompiler.getDefault().getMinRows();
+		PipelineCompiler.getDefault().setMinRows(0);
+		try {
+			checkWorkload(seed, directory.toFile());
+			checkMisestimate(directory.toFile());
+		} finally {
+			PipelineCompiler.getDefault().setMinRows(minRows);
+			try (Stream<Path> files = Files.walk(directory)) {
+				files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+			}
+		}
+		System.out.println("OK");
+	}
+
+	private static void checkWorkload(long seed, File directory) throws Exception {
+		WorkloadGenerator workload = new WorkloadGenerator(RELATIONS, seed);
+		workload.setTupleRange(MIN_TUPLES, MAX_TUPLES);
+		List<String> queries = new ArrayList<String>();
+		for (WorkloadGenerator.Shape shape : WorkloadGenerator.Shape.values()) {
+			for (int i = 0; i < QUERIES_PER_SHAPE; i++) {
+				queries.add(workload.generateQuery(shape, RELATIONS_PER_QUERY));
+			}
+		}
+		Catalogue catalogue = workload.createCatalogue();
+		File csv = new File(directory, "csv");
+		File columns = new File(directory, "columns");
+		csv.mkdir();
+		columns.mkdir();
+		workload.writeData(csv);
+		ColumnStore store = new ColumnStore();
+		for (int i = 0; i < RELATIONS; i++) {
+			store.convert(new File(csv, "R" + i + ".csv"), columns);
+		}
+
+		List<Mode> modes = getModes(csv, columns, true, SPILL_MEMORY);
+		for (String query : queries) {
+			Operator canonical = new QueryParser(catalogue, new StringReader(query)).parse();
+			check(new Optimiser(catalogue).optimise(canonical), modes, query, -1);
+		}
+		System.out.println(queries.size() + " queries in " + modes.size() + " modes");
+	}
+
+	// A select that the catalogue expects to keep one tuple of B keeps them all
+	private static void checkMisestimate(File directory) throws Exception {
+		File data = new File(directory, "misestimate");
+		data.mkdir();
+		try (PrintWriter a = new PrintWriter(new File(data, "A.csv")); PrintWriter b = new PrintWriter(new File(data, "B.csv"))) {
+			a.println("a_id");
+			b.println("b_id,b_a,b_val");
+			for (int i = 0; i < MISESTIMATED_TUPLES; i++) {
+				a.println(i);
+				b.println(i + "," + (MISESTIMATED_TUPLES - 1 - i) + ",x");
+			}
+		}
+		Catalogue catalogue = new Catalogue();
+		catalogue.createRelation("A", MISESTIMATED_TUPLES);
+		catalogue.createAttribute("A", "a_id", MISESTIMATED_TUPLES);
+		catalogue.createRelation("B", MISESTIMATED_TUPLES);
+		catalogue.createAttribute("B", "b_id", MISESTIMATED_TUPLES);
+		catalogue.createAttribute("B", "b_a", MISESTIMATED_TUPLES);
+		catalogue.createAttribute("B", "b_val", MISESTIMATED_TUPLES);
+
+		String query = "SELECT a_id,b_id\nFROM A,B\nWHERE a_id=b_a,b_val=\"x\"\n";
+		Operator canonical = new QueryParser(catalogue, new StringReader(query)).parse();
+		check(new Optimiser(catalogue).optimise(canonical), getModes(data, null, false, MISESTIMATE_MEMORY), query, MISESTIMATED_TUPLES);
+	}
+
+	// Run a plan in every mode, and check that they agree on the tuple count, and if it is
+	// given, that it is the one expected and that the modes keep to their memory budgets
+	private static void check(Operator plan, List<Mode> modes, String query, long expected) throws IOException {
+		boolean withinBudget = expected >= 0;
+		for (Mode mode : modes) {
+			TupleIterator root = mode.executor.compile(plan);
+			long rows = Executor.run(root);
+			MemoryBudget budget = mode.executor.getMemoryBudget();
+			if (expected < 0) {
+				expected = rows;
+			} else if (rows != expected) {
+				throw new AssertionError(mode.name + " returned " + rows + " tuples, not " + expected + ", for\n" + query + "\n"
+						+ root.renderProfile());
+			}
+			if (withinBudget && mode.memoryLimit >= 0 && budget.getPeak() > budget.getLimit()) {
+				throw new AssertionError(mode.name + " held " + budget.getPeak() + " bytes of a budget of " + budget.getLimit()
+						+ ", for\n" + query);
+			}
+		}
+	}
+
+	private static class Mode {
+		private final String name;
+		private final Executor executor;
+		private final long memoryLimit;
+
+		private Mode(String name, Executor executor, long memoryLimit) {
+			this.name = name;
+			this.executor = executor;
+			this.memoryLimit = memoryLimit;
+		}
+	}
+
+	// The modes of running a plan, the tuple-at-a-time iterators (if wanted) with the memory of the cost model first
+	private static List<Mode> getModes(File csv, File columns, boolean tuples, long spillMemory) {
+		boolean compiler = PipelineCompiler.getDefault().isAvailable();
+		List<Mode> modes = new ArrayList<Mode>();
+		for (long memoryLimit : new long[] { -1, spillMemory }) {
+			String memory = memoryLimit < 0 ? "" : " spilling";
+			for (File directory : columns == null ? new File[] { csv } : new File[] { csv, columns }) {
+				String source = directory == columns ? " from columns" : "";
+				if (tuples && directory == csv) {
+					modes.add(new Mode("tuple" + memory, new Executor(directory), memoryLimit));
+				}
+				for (String name : new String[] { "vector", "parallel", "compiled", "parallel compiled" }) {
+					if (name.contains("compiled") && !compiler) {
+						continue;
+					}
+					Executor executor = new Executor(directory);
+					executor.setVectorised(true);
+					if (name.contains("parallel")) {
+						executor.setParallelism(THREADS);
+					}
+					executor.setCompiled(name.contains("compiled"));
+					modes.add(new Mode(name + source + memory, executor, memoryLimit));
+				}
+			}
+		}
+		for (Mode mode : modes) {
+			mode.executor.setMemoryLimit(mode.memoryLimit);
+		}
+		return modes;
+	}
+}
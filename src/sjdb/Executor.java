@@ -0,0 +1,292 @@
+package sjdb;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+
+/**
+ * This class executes query plans over the data of the named relations.
+ *
+ * Used as a PlanVisitor, it compiles a plan into a tree of TupleIterators,
+ * one for each operator, which stream tuples from the data files up through
+ * the plan without holding the intermediate relations: only the build input
+ * of a hash join, the inputs of a sort-merge join and a block of the outer
+ * input of a nested-loop join are held in memory. Each iterator is told the
+ * number of tuples the Estimator expects of its operator, so that the
+ * profile of a run shows how good the estimates were. Plans can instead be
+ * run on batches of tuples held by column (see setVectorised()), on
+ * several threads at once (see setParallelism()), and with the predicates of
+ * their selects compiled to bytecode (see setCompiled()).
+ *
+ * The hash tables and sorts of a run share a MemoryBudget, of the memory of
+ * the Estimator's cost model unless set otherwise, and spill to disk rather
+ * than go over it: hash joins partition their inputs, sized up front from the
+ * Estimator's tuple counts, and sort-merge joins sort by external merge sort.
+ *
+ * The data of each named relation is read from a CSV file named after it in
+ * the data directory (for example, Person.csv), in the format read by the
+ * Analyser, or from its column files if it has been converted by a
+ * ColumnStore. Scans of column files only read the attributes that the plan
+ * uses.
+ *
+ * Joins are run with the algorithm chosen by the optimiser, and logical joins
+ * with a hash join built on their right input. The data files have no
+ * indexes, so an index scan with a predicate reads the relation and selects
+ * from it, and an index nested-loop join hashes its inner relation once and
+ * probes the table for each outer tuple.
+ */
+public class Executor implements PlanVisitor {
+	private final File directory;
+	private final Estimator estimator;
+	private final Deque<TupleIterator> stack;
+	private final Set<Attribute> used;
+	private boolean vectorised;
+	private ForkJoinPool pool;
+	private PipelineCompiler compiler;
+	private long memoryLimit;
+	private MemoryBudget budget;
+
+	/**
+	 * @param directory Directory holding the data files
+	 */
+	public Executor(File directory) {
+		this(directory, new Estimator());
+	}
+
+	/**
+	 * @param directory Directory holding the data files
+	 * @param estimator Estimator for the expected tuple counts, whose cost
+	 * model sets the memory that a nested-loop join may fill with outer tuples
+	 */
+	public Executor(File directory, Estimator estimator) {
+		this.directory = directory;
+		this.estimator = estimator;
+		this.stack = new ArrayDeque<TupleIterator>();
+		this.used = new HashSet<Attribute>();
+		this.memoryLimit = -1;
+	}
+
+	/**
+	 * Choose whether plans are run a tuple at a time, or a column batch at a
+	 * time (see BatchExecutor)
+	 * @param vectorised true to run plans on column batches
+	 */
+	public void setVectorised(boolean vectorised) {
+		this.vectorised = vectorised;
+	}
+
+	/**
+	 * Set the number of threads that run plans, on column batches (see
+	 * ParallelExecutor); plans over relations too small to gain from more than
+	 * one are run on the calling thread whatever the number
+	 * @param threads Thread count, or 1 to run every plan on the calling thread
+	 */
+	public void setParallelism(int threads) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("Parallelism must be at least 1");
+		}
+		if (pool != null) {
+			pool.shutdown();
+		}
+		this.pool = threads > 1 ? new ForkJoinPool(threads) : null;
+	}
+
+	/**
+	 * Choose whether the selects and projects of plans run on column batches
+	 * are compiled into classes of their own (see PipelineCompiler), which
+	 * are shared by the plans of this JVM
+	 * @param compiled true to compile them
+	 * @throws IllegalStateException if the JVM has no Java compiler
+	 */
+	public void setCompiled(boolean compiled) {
+		if (compiled && !PipelineCompiler.getDefault().isAvailable()) {
+			throw new IllegalStateException("No Java compiler to compile plans with");
+		}
+		this.compiler = compiled ? PipelineCompiler.getDefault() : null;
+	}
+
+	/**
+	 * Set the memory that each run of a compiled plan may hold, beyond which
+	 * its operators spill to disk
+	 * @param memoryLimit Size in bytes, or -1 for the memory of the cost model
+	 */
+	public void setMemoryLimit(long memoryLimit) {
+		this.memoryLimit = memoryLimit;
+	}
+
+	/**
+	 * Return the memory budget of the plan compiled last
+	 * @return Budget, which records the most memory the plan's runs have held
+	 */
+	public MemoryBudget getMemoryBudget() {
+		return budget;
+	}
+
+	/**
+	 * Compile a plan into iterators
+	 * @param plan Root of the plan
+	 * @return Iterator for the root of the plan
+	 */
+	public TupleIterator compile(Operator plan) {
+		budget = memoryLimit < 0 ? MemoryBudget.of(estimator.getCostModel()) : new MemoryBudget(memoryLimit, null);
+		if (pool != null) {
+			ParallelExecutor executor = new ParallelExecutor(directory, estimator, budget, pool);
+			executor.setCompiler(compiler);
+			return new BatchTupleIterator(executor.compile(plan));
+		} else if (vectorised) {
+			BatchExecutor executor = new BatchExecutor(directory, estimator, budget);
+			executor.setCompiler(compiler);
+			return new BatchTupleIterator(executor.compile(plan));
+		}
+
+		stack.clear();
+		used.clear();
+		used.addAll(getUsedAttributes(plan, estimator));
+		plan.accept(this);
+		return stack.pop();
+	}
+
+	/**
+	 * Return the attributes that the operators of a plan read: those in its
+	 * predicates and projections, and those of its output
+	 * @param plan Root of the plan
+	 * @param estimator Estimator for the output of the plan
+	 * @return Set of attributes
+	 */
+	public static Set<Attribute> getUsedAttributes(Operator plan, Estimator estimator) {
+		Set<Attribute> used = new HashSet<Attribute>(estimator.estimate(plan).getAttributes());
+		addUsed(plan, used);
+		return used;
+	}
+
+	private static void addUsed(Operator op, Set<Attribute> used) {
+		Predicate predicate = null;
+		if (op instanceof Select) {
+			predicate = ((Select) op).getPredicate();
+		} else if (op instanceof Join) {
+			predicate = ((Join) op).getPredicate();
+		} else if (op instanceof IndexScan) {
+			predicate = ((IndexScan) op).getPredicate();
+		} else if (op instanceof Project) {
+			used.addAll(((Project) op).getAttributes());
+		}
+		if (predicate != null) {
+			used.add(predicate.getLeftAttribute());
+			if (!predicate.comparesValue()) {
+				used.add(predicate.getRightAttribute());
+			}
+		}
+		for (Operator input : op.getInputs()) {
+			addUsed(input, used);
+		}
+	}
+
+	/**
+	 * Run a compiled plan to the end, without keeping its output
+	 * @param root Iterator for the root of the plan
+	 * @return Number of tuples output
+	 * @throws IOException
+	 */
+	public static long run(TupleIterator root) throws IOException {
+		long count = 0;
+		root.open();
+		try {
+			while (root.next() != null) {
+				count++;
+			}
+		} finally {
+			root.close();
+		}
+		return count;
+	}
+
+	public void visit(Scan op) {
+		push(op, getScan(op.getRelation()));
+	}
+
+	public void visit(IndexScan op) {
+		NamedRelation relation = op.getRelation();
+		TupleIterator scan = getScan(relation);
+
+		if (op.getPredicate() == null) {
+			// Probed by the index nested-loop join above, which reads it whole
+			push(op, scan);
+		} else {
+			scan.setEstimatedRows(relation.getTupleCount());
+			push(op, new SelectIterator(op.toString(), scan, op.getPredicate()));
+		}
+	}
+
+	public void visit(Project op) {
+		TupleIterator input = stack.pop();
+		String label = "PROJECT [" + op.getAttributes().stream().map(Attribute::getName).collect(Collectors.joining(",")) + "]";
+		push(op, new ProjectIterator(label, input, op.getAttributes()));
+	}
+
+	public void visit(Select op) {
+		TupleIterator input = stack.pop();
+		push(op, new SelectIterator("SELECT [" + op.getPredicate() + "]", input, op.getPredicate()));
+	}
+
+	public void visit(Product op) {
+		TupleIterator right = stack.pop();
+		TupleIterator left = stack.pop();
+		push(op, new NestedLoopJoinIterator("TIMES", left, right, null, true, getBlockSize(op.getLeft())));
+	}
+
+	public void visit(Join op) {
+		TupleIterator right = stack.pop();
+		TupleIterator left = stack.pop();
+		Predicate predicate = op.getPredicate();
+		String label = "JOIN [" + predicate + "] " + op.describeMethod();
+		Join.Method method = op.getMethod() == null ? Join.Method.HASH : op.getMethod();
+
+		switch (method) {
+		case SORT_MERGE:
+			push(op, new SortMergeJoinIterator(label, left, right, predicate, budget));
+			break;
+		case NESTED_LOOP:
+			Operator outer = op.isBuildLeft() ? op.getLeft() : op.getRight();
+			push(op, new NestedLoopJoinIterator(label, left, right, predicate, op.isBuildLeft(), getBlockSize(outer)));
+			break;
+		case INDEX_NESTED_LOOP:
+			// The inner input stands for the index, so it is the one hashed
+			push(op, getHashJoin(op, label, left, right, !op.isBuildLeft()));
+			break;
+		default:
+			push(op, getHashJoin(op, label, left, right, op.getMethod() != null && op.isBuildLeft()));
+			break;
+		}
+	}
+
+	private HashJoinIterator getHashJoin(Join op, String label, TupleIterator left, TupleIterator right, boolean buildLeft) {
+		Relation build = estimator.estimate(buildLeft ? op.getLeft() : op.getRight());
+		return new HashJoinIterator(label, left, right, op.getPredicate(), buildLeft, budget, build.getTupleCount(), build.getTupleWidth());
+	}
+
+	private void push(Operator op, TupleIterator iterator) {
+		iterator.setEstimatedRows(estimator.estimate(op).getTupleCount());
+		stack.push(iterator);
+	}
+
+	private TupleIterator getScan(NamedRelation relation) {
+		if (ColumnStore.exists(directory, relation.getName())) {
+			return new ColumnScanIterator(relation.getName(), relation.getAttributes(), used, directory, relation.getName());
+		}
+		return new ScanIterator(relation.getName(), relation.getAttributes(), new File(directory, relation.getName() + ".csv"));
+	}
+
+	// The number of outer tuples that fit in the memory of a join, less a page for
+	// the inner input and one for the output
+	private int getBlockSize(Operator outer) {
+		CostModel costModel = estimator.getCostModel();
+		long bytes = (long) (costModel.getMemoryPages() - 2) * costModel.getPageSize();
+		int width = Math.max(1, estimator.estimate(outer).getTupleWidth());
+		return (int) Math.max(1, Math.min(Integer.MAX_VALUE, bytes / width));
+	}
+}
@@ -0,0 +1,304 @@
+package sjdb;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class joins two inputs by hashing: on open, it reads the whole of its
+ * build input into a hash table on the join attribute, and then streams its
+ * probe input through, returning each probe tuple joined with the build
+ * tuples that have the same value.
+ *
+ * The table is held within the query's MemoryBudget, by grace hash join. If
+ * the Estimator expects the build input not to fit in the memory left, both
+ * inputs are split by the hash of their join values into as many partition
+ * files as it takes for each build partition to fit, and each pair of
+ * partitions is then joined in memory in turn. If the build input turns out
+ * not to fit only while it is being read, the tuples read so far are written
+ * out to partitions then. A build partition that still does not fit is split
+ * again, with another hash function, a few times at most.
+ */
+public class HashJoinIterator extends JoinIterator {
+	// Memory charged for the table's entry for a tuple, besides the tuple
+	private static final int ENTRY_BYTES = 48;
+	private static final int MAX_DEPTH = 4;
+
+	private final TupleIterator build;
+	private final TupleIterator probe;
+	private final int buildKey;
+	private final int probeKey;
+	private final boolean buildLeft;
+	private final MemoryBudget budget;
+	private final long estimatedBuildBytes;
+	private Map<String, List<String[]>> table;
+	private long tableBytes;
+	private Deque<Partition> partitions;
+	private SpillFile probeFile;
+	private String[] probeTuple;
+	private List<String[]> matches;
+	private int position;
+	private int partitionCount;
+	private long spilledBytes;
+
+	// A pair of partitions of the build and probe inputs, split depth times
+	private static class Partition {
+		private final SpillFile build;
+		private final SpillFile probe;
+		private final int depth;
+
+		private Partition(SpillFile build, SpillFile probe, int depth) {
+			this.build = build;
+			this.probe = probe;
+			this.depth = depth;
+		}
+	}
+
+	/**
+	 * @param label Description of the operator, for profiles
+	 * @param left Left input
+	 * @param right Right input
+	 * @param predicate Join predicate
+	 * @param buildLeft true if the hash table is built on the left input
+	 * @param budget Memory budget of the query
+	 * @param buildRows Number of tuples the Estimator expects of the build input
+	 * @param buildWidth Width of the tuples of the build input, in bytes
+	 */
+	public HashJoinIterator(String label, TupleIterator left, TupleIterator right, Predicate predicate, boolean buildLeft,
+			MemoryBudget budget, long buildRows, int buildWidth) {
+		super(label, left, right, predicate);
+		this.build = buildLeft ? left : right;
+		this.probe = buildLeft ? right : left;
+		this.buildKey = buildLeft ? leftKey : rightKey;
+		this.probeKey = buildLeft ? rightKey : leftKey;
+		this.buildLeft = buildLeft;
+		this.budget = budget;
+		this.estimatedBuildBytes = buildRows * (MemoryBudget.estimateSize(build.getAttributes().size(), buildWidth) + ENTRY_BYTES);
+	}
+
+	@Override
+	protected void doOpen() throws IOException {
+		table = new HashMap<String, List<String[]>>();
+		tableBytes = 0;
+		partitions = null;
+		probeFile = null;
+
+		int count = budget.getPartitions(estimatedBuildBytes);
+		SpillFile[] buildFiles = count > 1 ? createFiles(count) : null;
+		build.open();
+		String[] tuple;
+		while ((tuple = build.next()) != null) {
+			if (tuple[buildKey] == null) {
+				continue;
+			}
+			if (buildFiles == null) {
+				if (add(tuple)) {
+					continue;
+				}
+				// The build input is larger than expected, so partition what has been read
+				Map<String, List<String[]>> read = table;
+				long bytes = Math.max(estimatedBuildBytes, 2 * tableBytes);
+				table = new HashMap<String, List<String[]>>();
+				clearTable();
+				count = Math.max(2, budget.getPartitions(bytes));
+				buildFiles = createFiles(count);
+				for (List<String[]> tuples : read.values()) {
+					for (String[] t : tuples) {
+						buildFiles[getPartition(t[buildKey], 0, count)].write(t);
+					}
+				}
+			}
+			buildFiles[getPartition(tuple[buildKey], 0, count)].write(tuple);
+		}
+		build.close();
+
+		probe.open();
+		if (buildFiles != null) {
+			partitions = new ArrayDeque<Partition>();
+			SpillFile[] probeFiles = createFiles(count);
+			while ((tuple = probe.next()) != null) {
+				if (tuple[probeKey] != null) {
+					probeFiles[getPartition(tuple[probeKey], 0, count)].write(tuple);
+				}
+			}
+			probe.close();
+			for (int i = 0; i < count; i++) {
+				partitions.add(new Partition(buildFiles[i], probeFiles[i], 0));
+			}
+			partitionCount += count;
+		}
+
+		probeTuple = null;
+		matches = Collections.emptyList();
+		position = 0;
+	}
+
+	// Add a tuple to the table, if the budget allows
+	private boolean add(String[] tuple) {
+		long size = MemoryBudget.sizeOf(tuple) + ENTRY_BYTES;
+		if (!budget.tryReserve(size)) {
+			return false;
+		}
+		tableBytes += size;
+		table.computeIfAbsent(tuple[buildKey], k -> new ArrayList<String[]>(1)).add(tuple);
+		return true;
+	}
+
+	private void clearTable() {
+		table.clear();
+		budget.release(tableBytes);
+		tableBytes = 0;
+	}
+
+	private SpillFile[] createFiles(int count) throws IOException {
+		SpillFile[] files = new SpillFile[count];
+		for (int i = 0; i < count; i++) {
+			files[i] = new SpillFile(budget.getDirectory());
+		}
+		return files;
+	}
+
+	// Each depth of partitioning hashes with another seed, so that a partition can be split again
+	private static int getPartition(String value, int depth, int count) {
+		int h = value.hashCode() ^ (depth * 0x9E3779B9);
+		h ^= h >>> 16;
+		h *= 0x85EBCA6B;
+		h ^= h >>> 13;
+		return Math.floorMod(h, count);
+	}
+
+	// Load the next pair of partitions that has build tuples into the table, and start reading its probe tuples
+	private boolean nextPartition() throws IOException {
+		clearTable();
+		while (!partitions.isEmpty()) {
+			Partition partition = partitions.poll();
+			partition.build.rewind();
+			partition.probe.rewind();
+			if (partition.build.getTuples() == 0 || partition.probe.getTuples() == 0) {
+				discard(partition.build);
+				discard(partition.probe);
+				continue;
+			}
+
+			long loaded = 0;
+			boolean fits = true;
+			String[] tuple;
+			while (fits && (tuple = partition.build.read()) != null) {
+				if (!add(tuple)) {
+					if (partition.depth < MAX_DEPTH) {
+						fits = false;
+					} else {
+						// Most likely a single value, which no hash function can split
+						long size = MemoryBudget.sizeOf(tuple) + ENTRY_BYTES;
+						budget.reserve(size);
+						tableBytes += size;
+						table.computeIfAbsent(tuple[buildKey], k -> new ArrayList<String[]>(1)).add(tuple);
+					}
+				}
+				loaded++;
+			}
+			if (!fits) {
+				long bytes = tableBytes / Math.max(1, loaded) * partition.build.getTuples();
+				clearTable();
+				split(partition, budget.getPartitions(bytes));
+				continue;
+			}
+
+			discard(partition.build);
+			probeFile = partition.probe;
+			return true;
+		}
+		return false;
+	}
+
+	// Split a pair of partitions into smaller ones, to be joined next
+	private void split(Partition partition, int count) throws IOException {
+		count = Math.max(2, count);
+		int depth = partition.depth + 1;
+		SpillFile[] buildFiles = createFiles(count);
+		SpillFile[] probeFiles = createFiles(count);
+		partition.build.rewind();
+		String[] tuple;
+		while ((tuple = partition.build.read()) != null) {
+			buildFiles[getPartition(tuple[buildKey], depth, count)].write(tuple);
+		}
+		while ((tuple = partition.probe.read()) != null) {
+			probeFiles[getPartition(tuple[probeKey], depth, count)].write(tuple);
+		}
+		discard(partition.build);
+		discard(partition.probe);
+		for (int i = count - 1; i >= 0; i--) {
+			partitions.addFirst(new Partition(buildFiles[i], probeFiles[i], depth));
+		}
+		partitionCount += count;
+	}
+
+	private void discard(SpillFile file) throws IOException {
+		spilledBytes += file.getBytes();
+		file.close();
+	}
+
+	private String[] nextProbe() throws IOException {
+		if (partitions == null) {
+			return probe.next();
+		}
+		while (true) {
+			if (probeFile != null) {
+				String[] tuple = probeFile.read();
+				if (tuple != null) {
+					return tuple;
+				}
+				discard(probeFile);
+				probeFile = null;
+			}
+			if (!nextPartition()) {
+				return null;
+			}
+		}
+	}
+
+	@Override
+	protected String[] doNext() throws IOException {
+		while (position >= matches.size()) {
+			probeTuple = nextProbe();
+			if (probeTuple == null) {
+				return null;
+			}
+			List<String[]> found = probeTuple[probeKey] == null ? null : table.get(probeTuple[probeKey]);
+			matches = found == null ? Collections.<String[]>emptyList() : found;
+			position = 0;
+		}
+
+		String[] buildTuple = matches.get(position++);
+		return buildLeft ? combine(buildTuple, probeTuple) : combine(probeTuple, buildTuple);
+	}
+
+	@Override
+	protected void doClose() throws IOException {
+		clearTable();
+		matches = Collections.emptyList();
+		if (partitions == null) {
+			probe.close();
+		} else {
+			if (probeFile != null) {
+				discard(probeFile);
+				probeFile = null;
+			}
+			for (Partition partition : partitions) {
+				discard(partition.build);
+				discard(partition.probe);
+			}
+			partitions = null;
+		}
+	}
+
+	@Override
+	protected String getProfileDetails() {
+		return partitionCount == 0 ? null : "partitions=" + partitionCount + " spilled=" + formatBytes(spilledBytes);
+	}
+}
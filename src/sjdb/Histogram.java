@@ -0,0 +1,427 @@
+package sjdb;
+
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class holds the distribution of the values of an attribute, for
+ * attributes whose values are too skewed for the uniform assumption: a list
+ * of most common values with the fraction of the tuples that take each of
+ * them, and an equi-depth histogram over the remaining values.
+ *
+ * The histogram is given as a list of bounds b0..bk, which divide the values
+ * that are not among the most common values into k buckets (b0,b1], (b1,b2]
+ * and so on (the first bucket also includes b0) that each hold the same
+ * fraction of the tuples and the same number of distinct values. Either part
+ * may be empty. The smallest and largest values of the attribute may also be
+ * given, for attributes with no buckets. Values are compared as numbers if
+ * both are numeric, and as strings otherwise.
+ *
+ * Ranges of numeric values (and ISO dates) are estimated by interpolating within a bucket (or
+ * between the smallest and largest values); where nothing is known about the
+ * values in a range, the fractions used by System R are assumed: a third of
+ * the tuples for a range with one end, and a quarter for a range with two.
+ *
+ * Histograms are immutable.
+ */
+public class Histogram {
+	// No common values and no buckets: what an attribute without a histogram is assumed to have
+	public static final Histogram UNIFORM = new Histogram(Collections.<String, Double>emptyMap(), Collections.<String>emptyList());
+
+	private static final double DEFAULT_RANGE = 1.0 / 3;
+	private static final double DEFAULT_BETWEEN = 1.0 / 4;
+
+	private final Map<String, Double> commonValues;
+	private final double commonFraction;
+	private final String[] bounds;
+	private final String minValue;
+	private final String maxValue;
+
+	/**
+	 * @param commonValues the most common values and the fraction of tuples taking each
+	 * @param bounds the bucket bounds of the equi-depth histogram, in ascending order
+	 */
+	public Histogram(Map<String, Double> commonValues, List<String> bounds) {
+		this(null, null, commonValues, bounds);
+	}
+
+	/**
+	 * @param minValue the smallest value of the attribute, or null if not known
+	 * @param maxValue the largest value of the attribute, or null if not known
+	 * @param commonValues the most common values and the fraction of tuples taking each
+	 * @param bounds the bucket bounds of the equi-depth histogram, in ascending order
+	 */
+	public Histogram(String minValue, String maxValue, Map<String, Double> commonValues, List<String> bounds) {
+		if (minValue != null && maxValue != null && compareValues(minValue, maxValue) > 0) {
+			throw new IllegalArgumentException("Smallest value " + minValue + " is above largest value " + maxValue);
+		}
+		if (bounds.size() == 1) {
+			throw new IllegalArgumentException("A histogram needs at least two bounds");
+		}
+		double total = 0;
+		for (double fraction : commonValues.values()) {
+			if (fraction < 0) {
+				throw new IllegalArgumentException("Negative value frequency: " + fraction);
+			}
+			total += fraction;
+		}
+		if (total > 1.000001) {
+			throw new IllegalArgumentException("Value frequencies add up to more than 1: " + total);
+		}
+		for (int i = 1; i < bounds.size(); i++) {
+			if (compareValues(bounds.get(i - 1), bounds.get(i)) > 0) {
+				throw new IllegalArgumentException("Histogram bounds out of order: " + bounds);
+			}
+		}
+		this.commonValues = new LinkedHashMap<String, Double>(commonValues);
+		this.commonFraction = Math.min(total, 1);
+		this.bounds = bounds.toArray(new String[0]);
+		this.minValue = minValue != null || this.bounds.length == 0 ? minValue : this.bounds[0];
+		this.maxValue = maxValue != null || this.bounds.length == 0 ? maxValue : this.bounds[this.bounds.length - 1];
+	}
+
+	/**
+	 * @return the smallest value of the attribute (or of the values in the
+	 * buckets, if not given), or null if not known
+	 */
+	public String getMinValue() {
+		return minValue;
+	}
+
+	/**
+	 * @return the largest value of the attribute (or of the values in the
+	 * buckets, if not given), or null if not known
+	 */
+	public String getMaxValue() {
+		return maxValue;
+	}
+
+	/**
+	 * @return the number of most common values
+	 */
+	public int getCommonValueCount() {
+		return commonValues.size();
+	}
+
+	/**
+	 * @return the fraction of the tuples that take one of the most common values
+	 */
+	public double getCommonFraction() {
+		return commonFraction;
+	}
+
+	/**
+	 * @return the fraction of the tuples that do not take a most common value
+	 */
+	public double getOtherFraction() {
+		return 1 - commonFraction;
+	}
+
+	/**
+	 * Return the fraction of tuples taking a value, if it is a most common value
+	 * @param value
+	 * @return the fraction, or a negative number if the value is not a most common value
+	 */
+	public double getCommonFraction(String value) {
+		Double fraction = commonValues.get(value);
+		return fraction == null ? -1 : fraction;
+	}
+
+	/**
+	 * @return the most common values and the fraction of tuples taking each
+	 */
+	public Map<String, Double> getCommonValues() {
+		return Collections.unmodifiableMap(commonValues);
+	}
+
+	/**
+	 * @return the number of buckets in the equi-depth histogram, which may be 0
+	 */
+	public int getBucketCount() {
+		return bounds.length == 0 ? 0 : bounds.length - 1;
+	}
+
+	/**
+	 * Return the bucket that holds a value
+	 * @param value
+	 * @return the bucket index, or -1 if the value lies outside the histogram
+	 * (or there are no buckets)
+	 */
+	public int getBucket(String value) {
+		if (bounds.length == 0 || compareValues(value, bounds[0]) < 0
+				|| compareValues(value, bounds[bounds.length - 1]) > 0) {
+			return -1;
+		}
+		// First bucket whose upper bound is not below the value
+		int lo = 1;
+		int hi = bounds.length - 1;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (compareValues(bounds[mid], value) < 0) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		return lo - 1;
+	}
+
+	/**
+	 * Estimate the fraction of tuples that take a value, given the number of
+	 * distinct values of the attribute
+	 * @param value
+	 * @param valueCount the number of distinct values of the attribute
+	 * @return the estimated fraction
+	 */
+	public double getFraction(String value, long valueCount) {
+		double common = getCommonFraction(value);
+		if (common >= 0) {
+			return common;
+		}
+		// The other values share what is left, equally within each bucket
+		double others = Math.max(1, valueCount - commonValues.size());
+		if (bounds.length == 0) {
+			if (minValue != null && maxValue != null
+					&& (compareValues(value, minValue) < 0 || compareValues(value, maxValue) > 0)) {
+				return 0;
+			}
+			return getOtherFraction() / others;
+		}
+		if (getBucket(value) < 0) {
+			return 0;
+		}
+		int buckets = getBucketCount();
+		return (getOtherFraction() / buckets) / Math.max(1, others / buckets);
+	}
+
+	/**
+	 * Estimate the fraction of tuples whose values lie in a range, given the
+	 * number of distinct values of the attribute
+	 * @param lower lower end of the range, or null if there is none
+	 * @param lowerInclusive whether the range includes its lower end
+	 * @param upper upper end of the range, or null if there is none
+	 * @param upperInclusive whether the range includes its upper end
+	 * @param valueCount the number of distinct values of the attribute
+	 * @return the estimated fraction
+	 */
+	public double getRangeFraction(String lower, boolean lowerInclusive, String upper, boolean upperInclusive, long valueCount) {
+		double common = 0;
+		for (Map.Entry<String, Double> entry : commonValues.entrySet()) {
+			String value = entry.getKey();
+			if ((lower == null || compareValues(value, lower) > (lowerInclusive ? -1 : 0))
+					&& (upper == null || compareValues(value, upper) < (upperInclusive ? 1 : 0))) {
+				common += entry.getValue();
+			}
+		}
+
+		double others = Math.max(1, valueCount - commonValues.size());
+		double below = lower == null ? 0 : getOtherBelow(lower, !lowerInclusive, others);
+		double above = upper == null ? 1 : getOtherBelow(upper, upperInclusive, others);
+		double other;
+		if (Double.isNaN(below) || Double.isNaN(above)) {
+			other = lower != null && upper != null ? DEFAULT_BETWEEN : DEFAULT_RANGE;
+		} else {
+			other = Math.max(0, above - below);
+		}
+
+		return Math.min(1, common + getOtherFraction() * other);
+	}
+
+	// Fraction of the tuples without a most common value whose values are below
+	// (or, if inclusive, not above) the given value; NaN if nothing is known
+	private double getOtherBelow(String value, boolean inclusive, double others) {
+		String lo;
+		String hi;
+		double before;
+		double width;
+		if (bounds.length > 0) {
+			int bucket = getBucket(value);
+			if (bucket < 0) {
+				return compareValues(value, bounds[0]) < 0 ? 0 : 1;
+			}
+			lo = bounds[bucket];
+			hi = bounds[bucket + 1];
+			before = (double) bucket / getBucketCount();
+			width = 1.0 / getBucketCount();
+		} else if (minValue != null && maxValue != null) {
+			if (compareValues(value, minValue) < 0) {
+				return 0;
+			} else if (compareValues(value, maxValue) > 0) {
+				return 1;
+			}
+			lo = minValue;
+			hi = maxValue;
+			before = 0;
+			width = 1;
+		} else {
+			return Double.NaN;
+		}
+
+		double below = before + width * interpolate(lo, hi, value);
+		if (inclusive) {
+			below += 1 / others;
+		}
+		return Math.min(1, below);
+	}
+
+	// Position of a value between two others, as a fraction; values that are not
+	// numbers (or dates) are assumed to lie half way
+	private static double interpolate(String lo, String hi, String value) {
+		double l = toNumber(lo);
+		double h = toNumber(hi);
+		double v = toNumber(value);
+		if (Double.isNaN(l) || Double.isNaN(h) || Double.isNaN(v) || h <= l) {
+			return 0.5;
+		}
+		return Math.max(0, Math.min(1, (v - l) / (h - l)));
+	}
+
+	// The value as a number: itself if numeric, the day number of an ISO date,
+	// and NaN otherwise
+	private static double toNumber(String value) {
+		if (isNumber(value)) {
+			return Double.parseDouble(value);
+		}
+		try {
+			return LocalDate.parse(value).toEpochDay();
+		} catch (DateTimeParseException e) {
+			return Double.NaN;
+		}
+	}
+
+	/**
+	 * Estimate the fraction of pairs of tuples whose values of two attributes
+	 * are equal, using the most common values of both: pairs of common values
+	 * are matched exactly, and the remaining values are assumed to be uniform.
+	 * Either histogram may be null.
+	 *
+	 * @param left histogram of the first attribute
+	 * @param leftCount number of distinct values of the first attribute
+	 * @param right histogram of the second attribute
+	 * @param rightCount number of distinct values of the second attribute
+	 * @return the estimated fraction
+	 */
+	public static double getEqualFraction(Histogram left, long leftCount, Histogram right, long rightCount) {
+		if (left == null) {
+			left = UNIFORM;
+		}
+		if (right == null) {
+			right = UNIFORM;
+		}
+
+		double matched = 0;
+		double leftMatched = 0;
+		double rightMatched = 0;
+		for (Map.Entry<String, Double> entry : left.commonValues.entrySet()) {
+			Double fraction = right.commonValues.get(entry.getKey());
+			if (fraction != null) {
+				matched += entry.getValue() * fraction;
+				leftMatched += entry.getValue();
+				rightMatched += fraction;
+			}
+		}
+
+		double leftOthers = Math.max(1, leftCount - left.commonValues.size());
+		double rightOthers = Math.max(1, rightCount - right.commonValues.size());
+
+		// Unmatched common values can only meet values that are not common on the other side
+		return matched
+				+ (left.commonFraction - leftMatched) * right.getOtherFraction() / rightOthers
+				+ (right.commonFraction - rightMatched) * left.getOtherFraction() / leftOthers
+				+ left.getOtherFraction() * right.getOtherFraction() / Math.max(leftOthers, rightOthers);
+	}
+
+	/**
+	 * Compare two values, as numbers if both are numeric and as strings otherwise
+	 * @param v1
+	 * @param v2
+	 * @return a negative number, zero or a positive number as v1 is less than, equal to or greater than v2
+	 */
+	public static int compareValues(String v1, String v2) {
+		if (isNumber(v1) && isNumber(v2)) {
+			return Double.compare(Double.parseDouble(v1), Double.parseDouble(v2));
+		}
+		return v1.compareTo(v2);
+	}
+
+	/**
+	 * Check whether a value is a decimal number, without the cost of a failed parse
+	 * @param value
+	 * @return true if the value is a number
+	 */
+	public static boolean isNumber(String value) {
+		int i = 0;
+		int n = value.length();
+		if (i < n && (value.charAt(i) == '-' || value.charAt(i) == '+')) {
+			i++;
+		}
+		int digits = 0;
+		while (i < n && isDigit(value.charAt(i))) {
+			i++;
+			digits++;
+		}
+		if (i < n && value.charAt(i) == '.') {
+			i++;
+			while (i < n && isDigit(value.charAt(i))) {
+				i++;
+				digits++;
+			}
+		}
+		if (digits == 0) {
+			return false;
+		}
+		if (i < n && (value.charAt(i) == 'e' || value.charAt(i) == 'E')) {
+			i++;
+			if (i < n && (value.charAt(i) == '-' || value.charAt(i) == '+')) {
+				i++;
+			}
+			int exponent = 0;
+			while (i < n && isDigit(value.charAt(i))) {
+				i++;
+				exponent++;
+			}
+			if (exponent == 0) {
+				return false;
+			}
+		}
+		return i == n;
+	}
+
+	private static boolean isDigit(char c) {
+		return c >= '0' && c <= '9';
+	}
+
+	/**
+	 * Render this histogram in the syntax used in the system catalogue
+	 * @return the rendering of this histogram
+	 */
+	public String render() {
+		List<String> options = new ArrayList<String>();
+		if (minValue != null) {
+			options.add("min=" + minValue);
+		}
+		if (maxValue != null) {
+			options.add("max=" + maxValue);
+		}
+		if (!commonValues.isEmpty()) {
+			List<String> entries = new ArrayList<String>();
+			for (Map.Entry<String, Double> entry : commonValues.entrySet()) {
+				entries.add(entry.getKey() + "/" + entry.getValue());
+			}
+			options.add("mcv=" + String.join("|", entries));
+		}
+		if (bounds.length > 0) {
+			options.add("hist=" + String.join("|", bounds));
+		}
+		return String.join(",", options);
+	}
+
+	public String toString() {
+		return render();
+	}
+}
@@ -0,0 +1,115 @@
+package sjdb;
+
+/**
+ * This class estimates the number of distinct values in a stream of values
+ * in a fixed amount of memory, using the HyperLogLog algorithm of Flajolet
+ * et al. with the usual correction for small counts (linear counting).
+ *
+ * With 2^p registers the standard error of the estimate is about
+ * 1.04/sqrt(2^p): around 0.8% for the default of 2^14 registers, which take
+ * 16KB. Sketches with the same number of registers can be merged, giving the
+ * sketch of the union of their streams.
+ *
+ * A sketch is not thread-safe.
+ */
+public class HyperLogLog {
+	public static final int DEFAULT_PRECISION = 14;
+
+	private final int precision;
+	private final byte[] registers;
+
+	public HyperLogLog() {
+		this(DEFAULT_PRECISION);
+	}
+
+	/**
+	 * @param precision base 2 logarithm of the number of registers, from 4 to 18
+	 */
+	public HyperLogLog(int precision) {
+		if (precision < 4 || precision > 18) {
+			throw new IllegalArgumentException("Precision must be between 4 and 18: " + precision);
+		}
+		this.precision = precision;
+		this.registers = new byte[1 << precision];
+	}
+
+	/**
+	 * Add a value to the stream
+	 * @param value
+	 */
+	public void add(String value) {
+		addHash(hash(value));
+	}
+
+	/**
+	 * Add a value to the stream, given its 64-bit hash
+	 * @param hash
+	 */
+	public void addHash(long hash) {
+		int index = (int) (hash >>> (64 - precision));
+		// Rank of the first 1 bit in the remaining bits, which are padded
+		// with a 1 so that the rank is bounded
+		long rest = (hash << precision) | (1L << (precision - 1));
+		byte rank = (byte) (Long.numberOfLeadingZeros(rest) + 1);
+		if (rank > registers[index]) {
+			registers[index] = rank;
+		}
+	}
+
+	/**
+	 * Add the values of another sketch's stream to this one's
+	 * @param other sketch with the same precision
+	 */
+	public void merge(HyperLogLog other) {
+		if (other.precision != precision) {
+			throw new IllegalArgumentException("Cannot merge sketches of different precisions");
+		}
+		for (int i = 0; i < registers.length; i++) {
+			if (other.registers[i] > registers[i]) {
+				registers[i] = other.registers[i];
+			}
+		}
+	}
+
+	/**
+	 * @return the estimated number of distinct values added
+	 */
+	public long estimate() {
+		int m = registers.length;
+		double sum = 0;
+		int zeros = 0;
+		for (byte register : registers) {
+			sum += 1.0 / (1L << register);
+			if (register == 0) {
+				zeros++;
+			}
+		}
+
+		double alpha = 0.7213 / (1 + 1.079 / m);
+		double estimate = alpha * m * m / sum;
+		if (estimate <= 2.5 * m && zeros > 0) {
+			estimate = m * Math.log((double) m / zeros);
+		}
+		return Math.round(estimate);
+	}
+
+	/**
+	 * A 64-bit hash of a string (FNV-1a over its characters, with the
+	 * finalisation step of MurmurHash3 to spread the bits)
+	 * @param value
+	 * @return the hash
+	 */
+	public static long hash(String value) {
+		long h = 0xcbf29ce484222325L;
+		for (int i = 0; i < value.length(); i++) {
+			h ^= value.charAt(i);
+			h *= 0x100000001b3L;
+		}
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+}
@@ -0,0 +1,99 @@
+package sjdb;
+
+/**
+ * This class describes an index on an attribute of a named relation, as
+ * declared in the system catalogue.
+ *
+ * A B-tree index finds the tuples with a given value or in a range of values,
+ * in the order of the attribute; a hash index only finds the tuples with a
+ * given value. An index is clustered if the relation is stored in the order
+ * of the indexed attribute, so that the tuples it finds are next to each
+ * other, rather than each on a page of its own.
+ *
+ * Indexes are immutable.
+ */
+public class Index {
+	/**
+	 * The kinds of index
+	 */
+	public enum Type {
+		BTREE("btree"),
+		HASH("hash");
+
+		private final String name;
+
+		private Type(String name) {
+			this.name = name;
+		}
+
+		public String toString() {
+			return name;
+		}
+
+		/**
+		 * Return the kind of index with the given name, as written in the catalogue
+		 * @param name
+		 * @return Kind of index
+		 */
+		public static Type fromName(String name) {
+			for (Type type : values()) {
+				if (type.name.equals(name)) {
+					return type;
+				}
+			}
+			throw new IllegalArgumentException("Unknown index type: " + name);
+		}
+	}
+
+	private final Attribute attribute;
+	private final Type type;
+	private final boolean clustered;
+
+	/**
+	 * @param attribute Indexed attribute
+	 * @param type Kind of index
+	 * @param clustered true if the relation is stored in the order of the attribute
+	 */
+	public Index(Attribute attribute, Type type, boolean clustered) {
+		this.attribute = attribute;
+		this.type = type;
+		this.clustered = clustered;
+	}
+
+	public Attribute getAttribute() {
+		return attribute;
+	}
+
+	public Type getType() {
+		return type;
+	}
+
+	public boolean isClustered() {
+		return clustered;
+	}
+
+	/**
+	 * Return true if this index can find the tuples that satisfy a comparison
+	 * of its attribute with a value
+	 * @param comparison
+	 * @return true if the index can be used
+	 */
+	public boolean supports(Predicate.Comparison comparison) {
+		if (comparison == Predicate.Comparison.EQUALS) {
+			return true;
+		}
+		return type == Type.BTREE && comparison != Predicate.Comparison.NOT_EQUALS;
+	}
+
+	/**
+	 * Render this index in the syntax used in the system catalogue
+	 * @return the rendering of this index
+	 */
+	public String render() {
+		return clustered ? type + "/clustered" : type.toString();
+	}
+
+	public String toString() {
+		return attribute + " " + render();
+	}
+}
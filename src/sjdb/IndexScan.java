@@ -0,0 +1,93 @@
+package sjdb;
+
+import java.util.Iterator;
+
+/**
+ * This class implements an IndexScan operator that feeds the tuples of a
+ * NamedRelation found through one of its indexes into a query plan.
+ *
+ * With a predicate comparing the indexed attribute with a value, the scan
+ * finds the tuples that satisfy the predicate, in place of a Scan followed by
+ * a Select. Without one, the scan is the inner input of an index nested-loop
+ * join, and finds the tuples that match each tuple of the outer input on the
+ * indexed attribute.
+ */
+public class IndexScan extends Operator {
+	private final NamedRelation relation;
+	private final Index index;
+	private final Predicate predicate;
+
+	/**
+	 * Create a new index scan of a given named relation
+	 * @param relation Named relation to be scanned
+	 * @param index Index on an attribute of the relation
+	 * @param predicate Comparison of the indexed attribute with a value, or null
+	 * if the scan is probed by an index nested-loop join
+	 */
+	public IndexScan(NamedRelation relation, Index index, Predicate predicate) {
+		this.relation = relation;
+		this.index = index;
+		this.predicate = predicate;
+		this.output = new Relation(relation.getTupleCount());
+		Iterator<Attribute> iter = relation.getAttributes().iterator();
+
+		while (iter.hasNext()) {
+			this.output.addAttribute(new Attribute(iter.next()));
+		}
+	}
+
+	/**
+	 * Return the named relation to be scanned
+	 * @return Named relation to be scanned
+	 */
+	public NamedRelation getRelation() {
+		return this.relation;
+	}
+
+	public Index getIndex() {
+		return this.index;
+	}
+
+	/**
+	 * Return the predicate the index is searched with
+	 * @return Predicate, or null if the scan is probed by a join
+	 */
+	public Predicate getPredicate() {
+		return this.predicate;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		String search = this.predicate == null ? this.index.getAttribute().toString() : this.predicate.toString();
+		return "INDEX SCAN [" + search + "] (" + this.relation.toString() + ")";
+	}
+
+	/* (non-Javadoc)
+	 * @see sjdb.Operator#sameParameters(sjdb.Operator)
+	 */
+	@Override
+	protected boolean sameParameters(Operator op) {
+		IndexScan rhs = (IndexScan) op;
+		return this.relation == rhs.relation && this.index == rhs.index &&
+				(this.predicate == null ? rhs.predicate == null : this.predicate.equals(rhs.predicate));
+	}
+
+	/* (non-Javadoc)
+	 * @see sjdb.Operator#parameterHash()
+	 */
+	@Override
+	protected int parameterHash() {
+		int h = 31 * this.relation.getName().hashCode() + this.index.getAttribute().hashCode();
+		return this.predicate == null ? h : 31 * h + this.predicate.hashCode();
+	}
+
+	/* (non-Javadoc)
+	 * @see sjdb.Operator#accept(sjdb.OperatorVisitor)
+	 */
+	public void accept(PlanVisitor visitor) {
+		visitor.visit(this);
+	}
+}
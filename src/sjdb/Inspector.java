@@ -14,6 +14,14 @@ public class Inspector implements PlanVisitor {
 		System.out.println("  out: " + op.getOutput().render());
 	}
 
+	@Override
+	public void visit(IndexScan op) {
+		System.out.println(op.toString());
+		System.out.println("  index: " + op.getIndex());
+		System.out.println("  in:  " + op.getRelation().render());
+		System.out.println("  out: " + op.getOutput().render());
+	}
+
 	@Override
 	public void visit(Project op) {
 		// TODO Auto-generated method stub
@@ -43,6 +51,9 @@ public class Inspector implements PlanVisitor {
 	public void visit(Join op) {
 		// TODO Auto-generated method stub
 		System.out.println(op.toString());
+		if (op.getMethod() != null) {
+			System.out.println("  algo: " + op.describeMethod());
+		}
 		System.out.println("  inl: " + op.getLeft().getOutput().render());
 		System.out.println("  inr: " + op.getRight().getOutput().render());
 		System.out.println("  out: " + op.getOutput().render());
@@ -2,10 +2,40 @@ package sjdb;
 
 /**
  * This class represents a join operator.
+ *
+ * A join is logical until a physical algorithm is chosen for it. A physical
+ * join also records which of its inputs is held in memory: the input the
+ * hash table is built on for a hash join, or the outer input that is read in
+ * blocks for a block nested-loop join. The other input is streamed through,
+ * except in an index nested-loop join, whose inner input is an IndexScan that
+ * is searched for the tuples matching each tuple of the outer input.
  * @author nmg
  */
 public class Join extends BinaryOperator {
-	private Predicate predicate;
+	/**
+	 * The algorithms that a join may be run with
+	 */
+	public enum Method {
+		HASH("hash join"),
+		SORT_MERGE("sort-merge join"),
+		NESTED_LOOP("block nested-loop join"),
+		INDEX_NESTED_LOOP("index nested-loop join");
+
+		private final String description;
+
+		private Method(String description) {
+			this.description = description;
+		}
+
+		public String toString() {
+			return description;
+		}
+	}
+
+	private final Predicate predicate;
+	private final Method method;
+	private final boolean buildLeft;
+
 	/**
 	 * Create a new join operator.
 	 * @param left Left child operator
@@ -15,12 +45,61 @@ public class Join extends BinaryOperator {
 	public Join(Operator left, Operator right, Predicate predicate) {
 		super(left, right);
 		this.predicate = predicate;
+		this.method = null;
+		this.buildLeft = false;
+	}
+
+	/**
+	 * Create a new physical join operator.
+	 * @param left Left child operator
+	 * @param right Right child operator
+	 * @param predicate Join predicate
+	 * @param method Join algorithm
+	 * @param buildLeft true if the left input is held in memory (or is the outer
+	 * input of an index nested-loop join), false if the right one is
+	 */
+	public Join(Operator left, Operator right, Predicate predicate, Method method, boolean buildLeft) {
+		super(left, right);
+		this.predicate = predicate;
+		this.method = method;
+		this.buildLeft = buildLeft;
 	}
 
 	public Predicate getPredicate() {
 		return this.predicate;
 	}
-	
+
+	/**
+	 * Return the algorithm chosen for this join
+	 * @return Join algorithm, or null if the join is logical
+	 */
+	public Method getMethod() {
+		return this.method;
+	}
+
+	/**
+	 * Return true if the left input is the one held in memory (the build input of
+	 * a hash join, or the outer input of a nested-loop join)
+	 * @return true for the left input, false for the right one
+	 */
+	public boolean isBuildLeft() {
+		return this.buildLeft;
+	}
+
+	/**
+	 * Describe the algorithm chosen for this join
+	 * @return Description of the algorithm and the input held in memory
+	 */
+	public String describeMethod() {
+		if (this.method == null) {
+			return "logical join";
+		} else if (this.method == Method.SORT_MERGE) {
+			return this.method.toString();
+		}
+		String side = this.buildLeft ? "left" : "right";
+		return this.method + (this.method == Method.HASH ? ", build " : ", outer ") + side;
+	}
+
 	/* (non-Javadoc)
 	 * @see sjdb.BinaryOperator#accept(sjdb.OperatorVisitor)
 	 */
@@ -28,14 +107,35 @@ public class Join extends BinaryOperator {
 		super.accept(visitor);
 		visitor.visit(this);
 	}
-	
+
 	/* (non-Javadoc)
 	 * @see java.lang.Object#toString()
 	 */
 	public String toString() {
-		return "(" + this.getLeft().toString() + ") JOIN [" + 
+		return "(" + this.getLeft().toString() + ") JOIN [" +
 				this.getPredicate().toString() +
 				"] (" + this.getRight().toString() + ")";
 	}
-	
+
+	/* (non-Javadoc)
+	 * @see sjdb.Operator#sameParameters(sjdb.Operator)
+	 */
+	@Override
+	protected boolean sameParameters(Operator op) {
+		Join rhs = (Join) op;
+		return this.predicate.equals(rhs.predicate) && this.method == rhs.method && this.buildLeft == rhs.buildLeft;
+	}
+
+	/* (non-Javadoc)
+	 * @see sjdb.Operator#parameterHash()
+	 */
+	@Override
+	protected int parameterHash() {
+		int h = this.predicate.hashCode();
+		if (this.method != null) {
+			h = 31 * h + this.method.ordinal() * 2 + (this.buildLeft ? 1 : 0) + 1;
+		}
+		return h;
+	}
+
 }
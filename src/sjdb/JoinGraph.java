@@ -0,0 +1,313 @@
+package sjdb;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * This class breaks a canonical query plan down into the pieces the optimiser
+ * reorders: one leaf per scanned relation (with the selects that only touch
+ * that relation moved on top of it), the attr=attr predicates that connect the
+ * leaves, and the attributes required by the final project.
+ *
+ * Sets of leaves are represented as BitSets of leaf indexes, and sets of
+ * attributes as BitSets of catalogue attribute ids. The graph holds the
+ * Estimator shared by the whole optimisation, and a PlanInterner through
+ * which every operator it builds is passed, so that candidates built from
+ * the same pieces share them and their estimates.
+ */
+public class JoinGraph {
+    private Estimator estimator;
+    private PlanInterner interner;
+    private List<Operator> leaves;
+    private HashMap<Attribute, Integer> attributeLeaves;
+    private HashMap<Attribute, Attribute> relationAttributes;
+
+    // attr=attr predicates between two different leaves, the leaves they connect and their attributes
+    private List<Predicate> joinPredicates;
+    private List<Integer> joinLeftLeaves;
+    private List<Integer> joinRightLeaves;
+    private List<BitSet> joinAttributes;
+
+    // null if the query projects all attributes
+    private BitSet projectAttributes;
+    private List<Project> projectList;
+
+    public JoinGraph(Operator canonical, Estimator estimator){
+        this.estimator = estimator;
+        this.interner = new PlanInterner();
+        this.leaves = new ArrayList<>();
+        this.attributeLeaves = new HashMap<>();
+        this.relationAttributes = new HashMap<>();
+        this.joinPredicates = new ArrayList<>();
+        this.joinLeftLeaves = new ArrayList<>();
+        this.joinRightLeaves = new ArrayList<>();
+        this.joinAttributes = new ArrayList<>();
+        this.projectList = new ArrayList<>();
+
+        List<Scan> scanList = new ArrayList<>();
+        List<Select> selectList = new ArrayList<>();
+        collectOperators(canonical, scanList, selectList);
+
+        for(int i = 0; i < scanList.size(); i++){
+            for(Attribute attr: scanList.get(i).getRelation().getAttributes()){
+                attributeLeaves.put(attr, i);
+                relationAttributes.put(attr, attr);
+            }
+        }
+
+        // Move selects that only touch one relation above the corresponding Scan
+        for(int i = 0; i < scanList.size(); i++){
+            Operator leaf = interner.intern(scanList.get(i));
+
+            for(Select select: selectList){
+                Predicate predicate = select.getPredicate();
+
+                if(getLeaf(predicate.getLeftAttribute()) == i && (predicate.comparesValue() || getLeaf(predicate.getRightAttribute()) == i)){
+                    leaf = interner.intern(new Select(leaf, predicate));
+                }
+            }
+
+            leaves.add(leaf);
+        }
+
+        // The remaining attr=attr selects become the edges of the join graph
+        for(Select select: selectList){
+            Predicate predicate = select.getPredicate();
+
+            if(predicate.comparesValue()){
+                continue;
+            }
+
+            int leftLeaf = getLeaf(predicate.getLeftAttribute());
+            int rightLeaf = getLeaf(predicate.getRightAttribute());
+
+            if(leftLeaf >= 0 && rightLeaf >= 0 && leftLeaf != rightLeaf){
+                joinPredicates.add(predicate);
+                joinLeftLeaves.add(leftLeaf);
+                joinRightLeaves.add(rightLeaf);
+
+                BitSet attributes = new BitSet();
+                attributes.set(relationAttributes.get(predicate.getLeftAttribute()).getId());
+                attributes.set(relationAttributes.get(predicate.getRightAttribute()).getId());
+                joinAttributes.add(attributes);
+            }
+        }
+
+        if(!projectList.isEmpty()){
+            projectAttributes = new BitSet();
+
+            for(Project project: projectList){
+                for(Attribute attr: project.getAttributes()){
+                    Attribute relationAttribute = relationAttributes.get(attr);
+
+                    if(relationAttribute != null){
+                        projectAttributes.set(relationAttribute.getId());
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Return the number of leaves (scanned relations) in the query
+     * @return number of leaves
+     */
+    public int size(){
+        return leaves.size();
+    }
+
+    /**
+     * Return the leaf with the given index: a Scan, possibly with selects on top
+     * @param i leaf index
+     * @return leaf operator
+     */
+    public Operator getLeaf(int i){
+        return leaves.get(i);
+    }
+
+    /**
+     * Return the estimator shared by the subplans of this graph
+     * @return estimator
+     */
+    public Estimator getEstimator(){
+        return estimator;
+    }
+
+    /**
+     * Return the table of distinct operators built for this graph
+     * @return interner
+     */
+    public PlanInterner getInterner(){
+        return interner;
+    }
+
+    /**
+     * Forget every operator interned but those of the given plans, so that the
+     * candidates that lost to them can be collected; plans built later from
+     * these still share their operators
+     * @param plans plans to keep interned
+     */
+    public void retain(Iterable<Operator> plans){
+        Set<Operator> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        List<Operator> order = new ArrayList<>();
+        Deque<Operator> pending = new ArrayDeque<>();
+
+        for(Operator plan: plans){
+            pending.push(plan);
+        }
+
+        // Each operator comes before its inputs, so they are interned in the reverse order
+        while(!pending.isEmpty()){
+            Operator op = pending.pop();
+
+            if(seen.add(op)){
+                order.add(op);
+                pending.addAll(op.getInputs());
+            }
+        }
+
+        interner.clear();
+
+        for(int i = order.size() - 1; i >= 0; i--){
+            interner.intern(order.get(i));
+        }
+    }
+
+    /**
+     * Return the leaves joined to the given leaf by at least one attr=attr predicate
+     * @param leaf leaf index
+     * @return neighbouring leaves
+     */
+    public BitSet getNeighbours(int leaf){
+        BitSet neighbours = new BitSet(leaves.size());
+
+        for(int p = 0; p < joinPredicates.size(); p++){
+            if(joinLeftLeaves.get(p) == leaf){
+                neighbours.set(joinRightLeaves.get(p));
+            }else if(joinRightLeaves.get(p) == leaf){
+                neighbours.set(joinLeftLeaves.get(p));
+            }
+        }
+
+        return neighbours;
+    }
+
+    /**
+     * Build the operators that combine two disjoint subplans: a Join on the first
+     * predicate connecting them (or a Product if there is none), Selects for any
+     * further connecting predicates and, if the query projects, a Project above
+     * each input that drops the attributes no longer needed.
+     *
+     * @param left left subplan
+     * @param leftLeaves leaves covered by the left subplan
+     * @param right right subplan
+     * @param rightLeaves leaves covered by the right subplan
+     * @param estimator estimator for the subplans, which should also be used for the result
+     * @return the combined plan
+     */
+    public Operator join(Operator left, BitSet leftLeaves, Operator right, BitSet rightLeaves, Estimator estimator){
+        List<Predicate> predicates = new ArrayList<>();
+
+        for(int p = 0; p < joinPredicates.size(); p++){
+            int leftLeaf = joinLeftLeaves.get(p);
+            int rightLeaf = joinRightLeaves.get(p);
+
+            if(leftLeaves.get(leftLeaf) && rightLeaves.get(rightLeaf)){
+                predicates.add(joinPredicates.get(p));
+            }else if(leftLeaves.get(rightLeaf) && rightLeaves.get(leftLeaf)){
+                // make sure the predicate is not reversed
+                Predicate predicate = joinPredicates.get(p);
+                predicates.add(new Predicate(predicate.getRightAttribute(), predicate.getLeftAttribute()));
+            }
+        }
+
+        if(projectAttributes != null){
+            left = project(left, leftLeaves, estimator);
+            right = project(right, rightLeaves, estimator);
+        }
+
+        if(predicates.isEmpty()){
+            return interner.intern(new Product(left, right));
+        }
+
+        Operator result = interner.intern(new Join(left, right, predicates.get(0)));
+
+        for(int i = 1; i < predicates.size(); i++){
+            result = interner.intern(new Select(result, predicates.get(i)));
+        }
+
+        return result;
+    }
+
+    /**
+     * Put the project operators of the canonical plan on top of an optimised plan
+     * @param plan optimised plan covering all leaves
+     * @return completed plan
+     */
+    public Operator finish(Operator plan){
+        for(Project project: projectList){
+            plan = new Project(plan, project.getAttributes());
+        }
+
+        return plan;
+    }
+
+    // Project the output of a subplan onto the attributes that are still needed above it:
+    // the projected attributes and those of predicates that reach outside the subplan
+    private Operator project(Operator op, BitSet covered, Estimator estimator){
+        Relation input = estimator.estimate(op);
+        BitSet needed = (BitSet) projectAttributes.clone();
+
+        for(int p = 0; p < joinPredicates.size(); p++){
+            if(!(covered.get(joinLeftLeaves.get(p)) && covered.get(joinRightLeaves.get(p)))){
+                needed.or(joinAttributes.get(p));
+            }
+        }
+
+        needed.and(input.getAttributeSet());
+
+        if(needed.isEmpty() || needed.cardinality() == input.getAttributes().size()){
+            return op;
+        }
+
+        List<Attribute> attributes = new ArrayList<>();
+
+        for(Attribute attr: input.getAttributes()){
+            if(needed.get(attr.getId())){
+                attributes.add(attr);
+            }
+        }
+
+        return interner.intern(new Project(op, attributes));
+    }
+
+    private int getLeaf(Attribute attr){
+        Integer leaf = attributeLeaves.get(attr);
+        return leaf == null ? -1 : leaf;
+    }
+
+    // Assumes no joins in canonical plan
+    private void collectOperators(Operator op, List<Scan> scanList, List<Select> selectList){
+        if(op instanceof Scan){
+            scanList.add((Scan) op);
+            return;
+        }
+
+        for(Operator input: op.getInputs()){
+            collectOperators(input, scanList, selectList);
+        }
+
+        if(op instanceof Select){
+            selectList.add((Select) op);
+        }else if(op instanceof Project){
+            projectList.add((Project) op);
+        }
+    }
+}
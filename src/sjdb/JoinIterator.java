@@ -0,0 +1,79 @@
+package sjdb;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This abstract class is the base of the iterators that join two inputs.
+ * The output tuples hold the values of the left input's attributes followed
+ * by those of the right input's attributes that the left input does not
+ * have, as the Estimator assumes.
+ *
+ * The join predicate compares an attribute of the left input with one of the
+ * right input; values are equal if they are the same string, and a null
+ * value is equal to nothing. A product has no predicate, and joins every
+ * pair of tuples.
+ */
+public abstract class JoinIterator extends TupleIterator {
+	protected final TupleIterator left;
+	protected final TupleIterator right;
+	protected final int leftKey;
+	protected final int rightKey;
+	private final int[] rightColumns;
+
+	/**
+	 * @param label Description of the operator, for profiles
+	 * @param left Left input
+	 * @param right Right input
+	 * @param predicate Join predicate, or null for a product
+	 */
+	protected JoinIterator(String label, TupleIterator left, TupleIterator right, Predicate predicate) {
+		super(label, getJoined(left.getAttributes(), right.getAttributes()), left, right);
+		this.left = left;
+		this.right = right;
+		this.leftKey = predicate == null ? -1 : left.indexOf(predicate.getLeftAttribute());
+		this.rightKey = predicate == null ? -1 : right.indexOf(predicate.getRightAttribute());
+
+		List<Attribute> attributes = getAttributes();
+		int leftCount = left.getAttributes().size();
+		this.rightColumns = new int[attributes.size() - leftCount];
+		for (int i = 0; i < rightColumns.length; i++) {
+			rightColumns[i] = right.indexOf(attributes.get(leftCount + i));
+		}
+	}
+
+	private static List<Attribute> getJoined(List<Attribute> leftAttributes, List<Attribute> rightAttributes) {
+		List<Attribute> joined = new ArrayList<Attribute>(leftAttributes);
+		for (Attribute attr : rightAttributes) {
+			if (!leftAttributes.contains(attr)) {
+				joined.add(attr);
+			}
+		}
+		return joined;
+	}
+
+	/**
+	 * Return true if a left and a right tuple satisfy the join predicate
+	 * @param leftTuple
+	 * @param rightTuple
+	 * @return true if the tuples join
+	 */
+	protected boolean matches(String[] leftTuple, String[] rightTuple) {
+		return leftKey < 0 || (leftTuple[leftKey] != null && leftTuple[leftKey].equals(rightTuple[rightKey]));
+	}
+
+	/**
+	 * Combine a left and a right tuple into an output tuple
+	 * @param leftTuple
+	 * @param rightTuple
+	 * @return the output tuple
+	 */
+	protected String[] combine(String[] leftTuple, String[] rightTuple) {
+		String[] tuple = new String[leftTuple.length + rightColumns.length];
+		System.arraycopy(leftTuple, 0, tuple, 0, leftTuple.length);
+		for (int i = 0; i < rightColumns.length; i++) {
+			tuple[leftTuple.length + i] = rightTuple[rightColumns[i]];
+		}
+		return tuple;
+	}
+}
@@ -0,0 +1,149 @@
+package sjdb;
+
+import java.io.File;
+
+/**
+ * This class is the memory that the operators of a running query share for
+ * the tuples they hold: the build input of a hash join and the runs of a
+ * sort. An operator reserves memory as it takes tuples in and releases it
+ * when it lets them go; when a reservation is refused, the operator writes
+ * tuples out to SpillFiles instead, so that a query runs in the same memory
+ * whatever the size of its inputs.
+ *
+ * Tuples of strings are charged roughly what they take on the heap (see
+ * sizeOf()), and rows of encoded values what they take in an
+ * OffHeapHashTable. Spill files are created in the budget's directory.
+ *
+ * A budget is thread-safe, as the workers of a parallel plan share it.
+ */
+public class MemoryBudget {
+	/**
+	 * The size of the buffer used to read or write a spill file, in bytes
+	 */
+	public static final int BUFFER_BYTES = 64 * 1024;
+
+	// Heap bytes of an array and of a string, besides their elements
+	private static final int ARRAY_OVERHEAD = 16;
+	private static final int STRING_OVERHEAD = 40;
+	private static final int REFERENCE_BYTES = 4;
+
+	private final long limit;
+	private final File directory;
+	private long reserved;
+	private long peak;
+
+	/**
+	 * @param limit Memory the operators may reserve, in bytes
+	 * @param directory Directory for spill files, or null for the default temporary directory
+	 */
+	public MemoryBudget(long limit, File directory) {
+		this.limit = limit;
+		this.directory = directory;
+	}
+
+	/**
+	 * Create a budget of the memory assumed by a cost model
+	 * @param costModel
+	 * @return Budget of the cost model's memory pages
+	 */
+	public static MemoryBudget of(CostModel costModel) {
+		return new MemoryBudget((long) costModel.getMemoryPages() * costModel.getPageSize(), null);
+	}
+
+	/**
+	 * Reserve memory, if there is enough left
+	 * @param bytes Size in bytes
+	 * @return true if it was reserved, false if it was refused
+	 */
+	public synchronized boolean tryReserve(long bytes) {
+		if (reserved + bytes > limit) {
+			return false;
+		}
+		reserve(bytes);
+		return true;
+	}
+
+	/**
+	 * Reserve memory whether or not there is enough left, for the tuples that
+	 * an operator cannot do without (such as a group of tuples with one value)
+	 * @param bytes Size in bytes
+	 */
+	public synchronized void reserve(long bytes) {
+		reserved += bytes;
+		peak = Math.max(peak, reserved);
+	}
+
+	/**
+	 * Give back memory that was reserved
+	 * @param bytes Size in bytes
+	 */
+	public synchronized void release(long bytes) {
+		reserved -= bytes;
+	}
+
+	public long getLimit() {
+		return limit;
+	}
+
+	/**
+	 * Return the memory that may still be reserved
+	 * @return Size in bytes, at least 0
+	 */
+	public synchronized long getAvailable() {
+		return Math.max(0, limit - reserved);
+	}
+
+	/**
+	 * Return the most memory reserved at once
+	 * @return Size in bytes
+	 */
+	public synchronized long getPeak() {
+		return peak;
+	}
+
+	public File getDirectory() {
+		return directory;
+	}
+
+	/**
+	 * Return the memory charged for a tuple of strings
+	 * @param tuple
+	 * @return Size in bytes
+	 */
+	public static long sizeOf(String[] tuple) {
+		long size = ARRAY_OVERHEAD + (long) REFERENCE_BYTES * tuple.length;
+		for (String value : tuple) {
+			if (value != null) {
+				size += STRING_OVERHEAD + value.length();
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * Estimate the memory charged for a tuple of strings, by sizeOf()
+	 * @param attributes Number of values of the tuple
+	 * @param width Width of the tuple in bytes, as estimated by the Estimator
+	 * @return Size in bytes
+	 */
+	public static long estimateSize(int attributes, int width) {
+		return ARRAY_OVERHEAD + (long) (REFERENCE_BYTES + STRING_OVERHEAD) * attributes + width;
+	}
+
+	/**
+	 * Return the number of partitions that would split an input into parts
+	 * that each fit in the memory left
+	 * @param bytes Estimated size of the input
+	 * @return Partition count, 1 if the input fits as it is
+	 */
+	public synchronized int getPartitions(long bytes) {
+		long available = Math.max(BUFFER_BYTES, getAvailable());
+		if (bytes <= available) {
+			return 1;
+		}
+		// Leave room for the partitions to come out uneven, and for their write buffers
+		long partitions = (bytes * 3 / 2 + available - 1) / available;
+		long most = Math.max(2, available / BUFFER_BYTES);
+		return (int) Math.max(2, Math.min(partitions, most));
+	}
+}
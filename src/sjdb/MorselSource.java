@@ -0,0 +1,97 @@
+package sjdb;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class splits the scan of a relation into morsels of MORSEL_ROWS
+ * tuples, which the workers running a plan in parallel claim one at a time
+ * (see ParallelExecutor), so that a worker that finishes early takes on more
+ * of the relation rather than waiting for the others.
+ *
+ * A morsel of a relation held in column files is a range of tuple indexes,
+ * claimed without locking, as any worker can read any range of the mapped
+ * files. A CSV file has to be read in order, so a morsel of it is the next
+ * lines of the file, read under the source's lock; encoding the lines, which
+ * takes longer than reading them, is left to the worker.
+ *
+ * A source is thread-safe.
+ */
+public class MorselSource {
+	/**
+	 * The number of tuples in a morsel, a few batches' worth
+	 */
+	public static final int MORSEL_ROWS = 8 * ColumnBatch.DEFAULT_SIZE;
+
+	private final File file;
+	private final AtomicLong nextRow;
+	private BufferedReader reader;
+	private String header;
+
+	/**
+	 * @param file CSV file holding the relation, or null if it is held in column files
+	 */
+	public MorselSource(File file) {
+		this.file = file;
+		this.nextRow = new AtomicLong();
+	}
+
+	/**
+	 * Claim the next range of tuple indexes
+	 * @return Index of the first tuple of the morsel, which may be beyond the
+	 * last tuple of the relation; the morsel ends MORSEL_ROWS after it
+	 */
+	public long claimRows() {
+		return nextRow.getAndAdd(MORSEL_ROWS);
+	}
+
+	/**
+	 * Return the header line of the CSV file, opening it if no worker has yet
+	 * @return Header line
+	 * @throws IOException if the file has no header line
+	 */
+	public synchronized String getHeader() throws IOException {
+		if (reader == null) {
+			reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8);
+			header = reader.readLine();
+			if (header == null) {
+				throw new IOException("No header line in " + file);
+			}
+		}
+		return header;
+	}
+
+	/**
+	 * Claim the next lines of the CSV file, leaving out empty lines
+	 * @param lines Array to fill with lines, from its start
+	 * @return Number of lines read, 0 at the end of the file
+	 * @throws IOException
+	 */
+	public synchronized int readLines(String[] lines) throws IOException {
+		getHeader();
+		int n = 0;
+		String line;
+		while (n < lines.length && (line = reader.readLine()) != null) {
+			if (!line.isEmpty()) {
+				lines[n++] = line;
+			}
+		}
+		return n;
+	}
+
+	/**
+	 * Close the file, and start the morsels over for the next run
+	 * @throws IOException
+	 */
+	public synchronized void close() throws IOException {
+		nextRow.set(0);
+		if (reader != null) {
+			reader.close();
+			reader = null;
+		}
+	}
+}
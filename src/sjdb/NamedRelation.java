@@ -3,8 +3,13 @@
  */
 package sjdb;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
 /**
- * This class represents a named relation which is fed into a query plan
+ * This class represents a named relation which is fed into a query plan,
+ * along with the indexes declared on its attributes
  * @author nmg
  */
 public class NamedRelation extends Relation {
@@ -13,14 +18,63 @@ public class NamedRelation extends Relation {
 	 */
 	private String name;
 	
+	private List<Index> indexes;
+	
 	/**
 	 * Create a new named relation with a given name and tuple count
 	 * @param name The name of the relation
 	 * @param size The tuple count
 	 */
-	public NamedRelation(String name, int size) {
+	public NamedRelation(String name, long size) {
 		super(size);
 		this.name = name;
+		this.indexes = new ArrayList<Index>();
+	}
+
+	/**
+	 * Return the name of the named relation
+	 * @return The name of the relation
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Add an index on one of the attributes of this relation
+	 * @param index The index
+	 */
+	public void addIndex(Index index) {
+		indexes.add(index);
+	}
+
+	/**
+	 * Return the indexes on the attributes of this relation
+	 * @return Unmodifiable list of indexes
+	 */
+	public List<Index> getIndexes() {
+		return Collections.unmodifiableList(indexes);
+	}
+
+	/**
+	 * Return an index that can find the tuples whose attribute satisfies a
+	 * comparison with a value, preferring a clustered index and then a hash
+	 * index for equality (which takes fewer page reads than a B-tree)
+	 * @param attribute The attribute compared
+	 * @param comparison The comparison
+	 * @return The best index, or null if there is none
+	 */
+	public Index getIndex(Attribute attribute, Predicate.Comparison comparison) {
+		Index best = null;
+		for (Index index : indexes) {
+			if (!index.getAttribute().equals(attribute) || !index.supports(comparison)) {
+				continue;
+			}
+			if (best == null || (index.isClustered() && !best.isClustered())
+					|| (index.isClustered() == best.isClustered() && index.getType() == Index.Type.HASH)) {
+				best = index;
+			}
+		}
+		return best;
 	}
 
 	/* (non-Javadoc)
@@ -0,0 +1,104 @@
+package sjdb;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class joins two inputs by block nested loops: it reads a block of
+ * tuples of its outer input into memory, then reads the whole of its inner
+ * input (opening it again), comparing every inner tuple with every tuple of
+ * the block, and so on for each block of the outer input. Only a block of
+ * the outer input is held in memory at once.
+ */
+public class NestedLoopJoinIterator extends JoinIterator {
+	private final TupleIterator outer;
+	private final TupleIterator inner;
+	private final boolean outerLeft;
+	private final int blockSize;
+	private final List<String[]> block;
+	private String[] innerTuple;
+	private int position;
+	private boolean outerDone;
+
+	/**
+	 * @param label Description of the operator, for profiles
+	 * @param left Left input
+	 * @param right Right input
+	 * @param predicate Join predicate, or null for a product
+	 * @param outerLeft true if the left input is the outer one
+	 * @param blockSize Number of outer tuples held in memory at once
+	 */
+	public NestedLoopJoinIterator(String label, TupleIterator left, TupleIterator right, Predicate predicate,
+			boolean outerLeft, int blockSize) {
+		super(label, left, right, predicate);
+		this.outer = outerLeft ? left : right;
+		this.inner = outerLeft ? right : left;
+		this.outerLeft = outerLeft;
+		this.blockSize = Math.max(1, blockSize);
+		this.block = new ArrayList<String[]>();
+	}
+
+	@Override
+	protected void doOpen() throws IOException {
+		outer.open();
+		outerDone = false;
+		innerTuple = null;
+		readBlock();
+	}
+
+	// Read the next block of the outer input, and start reading the inner input again
+	private boolean readBlock() throws IOException {
+		block.clear();
+		String[] tuple;
+		while (!outerDone && block.size() < blockSize) {
+			if ((tuple = outer.next()) == null) {
+				outerDone = true;
+			} else {
+				block.add(tuple);
+			}
+		}
+		if (block.isEmpty()) {
+			return false;
+		}
+		inner.open();
+		return true;
+	}
+
+	@Override
+	protected String[] doNext() throws IOException {
+		while (!block.isEmpty()) {
+			if (innerTuple == null) {
+				innerTuple = inner.next();
+				position = 0;
+				if (innerTuple == null) {
+					inner.close();
+					if (!readBlock()) {
+						return null;
+					}
+					continue;
+				}
+			}
+
+			while (position < block.size()) {
+				String[] outerTuple = block.get(position++);
+				String[] leftTuple = outerLeft ? outerTuple : innerTuple;
+				String[] rightTuple = outerLeft ? innerTuple : outerTuple;
+				if (matches(leftTuple, rightTuple)) {
+					return combine(leftTuple, rightTuple);
+				}
+			}
+			innerTuple = null;
+		}
+		return null;
+	}
+
+	@Override
+	protected void doClose() throws IOException {
+		if (!block.isEmpty()) {
+			inner.close();
+			block.clear();
+		}
+		outer.close();
+	}
+}
@@ -0,0 +1,242 @@
+package sjdb;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * This class is a hash table of rows of encoded values (see ValueDictionary)
+ * held outside the Java heap, for the build input of a hash join. Rows are
+ * appended to an arena of direct buffers of a fixed size (up to CHUNK_BYTES,
+ * less for a table expected to be small), each row packed as the
+ * index of the next row with the same key followed by its values. Once all the
+ * rows have been added, index() builds an open-addressing table over one of
+ * the columns: each slot holds a key and the first and last rows with that
+ * key, and collisions are resolved by linear probing.
+ *
+ * Neither adding nor looking up a row allocates anything on the heap, and the
+ * garbage collector never has to trace the rows, however many there are. The
+ * memory held is exactly the chunks of the arena and the slots of the table
+ * (see getAllocatedBytes()), and is given back when the table is freed and
+ * its buffers are collected.
+ *
+ * A table is not thread-safe while rows are added to it, but once indexed it
+ * can be probed by any number of threads at once, as looking up a row reads
+ * the buffers without moving their positions.
+ */
+public class OffHeapHashTable {
+	/**
+	 * The size of each chunk of the row arena, in bytes
+	 */
+	public static final int CHUNK_BYTES = 1 << 20;
+	private static final int MIN_CHUNK_ROWS = 64;
+
+	// A slot is a key, and the first and last rows with it (plus one, so that 0 is empty)
+	private static final int SLOT_BYTES = 16;
+	// A row is the next row with its key (plus one), padded to 8 bytes, then its values
+	private static final int ROW_HEADER_BYTES = 8;
+	private static final int MAX_SLOTS = Integer.highestOneBit(Integer.MAX_VALUE / SLOT_BYTES);
+
+	private final int columnCount;
+	private final int keyColumn;
+	private final int rowBytes;
+	private final int chunkShift;
+	private final int chunkMask;
+	private ByteBuffer[] chunks;
+	private int chunkCount;
+	private int rowCount;
+	private ByteBuffer slots;
+	private int slotMask;
+
+	/**
+	 * @param columnCount Number of values in a row
+	 * @param keyColumn Column of the rows to index, or -1 if they are not to be indexed
+	 * @param expectedRows Number of rows expected, so that a small table is
+	 * not given chunks larger than it needs
+	 */
+	public OffHeapHashTable(int columnCount, int keyColumn, long expectedRows) {
+		this.columnCount = columnCount;
+		this.keyColumn = keyColumn;
+		this.rowBytes = ROW_HEADER_BYTES + 8 * columnCount;
+		long rows = Math.max(MIN_CHUNK_ROWS, Math.min(expectedRows, CHUNK_BYTES / rowBytes));
+		int rowsPerChunk = Integer.highestOneBit((int) rows);
+		this.chunkShift = Integer.numberOfTrailingZeros(rowsPerChunk);
+		this.chunkMask = rowsPerChunk - 1;
+		this.chunks = new ByteBuffer[16];
+	}
+
+	/**
+	 * Return the most memory that a row takes, in the arena and the slots of
+	 * the table (of which there are up to four a row)
+	 * @param columnCount Number of values in a row
+	 * @return Size in bytes
+	 */
+	public static long getBytesPerRow(int columnCount) {
+		return ROW_HEADER_BYTES + 8 * columnCount + 4 * SLOT_BYTES;
+	}
+
+	/**
+	 * Append a row, made of the values at one index of each of the columns
+	 * @param columns Columns of values, one per column of the table
+	 * @param index Index of the row's values in the columns
+	 * @return Number of the row
+	 */
+	public int add(long[][] columns, int index) {
+		int row = allocate();
+		ByteBuffer chunk = chunks[row >>> chunkShift];
+		int offset = (row & chunkMask) * rowBytes;
+		for (int c = 0; c < columnCount; c++) {
+			chunk.putLong(offset + ROW_HEADER_BYTES + 8 * c, columns[c][index]);
+		}
+		return row;
+	}
+
+	/**
+	 * Append the rows of another table with the same columns, in the order
+	 * they were added to it
+	 * @param other Table to copy the rows of
+	 */
+	public void addAll(OffHeapHashTable other) {
+		for (int r = 0; r < other.rowCount; r++) {
+			int row = allocate();
+			ByteBuffer chunk = chunks[row >>> chunkShift];
+			int offset = (row & chunkMask) * rowBytes;
+			for (int c = 0; c < columnCount; c++) {
+				chunk.putLong(offset + ROW_HEADER_BYTES + 8 * c, other.getValue(r, c));
+			}
+		}
+	}
+
+	// Make room for a row with no next row, and return its number
+	private int allocate() {
+		int row = rowCount;
+		if ((row & chunkMask) == 0) {
+			if (chunkCount == chunks.length) {
+				chunks = Arrays.copyOf(chunks, chunkCount * 2);
+			}
+			chunks[chunkCount++] = ByteBuffer.allocateDirect((chunkMask + 1) * rowBytes).order(ByteOrder.nativeOrder());
+		}
+		chunks[row >>> chunkShift].putInt((row & chunkMask) * rowBytes, 0);
+		rowCount++;
+		return row;
+	}
+
+	/**
+	 * Build the table of keys over the rows added so far, with twice as many
+	 * slots as rows; rows with the same key are chained in the order they
+	 * were added
+	 */
+	public void index() {
+		int size = Integer.highestOneBit(Math.max(2, rowCount) * 2 - 1) << 1;
+		if (size > MAX_SLOTS) {
+			throw new IllegalStateException("Too many rows to index: " + rowCount);
+		}
+		slots = ByteBuffer.allocateDirect(size * SLOT_BYTES).order(ByteOrder.nativeOrder());
+		slotMask = size - 1;
+
+		for (int row = 0; row < rowCount; row++) {
+			long key = getValue(row, keyColumn);
+			int slot = hash(key) & slotMask;
+			while (true) {
+				int offset = slot * SLOT_BYTES;
+				int first = slots.getInt(offset + 8);
+				if (first == 0) {
+					slots.putLong(offset, key);
+					slots.putInt(offset + 8, row + 1);
+					slots.putInt(offset + 12, row + 1);
+					break;
+				} else if (slots.getLong(offset) == key) {
+					int last = slots.getInt(offset + 12) - 1;
+					setNext(last, row);
+					slots.putInt(offset + 12, row + 1);
+					break;
+				}
+				slot = (slot + 1) & slotMask;
+			}
+		}
+	}
+
+	private static int hash(long value) {
+		long h = value * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
+
+	/**
+	 * Return the first row with a key
+	 * @param key Encoded value
+	 * @return Number of the row, or -1 if there is none
+	 */
+	public int find(long key) {
+		int slot = hash(key) & slotMask;
+		while (true) {
+			int offset = slot * SLOT_BYTES;
+			int first = slots.getInt(offset + 8);
+			if (first == 0 || slots.getLong(offset) == key) {
+				return first - 1;
+			}
+			slot = (slot + 1) & slotMask;
+		}
+	}
+
+	/**
+	 * Return the row after a row with the same key
+	 * @param row Number of a row found by find() or next()
+	 * @return Number of the row, or -1 if there is none
+	 */
+	public int next(int row) {
+		return chunks[row >>> chunkShift].getInt((row & chunkMask) * rowBytes) - 1;
+	}
+
+	private void setNext(int row, int next) {
+		chunks[row >>> chunkShift].putInt((row & chunkMask) * rowBytes, next + 1);
+	}
+
+	/**
+	 * Return a value of a row
+	 * @param row Number of the row
+	 * @param column Column of the value
+	 * @return Encoded value
+	 */
+	public long getValue(int row, int column) {
+		return chunks[row >>> chunkShift].getLong((row & chunkMask) * rowBytes + ROW_HEADER_BYTES + 8 * column);
+	}
+
+	/**
+	 * Copy the values of a row into columns
+	 * @param row Number of the row
+	 * @param columns Columns of values, one per column of the table
+	 * @param index Index to put the row's values at in the columns
+	 */
+	public void copyRow(int row, long[][] columns, int index) {
+		for (int c = 0; c < columnCount; c++) {
+			columns[c][index] = getValue(row, c);
+		}
+	}
+
+	/**
+	 * Return the number of rows added
+	 * @return Row count
+	 */
+	public int size() {
+		return rowCount;
+	}
+
+	/**
+	 * Return the memory held outside the heap by the arena and the slots
+	 * @return Size in bytes
+	 */
+	public long getAllocatedBytes() {
+		long bytes = (long) chunkCount * (chunkMask + 1) * rowBytes;
+		return slots == null ? bytes : bytes + slots.capacity();
+	}
+
+	/**
+	 * Drop the rows and the slots, leaving the table empty
+	 */
+	public void free() {
+		Arrays.fill(chunks, 0, chunkCount, null);
+		chunkCount = 0;
+		slots = null;
+		rowCount = 0;
+	}
+}
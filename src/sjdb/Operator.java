@@ -5,46 +5,48 @@ package sjdb;
 
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
 
 /**
  * This abstract class represents an operator in a query, and
  * is subclassed by UnaryOperator and BinaryOperator.
+ * 
+ * Operators are immutable once constructed: their inputs and parameters
+ * never change, so subplans can be shared between plans. Two operators are
+ * equal if they are of the same class, with equal parameters and equal
+ * inputs, and the hash code follows the same structure. The output relation
+ * is an annotation set by visitors such as the Estimator, and is not part
+ * of the structure.
  * @author nmg
  *
  */
 public abstract class Operator {
 	/**
 	 * The list of child operators that feed their outputs to
-	 * this operator.
+	 * this operator. Only constructors add to it.
 	 */
-	protected ArrayList<Operator> inputs;
+	protected final List<Operator> inputs;
 	/**
 	 * The relation produced by this operator as output.
 	 */
 	protected Relation output;
 	
+	private final List<Operator> inputView;
+	private int hash;
+	
 	public Operator() {
-		this.inputs = new ArrayList<Operator>();
+		this.inputs = new ArrayList<Operator>(2);
+		this.inputView = Collections.unmodifiableList(this.inputs);
 	}
 	
 	/**
-	 * Return an arraylist containing the child operators of this
+	 * Return an unmodifiable list containing the child operators of this
 	 * operator.
 	 * @return Child operators
 	 */
 	public List<Operator> getInputs() {
-		List<Operator> inputs = new ArrayList<Operator>();
-		inputs.addAll(this.inputs);
-		return inputs;
-	}
-	
-	/**
-	 * Add a child operator to this operator
-	 * @param op Child operator
-	 */
-	protected void addOperator(Operator op) {
-		this.inputs.add(op);
+		return inputView;
 	}
 	
 	/**
@@ -73,4 +75,58 @@ public abstract class Operator {
 			iter.next().accept(visitor);
 		}
 	}
+	
+	/**
+	 * Return true if this operator has the same parameters (predicate,
+	 * attributes, relation...) as another operator of the same class.
+	 * @param op Operator of the same class
+	 * @return true if the parameters are equal
+	 */
+	protected boolean sameParameters(Operator op) {
+		return true;
+	}
+	
+	/**
+	 * Return a hash code for the parameters of this operator, consistent
+	 * with sameParameters().
+	 * @return Hash code
+	 */
+	protected int parameterHash() {
+		return 0;
+	}
+	
+	/* (non-Javadoc)
+	 * @see java.lang.Object#hashCode()
+	 */
+	@Override
+	public int hashCode() {
+		// operators are immutable, so the hash is only computed once
+		int h = hash;
+		if (h == 0) {
+			h = getClass().getName().hashCode();
+			h = 31 * h + parameterHash();
+			h = 31 * h + inputs.hashCode();
+			if (h == 0) {
+				h = 1;
+			}
+			hash = h;
+		}
+		return h;
+	}
+	
+	/* (non-Javadoc)
+	 * @see java.lang.Object#equals(java.lang.Object)
+	 */
+	@Override
+	public boolean equals(Object obj) {
+		if (obj == this) {
+			return true;
+		}
+		if (obj == null || obj.getClass() != this.getClass()) {
+			return false;
+		}
+		Operator rhs = (Operator) obj;
+		
+		return hashCode() == rhs.hashCode() && sameParameters(rhs) && inputs.equals(rhs.inputs);
+	}
 }
@@ -1,313 +1,525 @@
 package sjdb;
 
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.ObjIntConsumer;
 
-@SuppressWarnings("Duplicates")
 public class Optimiser {
+    // Above this many relations the dynamic programming table (2^n subsets) gets
+    // too big, and the join order is chosen greedily instead
+    public static final int DEFAULT_DP_LIMIT = 12;
+    // The table has an entry for each of the 2^n subsets, which at 20 relations
+    // already needs several gigabytes
+    public static final int MAX_DP_LIMIT = 20;
+    // Heap taken by the table for each subset, with its plan and estimate; about 3.5KB
+    // was measured for chains of 16 to 18 relations
+    private static final long DP_BYTES_PER_SUBSET = 4096;
+    // Above this many relations the greedy order is improved by a randomised search
+    public static final int DEFAULT_RANDOMISED_LIMIT = 20;
+    public static final int DEFAULT_RANDOMISED_ITERATIONS = 10000;
+    // Bushy enumeration costs two plans for every csg-cmp pair, which number 3^n/2 for a
+    // clique; beyond this many pairs, the left-deep plans are enumerated instead
+    public static final long DEFAULT_BUSHY_PAIR_LIMIT = 10000;
+    public static final long DEFAULT_RANDOMISED_TIME = 1000;
+
     private Catalogue catalogue;
+    private int dpLimit;
+    private boolean bushy;
+    private long bushyPairLimit;
+    private int parallelism;
+    private ForkJoinPool pool;
+    private int randomisedLimit;
+    private long seed;
+    private int maxIterations;
+    private long timeLimit;
+    private CostModel costModel;
+    private boolean physical;
 
     public Optimiser(Catalogue catalogue){
         this.catalogue = catalogue;
+        this.dpLimit = DEFAULT_DP_LIMIT;
+        this.bushy = false;
+        this.bushyPairLimit = DEFAULT_BUSHY_PAIR_LIMIT;
+        this.parallelism = 1;
+        this.randomisedLimit = DEFAULT_RANDOMISED_LIMIT;
+        this.seed = 0;
+        this.maxIterations = DEFAULT_RANDOMISED_ITERATIONS;
+        this.timeLimit = DEFAULT_RANDOMISED_TIME;
+        this.costModel = new CostModel();
+        this.physical = true;
     }
 
-    public Operator optimise(Operator op){
-        // Get all operators from the canonical plan
-        List<Operator> operators = getOperators(op, new ArrayList<>());
-
-        // Separate each operator type
-        List<Scan> scanList = new ArrayList<>();
-        List<Product> productList = new ArrayList<>();
-        List<Select> selectList = new ArrayList<>();
-        List<Project> projectList = new ArrayList<>();
-
-        for(Operator operator: operators){
-            if(operator instanceof Scan){
-                scanList.add((Scan) operator);
-            }else if(operator instanceof Product){
-                productList.add((Product) operator);
-            }else if(operator instanceof Select){
-                selectList.add((Select) operator);
-            }else if(operator instanceof Project){
-                projectList.add((Project) operator);
-            }
+    /**
+     * Choose whether an algorithm is chosen for every join once the join order is
+     * fixed, and index scans for the selects that an index can answer (see
+     * PhysicalPlanner), or the plan is left logical.
+     * @param physical true to choose join algorithms and access paths
+     */
+    public void setPhysical(boolean physical){
+        this.physical = physical;
+    }
+
+    /**
+     * Set the model that weighs the pages, tuples and bytes of a plan's cost into the
+     * total that is minimised
+     * @param costModel cost model
+     */
+    public void setCostModel(CostModel costModel){
+        this.costModel = costModel;
+    }
+
+    /**
+     * Set the largest number of relations for which the join order is found by
+     * dynamic programming; wider queries fall back to greedy ordering, as do
+     * those whose table is not expected to fit in the heap.
+     * @param dpLimit maximum number of relations, at most MAX_DP_LIMIT
+     */
+    public void setDpLimit(int dpLimit){
+        if(dpLimit > MAX_DP_LIMIT){
+            throw new IllegalArgumentException("Dynamic programming is limited to " + MAX_DP_LIMIT + " relations");
         }
 
-        List<Operator> optimisedScanList = new ArrayList<>();
+        this.dpLimit = dpLimit;
+    }
 
-        // Move selects in the form attr=val above the corresponding Relations
-        for(Scan scan: scanList){
-            Operator optimisedScan = scan;
+    /**
+     * Choose between left-deep plans, where the right input of every join is a single
+     * relation, and bushy plans, where both inputs of a join may be joins themselves.
+     * Bushy plans are found by enumerating connected subgraphs of the join graph and
+     * only contain products between relations that no predicate connects. Join graphs
+     * with more csg-cmp pairs than the bushy pair limit get left-deep plans instead.
+     * @param bushy true to build bushy plans
+     */
+    public void setBushy(boolean bushy){
+        this.bushy = bushy;
+    }
 
-            for(Select select: selectList){
-                if(select.getPredicate().equalsValue() && scan.getRelation().getAttributes().contains(select.getPredicate().getLeftAttribute())){
-                    optimisedScan = new Select(optimisedScan, select.getPredicate());
-                }
-            }
+    /**
+     * Set the largest number of csg-cmp pairs (see CcpEnumerator) for which bushy
+     * plans are enumerated; a denser join graph gets a left-deep plan instead.
+     * @param bushyPairLimit maximum number of pairs
+     */
+    public void setBushyPairLimit(long bushyPairLimit){
+        this.bushyPairLimit = bushyPairLimit;
+    }
+
+    /**
+     * Set the number of threads used to cost candidate plans. Candidates that do not
+     * depend on each other (the sets of relations of one size, or the relations that
+     * can be added next to a greedy plan) are costed in parallel on a ForkJoinPool;
+     * the chosen plan is the same as with a single thread.
+     * @param parallelism number of threads, 1 to cost candidates on the calling thread
+     */
+    public void setParallelism(int parallelism){
+        if(parallelism < 1){
+            throw new IllegalArgumentException("Parallelism must be at least 1");
+        }
 
-            optimisedScanList.add(optimisedScan);
+        if(pool != null){
+            pool.shutdown();
         }
 
-        // Reorder joins
+        this.parallelism = parallelism;
+        this.pool = parallelism > 1 ? new ForkJoinPool(parallelism) : null;
+    }
 
+    /**
+     * Set the number of relations above which the greedy join order is improved by
+     * a randomised search (iterative improvement followed by simulated annealing).
+     * @param randomisedLimit maximum number of relations ordered greedily only
+     */
+    public void setRandomisedLimit(int randomisedLimit){
+        this.randomisedLimit = randomisedLimit;
+    }
 
-        List<Operator> optimisedProductList = new ArrayList<>();
+    /**
+     * Set the seed of the randomised search; the same seed gives the same plan as long
+     * as the search stops on its iteration budget.
+     * @param seed random seed
+     */
+    public void setSeed(long seed){
+        this.seed = seed;
+    }
 
-        // Make all possible pairs for product 1
-        List<List<Operator>> pairs = new ArrayList<>();
+    /**
+     * Set the budgets of the randomised search
+     * @param maxIterations maximum number of join orders to cost
+     * @param timeLimit maximum time to search for, in milliseconds
+     */
+    public void setRandomisedBudget(int maxIterations, long timeLimit){
+        this.maxIterations = maxIterations;
+        this.timeLimit = timeLimit;
+    }
 
-        for(int i = 0; i < optimisedScanList.size() - 1; i++){
-            for(int j = i + 1; j < optimisedScanList.size(); j++){
-                List<Operator> pair = new ArrayList<>();
-                pair.add(optimisedScanList.get(i));
-                pair.add(optimisedScanList.get(j));
-                pairs.add(pair);
-            }
-        }
+    public Operator optimise(Operator op){
+        // Split the canonical plan into leaves with their selects moved down, and join predicates
+        JoinGraph graph = new JoinGraph(op, new Estimator(costModel));
 
-        // Get all restricting attr in order to move Project operators
-        List<Attribute> selectAndProjectAttributes = new ArrayList<>();
+        Operator optimisedPlan;
 
-        for(Select select: selectList){
-            if(!select.getPredicate().equalsValue()){
-                if(!selectAndProjectAttributes.contains(select.getPredicate().getLeftAttribute())){
-                    selectAndProjectAttributes.add(select.getPredicate().getLeftAttribute());
-                }
+        if(graph.size() == 1){
+            optimisedPlan = graph.getLeaf(0);
+        }else if(graph.size() <= dpLimit && fitsInHeap(graph.size())){
+            int[] neighbours = bushy ? getNeighbours(graph) : null;
 
-                if(!selectAndProjectAttributes.contains(select.getPredicate().getRightAttribute())){
-                    selectAndProjectAttributes.add(select.getPredicate().getRightAttribute());
-                }
+            if(bushy && CcpEnumerator.countPairs(neighbours, bushyPairLimit) <= bushyPairLimit){
+                optimisedPlan = orderBushy(graph, neighbours);
+            }else{
+                optimisedPlan = orderDynamic(graph);
             }
-        }
+        }else{
+            int[] order = orderGreedy(graph);
 
-        for(Project project: projectList){
-            for(Attribute attr: project.getAttributes()){
-                if(!selectAndProjectAttributes.contains(attr)){
-                    selectAndProjectAttributes.add(attr);
-                }
+            if(graph.size() > randomisedLimit){
+                order = new RandomisedSearch(graph, seed, maxIterations, timeLimit).search(order);
             }
+
+            optimisedPlan = joinInOrder(graph, order);
         }
 
-        // Create all products
+        optimisedPlan = graph.finish(optimisedPlan);
 
-        for(int p = 0; p < productList.size(); p++){
-            if(p == 0){
-                // Create the best first product
+        if(physical){
+            optimisedPlan = new PhysicalPlanner(new Estimator(graph.getEstimator())).plan(optimisedPlan);
+        }
 
-                Operator bestProduct = null;
-                int bestOutputSize = Integer.MAX_VALUE;
-                List<Operator> inputsUsed = new ArrayList<>();
+        return optimisedPlan;
+    }
 
-                // The attributes of a join should be removed after the join from the list with possible attributes to project
-                Attribute leftPredicate = null;
-                Attribute rightPredicate = null;
+    // Whether the dynamic programming table for a number of relations is expected to fit in the heap
+    private static boolean fitsInHeap(int relations){
+        return (1L << relations) * DP_BYTES_PER_SUBSET <= Runtime.getRuntime().maxMemory();
+    }
 
-                // Estimate cost of product for each pair of inputs
-                for(List<Operator> pair: pairs){
-                    Operator product = new Product(pair.get(0), pair.get(1));
-                    List<Attribute> productAttributes = getAttributes(product, new ArrayList<>());
+    // Selinger-style enumeration of left-deep trees: the best plan for every set of
+    // relations is built from the best plan for the set without one relation, and
+    // plans are ranked by their total estimated cost
+    private Operator orderDynamic(JoinGraph graph){
+        int n = graph.size();
+        int subsets = 1 << n;
 
-                    Operator left = ((Product) product).getLeft();
-                    Operator right = ((Product) product).getRight();
+        Operator[] bestPlan = new Operator[subsets];
+        double[] bestCost = new double[subsets];
+        BitSet[] leafSets = new BitSet[subsets];
+        List<List<Integer>> levels = new ArrayList<>();
 
-                    List<Attribute> leftAttributes = getAttributes(left, new ArrayList<>());
-                    List<Attribute> rightAttributes = getAttributes(right, new ArrayList<>());
+        for(int size = 0; size <= n; size++){
+            levels.add(new ArrayList<>());
+        }
 
-                    boolean leftCanBeOptimised = false;
-                    boolean rightCanBeOptimised = false;
+        for(int mask = 1; mask < subsets; mask++){
+            leafSets[mask] = BitSet.valueOf(new long[]{mask});
+            levels.get(Integer.bitCount(mask)).add(mask);
+        }
 
-                    List<Attribute> leftProjectAttributes = new ArrayList<>();
-                    List<Attribute> rightProjectAttributes = new ArrayList<>();
+        for(int i = 0; i < n; i++){
+            bestPlan[1 << i] = graph.getLeaf(i);
+        }
 
-                    // Check if a Project can be put above each child node to limit size
-                    for(Attribute attr: selectAndProjectAttributes){
-                        if(leftAttributes.contains(attr)){
-                            leftProjectAttributes.add(attr);
-                            leftCanBeOptimised = true;
-                        }else if(rightAttributes.contains(attr)){
-                            rightProjectAttributes.add(attr);
-                            rightCanBeOptimised =  true;
-                        }
-                    }
+        // All sets of one size only depend on the sets one smaller
+        for(int size = 2; size <= n; size++){
+            List<Integer> level = levels.get(size);
+
+            Estimator[] estimators = forEach(graph, level.size(), (estimator, k) -> {
+                int mask = level.get(k);
+                bestCost[mask] = Double.POSITIVE_INFINITY;
+
+                for(int r = 0; r < n; r++){
+                    int leftMask = mask & ~(1 << r);
 
-                    // if a project can be put and the project does not contain all possible attributes of the child node
-                    // and if it is not the case that all attributes are projected in the end
-                    if(leftCanBeOptimised && leftAttributes.size() != leftProjectAttributes.size() && !projectList.isEmpty()){
-                        left = new Project(left, leftProjectAttributes);
+                    if(leftMask == mask){
+                        continue;
                     }
 
-                    if(rightCanBeOptimised && rightAttributes.size() != rightProjectAttributes.size() && !projectList.isEmpty()){
-                        right = new Project(right, rightProjectAttributes);
+                    Operator candidate = graph.join(bestPlan[leftMask], leafSets[leftMask], graph.getLeaf(r), leafSets[1 << r], estimator);
+                    double cost = estimator.getTotalCost(candidate);
+
+                    // if the cost of the current plan is less than the best one so far, make the current one best
+                    if(cost < bestCost[mask]){
+                        bestPlan[mask] = candidate;
+                        bestCost[mask] = cost;
                     }
+                }
+            });
+
+            for(int k = 0; k < level.size(); k++){
+                graph.getEstimator().merge(estimators[k], bestPlan[level.get(k)]);
+            }
+        }
 
-                    // Match select in the form attr=attr with product to estimate cost
-                    for(Select select: selectList){
+        return bestPlan[subsets - 1];
+    }
 
-                        // if a select can be put on top of the product
-                        if(!select.getPredicate().equalsValue() && productAttributes.contains(select.getPredicate().getLeftAttribute()) && productAttributes.contains(select.getPredicate().getRightAttribute())){
+    // DPccp enumeration of bushy trees: the best plan of every connected set of relations
+    // is built from the best plans of each pair of connected sets it splits into, without
+    // considering products. If the join graph is disconnected, the best plans of its
+    // components are combined with products, smallest first.
+    private Operator orderBushy(JoinGraph graph, int[] neighbours){
+        int n = graph.size();
+        HashMap<Integer, Operator> bestPlans = new HashMap<>();
 
-                            // make sure the predicate is not reversed
-                            Predicate predicate = leftAttributes.contains(select.getPredicate().getLeftAttribute()) ? select.getPredicate() : new Predicate(select.getPredicate().getRightAttribute(), select.getPredicate().getLeftAttribute());
+        for(int i = 0; i < n; i++){
+            bestPlans.put(1 << i, graph.getLeaf(i));
+        }
 
-                            if(product instanceof Join){
-                                product = new Select(product, predicate);
-                            }else{
-                                product = new Join(left, right, predicate);
-                                leftPredicate = predicate.getLeftAttribute();
-                                rightPredicate = predicate.getRightAttribute();
-                            }
+        CcpEnumerator ccp = new CcpEnumerator(neighbours);
+
+        for(int size = 2; size <= n; size++){
+            List<Integer> sets = ccp.getSets(size);
+            Operator[] plans = new Operator[sets.size()];
+            double[] costs = new double[sets.size()];
+
+            Estimator[] estimators = forEach(graph, sets.size(), (estimator, k) -> {
+                costs[k] = Double.POSITIVE_INFINITY;
+                Estimator best = null;
+
+                for(int[] pair: ccp.getPairs(sets.get(k))){
+                    Operator first = bestPlans.get(pair[0]);
+                    Operator second = bestPlans.get(pair[1]);
+
+                    // Joins are not symmetric once estimated, so try both ways round
+                    for(int side = 0; side < 2; side++){
+                        // Each candidate is estimated on its own, so that only the estimates
+                        // of the best are kept
+                        Estimator candidateEstimator = new Estimator(estimator);
+                        Operator candidate = side == 0
+                                ? graph.join(first, maskSet(pair[0]), second, maskSet(pair[1]), candidateEstimator)
+                                : graph.join(second, maskSet(pair[1]), first, maskSet(pair[0]), candidateEstimator);
+                        double cost = candidateEstimator.getTotalCost(candidate);
+
+                        if(cost < costs[k]){
+                            plans[k] = candidate;
+                            costs[k] = cost;
+                            best = candidateEstimator;
                         }
                     }
+                }
 
-                    Estimator estimator = new Estimator();
-                    product.accept(estimator);
+                estimator.merge(best, plans[k]);
+            });
 
-                    // if the cost of the current relation is less than the best one so far, make the current one best
-                    if(product.getOutput().getTupleCount() < bestOutputSize){
-                        bestProduct = product;
-                        bestOutputSize = product.getOutput().getTupleCount();
-                        inputsUsed = pair;
-                        selectAndProjectAttributes.remove(leftPredicate);
-                        selectAndProjectAttributes.remove(rightPredicate);
-                    }
+            for(int k = 0; k < sets.size(); k++){
+                bestPlans.put(sets.get(k), plans[k]);
+                graph.getEstimator().merge(estimators[k], plans[k]);
+            }
+
+            // The candidates that lost are only held by the interner
+            graph.retain(bestPlans.values());
+        }
+
+        List<Operator> components = new ArrayList<>();
+        List<Integer> componentSets = new ArrayList<>();
+        List<Double> componentSizes = new ArrayList<>();
+        int remaining = (1 << n) - 1;
+
+        while(remaining != 0){
+            int component = ccp.getComponent(Integer.lowestOneBit(remaining));
+            components.add(bestPlans.get(component));
+            componentSets.add(component);
+            componentSizes.add(estimate(graph, bestPlans.get(component)));
+            remaining &= ~component;
+        }
+
+        // The product of the smallest components should come first
+        Operator optimisedPlan = null;
+        int covered = 0;
+
+        while(!components.isEmpty()){
+            int smallest = 0;
+
+            for(int c = 1; c < components.size(); c++){
+                if(componentSizes.get(c) < componentSizes.get(smallest)){
+                    smallest = c;
                 }
+            }
 
-                bestProduct.setOutput(null);
-                optimisedProductList.add(bestProduct);
+            int component = componentSets.remove(smallest);
+            Operator componentPlan = components.remove(smallest);
+            componentSizes.remove(smallest);
 
-                // The used inputs should be removed from the possible inputs to create a future join/product
-                optimisedScanList.remove(inputsUsed.get(0));
-                optimisedScanList.remove(inputsUsed.get(1));
-            }else{
-                // for every next product match previous product with the best relation
-
-                Operator bestProduct = null;
-                int bestOutputSize = Integer.MAX_VALUE;
-                Operator inputUsed = null;
-                Attribute leftPredicate = null;
-                Attribute rightPredicate = null;
-
-
-                for(int i = 1; i < productList.size(); i++){
-                    for(Operator optimisedScan: optimisedScanList){
-                        Operator product = new Product(optimisedProductList.get(optimisedProductList.size() - 1), optimisedScan);
-                        inputUsed = optimisedScan;
-                        List<Attribute> productAttributes = getAttributes(product, new ArrayList<>());
-
-                        Operator left = product.getInputs().get(0);
-                        Operator right = product.getInputs().get(1);
-
-                        List<Attribute> leftAttributes = getAttributes(left, new ArrayList<>());
-                        List<Attribute> rightAttributes = getAttributes(right, new ArrayList<>());
-
-                        boolean leftCanBeOptimised = false;
-                        boolean rightCanBeOptimised = false;
-
-                        List<Attribute> leftProjectAttributes = new ArrayList<>();
-                        List<Attribute> rightProjectAttributes = new ArrayList<>();
-
-                        // Move projects
-                        for(Attribute attr: selectAndProjectAttributes){
-                            if(leftAttributes.contains(attr)){
-                                leftProjectAttributes.add(attr);
-                                leftCanBeOptimised = true;
-                            }else if(rightAttributes.contains(attr)){
-                                rightProjectAttributes.add(attr);
-                                rightCanBeOptimised =  true;
-                            }
-                        }
+            optimisedPlan = optimisedPlan == null ? componentPlan
+                    : graph.join(optimisedPlan, maskSet(covered), componentPlan, maskSet(component), graph.getEstimator());
+            covered |= component;
+        }
 
-                        if(leftCanBeOptimised && leftAttributes.size() != leftProjectAttributes.size() && !projectList.isEmpty()){
-                            left = new Project(left, leftProjectAttributes);
-                        }
+        return optimisedPlan;
+    }
 
-                        if(rightCanBeOptimised && rightAttributes.size() != rightProjectAttributes.size() && !projectList.isEmpty()){
-                            right = new Project(right, rightProjectAttributes);
-                        }
+    // The set of relations joined to each relation, as int bitmasks
+    private static int[] getNeighbours(JoinGraph graph){
+        int[] neighbours = new int[graph.size()];
 
-                        // Match select in the form attr=attr with product to estimate cost
-                        for(Select select: selectList){
-                            if(!select.getPredicate().equalsValue() && productAttributes.contains(select.getPredicate().getLeftAttribute()) && productAttributes.contains(select.getPredicate().getRightAttribute())){
-                                // make sure the predicate is not reversed
-                                Predicate predicate = leftAttributes.contains(select.getPredicate().getLeftAttribute()) ? select.getPredicate() : new Predicate(select.getPredicate().getRightAttribute(), select.getPredicate().getLeftAttribute());
-
-                                if(product instanceof Join){
-                                    product = new Select(product, predicate);
-                                }else{
-                                    product = new Join(left, right, predicate);
-                                    leftPredicate = predicate.getLeftAttribute();
-                                    rightPredicate = predicate.getRightAttribute();
-                                }
-                            }
-                        }
+        for(int i = 0; i < neighbours.length; i++){
+            BitSet adjacent = graph.getNeighbours(i);
 
-                        Estimator estimator = new Estimator();
-                        product.accept(estimator);
+            for(int j = adjacent.nextSetBit(0); j >= 0; j = adjacent.nextSetBit(j + 1)){
+                neighbours[i] |= 1 << j;
+            }
+        }
 
-                        if(product.getOutput().getTupleCount() < bestOutputSize){
-                            bestProduct = product;
-                            bestOutputSize = product.getOutput().getTupleCount();
-                            selectAndProjectAttributes.remove(leftPredicate);
-                            selectAndProjectAttributes.remove(rightPredicate);
-                        }
-                    }
+        return neighbours;
+    }
 
-                    bestProduct.setOutput(null);
-                    optimisedProductList.add(bestProduct);
-                    optimisedScanList.remove(inputUsed);
-                }
+    // Start with the cheapest pair of relations and repeatedly add the relation that
+    // gives the cheapest next plan; return the relations in join order
+    private int[] orderGreedy(JoinGraph graph){
+        int n = graph.size();
+        List<int[]> pairs = new ArrayList<>();
+
+        for(int i = 0; i < n - 1; i++){
+            for(int j = i + 1; j < n; j++){
+                pairs.add(new int[]{i, j});
             }
         }
 
-        Operator optimisedPlan = optimisedProductList.isEmpty() ? optimisedScanList.get(0) : optimisedProductList.get(optimisedProductList.size() - 1);
+        Operator[] pairPlans = new Operator[pairs.size()];
+        double[] pairCosts = new double[pairs.size()];
+
+        Estimator[] pairEstimators = forEach(graph, pairs.size(), (estimator, k) -> {
+            int[] pair = pairs.get(k);
+            pairPlans[k] = graph.join(graph.getLeaf(pair[0]), leafSet(pair[0]), graph.getLeaf(pair[1]), leafSet(pair[1]), estimator);
+            pairCosts[k] = estimator.getTotalCost(pairPlans[k]);
+        });
+
+        int bestPair = getSmallest(pairCosts);
+        Operator bestPlan = pairPlans[bestPair];
+        graph.getEstimator().merge(pairEstimators[bestPair], bestPlan);
+        int[] order = new int[n];
+        order[0] = pairs.get(bestPair)[0];
+        order[1] = pairs.get(bestPair)[1];
+        BitSet used = new BitSet(n);
+        used.set(order[0]);
+        used.set(order[1]);
+
+        for(int step = 2; step < n; step++){
+            List<Integer> remaining = new ArrayList<>();
+
+            for(int r = used.nextClearBit(0); r < n; r = used.nextClearBit(r + 1)){
+                remaining.add(r);
+            }
 
-        for(Project project: projectList){
-            optimisedPlan = new Project(optimisedPlan, project.getAttributes());
+            Operator left = bestPlan;
+            Operator[] stepPlans = new Operator[remaining.size()];
+            double[] stepCosts = new double[remaining.size()];
+
+            Estimator[] stepEstimators = forEach(graph, remaining.size(), (estimator, k) -> {
+                int r = remaining.get(k);
+                stepPlans[k] = graph.join(left, used, graph.getLeaf(r), leafSet(r), estimator);
+                stepCosts[k] = estimator.getTotalCost(stepPlans[k]);
+            });
+
+            int bestStep = getSmallest(stepCosts);
+            bestPlan = stepPlans[bestStep];
+            graph.getEstimator().merge(stepEstimators[bestStep], bestPlan);
+            order[step] = remaining.get(bestStep);
+            used.set(order[step]);
         }
 
-        return optimisedPlan;
+        return order;
+    }
+
+    // Build the left-deep plan that joins the relations in the given order
+    private Operator joinInOrder(JoinGraph graph, int[] order){
+        Operator plan = graph.getLeaf(order[0]);
+        BitSet used = leafSet(order[0]);
+
+        for(int k = 1; k < order.length; k++){
+            plan = graph.join(plan, used, graph.getLeaf(order[k]), leafSet(order[k]), graph.getEstimator());
+            used.set(order[k]);
+        }
+
+        return plan;
     }
 
-    private List<Attribute> getAttributes(Operator op, List<Attribute> result){
-        if(op instanceof Scan){
-            for(Attribute attr: ((Scan) op).getRelation().getAttributes()){
-                result.add(attr);
+    // Run work for items 0..count-1, in parallel if there is a pool. The work estimates
+    // plans with estimators on top of the graph's, one per chunk of items, and the one
+    // used for each item is returned so the estimates of the plans worth keeping can be
+    // merged into the graph's; the rest are dropped with the estimators.
+    private Estimator[] forEach(JoinGraph graph, int count, ObjIntConsumer<Estimator> work){
+        Estimator shared = graph.getEstimator();
+        Estimator[] estimators = new Estimator[count];
+
+        if(pool == null || count < 2){
+            Estimator estimator = new Estimator(shared);
+
+            for(int k = 0; k < count; k++){
+                work.accept(estimator, k);
+                estimators[k] = estimator;
             }
 
-            return result;
+            return estimators;
         }
 
-        if(op instanceof Product){
-            result = getAttributes(((Product) op).getLeft(), result);
-            result = getAttributes(((Product) op).getRight(), result);
-        }else if(op instanceof Join){
-            result = getAttributes(((Join) op).getLeft(), result);
-            result = getAttributes(((Join) op).getRight(), result);
-        }else{
-            result = getAttributes(op.getInputs().get(0), result);
+        int chunks = Math.min(count, parallelism * 4);
+        List<Callable<Estimator>> tasks = new ArrayList<>();
+
+        for(int c = 0; c < chunks; c++){
+            int from = (int) ((long) count * c / chunks);
+            int to = (int) ((long) count * (c + 1) / chunks);
+
+            tasks.add(() -> {
+                Estimator estimator = new Estimator(shared);
+
+                for(int k = from; k < to; k++){
+                    work.accept(estimator, k);
+                    estimators[k] = estimator;
+                }
+
+                return estimator;
+            });
         }
 
-        return result;
+        try{
+            for(Future<Estimator> result: pool.invokeAll(tasks)){
+                result.get();
+            }
+        }catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while costing plans", e);
+        }catch(ExecutionException e){
+            if(e.getCause() instanceof RuntimeException){
+                throw (RuntimeException) e.getCause();
+            }
+
+            throw new IllegalStateException(e.getCause());
+        }
+
+        return estimators;
     }
 
+    // Return the first index of the smallest value, so ties go the same way however
+    // the values were computed
+    private int getSmallest(double[] values){
+        int smallest = 0;
 
-    // Assumes no joins in canonical plan
-    private List<Operator> getOperators(Operator op, List<Operator> result){
-        if(op instanceof Scan){
-            result.add(op);
-            return result;
+        for(int i = 1; i < values.length; i++){
+            if(values[i] < values[smallest]){
+                smallest = i;
+            }
         }
 
-        if(op instanceof Product){
-            result = getOperators(((Product) op).getLeft(), result);
-            result = getOperators(((Product) op).getRight(), result);
-            result.add(op);
-        }else{
-            result = getOperators(op.getInputs().get(0), result);
-            result.add(op);
-        }
+        return smallest;
+    }
 
-        return result;
+    private BitSet leafSet(int leaf){
+        BitSet set = new BitSet();
+        set.set(leaf);
+        return set;
+    }
+
+    private BitSet maskSet(int mask){
+        return BitSet.valueOf(new long[]{mask});
     }
-}
 
+    // Estimate the output of a plan and return its tuple count; only the operators that
+    // are new since the graph's estimator last saw the plan's inputs are estimated
+    private double estimate(JoinGraph graph, Operator op){
+        return graph.getEstimator().estimate(op).getTupleCount();
+    }
+}
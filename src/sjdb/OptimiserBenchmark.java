@@ -0,0 +1,181 @@
+package sjdb;
+
+import java.io.StringReader;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * This class measures the time and memory that parsing, estimating and
+ * optimising queries take, on the schemas and queries of a WorkloadGenerator
+ * for each shape of join graph and number of relations, so that changes to
+ * the optimiser can be compared by running it before and after them.
+ *
+ * Each benchmark is run repeatedly for a warm-up period, to let the JIT
+ * compiler settle, and then for a measured period, timing each run. For
+ * each, a line is printed with the runs per second, the median and 99th
+ * percentile of the times of a run, and the bytes allocated per run and per
+ * second by the thread. The benchmarks are:
+ *
+ * parse     QueryParser.parse() of the query
+ * estimate  an Estimator visiting the canonical plan of the query
+ * optimise  Optimiser.optimise() of the canonical plan
+ *
+ * The workloads and the optimiser's randomised search are seeded, and the
+ * search runs for a number of iterations rather than a time, so that every
+ * run of the benchmark does the same work.
+ *
+ * Usage: java sjdb.OptimiserBenchmark [-s seed] [-w warmup-ms] [-m measure-ms]
+ *        [-n relations,...] [-i search-iterations] [shape...]
+ */
+public class OptimiserBenchmark {
+	private static final int[] DEFAULT_SIZES = { 2, 4, 8, 16, 32, 64 };
+	// Runs measured however long each takes; with fewer than 100, the 99th percentile is the slowest
+	private static final int MIN_RUNS = 5;
+	// Long enough not to stop the randomised search before its iterations
+	private static final long SEARCH_TIME = 3600000;
+
+	private final com.sun.management.ThreadMXBean threads;
+	private long seed;
+	private long warmupMillis;
+	private long measureMillis;
+	private int searchIterations;
+	// Keeps the results of the runs live, so that they are not optimised away
+	private int sink;
+
+	public OptimiserBenchmark() {
+		this.threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		this.seed = 0;
+		this.warmupMillis = 1000;
+		this.measureMillis = 2000;
+		this.searchIterations = 1000;
+	}
+
+	public void setSeed(long seed) {
+		this.seed = seed;
+	}
+
+	/**
+	 * Set how long each benchmark is run for
+	 * @param warmupMillis Time to run for before measuring, in milliseconds
+	 * @param measureMillis Time to measure for, in milliseconds
+	 */
+	public void setDuration(long warmupMillis, long measureMillis) {
+		this.warmupMillis = warmupMillis;
+		this.measureMillis = measureMillis;
+	}
+
+	/**
+	 * Set the number of join orders the randomised search costs, for queries
+	 * over more relations than the optimiser orders greedily only
+	 * @param searchIterations Iteration count
+	 */
+	public void setSearchIterations(int searchIterations) {
+		this.searchIterations = searchIterations;
+	}
+
+	/**
+	 * Run the benchmarks for a query over all the relations of a schema of
+	 * its own, and print their results
+	 * @param shape Shape of the join graph of the query
+	 * @param relations Number of relations
+	 * @throws Exception
+	 */
+	public void run(WorkloadGenerator.Shape shape, int relations) throws Exception {
+		WorkloadGenerator workload = new WorkloadGenerator(relations, seed);
+		String query = workload.generateQuery(shape, relations);
+		Catalogue catalogue = workload.createCatalogue();
+		String label = shape.name().toLowerCase();
+		Operator canonical = new QueryParser(catalogue, new StringReader(query)).parse();
+
+		measure("parse", label, relations, () -> new QueryParser(catalogue, new StringReader(query)).parse());
+		measure("estimate", label, relations, () -> {
+			Estimator estimator = new Estimator();
+			canonical.accept(estimator);
+			return canonical.getOutput();
+		});
+		measure("optimise", label, relations, () -> {
+			Optimiser optimiser = new Optimiser(catalogue);
+			optimiser.setSeed(seed);
+			optimiser.setRandomisedBudget(searchIterations, SEARCH_TIME);
+			return optimiser.optimise(canonical);
+		});
+	}
+
+	private void measure(String name, String shape, int relations, Callable<Object> benchmark) throws Exception {
+		long end = System.nanoTime() + warmupMillis * 1000000L;
+		while (System.nanoTime() < end) {
+			sink += System.identityHashCode(benchmark.call());
+		}
+
+		long thread = Thread.currentThread().getId();
+		long[] times = new long[MIN_RUNS];
+		int runs = 0;
+		long allocated = threads.getThreadAllocatedBytes(thread);
+		long start = System.nanoTime();
+		end = start + measureMillis * 1000000L;
+		long now = start;
+		while (now < end || runs < MIN_RUNS) {
+			sink += System.identityHashCode(benchmark.call());
+			long finished = System.nanoTime();
+			if (runs == times.length) {
+				times = Arrays.copyOf(times, runs * 2);
+			}
+			times[runs++] = finished - now;
+			now = finished;
+		}
+		double seconds = (now - start) / 1e9;
+		allocated = threads.getThreadAllocatedBytes(thread) - allocated;
+
+		Arrays.sort(times, 0, runs);
+		System.out.printf("%-9s %-9s %9d %12.1f %12.1f %12.1f %14d %12.1f%n", name, shape, relations, runs / seconds,
+				times[(runs - 1) / 2] / 1e3, times[(int) Math.ceil(runs * 0.99) - 1] / 1e3, allocated / runs,
+				allocated / seconds / (1 << 20));
+	}
+
+	private static void printHeader() {
+		System.out.printf("%-9s %-9s %9s %12s %12s %12s %14s %12s%n", "benchmark", "shape", "relations", "ops/s", "p50 us",
+				"p99 us", "alloc B/op", "alloc MB/s");
+	}
+
+	public static void main(String[] args) throws Exception {
+		OptimiserBenchmark benchmark = new OptimiserBenchmark();
+		long seed = 0;
+		long warmup = 1000;
+		long measure = 2000;
+		int[] sizes = DEFAULT_SIZES;
+		List<WorkloadGenerator.Shape> shapes = new ArrayList<WorkloadGenerator.Shape>();
+
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-s")) {
+				seed = Long.parseLong(args[++i]);
+			} else if (args[i].equals("-w")) {
+				warmup = Long.parseLong(args[++i]);
+			} else if (args[i].equals("-m")) {
+				measure = Long.parseLong(args[++i]);
+			} else if (args[i].equals("-n")) {
+				sizes = Arrays.stream(args[++i].split(",")).mapToInt(Integer::parseInt).toArray();
+			} else if (args[i].equals("-i")) {
+				benchmark.setSearchIterations(Integer.parseInt(args[++i]));
+			} else {
+				shapes.add(WorkloadGenerator.Shape.valueOf(args[i].toUpperCase()));
+			}
+		}
+		if (shapes.isEmpty()) {
+			shapes.addAll(Arrays.asList(WorkloadGenerator.Shape.values()));
+		}
+		benchmark.setSeed(seed);
+		benchmark.setDuration(warmup, measure);
+
+		System.out.println("# seed " + seed + ", warm-up " + warmup + "ms, measured " + measure + "ms, Java "
+				+ System.getProperty("java.version"));
+		printHeader();
+		for (WorkloadGenerator.Shape shape : shapes) {
+			for (int size : sizes) {
+				benchmark.run(shape, size);
+			}
+		}
+	}
+}
@@ -0,0 +1,54 @@
+package sjdb;
+
+import java.io.StringReader;
+
+/**
+ * This class checks that costing candidate plans on several threads (see
+ * Optimiser.setParallelism) chooses the same plans as a single thread: for
+ * queries of each shape of join graph, from a WorkloadGenerator of the given
+ * seed, small enough for dynamic programming and too large for it, with
+ * left-deep and bushy plans, the plans must print the same and cost the same.
+ *
+ * Usage: java sjdb.OptimiserParallelTest [seed]
+ */
+public class OptimiserParallelTest {
+	private static final int RELATIONS = 20;
+	private static final int[] RELATIONS_PER_QUERY = { 8, 10, 16 };
+	private static final int THREADS = 4;
+
+	public static void main(String[] args) throws Exception {
+		long seed = args.length > 0 ? Long.parseLong(args[0]) : 0;
+		WorkloadGenerator workload = new WorkloadGenerator(RELATIONS, seed);
+		for (WorkloadGenerator.Shape shape : WorkloadGenerator.Shape.values()) {
+			for (int relations : RELATIONS_PER_QUERY) {
+				String query = workload.generateQuery(shape, relations);
+				Catalogue catalogue = workload.createCatalogue();
+				for (boolean bushy : new boolean[] { false, true }) {
+					Operator sequential = optimise(catalogue, query, bushy, 1);
+					Operator parallel = optimise(catalogue, query, bushy, THREADS);
+					String settings = shape + " of " + relations + " relations" + (bushy ? " (bushy)" : "");
+					check(parallel.toString().equals(sequential.toString()),
+							settings + ": plan on " + THREADS + " threads\n" + parallel + "\nnot\n" + sequential);
+					double sequentialCost = new Estimator().getTotalCost(sequential);
+					double parallelCost = new Estimator().getTotalCost(parallel);
+					check(parallelCost == sequentialCost, settings + ": cost on " + THREADS + " threads " + parallelCost + ", not " + sequentialCost);
+				}
+			}
+		}
+		System.out.println("OK");
+	}
+
+	private static Operator optimise(Catalogue catalogue, String query, boolean bushy, int parallelism) throws Exception {
+		Operator canonical = new QueryParser(catalogue, new StringReader(query)).parse();
+		Optimiser optimiser = new Optimiser(catalogue);
+		optimiser.setBushy(bushy);
+		optimiser.setParallelism(parallelism);
+		return optimiser.optimise(canonical);
+	}
+
+	private static void check(boolean condition, String message) {
+		if (!condition) {
+			throw new AssertionError(message);
+		}
+	}
+}
@@ -0,0 +1,55 @@
+package sjdb;
+
+import java.io.StringReader;
+import java.util.Arrays;
+
+/**
+ * This class checks that the optimiser copes with the widest queries of the
+ * benchmarks (see OptimiserBenchmark): a query over 64 relations for each
+ * shape of join graph, cliques first, optimised with a seeded randomised
+ * search and with the greedy order only. A clique of 64 relations has over
+ * 2000 join predicates, and so a select for each in its plans, which once
+ * overflowed the stack of the estimator; the clique is run first, before the
+ * JIT compiler has shrunk the frames of the estimator.
+ *
+ * Usage: java sjdb.OptimiserScaleTest
+ */
+public class OptimiserScaleTest {
+	private static final int RELATIONS = 64;
+	private static final int SEARCH_ITERATIONS = 1000;
+	private static final long SEARCH_TIME = 3600000;
+
+	public static void main(String[] args) throws Exception {
+		WorkloadGenerator.Shape[] shapes = WorkloadGenerator.Shape.values();
+		Arrays.sort(shapes, (a, b) -> Boolean.compare(a != WorkloadGenerator.Shape.CLIQUE, b != WorkloadGenerator.Shape.CLIQUE));
+		for (WorkloadGenerator.Shape shape : shapes) {
+			WorkloadGenerator workload = new WorkloadGenerator(RELATIONS, 0);
+			String query = workload.generateQuery(shape, RELATIONS);
+			Catalogue catalogue = workload.createCatalogue();
+			Operator canonical = new QueryParser(catalogue, new StringReader(query)).parse();
+			canonical.accept(new Estimator());
+
+			Optimiser randomised = new Optimiser(catalogue);
+			randomised.setRandomisedBudget(SEARCH_ITERATIONS, SEARCH_TIME);
+			check(shape, "randomised", randomised, canonical);
+			Optimiser greedy = new Optimiser(catalogue);
+			greedy.setRandomisedLimit(Integer.MAX_VALUE);
+			check(shape, "greedy", greedy, canonical);
+		}
+		System.out.println("OK");
+	}
+
+	private static void check(WorkloadGenerator.Shape shape, String settings, Optimiser optimiser, Operator canonical) {
+		Operator plan;
+		try {
+			plan = optimiser.optimise(canonical);
+		} catch (StackOverflowError e) {
+			throw new AssertionError(shape + " of " + RELATIONS + " relations (" + settings + "): stack overflow", e);
+		}
+		Estimator estimator = new Estimator();
+		if (estimator.estimate(plan).getAttributes().isEmpty()) {
+			throw new AssertionError(shape + " of " + RELATIONS + " relations (" + settings + "): plan projects nothing");
+		}
+		System.out.printf("%s %s: cost %.1f%n", shape, settings, estimator.getTotalCost(plan));
+	}
+}
@@ -0,0 +1,490 @@
+package sjdb;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class compiles query plans into BatchIterators that run them in
+ * parallel, on the workers of a ForkJoinPool, morsel by morsel.
+ *
+ * A plan is split into pipelines at the build inputs of its joins: a pipeline
+ * starts at a scan, and runs its batches through the selects, projects and
+ * join probes above it, up to the root of the plan or to the build input of a
+ * join. Each pipeline is run by some number of workers, each with its own
+ * copy of the pipeline's iterators, whose scan claims morsels of the relation
+ * from a MorselSource that the copies share until there are none left, so
+ * that the work is spread evenly over the workers however uneven the
+ * morsels turn out; idle threads of the pool steal the tasks of busy ones.
+ *
+ * The build input of a join is run before the pipelines that probe it, into
+ * a PartitionedHashTable: each worker adds its rows to partitions of its own,
+ * and the partitions are then gathered and indexed in parallel. The workers
+ * of the root pipeline hand their batches to a BatchGatherIterator, which
+ * returns them in whatever order they come.
+ *
+ * The number of workers of a pipeline is chosen from the Estimator's tuple
+ * count for the relation it scans: one for each morsel, up to the parallelism
+ * of the pool. A pipeline with a single worker is run on the calling thread,
+ * and a plan whose pipelines all have a single worker is compiled by a
+ * BatchExecutor instead, so that a query over small relations pays nothing
+ * for the pool. So is a plan whose hash tables are expected not to fit in the
+ * MemoryBudget together, as only a BatchExecutor's joins spill to disk.
+ *
+ * The rows of a hash table are charged to the budget as the workers add
+ * them. If the estimate was wrong and a charge is refused, the build stops
+ * with a BuildRefusedException, and the BatchGatherIterator runs the plan
+ * with a BatchExecutor instead (see compileSerial()).
+ */
+public class ParallelExecutor {
+	private final File directory;
+	private final Estimator estimator;
+	private final MemoryBudget budget;
+	private final ForkJoinPool pool;
+	private final ValueDictionary dictionary;
+	private final Set<Attribute> used;
+	// Shared by the copies of the iterators of each scan and join, by operator
+	private final Map<Operator, MorselSource> sources;
+	private final Map<Operator, Build> builds;
+	private PipelineCompiler compiler;
+
+	/**
+	 * This exception is thrown when the memory budget refuses the rows of the
+	 * hash table of a join run in parallel
+	 */
+	static class BuildRefusedException extends IOException {
+		private static final long serialVersionUID = 1L;
+
+		BuildRefusedException(String message) {
+			super(message);
+		}
+	}
+
+	// The build input of a join or product, with its table and the copy of its iterators that profiles it
+	private static class Build {
+		private final Operator input;
+		private final Operator probeInput;
+		private final Predicate predicate;
+		private final boolean buildLeft;
+		private final String label;
+		private BatchIterator profile;
+		private PartitionedHashTable table;
+		private long reserved;
+		private boolean built;
+
+		private Build(Operator input, Operator probeInput, Predicate predicate, boolean buildLeft, String label) {
+			this.input = input;
+			this.probeInput = probeInput;
+			this.predicate = predicate;
+			this.buildLeft = buildLeft;
+			this.label = label;
+		}
+	}
+
+	/**
+	 * @param directory Directory holding the data files
+	 * @param estimator Estimator for the expected tuple counts
+	 * @param budget Memory budget for the hash tables of the joins
+	 * @param pool Pool of threads to run the workers on
+	 */
+	public ParallelExecutor(File directory, Estimator estimator, MemoryBudget budget, ForkJoinPool pool) {
+		this.directory = directory;
+		this.estimator = estimator;
+		this.budget = budget;
+		this.pool = pool;
+		this.dictionary = new ValueDictionary();
+		this.used = new HashSet<Attribute>();
+		this.sources = new IdentityHashMap<Operator, MorselSource>();
+		this.builds = new IdentityHashMap<Operator, Build>();
+	}
+
+	/**
+	 * Set the compiler for the predicates of selects, for this executor and
+	 * the BatchExecutor it falls back on
+	 * @param compiler Compiler, or null to run each select and project on its own
+	 */
+	public void setCompiler(PipelineCompiler compiler) {
+		this.compiler = compiler;
+	}
+
+	/**
+	 * Compile a plan into iterators that run it in parallel, or into those of
+	 * a BatchExecutor if it is too small to gain from it, or its hash tables
+	 * are expected not to fit in the memory budget
+	 * @param plan Root of the plan
+	 * @return Iterator for the root of the plan
+	 */
+	public BatchIterator compile(Operator plan) {
+		used.clear();
+		used.addAll(Executor.getUsedAttributes(plan, estimator));
+		sources.clear();
+		builds.clear();
+		addBuilds(plan);
+
+		boolean parallel = getParallelism(plan) > 1;
+		long tableBytes = 0;
+		for (Build build : builds.values()) {
+			parallel |= getParallelism(build.input) > 1;
+			Relation output = estimator.estimate(build.input);
+			tableBytes += output.getTupleCount() * OffHeapHashTable.getBytesPerRow(output.getAttributes().size());
+		}
+		if (!parallel || tableBytes > budget.getAvailable()) {
+			BatchExecutor executor = new BatchExecutor(directory, estimator, budget);
+			executor.setCompiler(compiler);
+			return executor.compile(plan);
+		}
+
+		BatchIterator gather = new BatchGatherIterator(this, plan, instantiate(plan, true));
+		gather.setEstimatedRows(estimator.estimate(plan).getTupleCount());
+		return gather;
+	}
+
+	/**
+	 * Compile a plan into the iterators of a BatchExecutor, whose joins spill
+	 * to disk, encoding values with the dictionary of this executor's
+	 * @param plan Root of the plan
+	 * @return Iterator for the root of the plan
+	 */
+	BatchIterator compileSerial(Operator plan) {
+		BatchExecutor executor = new BatchExecutor(directory, estimator, budget, dictionary);
+		executor.setCompiler(compiler);
+		return executor.compile(plan);
+	}
+
+	// Find the build input of each join and product
+	private void addBuilds(Operator op) {
+		if (op instanceof Join) {
+			Join join = (Join) op;
+			boolean buildLeft = BatchExecutor.isBuildLeft(join, estimator);
+			builds.put(op, new Build(buildLeft ? join.getLeft() : join.getRight(), buildLeft ? join.getRight() : join.getLeft(),
+					join.getPredicate(), buildLeft, BatchExecutor.getLabel(join, buildLeft)));
+		} else if (op instanceof Product) {
+			Product product = (Product) op;
+			builds.put(op, new Build(product.getRight(), product.getLeft(), null, false, "TIMES"));
+		}
+		for (Operator input : op.getInputs()) {
+			addBuilds(input);
+		}
+	}
+
+	/**
+	 * Return the number of workers that run a pipeline: one for each morsel
+	 * the Estimator expects of the relation it scans, up to the parallelism of
+	 * the pool
+	 * @param root Operator at the root of the pipeline
+	 * @return Worker count, at least 1
+	 */
+	int getParallelism(Operator root) {
+		Operator op = root;
+		while (!(op instanceof Scan) && !(op instanceof IndexScan)) {
+			Build build = builds.get(op);
+			op = build == null ? op.getInputs().get(0) : build.probeInput;
+		}
+		NamedRelation relation = op instanceof Scan ? ((Scan) op).getRelation() : ((IndexScan) op).getRelation();
+		long morsels = (relation.getTupleCount() + MorselSource.MORSEL_ROWS - 1) / MorselSource.MORSEL_ROWS;
+		return (int) Math.max(1, Math.min(morsels, pool.getParallelism()));
+	}
+
+	// Compile a copy of the iterators of the pipeline of an operator, for one of its workers
+	private BatchIterator instantiate(Operator op, boolean first) {
+		BatchIterator iterator;
+		if (op instanceof Scan) {
+			iterator = getScan(op, ((Scan) op).getRelation());
+		} else if (op instanceof IndexScan) {
+			IndexScan indexScan = (IndexScan) op;
+			iterator = getScan(op, indexScan.getRelation());
+			if (indexScan.getPredicate() != null) {
+				iterator.setEstimatedRows(indexScan.getRelation().getTupleCount());
+				iterator = BatchExecutor.getSelect(op.toString(), iterator, indexScan.getPredicate(), compiler);
+			}
+		} else if (op instanceof Select) {
+			Select select = (Select) op;
+			iterator = BatchExecutor.getSelect("SELECT [" + select.getPredicate() + "]", instantiate(select.getInput(), first),
+					select.getPredicate(), compiler);
+		} else if (op instanceof Project) {
+			Project project = (Project) op;
+			iterator = BatchExecutor.getProject(BatchExecutor.getLabel(project), instantiate(project.getInput(), first),
+					project.getAttributes(), compiler);
+		} else {
+			Build build = builds.get(op);
+			if (build.profile == null) {
+				build.profile = instantiate(build.input, true);
+				int keyColumn = -1;
+				int partitions = 1;
+				if (build.predicate != null) {
+					Predicate predicate = build.predicate;
+					keyColumn = build.profile.indexOf(build.buildLeft ? predicate.getLeftAttribute() : predicate.getRightAttribute());
+					// At least two partitions for each worker, so that they are built evenly
+					int workers = getParallelism(build.input);
+					partitions = workers == 1 ? 1 : Integer.highestOneBit(4 * workers - 1);
+				}
+				build.table = new PartitionedHashTable(build.profile.getAttributes().size(), keyColumn, partitions);
+			}
+			iterator = new BatchProbeIterator(build.label, instantiate(build.probeInput, first), build.profile, build.table,
+					build.predicate, build.buildLeft, first);
+		}
+		iterator.setEstimatedRows(estimator.estimate(op).getTupleCount());
+		return iterator;
+	}
+
+	private BatchIterator getScan(Operator op, NamedRelation relation) {
+		File file = new File(directory, relation.getName() + ".csv");
+		boolean columnar = ColumnStore.exists(directory, relation.getName());
+		MorselSource morsels = sources.computeIfAbsent(op, scan -> new MorselSource(columnar ? null : file));
+		if (columnar) {
+			return new BatchColumnScanIterator(relation.getName(), relation.getAttributes(), used, dictionary, directory, relation.getName(),
+					morsels);
+		}
+		return new BatchScanIterator(relation.getName(), relation.getAttributes(), used, dictionary, file, morsels);
+	}
+
+	/**
+	 * Return the copies of the iterators of a pipeline, one for each of its
+	 * workers
+	 * @param root Operator at the root of the pipeline
+	 * @param first Copy compiled with the plan, which the profiles of the others are added to
+	 * @return Iterators, the first of them the one given
+	 */
+	List<BatchIterator> getWorkers(Operator root, BatchIterator first) {
+		List<BatchIterator> workers = new ArrayList<BatchIterator>();
+		workers.add(first);
+		for (int i = getParallelism(root); i > 1; i--) {
+			workers.add(instantiate(root, false));
+		}
+		return workers;
+	}
+
+	/**
+	 * Add the profiles of the workers of a pipeline to that of its first
+	 * @param workers Iterators of the workers, from getWorkers()
+	 */
+	void addProfiles(List<BatchIterator> workers) {
+		for (int i = 1; i < workers.size(); i++) {
+			workers.get(0).addProfile(workers.get(i), workers.size());
+		}
+	}
+
+	/**
+	 * Build the tables of the joins that a pipeline probes, and of the joins
+	 * that their build inputs probe in turn
+	 * @param root Operator at the root of the pipeline
+	 * @throws IOException
+	 */
+	void buildTables(Operator root) throws IOException {
+		Operator op = root;
+		while (!(op instanceof Scan) && !(op instanceof IndexScan)) {
+			Build build = builds.get(op);
+			if (build == null) {
+				op = op.getInputs().get(0);
+			} else {
+				if (!build.built) {
+					buildTables(build.input);
+					build(build);
+				}
+				op = build.probeInput;
+			}
+		}
+	}
+
+	// Run the workers of a build input, each into partitions of its own, and gather the partitions
+	private void build(Build build) throws IOException {
+		PartitionedHashTable table = build.table;
+		List<BatchIterator> workers = getWorkers(build.input, build.profile);
+		long firstNanos = build.profile.getNanos();
+		long expectedRows = estimator.estimate(build.input).getTupleCount() / workers.size();
+		int keyColumn = build.predicate == null ? -1
+				: build.profile.indexOf(build.buildLeft ? build.predicate.getLeftAttribute() : build.predicate.getRightAttribute());
+		long rowBytes = OffHeapHashTable.getBytesPerRow(table.getCoded().length);
+		// Charged to the budget for the rows of the workers' tables, and then of the partitions'
+		AtomicLong charged = new AtomicLong();
+
+		List<OffHeapHashTable[]> locals = new ArrayList<OffHeapHashTable[]>();
+		List<boolean[]> coded = new ArrayList<boolean[]>();
+		long[] nanos = new long[Math.max(workers.size(), table.getPartitionCount())];
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+		for (int w = 0; w < workers.size(); w++) {
+			BatchIterator worker = workers.get(w);
+			OffHeapHashTable[] local = table.createLocal(expectedRows);
+			boolean[] workerCoded = new boolean[table.getCoded().length];
+			int index = w;
+			locals.add(local);
+			coded.add(workerCoded);
+			tasks.add(() -> {
+				long start = System.nanoTime();
+				readBuild(worker, build.label, table, keyColumn, local, workerCoded, rowBytes, charged);
+				// The iterators' own time is counted in their profile
+				nanos[index] += System.nanoTime() - start - (index == 0 ? worker.getNanos() - firstNanos : worker.getNanos());
+				return null;
+			});
+		}
+		try {
+			run(tasks);
+
+			tasks.clear();
+			for (int p = 0; p < table.getPartitionCount(); p++) {
+				int partition = p;
+				tasks.add(() -> {
+					long start = System.nanoTime();
+					long rows = 0;
+					for (OffHeapHashTable[] local : locals) {
+						rows += local[partition].size();
+					}
+					// The rows are held twice until the workers' tables are freed
+					charge(build.label, rows * rowBytes, charged);
+					table.buildPartition(partition, locals);
+					budget.release(rows * rowBytes);
+					charged.addAndGet(-rows * rowBytes);
+					nanos[partition] += System.nanoTime() - start;
+					return null;
+				});
+			}
+			run(tasks);
+		} catch (IOException | RuntimeException | Error e) {
+			budget.release(charged.get());
+			throw e;
+		} finally {
+			for (OffHeapHashTable[] local : locals) {
+				for (OffHeapHashTable part : local) {
+					part.free();
+				}
+			}
+		}
+
+		for (boolean[] workerCoded : coded) {
+			for (int c = 0; c < workerCoded.length; c++) {
+				table.getCoded()[c] |= workerCoded[c];
+			}
+		}
+		addProfiles(workers);
+		long buildNanos = build.profile.getNanos() - firstNanos;
+		for (long n : nanos) {
+			buildNanos += n;
+		}
+		table.setBuildNanos(buildNanos);
+		build.reserved = charged.get();
+		build.built = true;
+	}
+
+	// Charge the budget for rows of the table of a build input, or stop the build if it refuses
+	private void charge(String label, long bytes, AtomicLong charged) throws BuildRefusedException {
+		if (!budget.tryReserve(bytes)) {
+			throw new BuildRefusedException("The hash table of " + label + " does not fit in the memory budget of "
+					+ PlanIterator.formatBytes(budget.getLimit()));
+		}
+		charged.addAndGet(bytes);
+	}
+
+	// Add the rows of one worker of a build input, leaving out those with no value to join on
+	private void readBuild(BatchIterator worker, String label, PartitionedHashTable table, int keyColumn, OffHeapHashTable[] local,
+			boolean[] coded, long rowBytes, AtomicLong charged) throws IOException {
+		worker.open();
+		try {
+			ColumnBatch batch;
+			while ((batch = worker.nextBatch()) != null) {
+				long[][] columns = batch.getColumns();
+				for (int c = 0; c < coded.length; c++) {
+					coded[c] |= batch.isCoded(c);
+				}
+				charge(label, batch.getCount() * rowBytes, charged);
+				int unused = 0;
+				for (int j = 0; j < batch.getCount(); j++) {
+					int row = batch.getRow(j);
+					if (keyColumn < 0) {
+						local[0].add(columns, row);
+					} else if (columns[keyColumn][row] != ValueDictionary.NULL) {
+						local[table.getPartition(columns[keyColumn][row])].add(columns, row);
+					} else {
+						unused++;
+					}
+				}
+				budget.release(unused * rowBytes);
+				charged.addAndGet(-unused * rowBytes);
+			}
+		} finally {
+			worker.close();
+		}
+	}
+
+	/**
+	 * Run tasks on the pool, or on the calling thread if there is only one,
+	 * and wait for them all to finish
+	 * @param tasks
+	 * @throws IOException the first exception thrown by a task
+	 */
+	void run(List<Callable<Void>> tasks) throws IOException {
+		try {
+			if (tasks.size() == 1) {
+				tasks.get(0).call();
+				return;
+			}
+			for (Future<Void> future : pool.invokeAll(tasks)) {
+				future.get();
+			}
+		} catch (ExecutionException e) {
+			throw rethrow(e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while running the workers of a plan");
+		} catch (Exception e) {
+			throw rethrow(e);
+		}
+	}
+
+	/**
+	 * Start a task on the pool
+	 * @param task
+	 */
+	void execute(Runnable task) {
+		pool.execute(task);
+	}
+
+	/**
+	 * Rethrow an exception thrown by a worker, unchecked or as an IOException
+	 * @param cause
+	 * @return IOException to throw, if the exception is not unchecked
+	 */
+	static IOException rethrow(Throwable cause) {
+		// The pool wraps the checked exceptions of its tasks, once in the task and once more in get()
+		while (cause.getClass() == RuntimeException.class && cause.getCause() != null) {
+			cause = cause.getCause();
+		}
+		if (cause instanceof RuntimeException) {
+			throw (RuntimeException) cause;
+		} else if (cause instanceof Error) {
+			throw (Error) cause;
+		} else if (cause instanceof IOException) {
+			return (IOException) cause;
+		}
+		return new IOException(cause);
+	}
+
+	/**
+	 * Free the tables of the joins, and close the sources of the scans,
+	 * ready for the plan to be run again
+	 * @throws IOException
+	 */
+	void release() throws IOException {
+		for (Build build : builds.values()) {
+			if (build.table != null) {
+				build.table.free();
+			}
+			budget.release(build.reserved);
+			build.reserved = 0;
+			build.built = false;
+		}
+		for (MorselSource morsels : sources.values()) {
+			morsels.close();
+		}
+	}
+}
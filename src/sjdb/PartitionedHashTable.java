@@ -0,0 +1,169 @@
+package sjdb;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * This class is the hash table of the build input of a join run in parallel
+ * (see ParallelExecutor). Its rows are split into partitions by the hash of
+ * their keys, each held in an OffHeapHashTable, so that the table can be
+ * built in two steps without locking:
+ *
+ * - each worker reading the build input adds its rows to tables of its own,
+ *   one for each partition (see createLocal())
+ * - each partition then gathers the rows of all the workers into one table
+ *   and indexes it (see buildPartition()), with the partitions built by as
+ *   many workers at once
+ *
+ * A probe looks up its key in the partition of the key alone. The rows of a
+ * product, which has no key, are held in a single partition.
+ *
+ * Once built, a table is only read, and can be probed by any number of
+ * workers at once.
+ */
+public class PartitionedHashTable {
+	private final int columnCount;
+	private final int keyColumn;
+	private final OffHeapHashTable[] partitions;
+	private final int partitionShift;
+	private final boolean[] coded;
+	private long buildNanos;
+
+	/**
+	 * @param columnCount Number of values in a row
+	 * @param keyColumn Column of the rows to index, or -1 for the rows of a product
+	 * @param partitionCount Number of partitions, a power of two (and 1 for a product)
+	 */
+	public PartitionedHashTable(int columnCount, int keyColumn, int partitionCount) {
+		if (Integer.bitCount(partitionCount) != 1 || (keyColumn < 0 && partitionCount > 1)) {
+			throw new IllegalArgumentException("Bad partition count " + partitionCount);
+		}
+		this.columnCount = columnCount;
+		this.keyColumn = keyColumn;
+		this.partitions = new OffHeapHashTable[partitionCount];
+		this.partitionShift = 64 - Integer.numberOfTrailingZeros(partitionCount);
+		this.coded = new boolean[columnCount];
+	}
+
+	/**
+	 * Create the tables that a worker adds its rows of the build input to,
+	 * one for each partition, unindexed
+	 * @param expectedRows Number of rows the worker is expected to add
+	 * @return Table of each partition
+	 */
+	public OffHeapHashTable[] createLocal(long expectedRows) {
+		OffHeapHashTable[] local = new OffHeapHashTable[partitions.length];
+		for (int p = 0; p < local.length; p++) {
+			local[p] = new OffHeapHashTable(columnCount, -1, expectedRows / partitions.length);
+		}
+		return local;
+	}
+
+	/**
+	 * Return the partition of a key
+	 * @param key Encoded value
+	 * @return Index of the partition
+	 */
+	public int getPartition(long key) {
+		if (partitions.length == 1) {
+			return 0;
+		}
+		// The top bits of another hash than the table's, so that the keys of a partition
+		// do not all fall in the same slots of its table
+		return (int) ((key * 0xC2B2AE3D27D4EB4FL) >>> partitionShift);
+	}
+
+	/**
+	 * Gather the rows that the workers added to a partition into its table,
+	 * in the order of the workers, index it, and free their tables
+	 * @param partition Index of the partition
+	 * @param locals Tables of each worker, from createLocal()
+	 */
+	public void buildPartition(int partition, List<OffHeapHashTable[]> locals) {
+		long rows = 0;
+		for (OffHeapHashTable[] local : locals) {
+			rows += local[partition].size();
+		}
+		OffHeapHashTable table = new OffHeapHashTable(columnCount, keyColumn, rows);
+		for (OffHeapHashTable[] local : locals) {
+			table.addAll(local[partition]);
+			local[partition].free();
+		}
+		if (keyColumn >= 0) {
+			table.index();
+		}
+		partitions[partition] = table;
+	}
+
+	public int getPartitionCount() {
+		return partitions.length;
+	}
+
+	/**
+	 * Return the table of a partition
+	 * @param partition Index of the partition
+	 * @return Table, indexed unless the rows are those of a product
+	 */
+	public OffHeapHashTable getTable(int partition) {
+		return partitions[partition];
+	}
+
+	/**
+	 * Return, for each column, whether it may hold values with dictionary
+	 * codes, to be set by the workers that read the build input
+	 * @return Flags, one per column
+	 */
+	public boolean[] getCoded() {
+		return coded;
+	}
+
+	/**
+	 * Return the number of rows in all the partitions
+	 * @return Row count
+	 */
+	public long size() {
+		long rows = 0;
+		for (OffHeapHashTable table : partitions) {
+			rows += table == null ? 0 : table.size();
+		}
+		return rows;
+	}
+
+	/**
+	 * Return the memory held outside the heap by the tables of the partitions
+	 * @return Size in bytes
+	 */
+	public long getAllocatedBytes() {
+		long bytes = 0;
+		for (OffHeapHashTable table : partitions) {
+			bytes += table == null ? 0 : table.getAllocatedBytes();
+		}
+		return bytes;
+	}
+
+	/**
+	 * Return the time taken to read the build input and build the table, by
+	 * all its workers together
+	 * @return Time in nanoseconds
+	 */
+	public long getBuildNanos() {
+		return buildNanos;
+	}
+
+	public void setBuildNanos(long buildNanos) {
+		this.buildNanos = buildNanos;
+	}
+
+	/**
+	 * Drop the tables of the partitions, leaving the table empty
+	 */
+	public void free() {
+		for (int p = 0; p < partitions.length; p++) {
+			if (partitions[p] != null) {
+				partitions[p].free();
+				partitions[p] = null;
+			}
+		}
+		Arrays.fill(coded, false);
+	}
+}
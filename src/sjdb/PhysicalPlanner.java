@@ -0,0 +1,197 @@
+package sjdb;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class chooses an algorithm for every join of a plan whose join order
+ * has already been fixed: a hash join (with either input as the build input),
+ * a sort-merge join, a block nested-loop join (with either input as the outer
+ * input) or, if the other input's relation has an index on its join
+ * attribute, an index nested-loop join, whichever the Estimator costs lowest.
+ * Selects over a relation are likewise replaced by an IndexScan when one of
+ * their predicates can be answered by an index more cheaply than by a Scan.
+ *
+ * Choosing each join on its own would miss sort-merge joins that cost more
+ * than a hash join but produce output sorted for a sort-merge join above. So,
+ * as with the interesting orders of System R, the cheapest plan for every
+ * subplan is kept for each sort order it can produce, as well as the cheapest
+ * plan overall, and the choice is made at the root.
+ */
+public class PhysicalPlanner {
+    private Estimator estimator;
+
+    /**
+     * @param estimator estimator that costs the physical plans
+     */
+    public PhysicalPlanner(Estimator estimator){
+        this.estimator = estimator;
+    }
+
+    /**
+     * Choose the algorithms for the joins of a plan
+     * @param plan plan with logical joins
+     * @return the cheapest physical plan with the same join order
+     */
+    public Operator plan(Operator plan){
+        Operator best = null;
+
+        for(Operator candidate: getCandidates(plan).values()){
+            if(best == null || estimator.getTotalCost(candidate) < estimator.getTotalCost(best)){
+                best = candidate;
+            }
+        }
+
+        return best;
+    }
+
+    // The cheapest physical plans for a logical plan, one for each sort order of their output
+    private Map<BitSet, Operator> getCandidates(Operator op){
+        Map<BitSet, Operator> candidates = new LinkedHashMap<>();
+
+        if(op instanceof Scan){
+            keepIfCheapest(candidates, op);
+        }else if(op instanceof Select){
+            for(Operator input: getCandidates(((Select) op).getInput()).values()){
+                keepIfCheapest(candidates, new Select(input, ((Select) op).getPredicate()));
+            }
+            addIndexScans(candidates, (Select) op);
+        }else if(op instanceof Project){
+            for(Operator input: getCandidates(((Project) op).getInput()).values()){
+                // A project over another project keeps a subset of its attributes, so replaces it
+                if(input instanceof Project){
+                    input = ((Project) input).getInput();
+                }
+                keepIfCheapest(candidates, new Project(input, ((Project) op).getAttributes()));
+            }
+        }else{
+            BinaryOperator binary = (BinaryOperator) op;
+            List<Operator> lefts = new ArrayList<>(getCandidates(binary.getLeft()).values());
+            List<Operator> rights = new ArrayList<>(getCandidates(binary.getRight()).values());
+
+            for(Operator left: lefts){
+                for(Operator right: rights){
+                    if(op instanceof Product){
+                        keepIfCheapest(candidates, new Product(left, right));
+                        continue;
+                    }
+
+                    Predicate predicate = ((Join) op).getPredicate();
+
+                    keepIfCheapest(candidates, new Join(left, right, predicate, Join.Method.HASH, false));
+                    keepIfCheapest(candidates, new Join(left, right, predicate, Join.Method.HASH, true));
+                    keepIfCheapest(candidates, new Join(left, right, predicate, Join.Method.SORT_MERGE, false));
+                    keepIfCheapest(candidates, new Join(left, right, predicate, Join.Method.NESTED_LOOP, true));
+                    keepIfCheapest(candidates, new Join(left, right, predicate, Join.Method.NESTED_LOOP, false));
+                }
+            }
+
+            if(op instanceof Join){
+                for(Operator left: lefts){
+                    keepIfCheapest(candidates, getIndexJoin((Join) op, left, true));
+                }
+                for(Operator right: rights){
+                    keepIfCheapest(candidates, getIndexJoin((Join) op, right, false));
+                }
+            }
+        }
+
+        return candidates;
+    }
+
+    // Selects straight over a scan can instead search an index of the relation with
+    // one of their predicates, and check the others on the tuples found
+    private void addIndexScans(Map<BitSet, Operator> candidates, Select op){
+        List<Predicate> predicates = new ArrayList<>();
+        Operator input = op;
+
+        while(input instanceof Select){
+            predicates.add(0, ((Select) input).getPredicate());
+            input = ((Select) input).getInput();
+        }
+
+        if(!(input instanceof Scan)){
+            return;
+        }
+
+        NamedRelation relation = ((Scan) input).getRelation();
+
+        for(Predicate predicate: predicates){
+            Index index = predicate.comparesValue() ? relation.getIndex(predicate.getLeftAttribute(), predicate.getComparison()) : null;
+
+            if(index != null){
+                Operator plan = new IndexScan(relation, index, predicate);
+
+                for(Predicate other: predicates){
+                    if(other != predicate){
+                        plan = new Select(plan, other);
+                    }
+                }
+                keepIfCheapest(candidates, plan);
+            }
+        }
+    }
+
+    // An index nested-loop join of an outer plan with the relation under the join's other
+    // input, if the relation has an index on its join attribute. The selects on the
+    // relation are checked on the join's output instead, and its projects are replaced by
+    // one over the join's output
+    private Operator getIndexJoin(Join join, Operator outer, boolean outerLeft){
+        Predicate predicate = join.getPredicate();
+        Operator inner = outerLeft ? join.getRight() : join.getLeft();
+        List<UnaryOperator> above = new ArrayList<>();
+
+        while(inner instanceof UnaryOperator){
+            above.add(0, (UnaryOperator) inner);
+            inner = ((UnaryOperator) inner).getInput();
+        }
+
+        if(!(inner instanceof Scan)){
+            return null;
+        }
+
+        NamedRelation relation = ((Scan) inner).getRelation();
+        Attribute attribute = outerLeft ? predicate.getRightAttribute() : predicate.getLeftAttribute();
+        Index index = relation.getIndex(attribute, Predicate.Comparison.EQUALS);
+
+        if(index == null){
+            return null;
+        }
+
+        IndexScan probe = new IndexScan(relation, index, null);
+        Operator plan = outerLeft ? new Join(outer, probe, predicate, Join.Method.INDEX_NESTED_LOOP, true)
+                : new Join(probe, outer, predicate, Join.Method.INDEX_NESTED_LOOP, false);
+        boolean projected = false;
+
+        for(UnaryOperator op: above){
+            if(op instanceof Select){
+                plan = new Select(plan, ((Select) op).getPredicate());
+            }else{
+                projected = true;
+            }
+        }
+
+        if(projected){
+            plan = new Project(plan, estimator.estimate(join).getAttributes());
+        }
+
+        return plan;
+    }
+
+    private void keepIfCheapest(Map<BitSet, Operator> candidates, Operator candidate){
+        if(candidate == null){
+            return;
+        }
+
+        BitSet sortOrder = estimator.getSortOrder(candidate);
+        BitSet key = sortOrder == null ? new BitSet() : sortOrder;
+        Operator current = candidates.get(key);
+
+        if(current == null || estimator.getTotalCost(candidate) < estimator.getTotalCost(current)){
+            candidates.put(key, candidate);
+        }
+    }
+}
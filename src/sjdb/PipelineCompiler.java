@@ -0,0 +1,348 @@
+package sjdb;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.ToolProvider;
+
+/**
+ * This class compiles the predicates of the selects of a pipeline into a
+ * CompiledPipeline: it writes the source of a class whose loop tests every
+ * predicate on the columns it reads, compiles it in memory with the system
+ * Java compiler, and defines it as a hidden class of this package with
+ * MethodHandles.Lookup.defineHiddenClass().
+ *
+ * The class generated for a pipeline depends only on its fingerprint: the
+ * comparison each predicate makes and the columns it reads. The values it
+ * compares with are given to each instance, encoded with the dictionary of
+ * its run, so queries that only differ in their values share the class.
+ * Classes are cached by fingerprint, up to a number of them, the least
+ * recently used dropped first; a hidden class dropped from the cache is
+ * unloaded once the pipelines running it are done.
+ *
+ * Compiling a class takes a tenth of a second or more (over a second for the
+ * first, while the compiler warms up), and saves a few nanoseconds a tuple,
+ * so the executors only compile a pipeline expected to read enough tuples
+ * (see isWorthCompiling()), and run the selects of others one at a time.
+ *
+ * The compiler needs the jdk.compiler module, which a JRE may not have (see
+ * isAvailable()). It is thread-safe: classes for different fingerprints are
+ * compiled at once, and the class for each fingerprint once.
+ */
+public class PipelineCompiler {
+	private static final String CLASS_NAME = "GeneratedPipeline";
+	private static final MethodType CONSTRUCTOR = MethodType.methodType(void.class, long[].class, RangeTest[].class);
+	/**
+	 * The number of tuples a pipeline must be expected to read to be compiled, by default
+	 */
+	public static final long DEFAULT_MIN_ROWS = 10000000;
+	/**
+	 * The number of classes cached, by default
+	 */
+	public static final int DEFAULT_CAPACITY = 256;
+
+	private final JavaCompiler javac;
+	private final LinkedHashMap<String, FutureTask<MethodHandle>> constructors;
+	private volatile long minRows;
+	private long hits;
+	private long misses;
+
+	public PipelineCompiler() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * @param capacity Maximum number of classes cached
+	 */
+	public PipelineCompiler(final int capacity) {
+		this.javac = ToolProvider.getSystemJavaCompiler();
+		this.constructors = new LinkedHashMap<String, FutureTask<MethodHandle>>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, FutureTask<MethodHandle>> eldest) {
+				return size() > capacity;
+			}
+		};
+		this.minRows = DEFAULT_MIN_ROWS;
+	}
+
+	/**
+	 * Return the compiler shared by the executors of this JVM, so that they
+	 * share its classes
+	 * @return Compiler
+	 */
+	public static PipelineCompiler getDefault() {
+		return Holder.DEFAULT;
+	}
+
+	private static class Holder {
+		private static final PipelineCompiler DEFAULT = new PipelineCompiler();
+	}
+
+	/**
+	 * Return true if the system Java compiler can be used
+	 * @return false if the JVM has no jdk.compiler module
+	 */
+	public boolean isAvailable() {
+		return javac != null;
+	}
+
+	/**
+	 * Set the number of tuples a pipeline must be expected to read for its
+	 * class to be worth compiling
+	 * @param minRows Tuple count, 0 to compile every pipeline
+	 */
+	public void setMinRows(long minRows) {
+		this.minRows = minRows;
+	}
+
+	public long getMinRows() {
+		return minRows;
+	}
+
+	/**
+	 * Return true if a pipeline is expected to read enough tuples to be
+	 * worth compiling
+	 * @param estimatedRows Tuples the Estimator expects the input of the pipeline to return, or -1 if not known
+	 * @return true to compile the pipeline
+	 */
+	public boolean isWorthCompiling(long estimatedRows) {
+		return estimatedRows < 0 || estimatedRows >= minRows;
+	}
+
+	/**
+	 * Return the loop that tests predicates on batches of tuples, compiling
+	 * its class unless one with the same fingerprint has been compiled
+	 * @param attributes Attributes of the batches, in the order of their columns
+	 * @param predicates Predicates on the attributes
+	 * @param dictionary Dictionary the values of the batches are encoded with
+	 * @return Loop, with the values of the predicates encoded
+	 */
+	public CompiledPipeline compile(List<Attribute> attributes, List<Predicate> predicates, ValueDictionary dictionary) {
+		long[] values = new long[predicates.size()];
+		RangeTest[] tests = new RangeTest[predicates.size()];
+		List<String> shape = new ArrayList<String>();
+		for (int k = 0; k < predicates.size(); k++) {
+			Predicate predicate = predicates.get(k);
+			int left = attributes.indexOf(predicate.getLeftAttribute());
+			if (!predicate.comparesValue()) {
+				shape.add("COLUMNS(" + left + "," + attributes.indexOf(predicate.getRightAttribute()) + ")");
+			} else if (predicate.getComparison() == Predicate.Comparison.EQUALS) {
+				shape.add("EQUALS(" + left + ")");
+				values[k] = dictionary.encode(predicate.getRightValue());
+			} else if (predicate.getComparison() == Predicate.Comparison.NOT_EQUALS) {
+				shape.add("NOT_EQUALS(" + left + ")");
+				values[k] = dictionary.encode(predicate.getRightValue());
+			} else {
+				tests[k] = new RangeTest(predicate, dictionary);
+				shape.add((tests[k].isIntegerRange() ? "INTEGERS(" : "RANGE(") + left + ")");
+			}
+		}
+
+		try {
+			return (CompiledPipeline) getConstructor(shape).invoke(values, tests);
+		} catch (RuntimeException | Error e) {
+			throw e;
+		} catch (Throwable e) {
+			throw new IllegalStateException("Could not create pipeline " + shape, e);
+		}
+	}
+
+	private MethodHandle getConstructor(List<String> shape) throws Throwable {
+		String fingerprint = String.join(",", shape);
+		FutureTask<MethodHandle> constructor;
+		boolean compiling = false;
+		synchronized (this) {
+			constructor = constructors.get(fingerprint);
+			if (constructor != null) {
+				hits++;
+			} else {
+				misses++;
+				constructor = new FutureTask<MethodHandle>(() -> {
+					byte[] bytes = compileSource(generate(shape));
+					MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(bytes, true);
+					return lookup.findConstructor(lookup.lookupClass(), CONSTRUCTOR);
+				});
+				constructors.put(fingerprint, constructor);
+				compiling = true;
+			}
+		}
+
+		// compile outside the lock, so that other fingerprints are not held up;
+		// the pipelines of this one wait for the class
+		if (compiling) {
+			constructor.run();
+		}
+		try {
+			return constructor.get();
+		} catch (ExecutionException e) {
+			synchronized (this) {
+				constructors.remove(fingerprint, constructor);
+			}
+			throw e.getCause();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while compiling pipeline " + shape, e);
+		}
+	}
+
+	// Write the source of the class for a pipeline of a shape
+	private static String generate(List<String> shape) {
+		StringBuilder fields = new StringBuilder();
+		StringBuilder init = new StringBuilder();
+		Set<Integer> columns = new LinkedHashSet<Integer>();
+		List<String> terms = new ArrayList<String>();
+
+		for (int k = 0; k < shape.size(); k++) {
+			String kind = shape.get(k).substring(0, shape.get(k).indexOf('('));
+			String[] args = shape.get(k).substring(kind.length() + 1, shape.get(k).length() - 1).split(",");
+			String c = "c" + args[0] + "[i]";
+			columns.add(Integer.valueOf(args[0]));
+			switch (kind) {
+			case "COLUMNS":
+				columns.add(Integer.valueOf(args[1]));
+				terms.add("(" + c + " == c" + args[1] + "[i] & " + c + " != ValueDictionary.NULL)");
+				break;
+			case "EQUALS":
+				fields.append("\tprivate final long v").append(k).append(";\n");
+				init.append("\t\tv").append(k).append(" = values[").append(k).append("];\n");
+				terms.add("(" + c + " == v" + k + ")");
+				break;
+			case "NOT_EQUALS":
+				fields.append("\tprivate final long v").append(k).append(";\n");
+				init.append("\t\tv").append(k).append(" = values[").append(k).append("];\n");
+				terms.add("(" + c + " != v" + k + " & " + c + " != ValueDictionary.NULL)");
+				break;
+			case "INTEGERS":
+				fields.append("\tprivate final RangeTest t").append(k).append(";\n");
+				fields.append("\tprivate final long lower").append(k).append(";\n");
+				fields.append("\tprivate final long upper").append(k).append(";\n");
+				init.append("\t\tt").append(k).append(" = tests[").append(k).append("];\n");
+				init.append("\t\tlower").append(k).append(" = tests[").append(k).append("].getLower();\n");
+				init.append("\t\tupper").append(k).append(" = tests[").append(k).append("].getUpper();\n");
+				// Values with codes are below every integer, and are tested as strings
+				terms.add("((" + c + " >= lower" + k + " & " + c + " <= upper" + k + ") | (" + c + " < ValueDictionary.MIN_INTEGER && " + c
+						+ " != ValueDictionary.NULL && t" + k + ".testCoded(" + c + ")))");
+				break;
+			default:
+				fields.append("\tprivate final RangeTest t").append(k).append(";\n");
+				init.append("\t\tt").append(k).append(" = tests[").append(k).append("];\n");
+				terms.add("t" + k + ".test(" + c + ")");
+				break;
+			}
+		}
+
+		StringBuilder loads = new StringBuilder();
+		for (int column : columns) {
+			loads.append("\t\tfinal long[] c").append(column).append(" = batch.getColumn(").append(column).append(");\n");
+		}
+		String test = "\t\t\t\tout[n] = i;\n\t\t\t\tn += " + String.join(" & ", terms) + " ? 1 : 0;\n";
+
+		return "package sjdb;\n\n"
+				+ "final class " + CLASS_NAME + " extends CompiledPipeline {\n"
+				+ fields
+				+ "\n\t" + CLASS_NAME + "(long[] values, RangeTest[] tests) {\n"
+				+ init
+				+ "\t}\n\n"
+				+ "\t@Override\n"
+				+ "\tpublic int select(ColumnBatch batch, int[] out) {\n"
+				+ loads
+				+ "\t\tfinal int count = batch.getCount();\n"
+				+ "\t\tfinal int[] in = batch.getSelection();\n"
+				+ "\t\tint n = 0;\n"
+				+ "\t\tif (in == null) {\n"
+				+ "\t\t\tfor (int i = 0; i < count; i++) {\n"
+				+ test
+				+ "\t\t\t}\n"
+				+ "\t\t} else {\n"
+				+ "\t\t\tfor (int j = 0; j < count; j++) {\n"
+				+ "\t\t\t\tfinal int i = in[j];\n"
+				+ test
+				+ "\t\t\t}\n"
+				+ "\t\t}\n"
+				+ "\t\treturn n;\n"
+				+ "\t}\n"
+				+ "}\n";
+	}
+
+	// Compile the source of a class in memory, on the class path of the JVM
+	private byte[] compileSource(String source) {
+		if (javac == null) {
+			throw new IllegalStateException("No system Java compiler to compile pipelines with");
+		}
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		JavaFileObject file = new SimpleJavaFileObject(URI.create("string:///sjdb/" + CLASS_NAME + ".java"), JavaFileObject.Kind.SOURCE) {
+			@Override
+			public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+				return source;
+			}
+		};
+		JavaFileManager manager = new ForwardingJavaFileManager<JavaFileManager>(
+				javac.getStandardFileManager(null, null, StandardCharsets.UTF_8)) {
+			@Override
+			public JavaFileObject getJavaFileForOutput(Location location, String className, JavaFileObject.Kind kind, FileObject sibling) {
+				return new SimpleJavaFileObject(URI.create("bytes:///" + className.replace('.', '/') + kind.extension), kind) {
+					@Override
+					public OutputStream openOutputStream() {
+						return bytes;
+					}
+				};
+			}
+		};
+
+		StringWriter log = new StringWriter();
+		List<String> options = List.of("-classpath", System.getProperty("java.class.path"), "-proc:none", "-g:none");
+		boolean compiled = javac.getTask(log, manager, null, options, null, List.of(file)).call();
+		try {
+			manager.close();
+		} catch (IOException e) {
+			// Nothing was opened but the source, held in memory
+		}
+		if (!compiled) {
+			throw new IllegalStateException("Could not compile pipeline:\n" + source + log);
+		}
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Return the number of pipelines whose class was found in the cache
+	 * @return Hit count
+	 */
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	/**
+	 * Return the number of classes compiled
+	 * @return Miss count
+	 */
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	public synchronized int size() {
+		return constructors.size();
+	}
+}
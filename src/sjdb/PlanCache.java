@@ -0,0 +1,200 @@
+package sjdb;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class caches optimised plans by the fingerprint of the canonical plan
+ * they were optimised from, so that a query shape that has been seen before is
+ * not optimised again. The cache holds a bounded number of plans and evicts
+ * the least recently used one when it is full.
+ * 
+ * The cache listens to the catalogue, and drops every plan that reads a
+ * relation whose statistics change.
+ * 
+ * If values are stripped from the fingerprints, queries that only differ in
+ * the values of their attr=value (or range) predicates share a plan; the cached plan is
+ * copied with the values of the new query before it is returned.
+ */
+public class PlanCache implements CatalogueListener {
+	private Optimiser optimiser;
+	private boolean stripValues;
+	private LinkedHashMap<QueryFingerprint, CachedPlan> plans;
+
+	private long hits;
+	private long misses;
+	private long evictions;
+	private long invalidations;
+	// Moves on every change to the statistics, whether or not it drops a plan
+	private long epoch;
+
+	/**
+	 * Create a new plan cache in front of an optimiser
+	 * @param catalogue Catalogue whose statistics the plans depend on
+	 * @param optimiser Optimiser used on a cache miss
+	 * @param capacity Maximum number of plans held
+	 * @param stripValues Whether queries that only differ in values share a plan
+	 */
+	public PlanCache(Catalogue catalogue, Optimiser optimiser, final int capacity, boolean stripValues) {
+		this.optimiser = optimiser;
+		this.stripValues = stripValues;
+		this.plans = new LinkedHashMap<QueryFingerprint, CachedPlan>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<QueryFingerprint, CachedPlan> eldest) {
+				if (size() > capacity) {
+					evictions++;
+					return true;
+				}
+				return false;
+			}
+		};
+		catalogue.addListener(this);
+	}
+
+	/**
+	 * Return the optimised plan for a canonical plan, from the cache if possible.
+	 * A cached plan is returned as a copy, since estimating a plan annotates its
+	 * operators.
+	 * @param canonical Canonical plan, as built by QueryParser
+	 * @return Optimised plan
+	 */
+	public Operator optimise(Operator canonical) {
+		QueryFingerprint fingerprint = new QueryFingerprint(canonical, stripValues);
+		long version;
+
+		synchronized (this) {
+			CachedPlan cached = plans.get(fingerprint);
+			if (cached != null) {
+				hits++;
+				return stripValues ? rebind(cached, fingerprint) : copy(cached.plan, Collections.<Predicate, Predicate>emptyMap());
+			}
+			misses++;
+			version = epoch;
+		}
+
+		// optimise outside the lock, so that misses do not hold up other queries
+		Operator plan = optimiser.optimise(canonical);
+
+		synchronized (this) {
+			// a plan built while the statistics changed under it is not worth keeping
+			if (version == epoch) {
+				plans.put(fingerprint, new CachedPlan(copy(plan, Collections.<Predicate, Predicate>emptyMap()), fingerprint));
+			}
+		}
+
+		return plan;
+	}
+
+	/**
+	 * Drop every cached plan that reads the given relation.
+	 * 
+	 * @see sjdb.CatalogueListener#relationChanged(sjdb.NamedRelation)
+	 */
+	@Override
+	public synchronized void relationChanged(NamedRelation relation) {
+		Iterator<CachedPlan> iter = plans.values().iterator();
+		while (iter.hasNext()) {
+			if (iter.next().fingerprint.getRelations().contains(relation.getName())) {
+				iter.remove();
+				invalidations++;
+			}
+		}
+		epoch++;
+	}
+
+	/**
+	 * Drop all cached plans
+	 */
+	public synchronized void clear() {
+		invalidations += plans.size();
+		plans.clear();
+		epoch++;
+	}
+
+	public synchronized int size() {
+		return plans.size();
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	public synchronized long getEvictions() {
+		return evictions;
+	}
+
+	public synchronized long getInvalidations() {
+		return invalidations;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "plans=" + plans.size() + " hits=" + hits + " misses=" + misses +
+				" evictions=" + evictions + " invalidations=" + invalidations;
+	}
+
+	// Copy the cached plan, replacing the values of its value predicates
+	// with those of the query being answered
+	private static Operator rebind(CachedPlan cached, QueryFingerprint fingerprint) {
+		Map<Predicate, Predicate> replacements = new HashMap<Predicate, Predicate>();
+		List<Predicate> from = cached.fingerprint.getValuePredicates();
+		List<Predicate> to = fingerprint.getValuePredicates();
+		for (int i = 0; i < from.size(); i++) {
+			replacements.put(from.get(i), to.get(i));
+		}
+		return copy(cached.plan, replacements);
+	}
+
+	private static Operator copy(Operator op, Map<Predicate, Predicate> replacements) {
+		if (op instanceof Scan) {
+			return op;
+		}
+		if (op instanceof IndexScan) {
+			IndexScan scan = (IndexScan) op;
+			Predicate predicate = scan.getPredicate();
+			if (predicate == null || !replacements.containsKey(predicate)) {
+				return op;
+			}
+			return new IndexScan(scan.getRelation(), scan.getIndex(), replacements.get(predicate));
+		}
+		if (op instanceof Select) {
+			Select select = (Select) op;
+			Predicate predicate = select.getPredicate();
+			if (replacements.containsKey(predicate)) {
+				predicate = replacements.get(predicate);
+			}
+			return new Select(copy(select.getInput(), replacements), predicate);
+		}
+		if (op instanceof Project) {
+			Project project = (Project) op;
+			return new Project(copy(project.getInput(), replacements), project.getAttributes());
+		}
+		if (op instanceof Join) {
+			Join join = (Join) op;
+			return new Join(copy(join.getLeft(), replacements), copy(join.getRight(), replacements), join.getPredicate(),
+					join.getMethod(), join.isBuildLeft());
+		}
+		Product product = (Product) op;
+		return new Product(copy(product.getLeft(), replacements), copy(product.getRight(), replacements));
+	}
+
+	private static class CachedPlan {
+		private Operator plan;
+		private QueryFingerprint fingerprint;
+
+		private CachedPlan(Operator plan, QueryFingerprint fingerprint) {
+			this.plan = plan;
+			this.fingerprint = fingerprint;
+		}
+	}
+}
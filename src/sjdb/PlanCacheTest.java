@@ -0,0 +1,99 @@
+package sjdb;
+
+import java.io.StringReader;
+
+/**
+ * This class checks that a PlanCache answers repeated queries from the cache
+ * with plans of their own, and that changes to the statistics of the
+ * catalogue drop the plans they affect, and keep out a plan optimised while
+ * they were made.
+ *
+ * Usage: java sjdb.PlanCacheTest
+ */
+public class PlanCacheTest {
+	private static final String QUERY = "SELECT a1,b1\nFROM A,B\nWHERE a2=b3,a1=\"%s\"\n";
+
+	public static void main(String[] args) throws Exception {
+		hits();
+		invalidation();
+		changeDuringOptimisation();
+		rebinding();
+		System.out.println("OK");
+	}
+
+	// A repeated query is a hit, and is answered with a copy of the cached plan
+	private static void hits() throws Exception {
+		Catalogue catalogue = createCatalogue();
+		PlanCache cache = new PlanCache(catalogue, new Optimiser(catalogue), 10, false);
+
+		Operator first = cache.optimise(query(catalogue, "1"));
+		Operator second = cache.optimise(query(catalogue, "1"));
+		Operator third = cache.optimise(query(catalogue, "1"));
+		check(cache.getMisses() == 1 && cache.getHits() == 2, "repeated query not a hit: " + cache);
+		check(second != first && third != second, "cached plan returned as is");
+		check(second.toString().equals(first.toString()), "cached plan differs: " + second + " from " + first);
+
+		cache.optimise(query(catalogue, "2"));
+		check(cache.getMisses() == 2 && cache.size() == 2, "query with other values a hit: " + cache);
+	}
+
+	// A change to a relation drops the plans that read it, and only those
+	private static void invalidation() throws Exception {
+		Catalogue catalogue = createCatalogue();
+		PlanCache cache = new PlanCache(catalogue, new Optimiser(catalogue), 10, false);
+
+		cache.optimise(query(catalogue, "1"));
+		catalogue.createAttribute("C", "c2", 10);
+		check(cache.size() == 1, "plan dropped by a change to a relation it does not read: " + cache);
+		catalogue.createAttribute("A", "a3", 10);
+		check(cache.size() == 0 && cache.getInvalidations() == 1, "plan kept after a change to its relation: " + cache);
+
+		cache.optimise(query(catalogue, "1"));
+		cache.clear();
+		check(cache.size() == 0 && cache.getInvalidations() == 2, "plan kept after clear: " + cache);
+	}
+
+	// A plan optimised while the statistics changed is not cached, even if the change dropped nothing
+	private static void changeDuringOptimisation() throws Exception {
+		Catalogue catalogue = createCatalogue();
+		Optimiser changing = new Optimiser(catalogue) {
+			@Override
+			public Operator optimise(Operator op) {
+				catalogue.createAttribute("C", "c2", 10);
+				return super.optimise(op);
+			}
+		};
+		PlanCache cache = new PlanCache(catalogue, changing, 10, false);
+
+		cache.optimise(query(catalogue, "1"));
+		check(cache.size() == 0, "plan optimised during a change to the statistics cached: " + cache);
+	}
+
+	// With values stripped, queries that only differ in values share a plan, rebound to their values
+	private static void rebinding() throws Exception {
+		Catalogue catalogue = createCatalogue();
+		PlanCache cache = new PlanCache(catalogue, new Optimiser(catalogue), 10, true);
+
+		Operator first = cache.optimise(query(catalogue, "1"));
+		Operator second = cache.optimise(query(catalogue, "2"));
+		check(cache.getMisses() == 1 && cache.getHits() == 1, "query with other values not a hit: " + cache);
+		check(second.toString().equals(first.toString().replace("\"1\"", "\"2\"")), "plan not rebound: " + second);
+	}
+
+	private static Catalogue createCatalogue() {
+		Catalogue catalogue = Test.createCatalogue();
+		catalogue.createRelation("C", 50);
+		catalogue.createAttribute("C", "c1", 50);
+		return catalogue;
+	}
+
+	private static Operator query(Catalogue catalogue, String value) throws Exception {
+		return new QueryParser(catalogue, new StringReader(String.format(QUERY, value))).parse();
+	}
+
+	private static void check(boolean condition, String message) {
+		if (!condition) {
+			throw new AssertionError(message);
+		}
+	}
+}
@@ -0,0 +1,51 @@
+package sjdb;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This class keeps a single instance of each distinct plan built during an
+ * optimisation. Operators are immutable and compare by structure, so once a
+ * plan has been interned, any structurally equal plan built later is
+ * replaced by the first instance. Identical subplans of different
+ * candidates are then the same object, and estimates cached by operator
+ * identity (as in the Estimator) are shared between them.
+ *
+ * Inputs should be interned before the operators built on them, so that
+ * comparing inputs only ever compares references. The table may be used
+ * from several threads.
+ */
+public class PlanInterner {
+	private ConcurrentHashMap<Operator, Operator> plans;
+
+	public PlanInterner() {
+		this.plans = new ConcurrentHashMap<Operator, Operator>();
+	}
+
+	/**
+	 * Return the interned instance of a plan, which is the plan itself if no
+	 * equal plan has been interned before.
+	 * @param op Plan whose inputs have been interned
+	 * @return Interned plan
+	 */
+	@SuppressWarnings("unchecked")
+	public <T extends Operator> T intern(T op) {
+		Operator existing = plans.putIfAbsent(op, op);
+		return existing == null ? op : (T) existing;
+	}
+
+	/**
+	 * Forget the plans interned so far. They remain valid, but plans built
+	 * later are no longer replaced by them.
+	 */
+	public void clear() {
+		plans.clear();
+	}
+
+	/**
+	 * Return the number of distinct plans interned
+	 * @return Number of plans
+	 */
+	public int size() {
+		return plans.size();
+	}
+}
@@ -0,0 +1,242 @@
+package sjdb;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * This abstract class is an operator of an executable query plan. After
+ * open(), the operator's output is pulled from it by its subclass, a tuple at
+ * a time from a TupleIterator or a batch of tuples at a time from a
+ * BatchIterator, pulling as much as it needs from its inputs in turn; close()
+ * releases its resources. A plan can be opened again after it is closed,
+ * which starts it over.
+ *
+ * Every iterator counts the tuples it returns and the time spent in it,
+ * including the time spent in its inputs, so that the actual behaviour of a
+ * plan can be compared with its estimate after it has run. A plan run in
+ * parallel has a copy of its iterators for each worker, and the profile of
+ * one copy adds up those of the others (see addProfile()), so its times are
+ * summed over the workers rather than elapsed.
+ */
+public abstract class PlanIterator {
+	private final String label;
+	private final List<Attribute> attributes;
+	private final List<PlanIterator> inputs;
+	private long estimatedRows;
+	private long rows;
+	private long nanos;
+	private int opens;
+	private int workers;
+
+	/**
+	 * @param label Description of the operator, for profiles
+	 * @param attributes Attributes of the output tuples
+	 * @param inputs Iterators that feed this one
+	 */
+	protected PlanIterator(String label, List<Attribute> attributes, PlanIterator... inputs) {
+		this.label = label;
+		this.attributes = Collections.unmodifiableList(new ArrayList<Attribute>(attributes));
+		this.inputs = List.of(inputs);
+		this.estimatedRows = -1;
+		this.workers = 1;
+	}
+
+	/**
+	 * Prepare to return the output from its first tuple
+	 * @throws IOException
+	 */
+	public final void open() throws IOException {
+		long start = System.nanoTime();
+		opens++;
+		doOpen();
+		nanos += System.nanoTime() - start;
+	}
+
+	/**
+	 * Release the resources held since open()
+	 * @throws IOException
+	 */
+	public final void close() throws IOException {
+		long start = System.nanoTime();
+		doClose();
+		nanos += System.nanoTime() - start;
+	}
+
+	protected abstract void doOpen() throws IOException;
+
+	protected abstract void doClose() throws IOException;
+
+	/**
+	 * Add to the counts of the profile, for the subclasses that return the output
+	 * @param rows Number of tuples returned
+	 * @param nanos Time taken to return them
+	 */
+	protected final void record(long rows, long nanos) {
+		this.rows += rows;
+		this.nanos += nanos;
+	}
+
+	/**
+	 * Add the counts of the profile of a copy of this iterator, run by another
+	 * worker, to this iterator's, and those of the copy's inputs to this
+	 * iterator's inputs; an input that the two share is counted once
+	 * @param copy Iterator compiled from the same operator as this one
+	 * @param workers Number of workers that ran a copy of the iterator, this one included
+	 */
+	public final void addProfile(PlanIterator copy, int workers) {
+		if (copy == this) {
+			return;
+		}
+		this.rows += copy.rows;
+		this.nanos += copy.nanos;
+		this.workers = workers;
+		for (int i = 0; i < inputs.size(); i++) {
+			inputs.get(i).addProfile(copy.inputs.get(i), workers);
+		}
+	}
+
+	/**
+	 * Return the attributes of the output, in the order of the values of its tuples
+	 * @return Unmodifiable list of attributes
+	 */
+	public List<Attribute> getAttributes() {
+		return attributes;
+	}
+
+	/**
+	 * Return the position of an attribute in the output tuples
+	 * @param attribute
+	 * @return Index into the tuples
+	 */
+	public int indexOf(Attribute attribute) {
+		int index = attributes.indexOf(attribute);
+		if (index < 0) {
+			throw new IllegalArgumentException("Attribute " + attribute + " not in " + label);
+		}
+		return index;
+	}
+
+	/**
+	 * Return the iterators that feed this one
+	 * @return Unmodifiable list of inputs
+	 */
+	public List<PlanIterator> getInputs() {
+		return inputs;
+	}
+
+	public String getLabel() {
+		return label;
+	}
+
+	/**
+	 * Return the number of tuples returned since the plan was compiled, over
+	 * every time it was opened
+	 * @return Tuple count
+	 */
+	public long getRows() {
+		return rows;
+	}
+
+	/**
+	 * Return the time spent in this iterator and its inputs
+	 * @return Time in nanoseconds
+	 */
+	public long getNanos() {
+		return nanos;
+	}
+
+	/**
+	 * Return the number of times this iterator was opened: more than once for
+	 * the inner input of a nested-loop join
+	 * @return Open count
+	 */
+	public int getOpens() {
+		return opens;
+	}
+
+	/**
+	 * Set the number of tuples the Estimator expected this operator to return
+	 * @param estimatedRows Tuple count, or -1 if not known
+	 */
+	public void setEstimatedRows(long estimatedRows) {
+		this.estimatedRows = estimatedRows;
+	}
+
+	public long getEstimatedRows() {
+		return estimatedRows;
+	}
+
+	/**
+	 * Return what the profile should show of the resources used by this
+	 * iterator, beyond its tuple counts and time
+	 * @return Description, or null if there is nothing to show
+	 */
+	protected String getProfileDetails() {
+		return null;
+	}
+
+	/**
+	 * Format a number of bytes for a profile, in the largest unit that keeps
+	 * it above 1
+	 * @param bytes
+	 * @return Formatted size, such as 1.5MB
+	 */
+	protected static String formatBytes(long bytes) {
+		if (bytes < 1024) {
+			return bytes + "B";
+		} else if (bytes < 1024 * 1024) {
+			return String.format("%.1fKB", bytes / 1024.0);
+		}
+		return String.format("%.1fMB", bytes / 1048576.0);
+	}
+
+	/**
+	 * Render the actual tuple counts and times of this iterator and its
+	 * inputs, one line per iterator, with each input indented below the
+	 * iterator it feeds. The time of an iterator is given both with and
+	 * without (self) the time of its inputs.
+	 * @return the rendering of the profile
+	 */
+	public String renderProfile() {
+		StringBuilder sb = new StringBuilder();
+		renderProfile(sb, "");
+		return sb.toString();
+	}
+
+	/**
+	 * Return the iterators whose profiles are shown below this one's
+	 * @return Iterators, by default the inputs
+	 */
+	protected List<PlanIterator> getProfileInputs() {
+		return inputs;
+	}
+
+	private void renderProfile(StringBuilder sb, String indent) {
+		List<PlanIterator> shown = getProfileInputs();
+		long self = nanos;
+		for (PlanIterator input : shown) {
+			self -= input.nanos;
+		}
+		sb.append(indent).append(label).append(": rows=").append(rows);
+		if (estimatedRows >= 0) {
+			sb.append(" (estimated ").append(estimatedRows).append(")");
+		}
+		if (opens > 1) {
+			sb.append(" opens=").append(opens);
+		}
+		if (workers > 1) {
+			sb.append(" workers=").append(workers);
+		}
+		sb.append(String.format(" time=%.3fms self=%.3fms", nanos / 1e6, Math.max(0, self) / 1e6));
+		String details = getProfileDetails();
+		if (details != null) {
+			sb.append(" ").append(details);
+		}
+		sb.append(System.lineSeparator());
+		for (PlanIterator input : shown) {
+			input.renderProfile(sb, indent + "  ");
+		}
+	}
+}
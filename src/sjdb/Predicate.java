@@ -1,18 +1,68 @@
 package sjdb;
 
+import java.util.Objects;
+
 /**
  * This class is used to represent the predicates associated with 
- * joins and select operators. Note that, while a string value is
- * required for predicates of the form attr=value, this values is 
- * only used by the toString() method; a future version of
- * Attribute which uses more expressive synopses may change this.
+ * joins and select operators. Predicates either compare two attributes
+ * for equality (attr=attr), or compare an attribute with a value using
+ * one of the comparisons = <> < <= > >= or BETWEEN (which takes two
+ * values, and includes both).
+ * 
+ * Values are compared as numbers if both are numeric, and as strings
+ * otherwise (see Histogram.compareValues).
+ * 
+ * Predicates are immutable, and equal if their attributes, comparisons
+ * and values are.
  * 
  * @author nmg
  */
 public class Predicate {
-	private Attribute leftAttribute;
-	private Attribute rightAttribute;
-	private String rightValue;
+	/**
+	 * The comparisons that a predicate may make between an attribute and a value
+	 */
+	public enum Comparison {
+		EQUALS("="),
+		NOT_EQUALS("<>"),
+		LESS("<"),
+		LESS_OR_EQUAL("<="),
+		GREATER(">"),
+		GREATER_OR_EQUAL(">="),
+		BETWEEN("BETWEEN");
+		
+		private final String symbol;
+		
+		private Comparison(String symbol) {
+			this.symbol = symbol;
+		}
+		
+		/**
+		 * @return the symbol used for this comparison in queries
+		 */
+		public String getSymbol() {
+			return symbol;
+		}
+		
+		/**
+		 * Return the comparison with the given symbol
+		 * @param symbol
+		 * @return the comparison
+		 */
+		public static Comparison fromSymbol(String symbol) {
+			for (Comparison comparison : values()) {
+				if (comparison.symbol.equalsIgnoreCase(symbol)) {
+					return comparison;
+				}
+			}
+			throw new IllegalArgumentException("Unknown comparison: " + symbol);
+		}
+	}
+	
+	private final Attribute leftAttribute;
+	private final Attribute rightAttribute;
+	private final Comparison comparison;
+	private final String rightValue;
+	private final String upperValue;
 
 	/**
 	 * Create a predicate of the form attr=attr
@@ -22,6 +72,9 @@ public class Predicate {
 	public Predicate(Attribute left, Attribute right) {
 		this.leftAttribute = left;
 		this.rightAttribute = right;
+		this.comparison = Comparison.EQUALS;
+		this.rightValue = null;
+		this.upperValue = null;
 	}
 
 	/**
@@ -30,8 +83,38 @@ public class Predicate {
 	 * @param value
 	 */
 	public Predicate(Attribute left, String value) {
+		this(left, Comparison.EQUALS, value);
+	}
+
+	/**
+	 * Create a predicate of the form attr<value (or any comparison except BETWEEN)
+	 * @param left
+	 * @param comparison
+	 * @param value
+	 */
+	public Predicate(Attribute left, Comparison comparison, String value) {
+		if (comparison == Comparison.BETWEEN) {
+			throw new IllegalArgumentException("BETWEEN needs two values");
+		}
 		this.leftAttribute = left;
+		this.rightAttribute = null;
+		this.comparison = comparison;
 		this.rightValue = value;
+		this.upperValue = null;
+	}
+
+	/**
+	 * Create a predicate of the form attr BETWEEN lower AND upper
+	 * @param left
+	 * @param lower
+	 * @param upper
+	 */
+	public Predicate(Attribute left, String lower, String upper) {
+		this.leftAttribute = left;
+		this.rightAttribute = null;
+		this.comparison = Comparison.BETWEEN;
+		this.rightValue = lower;
+		this.upperValue = upper;
 	}
 
 	/**
@@ -39,8 +122,26 @@ public class Predicate {
 	 * @return
 	 */
 	public boolean equalsValue() {
+		return this.rightValue != null && this.comparison == Comparison.EQUALS;
+	}
+
+	/**
+	 * Return true if this predicate compares an attribute with a value
+	 * (with any comparison)
+	 * @return
+	 */
+	public boolean comparesValue() {
 		return this.rightValue != null;
 	}
+
+	/**
+	 * Return the comparison made by this predicate, which is always
+	 * EQUALS for predicates of the form attr=attr
+	 * @return comparison
+	 */
+	public Comparison getComparison() {
+		return this.comparison;
+	}
 	
 	/**
 	 * Return ATTR for predicates of the form ATTR=attr or ATTR=value
@@ -59,21 +160,60 @@ public class Predicate {
 	}
 	
 	/**
-	 * Return VALUE for predicates of the form attr=VALUE
+	 * Return VALUE for predicates of the form attr=VALUE (or any other
+	 * comparison), or LOWER for attr BETWEEN LOWER AND upper
 	 * @return right value
 	 */
 	public String getRightValue() {
 		return this.rightValue;
 	}
 	
+	/**
+	 * Return UPPER for predicates of the form attr BETWEEN lower AND UPPER
+	 * @return upper value, or null for other predicates
+	 */
+	public String getUpperValue() {
+		return this.upperValue;
+	}
+	
+	/* (non-Javadoc)
+	 * @see java.lang.Object#hashCode()
+	 */
+	@Override
+	public int hashCode() {
+		return Objects.hash(this.leftAttribute, this.rightAttribute, this.comparison, this.rightValue, this.upperValue);
+	}
+	
+	/* (non-Javadoc)
+	 * @see java.lang.Object#equals(java.lang.Object)
+	 */
+	@Override
+	public boolean equals(Object obj) {
+		if (!(obj instanceof Predicate)) {
+			return false;
+		}
+		if (obj == this) {
+			return true;
+		}
+		Predicate rhs = (Predicate) obj;
+		
+		return this.leftAttribute.equals(rhs.leftAttribute) &&
+				Objects.equals(this.rightAttribute, rhs.rightAttribute) &&
+				this.comparison == rhs.comparison &&
+				Objects.equals(this.rightValue, rhs.rightValue) &&
+				Objects.equals(this.upperValue, rhs.upperValue);
+	}
+	
 	/* (non-Javadoc)
 	 * @see java.lang.Object#toString()
 	 */
 	public String toString() {
 		if (this.rightValue == null) {
 			return this.leftAttribute.toString() + "=" + this.rightAttribute.toString(); 
+		} else if (this.comparison == Comparison.BETWEEN) {
+			return this.leftAttribute.toString() + " BETWEEN \"" + this.rightValue + "\" AND \"" + this.upperValue + "\"";
 		} else {
-			return this.leftAttribute.toString() + "=\"" + this.rightValue + "\"";
+			return this.leftAttribute.toString() + this.comparison.getSymbol() + "\"" + this.rightValue + "\"";
 		}
 	}
 }
@@ -1,5 +1,7 @@
 package sjdb;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Iterator;
 
@@ -8,7 +10,7 @@ import java.util.Iterator;
  * @author nmg
  */
 public class Project extends UnaryOperator {
-	private List<Attribute> attributes;
+	private final List<Attribute> attributes;
 	
 	/**
 	 * Create a new project operator.
@@ -17,11 +19,11 @@ public class Project extends UnaryOperator {
 	 */
 	public Project(Operator input, List<Attribute> attributes) {
 		super(input);
-		this.attributes = attributes;
+		this.attributes = Collections.unmodifiableList(new ArrayList<Attribute>(attributes));
 	}
 
 	/**
-	 * Return the list of attributes projected by this operator
+	 * Return the unmodifiable list of attributes projected by this operator
 	 * @return List of attributes to be projected
 	 */
 	public List<Attribute> getAttributes() {
@@ -53,4 +55,20 @@ public class Project extends UnaryOperator {
 		
 		return ret;
 	}
+	
+	/* (non-Javadoc)
+	 * @see sjdb.Operator#sameParameters(sjdb.Operator)
+	 */
+	@Override
+	protected boolean sameParameters(Operator op) {
+		return this.attributes.equals(((Project) op).attributes);
+	}
+	
+	/* (non-Javadoc)
+	 * @see sjdb.Operator#parameterHash()
+	 */
+	@Override
+	protected int parameterHash() {
+		return this.attributes.hashCode();
+	}
 }
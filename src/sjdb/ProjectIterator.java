@@ -0,0 +1,62 @@
+package sjdb;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class returns the values of some of the attributes of its input's
+ * tuples, keeping the attributes in the order of the input.
+ */
+public class ProjectIterator extends TupleIterator {
+	private final TupleIterator input;
+	private final int[] columns;
+
+	/**
+	 * @param label Description of the operator, for profiles
+	 * @param input Iterator returning the tuples to be projected
+	 * @param attributes Attributes to be kept
+	 */
+	public ProjectIterator(String label, TupleIterator input, List<Attribute> attributes) {
+		super(label, getProjected(input.getAttributes(), attributes), input);
+		this.input = input;
+		this.columns = new int[getAttributes().size()];
+		for (int i = 0; i < columns.length; i++) {
+			columns[i] = input.indexOf(getAttributes().get(i));
+		}
+	}
+
+	private static List<Attribute> getProjected(List<Attribute> inputAttributes, List<Attribute> attributes) {
+		List<Attribute> projected = new ArrayList<Attribute>();
+		for (Attribute attr : inputAttributes) {
+			if (attributes.contains(attr)) {
+				projected.add(attr);
+			}
+		}
+		return projected;
+	}
+
+	@Override
+	protected void doOpen() throws IOException {
+		input.open();
+	}
+
+	@Override
+	protected String[] doNext() throws IOException {
+		String[] tuple = input.next();
+		if (tuple == null) {
+			return null;
+		}
+
+		String[] projected = new String[columns.length];
+		for (int i = 0; i < columns.length; i++) {
+			projected[i] = tuple[columns[i]];
+		}
+		return projected;
+	}
+
+	@Override
+	protected void doClose() throws IOException {
+		input.close();
+	}
+}
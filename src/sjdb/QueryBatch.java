@@ -0,0 +1,236 @@
+package sjdb;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class optimises a stream of queries against one catalogue, so that a
+ * run over many queries pays for starting the JVM and parsing the catalogue
+ * once. Queries are read in the format read by QueryParser, separated by
+ * blank lines, and optimised on a fixed number of threads.
+ *
+ * The result of each query is written on a line of its own, in the order of
+ * the input, as soon as it and those before it are done:
+ *
+ * <number>	<estimated tuples>	<estimated cost>	<optimised plan>
+ *
+ * or, for a query that could not be parsed or optimised:
+ *
+ * <number>	ERROR	<message>
+ *
+ * Queries are numbered from 1. At most a few queries for each thread are read
+ * ahead of the one being written, so the memory a run takes does not grow
+ * with its length. When the input is done, a summary is written: the number
+ * of queries, the queries optimised per second, and the median and 99th
+ * percentile times taken by Optimiser.optimise().
+ *
+ * The randomised search of the optimiser is seeded, and runs for a number of
+ * iterations rather than a time, so that the plans of a run do not depend on
+ * the number of threads or how busy they are.
+ *
+ * If given a cache capacity, the queries are optimised through a PlanCache,
+ * so that a query shape repeated in the input is optimised once; the hits and
+ * misses of the cache are added to the summary.
+ */
+public class QueryBatch {
+	// Queries read ahead of the one being written, for each thread
+	private static final int QUEUED_QUERIES = 4;
+	// Long enough not to stop the randomised search before its iterations
+	private static final long SEARCH_TIME = 3600000;
+
+	private final Catalogue catalogue;
+	private final int parallelism;
+	private long seed;
+	private int searchIterations;
+	private int cacheCapacity;
+	private boolean stripValues;
+	private PlanCache cache;
+	private long queries;
+	private long errors;
+	private long[] times;
+	private long elapsed;
+
+	/**
+	 * @param catalogue Catalogue the queries are over, which must not change during a run
+	 * @param parallelism Number of threads to optimise on
+	 */
+	public QueryBatch(Catalogue catalogue, int parallelism) {
+		if (parallelism < 1) {
+			throw new IllegalArgumentException("Parallelism must be at least 1");
+		}
+		this.catalogue = catalogue;
+		this.parallelism = parallelism;
+		this.seed = 0;
+		this.searchIterations = Optimiser.DEFAULT_RANDOMISED_ITERATIONS;
+		this.cacheCapacity = 0;
+		this.times = new long[0];
+	}
+
+	public void setSeed(long seed) {
+		this.seed = seed;
+	}
+
+	/**
+	 * Set the number of join orders the randomised search costs, for queries
+	 * over more relations than the optimiser orders greedily only
+	 * @param searchIterations Iteration count
+	 */
+	public void setSearchIterations(int searchIterations) {
+		this.searchIterations = searchIterations;
+	}
+
+	/**
+	 * Optimise the queries through a PlanCache
+	 * @param capacity Maximum number of plans held, or 0 for no cache
+	 * @param stripValues Whether queries that only differ in values share a plan
+	 */
+	public void setPlanCache(int capacity, boolean stripValues) {
+		this.cacheCapacity = capacity;
+		this.stripValues = stripValues;
+	}
+
+	// The output line of a query, and the time its optimisation took
+	private static class Result {
+		private final String line;
+		private final long nanos;
+
+		private Result(String line, long nanos) {
+			this.line = line;
+			this.nanos = nanos;
+		}
+	}
+
+	/**
+	 * Optimise the queries of an input, and write their results and the
+	 * summary of the run
+	 * @param in Queries, separated by blank lines
+	 * @param out where to write the results
+	 * @throws IOException
+	 */
+	public void run(Reader in, PrintWriter out) throws IOException {
+		BufferedReader reader = new BufferedReader(in);
+		int window = QUEUED_QUERIES * parallelism;
+		ThreadPoolExecutor pool = new ThreadPoolExecutor(parallelism, parallelism, 0, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(window));
+		Deque<Future<Result>> pending = new ArrayDeque<Future<Result>>();
+		queries = 0;
+		errors = 0;
+		times = new long[1024];
+		if (cache != null) {
+			catalogue.removeListener(cache);
+		}
+		cache = cacheCapacity > 0 ? new PlanCache(catalogue, newOptimiser(), cacheCapacity, stripValues) : null;
+		long start = System.nanoTime();
+
+		try {
+			String query;
+			while ((query = readQuery(reader)) != null) {
+				long number = queries + pending.size() + 1;
+				String text = query;
+				pending.add(pool.submit(() -> optimise(number, text)));
+				if (pending.size() == window) {
+					write(pending.removeFirst(), out);
+				}
+			}
+			while (!pending.isEmpty()) {
+				write(pending.removeFirst(), out);
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+		elapsed = System.nanoTime() - start;
+		out.flush();
+	}
+
+	// Read the lines up to the next blank line, or null at the end of the input
+	private static String readQuery(BufferedReader reader) throws IOException {
+		StringBuilder query = new StringBuilder();
+		String line;
+		while ((line = reader.readLine()) != null) {
+			if (!line.trim().isEmpty()) {
+				query.append(line).append('\n');
+			} else if (query.length() > 0) {
+				break;
+			}
+		}
+		return query.length() == 0 ? null : query.toString();
+	}
+
+	private Result optimise(long number, String query) {
+		try {
+			Operator canonical = new QueryParser(catalogue, new StringReader(query)).parse();
+			long start = System.nanoTime();
+			Operator plan = cache != null ? cache.optimise(canonical) : newOptimiser().optimise(canonical);
+			long nanos = System.nanoTime() - start;
+
+			Estimator estimator = new Estimator();
+			String line = number + "\t" + estimator.estimate(plan).getTupleCount() + "\t"
+					+ String.format("%.1f", estimator.getTotalCost(plan)) + "\t" + plan;
+			return new Result(line, nanos);
+		} catch (Throwable e) {
+			// Any failure, such as a StackOverflowError, is that of the query alone
+			return new Result(number + "\tERROR\t" + e, -1);
+		}
+	}
+
+	private Optimiser newOptimiser() {
+		Optimiser optimiser = new Optimiser(catalogue);
+		optimiser.setSeed(seed);
+		optimiser.setRandomisedBudget(searchIterations, SEARCH_TIME);
+		return optimiser;
+	}
+
+	private void write(Future<Result> future, PrintWriter out) throws IOException {
+		Result result;
+		try {
+			result = future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while optimising queries", e);
+		} catch (ExecutionException e) {
+			throw new IOException("Could not optimise a query", e.getCause());
+		}
+
+		out.println(result.line);
+		queries++;
+		if (result.nanos < 0) {
+			errors++;
+		} else {
+			if (queries - errors > times.length) {
+				times = Arrays.copyOf(times, times.length * 2);
+			}
+			times[(int) (queries - errors - 1)] = result.nanos;
+		}
+	}
+
+	/**
+	 * Write the summary of the last run
+	 * @param out where to write the summary
+	 */
+	public void writeSummary(PrintWriter out) {
+		int optimised = (int) (queries - errors);
+		long[] sorted = Arrays.copyOf(times, optimised);
+		Arrays.sort(sorted);
+		out.printf("%d queries (%d errors) in %.3fs on %d threads: %.1f queries/s%n", queries, errors, elapsed / 1e9,
+				parallelism, queries / (elapsed / 1e9));
+		if (optimised > 0) {
+			out.printf("optimise p50 %.3fms, p99 %.3fms%n", sorted[(optimised - 1) / 2] / 1e6,
+					sorted[(int) Math.ceil(optimised * 0.99) - 1] / 1e6);
+		}
+		if (cache != null) {
+			out.println("plan cache " + cache);
+		}
+		out.flush();
+	}
+}
@@ -0,0 +1,133 @@
+package sjdb;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * This class identifies the shape of a canonical query plan, so that queries
+ * which only differ in the order of their relations and predicates are
+ * recognised as the same query. The fingerprint is made of:
+ * 
+ * - the names of the scanned relations, sorted
+ * - the predicates, sorted, with the sides of attr=attr predicates put in
+ *   order and, optionally, the values of predicates that compare an attribute
+ *   with a value replaced by ?
+ * - the projected attributes, in order, or * if there is no project
+ * 
+ * When the values are stripped they are kept aside in the same order as the
+ * predicates they came from, so that a plan for one query can be rebound to
+ * the values of another with the same fingerprint.
+ */
+public class QueryFingerprint {
+	private String key;
+	private List<String> relations;
+	private List<Predicate> valuePredicates;
+
+	/**
+	 * Compute the fingerprint of a canonical query plan
+	 * @param canonical Canonical plan, as built by QueryParser
+	 * @param stripValues Whether to leave the values of value predicates out
+	 */
+	public QueryFingerprint(Operator canonical, boolean stripValues) {
+		this.relations = new ArrayList<String>();
+		this.valuePredicates = new ArrayList<Predicate>();
+		List<String> joins = new ArrayList<String>();
+		List<Attribute> projected = null;
+
+		// walk down the canonical plan: a project, then selects, then products over scans
+		List<Operator> pending = new ArrayList<Operator>();
+		pending.add(canonical);
+		while (!pending.isEmpty()) {
+			Operator op = pending.remove(pending.size() - 1);
+			if (op instanceof Scan) {
+				relations.add(((Scan) op).getRelation().getName());
+			} else {
+				if (op instanceof Project && projected == null) {
+					projected = ((Project) op).getAttributes();
+				} else if (op instanceof Select) {
+					Predicate predicate = ((Select) op).getPredicate();
+					if (predicate.comparesValue()) {
+						valuePredicates.add(predicate);
+					} else {
+						joins.add(render(predicate));
+					}
+				}
+				pending.addAll(op.getInputs());
+			}
+		}
+
+		Collections.sort(relations);
+		Collections.sort(joins);
+		Collections.sort(valuePredicates, (p1, p2) -> {
+			int cmp = p1.getLeftAttribute().getName().compareTo(p2.getLeftAttribute().getName());
+			if (cmp == 0) {
+				cmp = p1.getComparison().compareTo(p2.getComparison());
+			}
+			return cmp != 0 ? cmp : p1.toString().compareTo(p2.toString());
+		});
+
+		StringBuilder sb = new StringBuilder();
+		sb.append(String.join(",", relations)).append("|").append(String.join(",", joins));
+		for (Predicate predicate : valuePredicates) {
+			sb.append(",").append(predicate.getLeftAttribute().getName()).append(predicate.getComparison().getSymbol());
+			sb.append(stripValues ? "?" : "\"" + predicate.getRightValue() + "\"");
+			if (predicate.getUpperValue() != null) {
+				sb.append(stripValues ? "?" : "\"" + predicate.getUpperValue() + "\"");
+			}
+		}
+		sb.append("|");
+		if (projected == null) {
+			sb.append("*");
+		} else {
+			Iterator<Attribute> iter = projected.iterator();
+			sb.append(iter.next().getName());
+			while (iter.hasNext()) {
+				sb.append(",").append(iter.next().getName());
+			}
+		}
+		this.key = sb.toString();
+	}
+
+	/**
+	 * Return the names of the relations the query reads, sorted
+	 * @return Relation names
+	 */
+	public List<String> getRelations() {
+		return relations;
+	}
+
+	/**
+	 * Return the predicates of the query that compare an attribute with a
+	 * value, in fingerprint order
+	 * @return Predicates comparing an attribute with a value
+	 */
+	public List<Predicate> getValuePredicates() {
+		return valuePredicates;
+	}
+
+	private static String render(Predicate predicate) {
+		String left = predicate.getLeftAttribute().getName();
+		String right = predicate.getRightAttribute().getName();
+		return left.compareTo(right) <= 0 ? left + "=" + right : right + "=" + left;
+	}
+
+	@Override
+	public int hashCode() {
+		return key.hashCode();
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (!(obj instanceof QueryFingerprint)) {
+			return false;
+		}
+		return key.equals(((QueryFingerprint) obj).key);
+	}
+
+	@Override
+	public String toString() {
+		return key;
+	}
+}
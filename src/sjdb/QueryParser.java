@@ -18,11 +18,15 @@ import java.util.regex.Matcher;
  * FROM <relation name>,<relation name>,...,<relation name>
  * WHERE <predicate>,<predicate>,...,<predicate>
  * 
- * where <predicate> is of one of the following two forms:
+ * where <predicate> is of one of the following forms:
  * 
  * <attribute name>="<value>"
+ * <attribute name><comparison>"<value>"
+ * <attribute name> BETWEEN "<value>" AND "<value>"
  * <attribute name>=<attribute name>
  * 
+ * and <comparison> is one of <> < <= > >=.
+ * 
  * The WHERE line (corresponding to the select operators) is optional and 
  * may be omitted; the other lines are required.
  * 
@@ -32,13 +36,19 @@ import java.util.regex.Matcher;
  * with the given attributes.
  * 
  * Note that the author of this class was extremely lazy, and so the parsing 
- * is unforgiving and may be sensitive to extraneous whitespace. In particular, 
- * values in predicates that contain spaces (or for that matter commas) will 
- * break the parsing of the WHERE clause.
+ * is unforgiving and may be sensitive to extraneous whitespace. Values in 
+ * predicates may contain spaces and commas, as the WHERE clause is only split 
+ * on commas outside quotes, but not double quotes.
  * 
  * @author nmg
  */
 public class QueryParser {
+	private static final Pattern VALUE_PREDICATE = Pattern.compile("(\\w+)\\s*(<=|>=|<>|<|>|=)\\s*\"([^\"]*)\"");
+	// A comma followed by an even number of quotes, so that commas within values do not split them
+	private static final Pattern PREDICATE_SEPARATOR = Pattern.compile("\\s*,\\s*(?=(?:[^\"]*\"[^\"]*\")*[^\"]*$)");
+	private static final Pattern BETWEEN_PREDICATE = Pattern.compile(
+			"(\\w+)\\s+BETWEEN\\s+\"([^\"]*)\"\\s+AND\\s+\"([^\"]*)\"", Pattern.CASE_INSENSITIVE);
+	
 	private BufferedReader reader;
 	private Catalogue catalogue;
 
@@ -138,7 +148,7 @@ public class QueryParser {
 	private Operator parseSelect(String line, Operator op) {
 		String[] prds = line.split("WHERE\\s+");
 
-		String[] pred = prds[1].split("\\s*,\\s*");
+		String[] pred = PREDICATE_SEPARATOR.split(prds[1]);
 		Operator ret = op;
 		
 		for (int i=0; i<pred.length; i++) {
@@ -155,20 +165,39 @@ public class QueryParser {
 	 * @return
 	 */
 	private Operator buildSelect(String pred, Operator op) {
-		Pattern p = Pattern.compile("(\\w+)=\"(\\w+)\"");
-		Matcher m = p.matcher(pred);
+		Matcher m = VALUE_PREDICATE.matcher(pred);
+		Matcher between = BETWEEN_PREDICATE.matcher(pred);
 		Predicate ret;
 		
 		if (m.matches()) {
-			ret = new Predicate(new Attribute(m.group(1)), m.group(2));
+			Predicate.Comparison comparison = Predicate.Comparison.fromSymbol(m.group(2));
+			ret = new Predicate(buildAttribute(m.group(1)), comparison, m.group(3));
+		} else if (between.matches()) {
+			ret = new Predicate(buildAttribute(between.group(1)), between.group(2), between.group(3));
+		} else if (pred.contains("<") || pred.contains(">")) {
+			throw new IllegalArgumentException("Only attr=attr may compare two attributes: " + pred);
 		} else {
 			String[] atts = pred.split("=");
-			ret = new Predicate(new Attribute(atts[0]), new Attribute(atts[1]));
+			ret = new Predicate(buildAttribute(atts[0]), buildAttribute(atts[1]));
 		}
 		
 		return new Select(op, ret);
 	}
 	
+	/**
+	 * Look up the attribute with the given name in the catalogue, so that
+	 * it carries its id; unknown attributes are created by name only.
+	 * @param name
+	 * @return
+	 */
+	private Attribute buildAttribute(String name) {
+		try {
+			return this.catalogue.getAttribute(name);
+		} catch (DatabaseException e) {
+			return new Attribute(name);
+		}
+	}
+	
 	/**
 	 * Parse a "SELECT ..." line and build the corresponding project operator.
 	 * @param line
@@ -184,7 +213,7 @@ public class QueryParser {
 			ArrayList<Attribute> attributes = new ArrayList<Attribute>();
 
 			for (int i=0; i<attr.length; i++) {
-				attributes.add(new Attribute(attr[i].trim()));
+				attributes.add(buildAttribute(attr[i].trim()));
 			}
 
 			return new Project(op, attributes);
@@ -0,0 +1,232 @@
+package sjdb;
+
+import java.util.BitSet;
+import java.util.Random;
+
+/**
+ * This class searches for a good left-deep join order for queries that are too
+ * wide for dynamic programming. A join order is a permutation of the leaves of
+ * a JoinGraph, and its cost is the total estimated cost of the left-deep plan
+ * that joins the leaves in that order.
+ *
+ * The search runs in two phases, as in two-phase optimisation: iterative
+ * improvement from the starting order and then from random orders, keeping
+ * only moves that lower the cost, for half of the iterations; then simulated
+ * annealing from the best order found, which also accepts some moves that
+ * raise the cost while the temperature is high. A move either swaps two
+ * leaves or moves one leaf to another position.
+ *
+ * The search is deterministic for a given seed as long as it stops on its
+ * iteration budget rather than its time budget.
+ */
+public class RandomisedSearch {
+    // Temperatures apply to the log of the cost: at the start, a move that makes the
+    // plan 10% more expensive is accepted with probability around 0.4
+    private static final double START_TEMPERATURE = 0.1;
+    private static final double END_TEMPERATURE = 0.001;
+
+    private JoinGraph graph;
+    private Random random;
+    private int maxIterations;
+    private long deadline;
+    private int iterations;
+
+    // The current order, the plan and cumulative cost of each of its prefixes, and an
+    // estimator holding the estimates of those plans
+    private int[] order;
+    private Operator[] plans;
+    private double[] costs;
+    private Estimator estimator;
+
+    private int[] bestOrder;
+    private double bestCost;
+
+    /**
+     * Create a new search
+     * @param graph join graph, whose estimator has estimated its leaves
+     * @param seed seed for the random moves
+     * @param maxIterations maximum number of orders to cost
+     * @param timeLimit maximum time to search for, in milliseconds
+     */
+    public RandomisedSearch(JoinGraph graph, long seed, int maxIterations, long timeLimit){
+        this.graph = graph;
+        this.random = new Random(seed);
+        this.maxIterations = maxIterations;
+        this.deadline = System.nanoTime() + timeLimit * 1000000L;
+    }
+
+    /**
+     * Search for the cheapest join order, starting from a given order
+     * @param start starting order, such as the one chosen greedily
+     * @return the cheapest order found
+     */
+    public int[] search(int[] start){
+        int n = graph.size();
+
+        setCurrent(start.clone());
+        bestOrder = order.clone();
+        bestCost = costs[n - 1];
+
+        // Iterative improvement, restarting from random orders at each local minimum
+        while(iterations < maxIterations / 2 && !isOutOfTime()){
+            improve(maxIterations / 2);
+            keepIfBest();
+
+            int[] restart = order.clone();
+            shuffle(restart);
+            setCurrent(restart);
+        }
+
+        // Simulated annealing from the best local minimum
+        setCurrent(bestOrder.clone());
+        int steps = Math.max(1, maxIterations - iterations);
+        double cooling = Math.pow(END_TEMPERATURE / START_TEMPERATURE, 1.0 / steps);
+        double temperature = START_TEMPERATURE;
+
+        while(iterations < maxIterations && !isOutOfTime()){
+            // Accept a move if ln(new cost) - ln(cost) < -temperature * ln(u), so the
+            // largest acceptable cost is known before the move is costed
+            double u = 1.0 - random.nextDouble();
+            move(costs[n - 1] * Math.pow(u, -temperature));
+            keepIfBest();
+            temperature *= cooling;
+        }
+
+        return bestOrder;
+    }
+
+    /**
+     * Return the cost of the cheapest order found
+     * @return total estimated cost of the plan
+     */
+    public double getBestCost(){
+        return bestCost;
+    }
+
+    /**
+     * Return the number of orders costed
+     * @return number of iterations
+     */
+    public int getIterations(){
+        return iterations;
+    }
+
+    // Make random moves that lower the cost until none has for a while
+    private void improve(int budget){
+        int failures = 0;
+        int patience = 2 * graph.size();
+
+        while(failures < patience && iterations < budget && !isOutOfTime()){
+            failures = move(costs[costs.length - 1]) ? 0 : failures + 1;
+        }
+    }
+
+    // Cost a random move and take it if the new order costs less than the limit
+    private boolean move(double limit){
+        int n = order.length;
+        int i = random.nextInt(n);
+        int j = random.nextInt(n - 1);
+        j = j >= i ? j + 1 : j;
+        int[] next = order.clone();
+
+        if(random.nextBoolean()){
+            next[i] = order[j];
+            next[j] = order[i];
+        }else if(i < j){
+            System.arraycopy(order, i + 1, next, i, j - i);
+            next[j] = order[i];
+        }else{
+            System.arraycopy(order, j, next, j + 1, i - j);
+            next[j] = order[i];
+        }
+
+        iterations++;
+
+        // Plans for the prefix before the first changed position are unchanged
+        int from = Math.min(i, j);
+        Operator[] nextPlans = plans.clone();
+        double[] nextCosts = costs.clone();
+        Estimator nextEstimator = new Estimator(estimator);
+
+        if(!build(next, from, nextPlans, nextCosts, nextEstimator, limit)){
+            return false;
+        }
+
+        order = next;
+        plans = nextPlans;
+        costs = nextCosts;
+        estimator.merge(nextEstimator, plans[n - 1]);
+
+        // Start again with only the estimates of the current plans once the old ones pile up,
+        // and let the operators of rejected orders go
+        if(estimator.size() > 8 * n){
+            graph.getInterner().clear();
+            estimator = new Estimator(graph.getEstimator());
+            estimator.estimate(plans[n - 1]);
+        }
+
+        return true;
+    }
+
+    private void setCurrent(int[] start){
+        int n = start.length;
+
+        order = start;
+        plans = new Operator[n];
+        costs = new double[n];
+        estimator = new Estimator(graph.getEstimator());
+        build(order, 0, plans, costs, estimator, Double.POSITIVE_INFINITY);
+    }
+
+    // Build the left-deep plans for the prefixes of an order from a given position,
+    // giving up as soon as the cost reaches the limit
+    private boolean build(int[] next, int from, Operator[] nextPlans, double[] nextCosts, Estimator nextEstimator, double limit){
+        BitSet used = new BitSet(next.length);
+
+        for(int k = 0; k < from; k++){
+            used.set(next[k]);
+        }
+
+        if(from == 0){
+            nextPlans[0] = graph.getLeaf(next[0]);
+            nextCosts[0] = nextEstimator.getTotalCost(nextPlans[0]);
+            used.set(next[0]);
+            from = 1;
+        }
+
+        for(int k = from; k < next.length; k++){
+            BitSet leaf = new BitSet(next.length);
+            leaf.set(next[k]);
+
+            nextPlans[k] = graph.join(nextPlans[k - 1], used, graph.getLeaf(next[k]), leaf, nextEstimator);
+            nextCosts[k] = nextEstimator.getTotalCost(nextPlans[k]);
+            used.set(next[k]);
+
+            if(nextCosts[k] >= limit){
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private void keepIfBest(){
+        if(costs[costs.length - 1] < bestCost){
+            bestCost = costs[costs.length - 1];
+            bestOrder = order.clone();
+        }
+    }
+
+    private void shuffle(int[] values){
+        for(int i = values.length - 1; i > 0; i--){
+            int j = random.nextInt(i + 1);
+            int value = values[i];
+            values[i] = values[j];
+            values[j] = value;
+        }
+    }
+
+    private boolean isOutOfTime(){
+        return System.nanoTime() - deadline > 0;
+    }
+}
@@ -0,0 +1,128 @@
+package sjdb;
+
+import java.util.Arrays;
+
+/**
+ * This class tests encoded values (see ValueDictionary) against a predicate
+ * that compares an attribute with a range of values (LESS, GREATER and the
+ * like, and BETWEEN), with the same meaning as a SelectIterator.
+ *
+ * A range with numeric bounds is turned into a range of integers, which
+ * integer values are tested against as longs; values with dictionary codes
+ * (and all values, for a range with bounds that are not numbers) are tested
+ * as strings, once per code, with the result kept for the rest of the run.
+ *
+ * A test is not thread-safe, as it keeps the results of the codes it has
+ * tested.
+ */
+public class RangeTest {
+	private final Predicate predicate;
+	private final ValueDictionary dictionary;
+	private boolean integerRange;
+	private long lower;
+	private long upper;
+	// For each dictionary code, 0 if not known yet, 1 if it fails the predicate and 2 if it passes
+	private byte[] results;
+
+	/**
+	 * @param predicate Predicate that compares an attribute with a range of values
+	 * @param dictionary Dictionary the values are encoded with
+	 */
+	public RangeTest(Predicate predicate, ValueDictionary dictionary) {
+		this.predicate = predicate;
+		this.dictionary = dictionary;
+		this.results = new byte[0];
+		setIntegerRange(predicate.getComparison());
+	}
+
+	// Find the integers that satisfy a range with numeric bounds
+	private void setIntegerRange(Predicate.Comparison comparison) {
+		String bound = predicate.getRightValue();
+		String upperBound = comparison == Predicate.Comparison.BETWEEN ? predicate.getUpperValue() : bound;
+		if (!Histogram.isNumber(bound) || !Histogram.isNumber(upperBound)) {
+			return;
+		}
+
+		double low = Double.parseDouble(bound);
+		double high = Double.parseDouble(upperBound);
+		double from = ValueDictionary.MIN_INTEGER;
+		double to = ValueDictionary.MAX_INTEGER;
+		switch (comparison) {
+		case LESS:
+			to = Math.ceil(low) - 1;
+			break;
+		case LESS_OR_EQUAL:
+			to = Math.floor(low);
+			break;
+		case GREATER:
+			from = Math.floor(low) + 1;
+			break;
+		case GREATER_OR_EQUAL:
+			from = Math.ceil(low);
+			break;
+		default:
+			from = Math.ceil(low);
+			to = Math.floor(high);
+			break;
+		}
+
+		integerRange = true;
+		lower = (long) Math.max(from, ValueDictionary.MIN_INTEGER);
+		upper = (long) Math.min(to, ValueDictionary.MAX_INTEGER);
+	}
+
+	/**
+	 * Return true if the integers that pass are those from getLower() to
+	 * getUpper()
+	 * @return false if the bounds are not numbers
+	 */
+	public boolean isIntegerRange() {
+		return integerRange;
+	}
+
+	/**
+	 * Return the smallest integer that passes
+	 * @return Integer, above getUpper() if none pass
+	 */
+	public long getLower() {
+		return lower;
+	}
+
+	/**
+	 * Return the largest integer that passes
+	 * @return Integer
+	 */
+	public long getUpper() {
+		return upper;
+	}
+
+	/**
+	 * Test an encoded value
+	 * @param v Encoded value
+	 * @return true if the value satisfies the predicate; null never does
+	 */
+	public boolean test(long v) {
+		if (v == ValueDictionary.NULL) {
+			return false;
+		} else if (ValueDictionary.isInteger(v)) {
+			return integerRange ? v >= lower && v <= upper : SelectIterator.matches(predicate, Long.toString(v));
+		}
+		return testCoded(v);
+	}
+
+	/**
+	 * Test a value with a dictionary code
+	 * @param v Encoded value that is neither null nor an integer
+	 * @return true if the value satisfies the predicate
+	 */
+	public boolean testCoded(long v) {
+		int code = ValueDictionary.getCode(v);
+		if (code >= results.length) {
+			results = Arrays.copyOf(results, Math.max(code + 1, results.length * 2));
+		}
+		if (results[code] == 0) {
+			results[code] = SelectIterator.matches(predicate, dictionary.decode(v)) ? (byte) 2 : (byte) 1;
+		}
+		return results[code] == 2;
+	}
+}
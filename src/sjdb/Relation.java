@@ -1,24 +1,29 @@
 package sjdb;
 
+import java.util.BitSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.ArrayList;
 
 /**
  * The Relation class represents an unnamed relation. It consists of a 
- * number of attributes and a size (tuple count).
+ * number of attributes and a size (tuple count), which is 64-bit so that
+ * estimates for large relations do not overflow. The ids of the attributes
+ * that have one are also kept as a set, for fast membership tests.
  * 
  * @author nmg
  */
 public class Relation {
 	private List<Attribute> attributes;
-	private int size;
+	private BitSet attributeSet;
+	private long size;
 
 	/**
 	 * Create a new relation with the given tuple count
 	 */
-	protected Relation(int size) {
+	protected Relation(long size) {
 		this.attributes = new ArrayList<Attribute>();
+		this.attributeSet = new BitSet();
 		this.size = size;
 	}
 	
@@ -41,7 +46,45 @@ public class Relation {
 	 * @return
 	 */
 	public Attribute getAttribute(Attribute attribute) {
-		return this.attributes.get(this.attributes.indexOf(attribute));
+		if (attribute.getId() >= 0) {
+			if (attributeSet.get(attribute.getId())) {
+				for (Attribute attr : attributes) {
+					if (attr.getId() == attribute.getId()) {
+						return attr;
+					}
+				}
+			}
+		} else {
+			for (Attribute attr : attributes) {
+				if (attr.getName().equals(attribute.getName())) {
+					return attr;
+				}
+			}
+		}
+		throw new IllegalArgumentException("Attribute " + attribute + " not in relation");
+	}
+
+	/**
+	 * Return true if this relation contains the given attribute
+	 * 
+	 * @param attribute
+	 * @return
+	 */
+	public boolean containsAttribute(Attribute attribute) {
+		if (attribute.getId() >= 0) {
+			return attributeSet.get(attribute.getId());
+		}
+		return this.attributes.contains(attribute);
+	}
+
+	/**
+	 * Return the ids of the attributes in this relation. The set is owned by
+	 * the relation and must not be modified.
+	 * 
+	 * @return the set of attribute ids
+	 */
+	public BitSet getAttributeSet() {
+		return attributeSet;
 	}
 
 	/**
@@ -56,10 +99,27 @@ public class Relation {
 			// If the attribute has more distinct values than there are tuples
 			// in this relation, limit the distinct values to the number of
 			// tuples
-			this.attributes.add(new Attribute(attribute.getName(), this.size));
+			this.attributes.add(new Attribute(attribute, this.size));
 		} else {
 			this.attributes.add(attribute);	
 		}
+		if (attribute.getId() >= 0) {
+			this.attributeSet.set(attribute.getId());
+		}
+	}
+	
+	/**
+	 * Return the width of the tuples of this relation in bytes: the sum of
+	 * the widths of its attributes
+	 * 
+	 * @return the tuple width
+	 */
+	public int getTupleWidth() {
+		int width = 0;
+		for (Attribute attr : attributes) {
+			width += attr.getWidth();
+		}
+		return width;
 	}
 	
 	/**
@@ -67,7 +127,7 @@ public class Relation {
 	 * 
 	 * @return the tuples
 	 */
-	public int getTupleCount() {
+	public long getTupleCount() {
 		return size;
 	}
 	
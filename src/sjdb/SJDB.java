@@ -20,6 +20,12 @@ public class SJDB {
 		CatalogueParser catParser = new CatalogueParser(catFile, cat);
 		catParser.parse();
 
+		// optimise a stream of queries, from a file or stdin, if given -batch
+		if (args.length > 1 && args[1].equals("-batch")) {
+			runBatch(cat, args);
+			return;
+		}
+
 		// read stdin, parse, and build canonical query plan
 		QueryParser queryParser = new QueryParser(cat, new InputStreamReader(System.in));
 		Operator plan = queryParser.parse();
@@ -39,6 +45,69 @@ public class SJDB {
 		Estimator est2 = new Estimator();
 		optPlan.accept(est2);
 		optPlan.accept(inspector2);
+
+		// run the optimised plan if given a directory of data files,
+		// on column batches if followed by -vector, on every core if by -parallel,
+		// and with compiled selects if by -compile (those expected to read at least
+		// -compile-rows tuples)
+		if (args.length > 1) {
+			System.out.println("*******************************************");
+
+			Executor executor = new Executor(new File(args[1]));
+			for (int i = 2; i < args.length; i++) {
+				if (args[i].equals("-vector")) {
+					executor.setVectorised(true);
+				} else if (args[i].equals("-parallel")) {
+					executor.setVectorised(true);
+					executor.setParallelism(Runtime.getRuntime().availableProcessors());
+				} else if (args[i].equals("-compile")) {
+					executor.setVectorised(true);
+					executor.setCompiled(true);
+				} else if (args[i].equals("-compile-rows")) {
+					PipelineCompiler.getDefault().setMinRows(Long.parseLong(args[++i]));
+				}
+			}
+			TupleIterator root = executor.compile(optPlan);
+			long rows = Executor.run(root);
+			System.out.println(rows + " rows");
+			System.out.print(root.renderProfile());
+		}
+	}
+
+	// java sjdb.SJDB catalogue -batch [file] [-t threads] [-s seed] [-i search-iterations]
+	//     [-c cache-capacity [-strip]]
+	private static void runBatch(Catalogue cat, String[] args) throws Exception {
+		String file = null;
+		int threads = Runtime.getRuntime().availableProcessors();
+		long seed = 0;
+		int iterations = Optimiser.DEFAULT_RANDOMISED_ITERATIONS;
+		int capacity = 0;
+		boolean strip = false;
+		for (int i = 2; i < args.length; i++) {
+			if (args[i].equals("-t")) {
+				threads = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("-s")) {
+				seed = Long.parseLong(args[++i]);
+			} else if (args[i].equals("-i")) {
+				iterations = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("-c")) {
+				capacity = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("-strip")) {
+				strip = true;
+			} else {
+				file = args[i];
+			}
+		}
+
+		QueryBatch batch = new QueryBatch(cat, threads);
+		batch.setSeed(seed);
+		batch.setSearchIterations(iterations);
+		batch.setPlanCache(capacity, strip);
+		PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out)));
+		try (Reader in = file == null ? new InputStreamReader(System.in) : new FileReader(file)) {
+			batch.run(in, out);
+		}
+		batch.writeSummary(new PrintWriter(System.err));
 	}
 
 }
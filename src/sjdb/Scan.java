@@ -1,6 +1,5 @@
 package sjdb;
 
-import java.util.List;
 import java.util.Iterator;
 
 /**
@@ -12,7 +11,7 @@ public class Scan extends Operator {
 	/**
 	 * The named relation to be scanned
 	 */
-	private NamedRelation relation;
+	private final NamedRelation relation;
 	
 	/**
 	 * Create a new scan of a given named relation
@@ -28,20 +27,11 @@ public class Scan extends Operator {
 		}
 	}
 
-	/* (non-Javadoc)
-	 * @see sjdb.Operator#getInputs()
-	 */
-	@Override
-	public List<Operator> getInputs() {
-		// TODO Auto-generated method stub
-		return null;
-	}
-
 	/**
 	 * Return the named relation to be scanned
 	 * @return Named relation to be scanned
 	 */
-	public Relation getRelation() {
+	public NamedRelation getRelation() {
 		return this.relation;
 	}
 	
@@ -53,6 +43,22 @@ public class Scan extends Operator {
 		return this.relation.toString();
 	}
 	
+	/* (non-Javadoc)
+	 * @see sjdb.Operator#sameParameters(sjdb.Operator)
+	 */
+	@Override
+	protected boolean sameParameters(Operator op) {
+		return this.relation == ((Scan) op).relation;
+	}
+	
+	/* (non-Javadoc)
+	 * @see sjdb.Operator#parameterHash()
+	 */
+	@Override
+	protected int parameterHash() {
+		return this.relation.getName().hashCode();
+	}
+	
 	/* (non-Javadoc)
 	 * @see sjdb.Operator#accept(sjdb.OperatorVisitor)
 	 */
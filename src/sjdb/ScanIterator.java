@@ -0,0 +1,91 @@
+package sjdb;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+/**
+ * This class reads the tuples of a named relation from its data file: a CSV
+ * file in the format read by the Analyser, whose first line holds the
+ * attribute names. The values are returned in the order of the relation's
+ * attributes in the catalogue, whatever the order of the columns in the file.
+ * Fields are split at every comma, and empty fields are null.
+ */
+public class ScanIterator extends TupleIterator {
+	private final File file;
+	private BufferedReader reader;
+	private int[] columns;
+	private int columnCount;
+
+	/**
+	 * @param label Description of the operator, for profiles
+	 * @param attributes Attributes of the relation
+	 * @param file CSV file holding the relation
+	 */
+	public ScanIterator(String label, List<Attribute> attributes, File file) {
+		super(label, attributes);
+		this.file = file;
+	}
+
+	@Override
+	protected void doOpen() throws IOException {
+		reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8);
+		String header = reader.readLine();
+		if (header == null) {
+			throw new IOException("No header line in " + file);
+		}
+
+		String[] names = header.split(",");
+		List<Attribute> attributes = getAttributes();
+		columns = new int[names.length];
+		columnCount = 0;
+		for (int i = 0; i < names.length; i++) {
+			columns[i] = -1;
+			for (int j = 0; j < attributes.size(); j++) {
+				if (attributes.get(j).getName().equals(names[i].trim())) {
+					columns[i] = j;
+					columnCount++;
+				}
+			}
+		}
+		if (columnCount < attributes.size()) {
+			throw new IOException("Missing attributes in " + file + ": found " + header + ", need " + attributes);
+		}
+	}
+
+	@Override
+	protected String[] doNext() throws IOException {
+		String line;
+		do {
+			line = reader.readLine();
+			if (line == null) {
+				return null;
+			}
+		} while (line.isEmpty());
+
+		String[] tuple = new String[getAttributes().size()];
+		int start = 0;
+		for (int i = 0; i < columns.length && start <= line.length(); i++) {
+			int end = line.indexOf(',', start);
+			if (end < 0) {
+				end = line.length();
+			}
+			if (columns[i] >= 0 && end > start) {
+				tuple[columns[i]] = line.substring(start, end);
+			}
+			start = end + 1;
+		}
+		return tuple;
+	}
+
+	@Override
+	protected void doClose() throws IOException {
+		if (reader != null) {
+			reader.close();
+			reader = null;
+		}
+	}
+}
@@ -8,7 +8,7 @@ package sjdb;
  *
  */
 public class Select extends UnaryOperator {
-	private Predicate predicate;
+	private final Predicate predicate;
 	
 	/**
 	 * @param input
@@ -30,4 +30,14 @@ public class Select extends UnaryOperator {
 	public String toString() {
 		return "SELECT [" + this.predicate.toString() + "] (" + getInput().toString() + ")";
 	}
+	
+	@Override
+	protected boolean sameParameters(Operator op) {
+		return this.predicate.equals(((Select) op).predicate);
+	}
+	
+	@Override
+	protected int parameterHash() {
+		return this.predicate.hashCode();
+	}
 }
@@ -0,0 +1,83 @@
+package sjdb;
+
+import java.io.IOException;
+
+/**
+ * This class returns the tuples of its input that satisfy a predicate.
+ *
+ * Values are equal if they are the same string. Ranges compare values as
+ * numbers if both are numbers, and as strings otherwise, as the Histogram
+ * does. A null value satisfies no predicate.
+ */
+public class SelectIterator extends TupleIterator {
+	private final TupleIterator input;
+	private final Predicate predicate;
+	private final int leftIndex;
+	private final int rightIndex;
+
+	/**
+	 * @param label Description of the operator, for profiles
+	 * @param input Iterator returning the tuples to be selected from
+	 * @param predicate Predicate on the attributes of the input
+	 */
+	public SelectIterator(String label, TupleIterator input, Predicate predicate) {
+		super(label, input.getAttributes(), input);
+		this.input = input;
+		this.predicate = predicate;
+		this.leftIndex = input.indexOf(predicate.getLeftAttribute());
+		this.rightIndex = predicate.comparesValue() ? -1 : input.indexOf(predicate.getRightAttribute());
+	}
+
+	@Override
+	protected void doOpen() throws IOException {
+		input.open();
+	}
+
+	@Override
+	protected String[] doNext() throws IOException {
+		String[] tuple;
+		while ((tuple = input.next()) != null) {
+			if (rightIndex >= 0 ? tuple[leftIndex] != null && tuple[leftIndex].equals(tuple[rightIndex])
+					: matches(predicate, tuple[leftIndex])) {
+				return tuple;
+			}
+		}
+		return null;
+	}
+
+	@Override
+	protected void doClose() throws IOException {
+		input.close();
+	}
+
+	/**
+	 * Return true if a value satisfies a predicate of the form attr=value, or
+	 * any other comparison of an attribute with a value
+	 * @param predicate
+	 * @param value
+	 * @return true if the value satisfies the predicate
+	 */
+	public static boolean matches(Predicate predicate, String value) {
+		if (value == null) {
+			return false;
+		}
+
+		switch (predicate.getComparison()) {
+		case EQUALS:
+			return value.equals(predicate.getRightValue());
+		case NOT_EQUALS:
+			return !value.equals(predicate.getRightValue());
+		case LESS:
+			return Histogram.compareValues(value, predicate.getRightValue()) < 0;
+		case LESS_OR_EQUAL:
+			return Histogram.compareValues(value, predicate.getRightValue()) <= 0;
+		case GREATER:
+			return Histogram.compareValues(value, predicate.getRightValue()) > 0;
+		case GREATER_OR_EQUAL:
+			return Histogram.compareValues(value, predicate.getRightValue()) >= 0;
+		default:
+			return Histogram.compareValues(value, predicate.getRightValue()) >= 0
+					&& Histogram.compareValues(value, predicate.getUpperValue()) <= 0;
+		}
+	}
+}
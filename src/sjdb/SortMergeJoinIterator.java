@@ -0,0 +1,131 @@
+package sjdb;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * This class joins two inputs by sorting both on the join attribute and
+ * merging them, joining each group of left tuples with the same value to
+ * the group of right tuples with that value. Values are sorted as strings,
+ * which puts equal values together whatever they are.
+ *
+ * The inputs are sorted by TupleSorters, which write sorted runs out to disk
+ * when the memory budget is spent, and are then merged as they are read.
+ * Only the current group of right tuples is held in memory while merging.
+ */
+public class SortMergeJoinIterator extends JoinIterator {
+	private final MemoryBudget budget;
+	private final List<String[]> group;
+	private TupleSorter lefts;
+	private TupleSorter rights;
+	private String[] leftTuple;
+	private String[] rightTuple;
+	private int groupPosition;
+	private long groupBytes;
+	private int runs;
+	private long spilledBytes;
+
+	/**
+	 * @param label Description of the operator, for profiles
+	 * @param left Left input
+	 * @param right Right input
+	 * @param predicate Join predicate
+	 * @param budget Memory budget of the query
+	 */
+	public SortMergeJoinIterator(String label, TupleIterator left, TupleIterator right, Predicate predicate, MemoryBudget budget) {
+		super(label, left, right, predicate);
+		this.budget = budget;
+		this.group = new ArrayList<String[]>();
+	}
+
+	@Override
+	protected void doOpen() throws IOException {
+		lefts = readSorted(left, leftKey);
+		rights = readSorted(right, rightKey);
+		leftTuple = lefts.next();
+		rightTuple = rights.next();
+		groupPosition = 0;
+	}
+
+	// Read an input, leaving out the tuples with no value to join on, and sort it
+	private TupleSorter readSorted(TupleIterator input, int key) throws IOException {
+		TupleSorter sorter = new TupleSorter(Comparator.comparing((String[] t) -> t[key]), budget);
+		input.open();
+		String[] tuple;
+		while ((tuple = input.next()) != null) {
+			if (tuple[key] != null) {
+				sorter.add(tuple);
+			}
+		}
+		input.close();
+		sorter.sort();
+		return sorter;
+	}
+
+	@Override
+	protected String[] doNext() throws IOException {
+		while (true) {
+			// Join the current left tuple with the rest of the group of right tuples
+			if (groupPosition < group.size()) {
+				return combine(leftTuple, group.get(groupPosition++));
+			}
+			if (!group.isEmpty()) {
+				// Move to the next left tuple; if it has the same value, join it with the same group
+				leftTuple = lefts.next();
+				if (leftTuple != null && leftTuple[leftKey].equals(group.get(0)[rightKey])) {
+					groupPosition = 0;
+					continue;
+				}
+				clearGroup();
+			}
+			if (leftTuple == null || rightTuple == null) {
+				return null;
+			}
+
+			int c = leftTuple[leftKey].compareTo(rightTuple[rightKey]);
+			if (c < 0) {
+				leftTuple = lefts.next();
+			} else if (c > 0) {
+				rightTuple = rights.next();
+			} else {
+				// Read the group of right tuples with the value
+				String value = rightTuple[rightKey];
+				while (rightTuple != null && rightTuple[rightKey].equals(value)) {
+					long size = MemoryBudget.sizeOf(rightTuple);
+					budget.reserve(size);
+					groupBytes += size;
+					group.add(rightTuple);
+					rightTuple = rights.next();
+				}
+				groupPosition = 0;
+			}
+		}
+	}
+
+	private void clearGroup() {
+		group.clear();
+		budget.release(groupBytes);
+		groupBytes = 0;
+	}
+
+	@Override
+	protected void doClose() throws IOException {
+		clearGroup();
+		for (TupleSorter sorter : new TupleSorter[] { lefts, rights }) {
+			if (sorter != null) {
+				runs += sorter.getRuns();
+				spilledBytes += sorter.getSpilledBytes();
+				sorter.close();
+			}
+		}
+		lefts = null;
+		rights = null;
+	}
+
+	@Override
+	protected String getProfileDetails() {
+		return runs == 0 ? null : "runs=" + runs + " spilled=" + formatBytes(spilledBytes);
+	}
+}
@@ -0,0 +1,207 @@
+package sjdb;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * This class is a temporary file of tuples that an operator has written out
+ * of memory: tuples of strings, or rows of encoded values (see
+ * ValueDictionary). A spill file is written from start to end and then read
+ * from start to end, as often as needed, through a FileChannel and a buffer
+ * of MemoryBudget.BUFFER_BYTES, so that all its I/O is sequential.
+ *
+ * A tuple of strings is written as its number of values, then each value as
+ * its length in UTF-8 bytes (-1 for null) and its bytes; a row is written as
+ * its values, a long each. The file is deleted when it is closed.
+ */
+public class SpillFile {
+	private final Path path;
+	private final FileChannel channel;
+	private ByteBuffer buffer;
+	private boolean writing;
+	private long bytes;
+	private long tuples;
+
+	/**
+	 * Create an empty spill file, ready to be written
+	 * @param directory Directory to create it in, or null for the default temporary directory
+	 * @throws IOException
+	 */
+	public SpillFile(File directory) throws IOException {
+		this.path = directory == null ? Files.createTempFile("sjdb", ".spill") : Files.createTempFile(directory.toPath(), "sjdb", ".spill");
+		this.channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE);
+		this.buffer = ByteBuffer.allocateDirect(MemoryBudget.BUFFER_BYTES);
+		this.writing = true;
+	}
+
+	/**
+	 * Write a tuple of strings to the end of the file
+	 * @param tuple
+	 * @throws IOException
+	 */
+	public void write(String[] tuple) throws IOException {
+		makeRoom(4);
+		buffer.putInt(tuple.length);
+		for (String value : tuple) {
+			if (value == null) {
+				makeRoom(4);
+				buffer.putInt(-1);
+			} else {
+				byte[] encoded = value.getBytes(StandardCharsets.UTF_8);
+				makeRoom(4 + encoded.length);
+				buffer.putInt(encoded.length);
+				buffer.put(encoded);
+			}
+		}
+		tuples++;
+	}
+
+	/**
+	 * Write a row of encoded values to the end of the file
+	 * @param columns Columns of values
+	 * @param index Index of the row's values in the columns
+	 * @throws IOException
+	 */
+	public void write(long[][] columns, int index) throws IOException {
+		makeRoom(8 * columns.length);
+		for (long[] column : columns) {
+			buffer.putLong(column[index]);
+		}
+		tuples++;
+	}
+
+	private void makeRoom(int size) throws IOException {
+		if (buffer.remaining() < size) {
+			flush();
+			if (buffer.capacity() < size) {
+				buffer = ByteBuffer.allocateDirect(size);
+			}
+		}
+	}
+
+	private void flush() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			bytes += channel.write(buffer);
+		}
+		buffer.clear();
+	}
+
+	/**
+	 * Finish writing, if the file is being written, and start reading it from
+	 * its first tuple
+	 * @throws IOException
+	 */
+	public void rewind() throws IOException {
+		if (writing) {
+			flush();
+			writing = false;
+		}
+		channel.position(0);
+		buffer.clear();
+		buffer.limit(0);
+	}
+
+	/**
+	 * Read the next tuple of strings
+	 * @return Tuple, or null at the end of the file
+	 * @throws IOException
+	 */
+	public String[] read() throws IOException {
+		if (!fill(4)) {
+			return null;
+		}
+		String[] tuple = new String[buffer.getInt()];
+		for (int i = 0; i < tuple.length; i++) {
+			require(4);
+			int length = buffer.getInt();
+			if (length >= 0) {
+				require(length);
+				byte[] encoded = new byte[length];
+				buffer.get(encoded);
+				tuple[i] = new String(encoded, StandardCharsets.UTF_8);
+			}
+		}
+		return tuple;
+	}
+
+	/**
+	 * Read the next row of encoded values into columns
+	 * @param columns Columns of values, as many as the row has
+	 * @param index Index to put the row's values at in the columns
+	 * @return true if a row was read, false at the end of the file
+	 * @throws IOException
+	 */
+	public boolean read(long[][] columns, int index) throws IOException {
+		if (!fill(8 * columns.length)) {
+			return false;
+		}
+		for (long[] column : columns) {
+			column[index] = buffer.getLong();
+		}
+		return true;
+	}
+
+	private void require(int size) throws IOException {
+		if (!fill(size)) {
+			throw new EOFException("Spill file " + path + " ends in a tuple");
+		}
+	}
+
+	// Make sure the buffer holds the next size bytes, unless the file has ended
+	private boolean fill(int size) throws IOException {
+		if (buffer.remaining() >= size) {
+			return true;
+		}
+		if (buffer.capacity() < size) {
+			ByteBuffer larger = ByteBuffer.allocateDirect(size);
+			larger.put(buffer);
+			buffer = larger;
+		} else {
+			buffer.compact();
+		}
+		while (buffer.position() < size) {
+			if (channel.read(buffer) < 0) {
+				buffer.flip();
+				if (buffer.hasRemaining()) {
+					throw new EOFException("Spill file " + path + " ends in a tuple");
+				}
+				return false;
+			}
+		}
+		buffer.flip();
+		return true;
+	}
+
+	/**
+	 * Return the number of bytes written to the file
+	 * @return Size in bytes, once writing has finished
+	 */
+	public long getBytes() {
+		return bytes;
+	}
+
+	/**
+	 * Return the number of tuples written to the file
+	 * @return Tuple count
+	 */
+	public long getTuples() {
+		return tuples;
+	}
+
+	/**
+	 * Close and delete the file
+	 * @throws IOException
+	 */
+	public void close() throws IOException {
+		channel.close();
+		Files.deleteIfExists(path);
+	}
+}
@@ -0,0 +1,40 @@
+package sjdb;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * This abstract class is an operator of an executable query plan, in the
+ * iterator (Volcano) model: after open(), each call to next() returns the
+ * next tuple of the operator's output, pulling as many tuples as it needs
+ * from its inputs, until it returns null; close() releases its resources.
+ *
+ * A tuple is an array holding the values of the attributes of the output, in
+ * the order of getAttributes(); a null value is missing. Tuples are not changed
+ * once returned, so they may be kept by the iterators they are returned to.
+ */
+public abstract class TupleIterator extends PlanIterator {
+
+	/**
+	 * @param label Description of the operator, for profiles
+	 * @param attributes Attributes of the output tuples
+	 * @param inputs Iterators that feed this one
+	 */
+	protected TupleIterator(String label, List<Attribute> attributes, PlanIterator... inputs) {
+		super(label, attributes, inputs);
+	}
+
+	/**
+	 * Return the next tuple of the output
+	 * @return Tuple, or null if there are no more
+	 * @throws IOException
+	 */
+	public final String[] next() throws IOException {
+		long start = System.nanoTime();
+		String[] tuple = doNext();
+		record(tuple == null ? 0 : 1, System.nanoTime() - start);
+		return tuple;
+	}
+
+	protected abstract String[] doNext() throws IOException;
+}
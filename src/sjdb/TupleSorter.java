@@ -0,0 +1,197 @@
+package sjdb;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * This class sorts tuples of strings by external merge sort, within a
+ * MemoryBudget. Tuples are held in memory for as long as the budget allows;
+ * when it is spent, they are sorted and written out as a run to a SpillFile,
+ * and their memory is released. Once all the tuples have been added, they
+ * are returned in order straight from memory if no run was written, and
+ * otherwise by merging the runs, a buffer of each at a time. If there are
+ * more runs than buffers fit in the memory left, groups of them are merged
+ * into longer runs first.
+ */
+public class TupleSorter {
+	private final Comparator<String[]> comparator;
+	private final MemoryBudget budget;
+	private final List<String[]> tuples;
+	private final List<SpillFile> runs;
+	private PriorityQueue<Run> merge;
+	private long reserved;
+	private int position;
+	private int runCount;
+	private long spilledBytes;
+
+	// A run being merged, and its next tuple
+	private static class Run {
+		private final SpillFile file;
+		private String[] tuple;
+
+		private Run(SpillFile file) throws IOException {
+			this.file = file;
+			file.rewind();
+			this.tuple = file.read();
+		}
+	}
+
+	/**
+	 * @param comparator Order to sort the tuples in
+	 * @param budget Memory budget of the query
+	 */
+	public TupleSorter(Comparator<String[]> comparator, MemoryBudget budget) {
+		this.comparator = comparator;
+		this.budget = budget;
+		this.tuples = new ArrayList<String[]>();
+		this.runs = new ArrayList<SpillFile>();
+	}
+
+	/**
+	 * Add a tuple to be sorted
+	 * @param tuple
+	 * @throws IOException
+	 */
+	public void add(String[] tuple) throws IOException {
+		long size = MemoryBudget.sizeOf(tuple);
+		if (!budget.tryReserve(size)) {
+			if (!tuples.isEmpty()) {
+				writeRun();
+			}
+			if (!budget.tryReserve(size)) {
+				budget.reserve(size);
+			}
+		}
+		reserved += size;
+		tuples.add(tuple);
+	}
+
+	// Sort the tuples in memory and write them out as a run
+	private void writeRun() throws IOException {
+		tuples.sort(comparator);
+		SpillFile run = new SpillFile(budget.getDirectory());
+		for (String[] tuple : tuples) {
+			run.write(tuple);
+		}
+		run.rewind();
+		spilledBytes += run.getBytes();
+		runs.add(run);
+		runCount++;
+		tuples.clear();
+		budget.release(reserved);
+		reserved = 0;
+	}
+
+	/**
+	 * Finish adding tuples, and prepare to return them in order
+	 * @throws IOException
+	 */
+	public void sort() throws IOException {
+		position = 0;
+		if (runs.isEmpty()) {
+			tuples.sort(comparator);
+			return;
+		}
+		if (!tuples.isEmpty()) {
+			writeRun();
+		}
+
+		int fanIn = (int) Math.max(2, budget.getAvailable() / MemoryBudget.BUFFER_BYTES);
+		while (runs.size() > fanIn) {
+			List<SpillFile> group = new ArrayList<SpillFile>(runs.subList(0, fanIn));
+			runs.subList(0, fanIn).clear();
+			startMerge(group);
+			SpillFile run = new SpillFile(budget.getDirectory());
+			String[] tuple;
+			while ((tuple = nextMerged()) != null) {
+				run.write(tuple);
+			}
+			run.rewind();
+			spilledBytes += run.getBytes();
+			runs.add(run);
+			runCount++;
+			finishMerge(group);
+		}
+		startMerge(runs);
+	}
+
+	private void startMerge(List<SpillFile> files) throws IOException {
+		merge = new PriorityQueue<Run>(files.size(), (a, b) -> comparator.compare(a.tuple, b.tuple));
+		for (SpillFile file : files) {
+			Run run = new Run(file);
+			if (run.tuple != null) {
+				merge.add(run);
+			}
+		}
+		budget.reserve((long) files.size() * MemoryBudget.BUFFER_BYTES);
+		reserved += (long) files.size() * MemoryBudget.BUFFER_BYTES;
+	}
+
+	private String[] nextMerged() throws IOException {
+		Run run = merge.poll();
+		if (run == null) {
+			return null;
+		}
+		String[] tuple = run.tuple;
+		run.tuple = run.file.read();
+		if (run.tuple != null) {
+			merge.add(run);
+		}
+		return tuple;
+	}
+
+	private void finishMerge(List<SpillFile> files) throws IOException {
+		for (SpillFile file : files) {
+			file.close();
+		}
+		budget.release((long) files.size() * MemoryBudget.BUFFER_BYTES);
+		reserved -= (long) files.size() * MemoryBudget.BUFFER_BYTES;
+		merge = null;
+	}
+
+	/**
+	 * Return the next tuple in order, after sort()
+	 * @return Tuple, or null if there are no more
+	 * @throws IOException
+	 */
+	public String[] next() throws IOException {
+		if (merge != null) {
+			return nextMerged();
+		}
+		return position < tuples.size() ? tuples.get(position++) : null;
+	}
+
+	/**
+	 * Return the number of runs written out, including those of merges
+	 * @return Run count, 0 if the tuples were sorted in memory
+	 */
+	public int getRuns() {
+		return runCount;
+	}
+
+	/**
+	 * Return the number of bytes written to runs
+	 * @return Size in bytes
+	 */
+	public long getSpilledBytes() {
+		return spilledBytes;
+	}
+
+	/**
+	 * Drop the tuples and delete the runs, releasing their memory
+	 * @throws IOException
+	 */
+	public void close() throws IOException {
+		for (SpillFile run : runs) {
+			run.close();
+		}
+		runs.clear();
+		tuples.clear();
+		merge = null;
+		budget.release(reserved);
+		reserved = 0;
+	}
+}
@@ -0,0 +1,202 @@
+package sjdb;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class encodes the values of tuples as longs, for the column batches
+ * of vectorised execution:
+ *
+ * - an integer written in the usual way (no sign but a minus, and no leading
+ *   zeros) whose magnitude is below 2^62 is encoded as itself
+ * - a null value is encoded as NULL
+ * - any other value is given a code by the dictionary, and encoded below
+ *   every integer
+ *
+ * Values are equal if and only if their encodings are, so equality tests,
+ * hashing and joins work on the longs alone, and only the dictionary's
+ * values need to be compared as strings. The dictionary of an execution is
+ * shared by all its columns, so that values of different relations can be
+ * compared.
+ *
+ * A dictionary is thread-safe, so that the workers of a parallel plan can
+ * share it: integers are encoded and decoded without locking, and only the
+ * values with codes are looked up under the dictionary's lock.
+ */
+public class ValueDictionary {
+	/**
+	 * The encoding of a null value
+	 */
+	public static final long NULL = Long.MIN_VALUE;
+	/**
+	 * The smallest encoding of an integer; codes are below it
+	 */
+	public static final long MIN_INTEGER = -(1L << 62);
+	/**
+	 * The largest encoding of an integer
+	 */
+	public static final long MAX_INTEGER = (1L << 62) - 1;
+
+	private static final int MAX_DIGITS = 18;
+
+	// Open-addressing table of the codes of the values (plus one, so that 0 is empty),
+	// looked up by the characters of a line so that known values are not copied out of it
+	private int[] slots;
+	private final List<String> values;
+
+	public ValueDictionary() {
+		this.slots = new int[64];
+		this.values = new ArrayList<String>();
+	}
+
+	/**
+	 * Return true if an encoded value is an integer
+	 * @param encoded
+	 * @return true for an integer, false for null or a coded value
+	 */
+	public static boolean isInteger(long encoded) {
+		return encoded >= MIN_INTEGER;
+	}
+
+	/**
+	 * Return the dictionary code of a coded value
+	 * @param encoded Value that is neither null nor an integer
+	 * @return Code, from 0
+	 */
+	public static int getCode(long encoded) {
+		return (int) (encoded - NULL - 1);
+	}
+
+	/**
+	 * Encode a value, giving it a code if it needs one
+	 * @param value Value, or null
+	 * @return Encoded value
+	 */
+	public long encode(String value) {
+		if (value == null) {
+			return NULL;
+		}
+		return encode(value, 0, value.length());
+	}
+
+	/**
+	 * Encode the part of a line from start to end, without taking the part out
+	 * of the line if it is an integer; an empty part is null
+	 * @param line
+	 * @param start Index of the first character
+	 * @param end Index after the last character
+	 * @return Encoded value
+	 */
+	public long encode(String line, int start, int end) {
+		if (start == end) {
+			return NULL;
+		}
+
+		long number = parseInteger(line, start, end);
+		if (number != NULL) {
+			return number;
+		}
+		return encodeCoded(line, start, end);
+	}
+
+	private synchronized long encodeCoded(String line, int start, int end) {
+		int length = end - start;
+		int hash = 0;
+		for (int i = start; i < end; i++) {
+			hash = 31 * hash + line.charAt(i);
+		}
+		int mask = slots.length - 1;
+		int slot = spread(hash) & mask;
+		while (slots[slot] != 0) {
+			String value = values.get(slots[slot] - 1);
+			if (value.length() == length && line.regionMatches(start, value, 0, length)) {
+				return NULL + slots[slot];
+			}
+			slot = (slot + 1) & mask;
+		}
+
+		values.add(line.substring(start, end));
+		slots[slot] = values.size();
+		if (values.size() * 2 > slots.length) {
+			rehash();
+		}
+		return NULL + values.size();
+	}
+
+	/**
+	 * Parse the part of a line from start to end as an integer, if it is one
+	 * that is encoded as itself
+	 * @param line
+	 * @param start Index of the first character
+	 * @param end Index after the last character
+	 * @return The integer, or NULL if the part is not such an integer
+	 */
+	public static long parseInteger(CharSequence line, int start, int end) {
+		if (start == end) {
+			return NULL;
+		}
+		boolean negative = line.charAt(start) == '-';
+		int first = negative ? start + 1 : start;
+		int digits = end - first;
+		if (digits <= 0 || digits > MAX_DIGITS || (line.charAt(first) == '0' && (digits > 1 || negative))) {
+			return NULL;
+		}
+		long number = 0;
+		for (int i = first; i < end; i++) {
+			char c = line.charAt(i);
+			if (c < '0' || c > '9') {
+				return NULL;
+			}
+			number = number * 10 + (c - '0');
+		}
+		if (number > MAX_INTEGER) {
+			return NULL;
+		}
+		return negative ? -number : number;
+	}
+
+	private void rehash() {
+		slots = new int[slots.length * 2];
+		int mask = slots.length - 1;
+		for (int code = 0; code < values.size(); code++) {
+			int hash = values.get(code).hashCode();
+			int slot = spread(hash) & mask;
+			while (slots[slot] != 0) {
+				slot = (slot + 1) & mask;
+			}
+			slots[slot] = code + 1;
+		}
+	}
+
+	// Similar strings have similar hash codes, which would fill runs of slots
+	private static int spread(int hash) {
+		int h = hash * 0x9E3779B9;
+		return h ^ (h >>> 15);
+	}
+
+	/**
+	 * Return the value with an encoding
+	 * @param encoded
+	 * @return Value, or null
+	 */
+	public String decode(long encoded) {
+		if (encoded == NULL) {
+			return null;
+		} else if (isInteger(encoded)) {
+			return Long.toString(encoded);
+		}
+		return getValue(getCode(encoded));
+	}
+
+	private synchronized String getValue(int code) {
+		return values.get(code);
+	}
+
+	/**
+	 * Return the number of values with codes
+	 * @return Code count
+	 */
+	public synchronized int size() {
+		return values.size();
+	}
+}
@@ -0,0 +1,463 @@
+package sjdb;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * This class generates synthetic schemas and queries over them, for measuring
+ * the optimiser on more and larger relations than the hand-made examples:
+ * the catalogue, in the format read by CatalogueParser, queries in the format
+ * read by QueryParser, and if wanted the CSV files of the relations, in the
+ * format read by the Analyser and the Executor.
+ *
+ * Relations are named R0, R1, ... and their attributes after them. Each
+ * relation Ri has a key ri_id, with a distinct value for each tuple; a value
+ * ri_val, with from 10 to 1000 distinct values; and a number ri_num, with a
+ * distinct value for every ten tuples. For each join of a query between two
+ * relations, the larger holds a foreign key on the key of the smaller, named
+ * after both (ri_rj, for a foreign key of Ri on Rj), with as many distinct
+ * values as the smaller relation has tuples, or the larger if it has fewer.
+ * Tuple counts are spread evenly over the orders of magnitude of a range.
+ *
+ * The values of ri_val follow a Zipf distribution of a given skew (0, the
+ * default, for uniform values), whose most common values are given in the
+ * catalogue; the other attributes are uniform.
+ *
+ * The join graph of a query over n relations, chosen at random from those of
+ * the schema, takes one of the usual shapes:
+ *
+ * CHAIN     R0-R1-...-Rn
+ * STAR      the largest relation (the fact relation) joined with every other
+ * SNOWFLAKE a tree in which each relation is joined with three smaller ones
+ * CYCLE     a chain whose last relation is joined back to the first
+ * CLIQUE    every relation joined with every other
+ *
+ * A fraction of the relations of each query are selected from, either on a
+ * value of ri_val, drawn from its distribution, or on a range of ri_num that
+ * holds a given fraction of its tuples.
+ *
+ * Everything generated is chosen by Randoms from the seed, so the same seed
+ * and the same calls give the same schema, queries and data. The foreign keys
+ * of the catalogue are those of the queries generated so far, so it is to be
+ * created once they have all been.
+ *
+ * Usage: java sjdb.WorkloadGenerator -o directory [-s seed] [-r relations]
+ *        [-q queries] [-n relations-per-query,...] [-g shape,...] [-z skew]
+ *        [-f selected-fraction] [-p selectivity] [-t min-tuples,max-tuples]
+ *        [-data]
+ */
+public class WorkloadGenerator {
+	public enum Shape {
+		CHAIN, STAR, SNOWFLAKE, CYCLE, CLIQUE
+	}
+
+	// Each relation of a snowflake is joined with this many below it
+	private static final int SNOWFLAKE_FANOUT = 3;
+	// Most common values of a skewed attribute given in the catalogue
+	private static final int COMMON_VALUES = 5;
+	// Tuples of a relation for each distinct value of its number
+	private static final int TUPLES_PER_NUMBER = 10;
+
+	private final long seed;
+	private final Random random;
+	// For each relation, where its tuple count and value count fall in their ranges, from 0 to 1
+	private final double[] sizes;
+	private final double[] spreads;
+	// Foreign keys of the queries generated, by name, each an array {holder, referenced}
+	private final Map<String, int[]> foreignKeys;
+	private long minTuples;
+	private long maxTuples;
+	private double skew;
+	private double selectedFraction;
+	private double selectivity;
+
+	/**
+	 * @param relations Number of relations in the schema
+	 * @param seed Seed of the random choices
+	 */
+	public WorkloadGenerator(int relations, long seed) {
+		if (relations < 1) {
+			throw new IllegalArgumentException("A schema needs at least 1 relation");
+		}
+		this.seed = seed;
+		this.random = new Random(seed);
+		this.sizes = new double[relations];
+		this.spreads = new double[relations];
+		this.foreignKeys = new LinkedHashMap<String, int[]>();
+		for (int i = 0; i < relations; i++) {
+			sizes[i] = random.nextDouble();
+			spreads[i] = random.nextDouble();
+		}
+		this.minTuples = 100;
+		this.maxTuples = 1000000;
+		this.skew = 0;
+		this.selectedFraction = 1.0 / 3;
+		this.selectivity = 0.1;
+	}
+
+	/**
+	 * Set the range of the tuple counts of the relations
+	 * @param minTuples Fewest tuples, at least 1
+	 * @param maxTuples Most tuples
+	 */
+	public void setTupleRange(long minTuples, long maxTuples) {
+		if (minTuples < 1 || maxTuples < minTuples) {
+			throw new IllegalArgumentException("Bad tuple range: " + minTuples + " to " + maxTuples);
+		}
+		this.minTuples = minTuples;
+		this.maxTuples = maxTuples;
+	}
+
+	/**
+	 * Set the skew of the values of the ri_val attributes
+	 * @param skew Exponent of their Zipf distribution, 0 for uniform values
+	 */
+	public void setSkew(double skew) {
+		if (skew < 0) {
+			throw new IllegalArgumentException("Skew must not be negative");
+		}
+		this.skew = skew;
+	}
+
+	/**
+	 * Set the selects of the queries generated
+	 * @param selectedFraction Fraction of the relations of a query that are selected from
+	 * @param selectivity Fraction of the tuples of a relation that a range select keeps
+	 */
+	public void setSelections(double selectedFraction, double selectivity) {
+		this.selectedFraction = selectedFraction;
+		this.selectivity = selectivity;
+	}
+
+	public int getRelationCount() {
+		return sizes.length;
+	}
+
+	public long getTupleCount(int relation) {
+		return Math.round(minTuples * Math.pow((double) maxTuples / minTuples, sizes[relation]));
+	}
+
+	private long getValueCount(int relation) {
+		return Math.max(1, Math.min(getTupleCount(relation), Math.round(Math.pow(10, 1 + 2 * spreads[relation]))));
+	}
+
+	private long getNumberCount(int relation) {
+		return Math.max(1, getTupleCount(relation) / TUPLES_PER_NUMBER);
+	}
+
+	/**
+	 * Generate a query over relations of the schema
+	 * @param shape Shape of its join graph
+	 * @param relations Number of relations it joins
+	 * @return Query, in the format read by QueryParser
+	 */
+	public String generateQuery(Shape shape, int relations) {
+		if (relations < 1 || relations > sizes.length) {
+			throw new IllegalArgumentException("A query must join from 1 to " + sizes.length + " relations");
+		}
+
+		// Choose the relations by a partial shuffle, and put the largest first for the shapes with a fact relation
+		Integer[] all = new Integer[sizes.length];
+		for (int i = 0; i < all.length; i++) {
+			all[i] = i;
+		}
+		for (int i = 0; i < relations; i++) {
+			int j = i + random.nextInt(all.length - i);
+			Integer swap = all[j];
+			all[j] = all[i];
+			all[i] = swap;
+		}
+		Integer[] chosen = Arrays.copyOf(all, relations);
+		if (shape == Shape.STAR || shape == Shape.SNOWFLAKE) {
+			Arrays.sort(chosen, (a, b) -> Long.compare(getTupleCount(b), getTupleCount(a)));
+		}
+
+		List<String> from = new ArrayList<String>();
+		for (int relation : chosen) {
+			from.add("R" + relation);
+		}
+		List<String> where = new ArrayList<String>();
+		for (int[] edge : getEdges(shape, relations)) {
+			int left = chosen[edge[0]];
+			int right = chosen[edge[1]];
+			boolean leftHolds = getTupleCount(left) > getTupleCount(right) || getTupleCount(left) == getTupleCount(right) && left < right;
+			int holder = leftHolds ? left : right;
+			int referenced = leftHolds ? right : left;
+			String name = "r" + holder + "_r" + referenced;
+			foreignKeys.put(name, new int[] { holder, referenced });
+			where.add(name + "=r" + referenced + "_id");
+		}
+		for (int relation : chosen) {
+			if (random.nextDouble() < selectedFraction) {
+				where.add(random.nextBoolean() ? "r" + relation + "_val=\"" + drawValue(relation, random) + "\""
+						: "r" + relation + "_num<\"" + Math.round(selectivity * getNumberCount(relation)) + "\"");
+			}
+		}
+
+		String query = "SELECT r" + chosen[0] + "_id,r" + chosen[relations - 1] + "_val\n"
+				+ "FROM " + String.join(",", from) + "\n";
+		return where.isEmpty() ? query : query + "WHERE " + String.join(",", where) + "\n";
+	}
+
+	// Edges of the join graph of a shape, between positions in the list of the relations joined
+	private static List<int[]> getEdges(Shape shape, int relations) {
+		List<int[]> edges = new ArrayList<int[]>();
+		switch (shape) {
+		case CHAIN:
+		case CYCLE:
+			for (int i = 0; i + 1 < relations; i++) {
+				edges.add(new int[] { i, i + 1 });
+			}
+			if (shape == Shape.CYCLE && relations > 2) {
+				edges.add(new int[] { relations - 1, 0 });
+			}
+			break;
+		case STAR:
+			for (int i = 1; i < relations; i++) {
+				edges.add(new int[] { 0, i });
+			}
+			break;
+		case SNOWFLAKE:
+			for (int i = 1; i < relations; i++) {
+				edges.add(new int[] { (i - 1) / SNOWFLAKE_FANOUT, i });
+			}
+			break;
+		default:
+			for (int i = 0; i < relations; i++) {
+				for (int j = i + 1; j < relations; j++) {
+					edges.add(new int[] { i, j });
+				}
+			}
+			break;
+		}
+		return edges;
+	}
+
+	// Fraction of the tuples that take each value of ri_val, the value of rank k being k
+	private double[] getValueFractions(int relation) {
+		double[] fractions = new double[(int) getValueCount(relation)];
+		double total = 0;
+		for (int k = 0; k < fractions.length; k++) {
+			fractions[k] = Math.pow(k + 1, -skew);
+			total += fractions[k];
+		}
+		for (int k = 0; k < fractions.length; k++) {
+			fractions[k] /= total;
+		}
+		return fractions;
+	}
+
+	private int drawValue(int relation, Random random) {
+		double[] fractions = getValueFractions(relation);
+		double r = random.nextDouble();
+		int k = 0;
+		while (k < fractions.length - 1 && r >= fractions[k]) {
+			r -= fractions[k];
+			k++;
+		}
+		return k;
+	}
+
+	/**
+	 * Create a catalogue holding the relations of the schema, with the
+	 * foreign keys of the queries generated so far
+	 * @return Catalogue
+	 */
+	public Catalogue createCatalogue() {
+		Catalogue catalogue = new Catalogue();
+		createRelations(catalogue);
+		return catalogue;
+	}
+
+	private List<NamedRelation> createRelations(Catalogue catalogue) {
+		List<NamedRelation> relations = new ArrayList<NamedRelation>();
+		for (int i = 0; i < sizes.length; i++) {
+			String name = "R" + i;
+			relations.add(catalogue.createRelation(name, getTupleCount(i)));
+			catalogue.createAttribute(name, "r" + i + "_id", getTupleCount(i), getRange(getTupleCount(i)));
+			catalogue.createAttribute(name, "r" + i + "_val", getValueCount(i), getValueHistogram(i));
+			catalogue.createAttribute(name, "r" + i + "_num", getNumberCount(i), getRange(getNumberCount(i)));
+		}
+		for (Map.Entry<String, int[]> key : foreignKeys.entrySet()) {
+			int[] ends = key.getValue();
+			long values = Math.min(getTupleCount(ends[0]), getTupleCount(ends[1]));
+			catalogue.createAttribute("R" + ends[0], key.getKey(), values, getRange(values));
+		}
+		return relations;
+	}
+
+	private static Histogram getRange(long values) {
+		return new Histogram("0", Long.toString(values - 1), Map.of(), List.of());
+	}
+
+	private Histogram getValueHistogram(int relation) {
+		double[] fractions = getValueFractions(relation);
+		Map<String, Double> common = new LinkedHashMap<String, Double>();
+		for (int k = 0; skew > 0 && k < Math.min(COMMON_VALUES, fractions.length); k++) {
+			common.put(Integer.toString(k), fractions[k]);
+		}
+		return new Histogram("0", Integer.toString(fractions.length - 1), common, List.of());
+	}
+
+	/**
+	 * Write the catalogue of the schema, with the foreign keys of the queries
+	 * generated so far, in the format read by CatalogueParser
+	 * @param out where to write the catalogue
+	 */
+	public void writeCatalogue(Writer out) {
+		PrintWriter writer = new PrintWriter(out);
+		for (NamedRelation relation : createRelations(new Catalogue())) {
+			StringBuilder sb = new StringBuilder();
+			sb.append(relation.getName()).append(":").append(relation.getTupleCount());
+			for (Attribute attr : relation.getAttributes()) {
+				sb.append(":").append(attr.getName()).append(",").append(attr.getValueCount());
+				if (attr.getHistogram() != null && !attr.getHistogram().render().isEmpty()) {
+					sb.append(",").append(attr.getHistogram().render());
+				}
+			}
+			writer.println(sb);
+		}
+		writer.flush();
+	}
+
+	/**
+	 * Write a CSV file for each relation of the schema, with the foreign keys
+	 * of the queries generated so far, whose values follow the catalogue
+	 * @param directory Directory to write the files to
+	 * @throws IOException
+	 */
+	public void writeData(File directory) throws IOException {
+		List<List<int[]>> keys = new ArrayList<List<int[]>>();
+		for (int i = 0; i < sizes.length; i++) {
+			keys.add(new ArrayList<int[]>());
+		}
+		for (int[] relations : foreignKeys.values()) {
+			keys.get(relations[0]).add(relations);
+		}
+
+		for (int i = 0; i < sizes.length; i++) {
+			// Each relation has its own Random, so that its data does not depend on the others'
+			Random data = new Random(seed ^ (i + 1) * 0x9E3779B97F4A7C15L);
+			double[] cumulative = getValueFractions(i);
+			for (int k = 1; k < cumulative.length; k++) {
+				cumulative[k] += cumulative[k - 1];
+			}
+			long numbers = getNumberCount(i);
+
+			try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(new File(directory, "R" + i + ".csv").toPath(),
+					StandardCharsets.UTF_8))) {
+				StringBuilder header = new StringBuilder();
+				header.append("r").append(i).append("_id,r").append(i).append("_val,r").append(i).append("_num");
+				for (int[] key : keys.get(i)) {
+					header.append(",r").append(i).append("_r").append(key[1]);
+				}
+				out.println(header);
+
+				StringBuilder line = new StringBuilder();
+				for (long t = 0; t < getTupleCount(i); t++) {
+					line.setLength(0);
+					int value = Arrays.binarySearch(cumulative, data.nextDouble());
+					value = Math.min(value < 0 ? -value - 1 : value, cumulative.length - 1);
+					line.append(t).append(',').append(value).append(',').append(Math.floorMod(data.nextLong(), numbers));
+					for (int[] key : keys.get(i)) {
+						long referenced = Math.min(getTupleCount(i), getTupleCount(key[1]));
+						line.append(',').append(Math.floorMod(data.nextLong(), referenced));
+					}
+					out.println(line);
+				}
+				if (out.checkError()) {
+					throw new IOException("Could not write the data of R" + i);
+				}
+			}
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		String output = null;
+		long seed = 0;
+		int relations = 1000;
+		int queries = 10;
+		int[] sizes = { 8 };
+		List<Shape> shapes = new ArrayList<Shape>();
+		double skew = 0;
+		double selectedFraction = 1.0 / 3;
+		double selectivity = 0.1;
+		long[] tuples = { 100, 1000000 };
+		boolean data = false;
+
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-o")) {
+				output = args[++i];
+			} else if (args[i].equals("-s")) {
+				seed = Long.parseLong(args[++i]);
+			} else if (args[i].equals("-r")) {
+				relations = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("-q")) {
+				queries = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("-n")) {
+				sizes = Arrays.stream(args[++i].split(",")).mapToInt(Integer::parseInt).toArray();
+			} else if (args[i].equals("-g")) {
+				for (String shape : args[++i].split(",")) {
+					shapes.add(Shape.valueOf(shape.toUpperCase()));
+				}
+			} else if (args[i].equals("-z")) {
+				skew = Double.parseDouble(args[++i]);
+			} else if (args[i].equals("-f")) {
+				selectedFraction = Double.parseDouble(args[++i]);
+			} else if (args[i].equals("-p")) {
+				selectivity = Double.parseDouble(args[++i]);
+			} else if (args[i].equals("-t")) {
+				tuples = Arrays.stream(args[++i].split(",")).mapToLong(Long::parseLong).toArray();
+			} else if (args[i].equals("-data")) {
+				data = true;
+			} else {
+				output = null;
+				break;
+			}
+		}
+
+		if (output == null) {
+			System.err.println("Usage: java sjdb.WorkloadGenerator -o directory [-s seed] [-r relations] [-q queries]"
+					+ " [-n relations-per-query,...] [-g shape,...] [-z skew] [-f selected-fraction] [-p selectivity]"
+					+ " [-t min-tuples,max-tuples] [-data]");
+			System.exit(1);
+		}
+		if (shapes.isEmpty()) {
+			shapes.add(Shape.STAR);
+		}
+
+		WorkloadGenerator generator = new WorkloadGenerator(relations, seed);
+		generator.setTupleRange(tuples[0], tuples[1]);
+		generator.setSkew(skew);
+		generator.setSelections(selectedFraction, selectivity);
+
+		File directory = new File(output);
+		directory.mkdirs();
+		// Every combination of shape and size in turn
+		for (int q = 0; q < queries; q++) {
+			Shape shape = shapes.get(q % shapes.size());
+			int size = sizes[q / shapes.size() % sizes.length];
+			try (Writer out = new BufferedWriter(new FileWriter(new File(directory, "q" + (q + 1) + ".txt")))) {
+				out.write(generator.generateQuery(shape, size));
+			}
+		}
+		try (Writer out = new BufferedWriter(new FileWriter(new File(directory, "cat.txt")))) {
+			generator.writeCatalogue(out);
+		}
+		if (data) {
+			generator.writeData(directory);
+		}
+	}
+}